@@ -0,0 +1,105 @@
+package com.example.ragollama.rag.domain.reranking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнивает {@link DiversityRerankingStrategy} с прежней реализацией MMR на упакованных
+ * {@code List<Double>}, пересчитывающей схожести в каждом раунде.
+ * <p>
+ * Запуск: {@code ./gradlew jmh -Pjmh.includes=DiversityRerankingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DiversityRerankingBenchmark {
+
+    private static final double LAMBDA = 0.5;
+
+    @Param({"100", "500"})
+    public int candidates;
+
+    @Param({"1024"})
+    public int dimensions;
+
+    private List<Document> documents;
+    private DiversityRerankingStrategy strategy;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        documents = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            List<Double> embedding = new ArrayList<>(dimensions);
+            for (int d = 0; d < dimensions; d++) {
+                embedding.add(random.nextGaussian());
+            }
+            documents.add(Document.builder().id("doc-" + i).text("документ " + i)
+                    .metadata(Map.of("embedding", embedding, "rerankedSimilarity", random.nextFloat()))
+                    .build());
+        }
+        strategy = new DiversityRerankingStrategy(new RerankingProperties(true,
+                new RerankingProperties.Strategies(new RerankingProperties.KeywordBoost(false, 0.0),
+                        new RerankingProperties.Diversity(true, LAMBDA))));
+    }
+
+    @Benchmark
+    public List<Document> floatMatrixMmr() {
+        return strategy.apply(documents, "запрос");
+    }
+
+    @Benchmark
+    public List<Document> boxedMmr() {
+        List<Document> remainingDocs = new ArrayList<>(documents);
+        List<Document> rerankedDocs = new ArrayList<>();
+        rerankedDocs.add(remainingDocs.remove(0));
+        while (!remainingDocs.isEmpty()) {
+            Document nextDoc = null;
+            double maxMmrScore = Double.NEGATIVE_INFINITY;
+            for (Document candidateDoc : remainingDocs) {
+                float relevance = (Float) candidateDoc.getMetadata().get("rerankedSimilarity");
+                double maxSimilarityToSelected = rerankedDocs.stream()
+                        .mapToDouble(selectedDoc -> cosineSimilarity(selectedDoc, candidateDoc))
+                        .max()
+                        .orElse(0.0);
+                double mmrScore = LAMBDA * relevance - (1 - LAMBDA) * maxSimilarityToSelected;
+                if (mmrScore > maxMmrScore) {
+                    maxMmrScore = mmrScore;
+                    nextDoc = candidateDoc;
+                }
+            }
+            rerankedDocs.add(nextDoc);
+            remainingDocs.remove(nextDoc);
+        }
+        return rerankedDocs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double cosineSimilarity(Document doc1, Document doc2) {
+        List<Double> v1 = (List<Double>) doc1.getMetadata().get("embedding");
+        List<Double> v2 = (List<Double>) doc2.getMetadata().get("embedding");
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < v1.size(); i++) {
+            dotProduct += v1.get(i) * v2.get(i);
+            normA += Math.pow(v1.get(i), 2);
+            normB += Math.pow(v2.get(i), 2);
+        }
+        if (normA == 0 || normB == 0) return 0.0;
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.ragollama.rag.retrieval.fusion;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Сравнивает {@link FusionService} (RRF и CombSUM) с прежним RRF на потоках и {@link Map}.
+ * <p>
+ * Вход повторяет гибридный поиск: {@code variants} вариантов запроса по top-{@code topK}
+ * векторного поиска, top-{@code topK} полнотекстового и три результата графа.
+ * <p>
+ * Запуск: {@code ./gradlew jmh -Pjmh.includes=FusionServiceBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FusionServiceBenchmark {
+
+    private static final int RRF_K = 60;
+    private static final Map<FusionSource, Double> NEUTRAL = Map.of(FusionSource.VECTOR, 1.0, FusionSource.FTS, 1.0, FusionSource.GRAPH, 1.0);
+
+    @Param({"5"})
+    public int variants;
+
+    @Param({"10", "50"})
+    public int topK;
+
+    private List<SourceRanking> rankings;
+    private FusionService rrf;
+    private FusionService scoreMinMax;
+    private FusionService scoreZScore;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int pool = topK * 4;
+        rankings = new ArrayList<>();
+        for (int v = 0; v < variants; v++) {
+            rankings.add(new SourceRanking(FusionSource.VECTOR, randomDocs(random, pool, topK)));
+        }
+        rankings.add(new SourceRanking(FusionSource.FTS, randomDocs(random, pool, topK)));
+        rankings.add(new SourceRanking(FusionSource.GRAPH, randomDocs(random, pool, 3)));
+        rrf = service(RetrievalProperties.Fusion.Method.RRF, RetrievalProperties.Fusion.Normalization.MIN_MAX);
+        scoreMinMax = service(RetrievalProperties.Fusion.Method.SCORE, RetrievalProperties.Fusion.Normalization.MIN_MAX);
+        scoreZScore = service(RetrievalProperties.Fusion.Method.SCORE, RetrievalProperties.Fusion.Normalization.Z_SCORE);
+    }
+
+    @Benchmark
+    public List<Document> weightedRrf() {
+        return rrf.fuse(rankings, FusionQueryType.DEFAULT);
+    }
+
+    @Benchmark
+    public List<Document> scoreFusionMinMax() {
+        return scoreMinMax.fuse(rankings, FusionQueryType.DEFAULT);
+    }
+
+    @Benchmark
+    public List<Document> scoreFusionZScore() {
+        return scoreZScore.fuse(rankings, FusionQueryType.DEFAULT);
+    }
+
+    /**
+     * Прежняя реализация: RRF с фиксированным k, оценки в {@link Map} и сортировка потоком.
+     */
+    @Benchmark
+    public List<Document> streamRrf() {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Document> documents = new HashMap<>();
+        for (SourceRanking ranking : rankings) {
+            List<Document> list = ranking.documents();
+            for (int rank = 0; rank < list.size(); rank++) {
+                Document document = list.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .map(Map.Entry::getKey)
+                .map(documents::get)
+                .collect(Collectors.toList());
+    }
+
+    private static FusionService service(RetrievalProperties.Fusion.Method method,
+                                         RetrievalProperties.Fusion.Normalization normalization) {
+        var fusion = new RetrievalProperties.Fusion(method, RRF_K, normalization, NEUTRAL, Map.of());
+        return new FusionService(new RetrievalProperties(null, null, null, null, fusion));
+    }
+
+    private static List<Document> randomDocs(Random random, int pool, int count) {
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        while (ids.size() < count) {
+            ids.add("doc-" + random.nextInt(pool));
+        }
+        // Оценки убывают по рангу, как у векторного поиска и ts_rank
+        double score = 1.0;
+        List<Document> ranked = new ArrayList<>(count);
+        for (String id : ids) {
+            score -= random.nextDouble() * 0.05;
+            ranked.add(Document.builder().id(id).text("документ " + id).score(score).build());
+        }
+        return ranked;
+    }
+}
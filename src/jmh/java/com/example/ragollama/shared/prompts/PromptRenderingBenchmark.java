@@ -0,0 +1,100 @@
+package com.example.ragollama.shared.prompts;
+
+import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рендеринг всех шаблонов из {@code classpath:/prompts} с представительными моделями
+ * {@link PromptTemplateFixtures}: через {@link PromptService} и прежним способом,
+ * с оборачиванием модели {@code object_wrapper} конфигурации. Варианты с переопределением
+ * сравнивают кэш скомпилированных временных шаблонов с прежней компиляцией на каждый вызов.
+ * <p>
+ * Запуск: {@code ./gradlew jmh -Pjmh.includes=PromptRenderingBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PromptRenderingBenchmark {
+
+    private Configuration configuration;
+    private PromptService promptService;
+    private List<PromptTemplateFixtures.Fixture> fixtures;
+    private List<Template> templates;
+
+    @Setup
+    public void setUp() throws Exception {
+        AppProperties appProperties = new AppProperties(null,
+                new AppProperties.Tokenization("o200k_base", 10_000, 256),
+                null, null, null, null, null, null, null, null, null);
+        TokenizationService tokenizationService = new TokenizationService(appProperties, new MetricService(new SimpleMeterRegistry()));
+        tokenizationService.init();
+
+        configuration = PromptTemplateFixtures.applicationConfiguration();
+        promptService = new PromptService(configuration, tokenizationService);
+        promptService.init();
+        fixtures = PromptTemplateFixtures.load(configuration).stream()
+                .filter(PromptTemplateFixtures.Fixture::renderable)
+                .toList();
+        templates = fixtures.stream()
+                .map(fixture -> {
+                    try {
+                        return configuration.getTemplate(fixture.fileName());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .toList();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ThreadLocalPromptOverride.clear();
+    }
+
+    @Benchmark
+    public void renderAll(Blackhole blackhole) {
+        for (PromptTemplateFixtures.Fixture fixture : fixtures) {
+            blackhole.consume(promptService.render(fixture.templateName(), fixture.model()));
+        }
+    }
+
+    @Benchmark
+    public void legacyRenderAll(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < fixtures.size(); i++) {
+            blackhole.consume(PromptTemplateFixtures.legacyRender(templates.get(i), fixtures.get(i).model()));
+        }
+    }
+
+    @Benchmark
+    public void renderAllWithOverrides(Blackhole blackhole) {
+        for (PromptTemplateFixtures.Fixture fixture : fixtures) {
+            ThreadLocalPromptOverride.setOverride(fixture.templateName(), fixture.source());
+            blackhole.consume(promptService.render(fixture.templateName(), fixture.model()));
+        }
+        ThreadLocalPromptOverride.clear();
+    }
+
+    @Benchmark
+    public void legacyRenderAllWithOverrides(Blackhole blackhole) throws Exception {
+        for (PromptTemplateFixtures.Fixture fixture : fixtures) {
+            Template template = new Template(fixture.templateName(), fixture.source(), configuration);
+            blackhole.consume(PromptTemplateFixtures.legacyRender(template, fixture.model()));
+        }
+    }
+}
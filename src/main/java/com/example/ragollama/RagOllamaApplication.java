@@ -6,9 +6,13 @@ import com.example.ragollama.evaluation.EvaluationProperties;
 import com.example.ragollama.ingestion.IngestionProperties;
 import com.example.ragollama.optimization.IndexOptimizerProperties;
 import com.example.ragollama.rag.domain.reranking.RerankingProperties;
+import com.example.ragollama.rag.embedding.EmbeddingCacheProperties;
 import com.example.ragollama.rag.retrieval.RetrievalProperties;
 import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.llm.LlmResponseCacheProperties;
 import com.example.ragollama.shared.llm.LlmRouterService;
+import com.example.ragollama.shared.llm.LlmSchedulerProperties;
+import com.example.ragollama.shared.persistence.WriteBehindProperties;
 import com.example.ragollama.shared.processing.PiiRedactionService;
 import com.example.ragollama.web.FileManagerProperties;
 import org.springframework.boot.SpringApplication;
@@ -31,6 +35,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 @EnableConfigurationProperties({
         AppProperties.class,
         RetrievalProperties.class,
+        EmbeddingCacheProperties.class,
         RerankingProperties.class,
         IngestionProperties.class,
         EvaluationProperties.class,
@@ -47,7 +52,10 @@ import org.springframework.scheduling.annotation.EnableScheduling;
         FederationProperties.class,
         KnowledgeDomainProperties.class,
         QuotaProperties.class,
-        FileManagerProperties.class})
+        FileManagerProperties.class,
+        WriteBehindProperties.class,
+        LlmResponseCacheProperties.class,
+        LlmSchedulerProperties.class})
 public class RagOllamaApplication {
     /**
      * Точка входа в приложение.
@@ -6,6 +6,7 @@ import jakarta.validation.constraints.Positive;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
 import java.util.Map;
 
 /**
@@ -15,6 +16,8 @@ import java.util.Map;
  * @param defaultTier Уровень квоты по умолчанию для новых или ненайденных пользователей.
  * @param tiers       Карта с описанием уровней квот.
  * @param costs       Настройки стоимости токенов для FinOps-отчетов.
+ * @param reconcileInterval Интервал, после которого счетчик пользователя сверяется с БД, чтобы
+ *                          учесть потребление, записанное другими экземплярами приложения.
  */
 @Validated
 @ConfigurationProperties(prefix = "app.finops.quotas")
@@ -22,7 +25,8 @@ public record QuotaProperties(
         boolean enabled,
         @NotBlank String defaultTier,
         @NotNull Map<String, Tier> tiers,
-        @NotNull Costs costs
+        @NotNull Costs costs,
+        @NotNull Duration reconcileInterval
 ) {
     /**
      * Конфигурация одного уровня (тира) квоты.
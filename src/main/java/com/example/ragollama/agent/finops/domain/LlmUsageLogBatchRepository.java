@@ -0,0 +1,80 @@
+package com.example.ragollama.agent.finops.domain;
+
+import com.example.ragollama.agent.finops.model.LlmUsageLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Репозиторий для пакетной вставки записей в {@code llm_usage_log} и агрегирования
+ * потребления для проверки квот.
+ * <p>
+ * Весь пакет вставляется одним многострочным INSERT через {@code unnest} массивов,
+ * что заменяет отдельный INSERT на каждую запись.
+ */
+@Repository
+@RequiredArgsConstructor
+public class LlmUsageLogBatchRepository {
+
+    private final DatabaseClient databaseClient;
+
+    /**
+     * Вставляет пакет записей одним запросом.
+     *
+     * @param entries Записи об использовании LLM с заполненным {@code createdAt}.
+     * @return {@link Mono} с количеством вставленных строк.
+     */
+    public Mono<Long> insertAll(List<LlmUsageLog> entries) {
+        if (entries.isEmpty()) {
+            return Mono.just(0L);
+        }
+        final String sql = """
+                INSERT INTO llm_usage_log (username, model_name, prompt_tokens, completion_tokens, total_tokens, instance_id, created_at)
+                SELECT u.username, u.model_name, u.prompt_tokens, u.completion_tokens, u.total_tokens, u.instance_id, CAST(u.created_at AS timestamptz)
+                FROM unnest(CAST(:usernames AS text[]), CAST(:modelNames AS text[]), CAST(:promptTokens AS bigint[]),
+                            CAST(:completionTokens AS bigint[]), CAST(:totalTokens AS bigint[]), CAST(:instanceIds AS text[]),
+                            CAST(:createdAt AS text[]))
+                     AS u(username, model_name, prompt_tokens, completion_tokens, total_tokens, instance_id, created_at)
+                """;
+        return databaseClient.sql(sql)
+                .bind("usernames", entries.stream().map(LlmUsageLog::getUsername).toArray(String[]::new))
+                .bind("modelNames", entries.stream().map(LlmUsageLog::getModelName).toArray(String[]::new))
+                .bind("promptTokens", entries.stream().map(LlmUsageLog::getPromptTokens).toArray(Long[]::new))
+                .bind("completionTokens", entries.stream().map(LlmUsageLog::getCompletionTokens).toArray(Long[]::new))
+                .bind("totalTokens", entries.stream().map(LlmUsageLog::getTotalTokens).toArray(Long[]::new))
+                .bind("instanceIds", entries.stream().map(LlmUsageLog::getInstanceId).toArray(String[]::new))
+                .bind("createdAt", entries.stream().map(e -> e.getCreatedAt().toString()).toArray(String[]::new))
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Суммирует токены пользователя за период, исключая записи указанного экземпляра.
+     *
+     * @param username           Имя пользователя.
+     * @param since              Начало периода (включительно).
+     * @param until              Конец периода (не включительно).
+     * @param excludedInstanceId Экземпляр, записи которого не учитываются.
+     * @return {@link Mono} с суммой токенов.
+     */
+    public Mono<Long> sumTotalTokensExcludingInstance(String username, OffsetDateTime since, OffsetDateTime until,
+                                                      String excludedInstanceId) {
+        final String sql = """
+                SELECT COALESCE(SUM(l.total_tokens), 0) FROM llm_usage_log l
+                WHERE l.username = :username AND l.created_at >= :since AND l.created_at < :until
+                  AND l.instance_id IS DISTINCT FROM :instanceId
+                """;
+        return databaseClient.sql(sql)
+                .bind("username", username)
+                .bind("since", since)
+                .bind("until", until)
+                .bind("instanceId", excludedInstanceId)
+                .map((row, metadata) -> row.get(0, Long.class))
+                .one()
+                .defaultIfEmpty(0L);
+    }
+}
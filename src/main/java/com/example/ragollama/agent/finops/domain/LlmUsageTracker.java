@@ -2,32 +2,57 @@ package com.example.ragollama.agent.finops.domain;
 
 import com.example.ragollama.agent.finops.model.LlmUsageLog;
 import com.example.ragollama.shared.llm.model.LlmResponse;
-import lombok.RequiredArgsConstructor;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.persistence.WriteBehindProperties;
+import com.example.ragollama.shared.persistence.WriteBehindSink;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Mono;
 
+import java.time.OffsetDateTime;
+
 /**
  * Асинхронный сервис для записи логов использования LLM в базу данных.
+ * <p>
+ * При каждом вызове LLM токены сразу учитываются в счетчике {@link QuotaService},
+ * а сама запись передается в ограниченную очередь {@link WriteBehindSink} и
+ * сохраняется в БД многострочными пакетами. Благодаря этому вызов LLM не ждет
+ * вставки в {@code llm_usage_log}.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class LlmUsageTracker {
 
-    private final LlmUsageLogRepository usageLogRepository;
+    static final String SINK_NAME = "llm_usage_log";
+
+    private final QuotaService quotaService;
+    private final WriteBehindSink<LlmUsageLog> sink;
+
+    /**
+     * Конструктор для внедрения зависимостей.
+     *
+     * @param batchRepository       Репозиторий для пакетной вставки.
+     * @param quotaService          Сервис квот, ведущий счетчики потребления.
+     * @param writeBehindProperties Настройки очереди отложенной записи.
+     * @param metricService         Сервис метрик.
+     */
+    public LlmUsageTracker(LlmUsageLogBatchRepository batchRepository,
+                           QuotaService quotaService,
+                           WriteBehindProperties writeBehindProperties,
+                           MetricService metricService) {
+        this.quotaService = quotaService;
+        this.sink = new WriteBehindSink<>(SINK_NAME, writeBehindProperties, metricService, batchRepository::insertAll);
+    }
 
     /**
-     * Асинхронно сохраняет запись об использовании LLM в новой транзакции.
+     * Учитывает использование LLM в счетчике квот и ставит запись в очередь на сохранение.
      *
      * @param modelName Имя использованной модели.
      * @param response  Объект ответа от LLM, содержащий метаданные об использовании.
-     * @return {@link Mono<Void>}, который завершается после успешного сохранения.
-     *         Для запуска операции необходимо подписаться на этот Mono.
+     * @return {@link Mono<Void>}, который завершается сразу после постановки записи в очередь.
      */
-    @Transactional
     public Mono<Void> trackUsage(String modelName, LlmResponse response) {
         Usage usage = response.usage();
         if (usage == null) {
@@ -41,11 +66,23 @@ public class LlmUsageTracker {
                 .promptTokens((long) usage.getPromptTokens())
                 .completionTokens((long) usage.getCompletionTokens())
                 .totalTokens((long) usage.getTotalTokens())
+                .instanceId(quotaService.instanceId())
+                .createdAt(OffsetDateTime.now())
                 .build();
 
-        return usageLogRepository.save(logEntry)
-                .doOnSuccess(saved -> log.debug("Записано использование LLM для пользователя '{}': {} токенов.", username, saved.getTotalTokens()))
-                .then();
+        quotaService.recordUsage(username, logEntry.getTotalTokens());
+        if (sink.submit(logEntry)) {
+            log.debug("Учтено использование LLM для пользователя '{}': {} токенов.", username, logEntry.getTotalTokens());
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * Сохраняет оставшиеся записи при штатной остановке приложения.
+     */
+    @PreDestroy
+    public void shutdown() {
+        sink.close();
     }
 
     /**
@@ -1,26 +1,67 @@
 package com.example.ragollama.agent.finops.domain;
 
 import com.example.ragollama.agent.config.QuotaProperties;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Mono;
 
+import java.time.Clock;
 import java.time.OffsetDateTime;
-import java.time.temporal.TemporalAdjusters;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Сервис для проверки и управления квотами на использование LLM, адаптированный для R2DBC.
+ * <p>
+ * Месячное потребление каждого пользователя хранится в памяти и складывается из двух частей:
+ * <ul>
+ *     <li>локального счетчика — суммы токенов, учтенных этим экземпляром. Он атомарно
+ *     увеличивается при каждом вызове LLM, а соответствующие записи {@code llm_usage_log}
+ *     сохраняются с идентификатором экземпляра {@link #instanceId()};</li>
+ *     <li>внешнего потребления — суммы записей {@code llm_usage_log} текущего месяца,
+ *     сделанных другими экземплярами (в том числе этим узлом до перезапуска). Оно читается
+ *     из БД при первом обращении и сверяется не реже чем раз в {@code reconcileInterval}.</li>
+ * </ul>
+ * Записи, учитываемые этими частями, не пересекаются, поэтому повторного учета нет независимо
+ * от того, успели ли записи текущего экземпляра попасть в БД. Потребление других реплик
+ * становится видимым с задержкой не больше {@code reconcileInterval} плюс интервал их
+ * отложенной записи; в этом окне несколько реплик могут вместе незначительно превысить лимит.
+ * Проверка квоты выполняется без ожидания БД всегда, кроме первого обращения пользователя в месяце.
+ * <p>
+ * Счетчики хранятся отдельно для каждого календарного месяца: учет, пришедшийся на момент
+ * смены месяца, попадает в счетчик своего месяца и не теряется при переходе.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class QuotaService {
 
     private final QuotaProperties quotaProperties;
-    private final DatabaseClient databaseClient;
+    private final LlmUsageLogBatchRepository usageRepository;
+    private final Clock clock;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<YearMonth, Map<String, UserUsage>> usageByMonth = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор для внедрения зависимостей.
+     *
+     * @param quotaProperties Настройки квот.
+     * @param usageRepository Репозиторий журнала использования LLM.
+     */
+    @Autowired
+    public QuotaService(QuotaProperties quotaProperties, LlmUsageLogBatchRepository usageRepository) {
+        this(quotaProperties, usageRepository, Clock.systemDefaultZone());
+    }
+
+    QuotaService(QuotaProperties quotaProperties, LlmUsageLogBatchRepository usageRepository, Clock clock) {
+        this.quotaProperties = quotaProperties;
+        this.usageRepository = usageRepository;
+        this.clock = clock;
+    }
 
     /**
      * Проверяет, не превысит ли пользователь свою квоту на использование токенов.
@@ -29,7 +70,6 @@ public class QuotaService {
      * @param tokensToConsume Количество токенов, которое планируется использовать.
      * @return {@link Mono<Boolean>}, который эммитит `true`, если квота будет превышена.
      */
-    @Transactional(readOnly = true)
     public Mono<Boolean> isQuotaExceeded(String username, long tokensToConsume) {
         if (!quotaProperties.enabled()) {
             return Mono.just(false);
@@ -43,16 +83,7 @@ public class QuotaService {
             return Mono.just(true);
         }
 
-        OffsetDateTime startOfMonth = OffsetDateTime.now().with(TemporalAdjusters.firstDayOfMonth()).withHour(0).withMinute(0).withSecond(0).withNano(0);
-
-        String sql = "SELECT COALESCE(SUM(l.total_tokens), 0) FROM llm_usage_log l WHERE l.username = :username AND l.created_at >= :since";
-
-        return databaseClient.sql(sql)
-                .bind("username", username)
-                .bind("since", startOfMonth)
-                .map((row, metadata) -> row.get(0, Long.class))
-                .one()
-                .defaultIfEmpty(0L)
+        return getCurrentUsage(username)
                 .map(currentUsage -> {
                     boolean exceeded = (currentUsage + tokensToConsume) > tierConfig.totalTokensLimit();
                     if (exceeded) {
@@ -63,10 +94,104 @@ public class QuotaService {
                 });
     }
 
+    /**
+     * Атомарно учитывает израсходованные токены в счетчике пользователя за текущий месяц.
+     *
+     * @param username    Имя пользователя.
+     * @param totalTokens Количество израсходованных токенов.
+     */
+    public void recordUsage(String username, long totalTokens) {
+        userUsage(YearMonth.now(clock), username).local.addAndGet(totalTokens);
+    }
+
+    /**
+     * Возвращает потребление пользователя в текущем месяце.
+     *
+     * @param username Имя пользователя.
+     * @return {@link Mono} с количеством токенов.
+     */
+    public Mono<Long> getCurrentUsage(String username) {
+        YearMonth month = YearMonth.now(clock);
+        UserUsage usage = userUsage(month, username);
+        return externalUsage(month, username, usage).map(external -> external + usage.local.get());
+    }
+
+    /**
+     * @return Идентификатор этого экземпляра, которым помечаются его записи {@code llm_usage_log}.
+     */
+    public String instanceId() {
+        return instanceId;
+    }
+
+    private UserUsage userUsage(YearMonth month, String username) {
+        Map<String, UserUsage> monthUsage = usageByMonth.get(month);
+        if (monthUsage == null) {
+            monthUsage = usageByMonth.computeIfAbsent(month, key -> {
+                log.info("Начался учет квот за {}.", key);
+                return new ConcurrentHashMap<>();
+            });
+            // Счетчики прошлых месяцев больше не читаются; опоздавший учет в них безопасен
+            usageByMonth.keySet().removeIf(key -> key.isBefore(month));
+        }
+        return monthUsage.computeIfAbsent(username, key -> new UserUsage());
+    }
+
+    /**
+     * Возвращает внешнее потребление пользователя. Первая загрузка за месяц ожидается,
+     * последующие сверки выполняются в фоне, а проверка использует последнее известное значение.
+     * При ошибке первой загрузки значение не кэшируется, и следующая проверка повторит запрос.
+     */
+    private Mono<Long> externalUsage(YearMonth month, String username, UserUsage usage) {
+        if (usage.loaded) {
+            if (clock.millis() - usage.loadedAtMillis >= quotaProperties.reconcileInterval().toMillis()
+                    && usage.reconciling.compareAndSet(false, true)) {
+                loadExternalUsage(month, username)
+                        .doFinally(signal -> usage.reconciling.set(false))
+                        .subscribe(usage::updateExternal,
+                                error -> log.warn("Не удалось сверить потребление пользователя '{}' с БД.", username, error));
+            }
+            return Mono.just(usage.external);
+        }
+        synchronized (usage) {
+            if (usage.initialLoad == null) {
+                usage.initialLoad = loadExternalUsage(month, username)
+                        .doOnNext(usage::updateExternal)
+                        .doOnError(error -> usage.initialLoad = null)
+                        .cache();
+            }
+            return usage.initialLoad;
+        }
+    }
+
+    private Mono<Long> loadExternalUsage(YearMonth month, String username) {
+        OffsetDateTime since = month.atDay(1).atStartOfDay(clock.getZone()).toOffsetDateTime();
+        OffsetDateTime until = month.plusMonths(1).atDay(1).atStartOfDay(clock.getZone()).toOffsetDateTime();
+        return usageRepository.sumTotalTokensExcludingInstance(username, since, until, instanceId)
+                .doOnNext(external -> log.debug("Потребление пользователя '{}' другими экземплярами: {} токенов.", username, external));
+    }
+
     private String getUserTierMock(String username) {
         if ("admin".equals(username)) {
             return "pro";
         }
         return quotaProperties.defaultTier();
     }
+
+    /**
+     * Счетчики одного пользователя за один месяц.
+     */
+    private final class UserUsage {
+        private final AtomicLong local = new AtomicLong();
+        private final AtomicBoolean reconciling = new AtomicBoolean(false);
+        private volatile long external;
+        private volatile long loadedAtMillis;
+        private volatile boolean loaded;
+        private volatile Mono<Long> initialLoad;
+
+        private void updateExternal(long value) {
+            external = value;
+            loadedAtMillis = clock.millis();
+            loaded = true;
+        }
+    }
 }
@@ -45,6 +45,12 @@ public class LlmUsageLog {
     @Column("total_tokens")
     private long totalTokens;
 
+    /**
+     * Идентификатор экземпляра приложения, который учел это использование в квоте.
+     */
+    @Column("instance_id")
+    private String instanceId;
+
     @CreatedDate
     @Column("created_at")
     private OffsetDateTime createdAt;
@@ -64,7 +64,7 @@ public class CypherQueryGeneratorAgent implements ToolAgent {
                 "question", question
         ));
 
-        return llmClient.callChat(new Prompt(promptString), ModelCapability.BALANCED, false)
+        return llmClient.callChatCached(new Prompt(promptString), ModelCapability.BALANCED, false)
                 .map(tuple -> {
                     String cypherQuery = tuple.getT1();
                     String cleanedQuery = cypherQuery.replaceAll("(?i)```cypher|```", "").trim();
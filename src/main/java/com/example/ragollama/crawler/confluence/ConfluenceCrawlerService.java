@@ -4,6 +4,7 @@ import com.example.ragollama.crawler.confluence.tool.ConfluenceApiClient;
 import com.example.ragollama.crawler.confluence.tool.dto.ConfluencePageDto;
 import com.example.ragollama.indexing.IndexingPipelineService;
 import com.example.ragollama.indexing.IndexingRequest;
+import com.example.ragollama.shared.llm.LlmPriority;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jsoup.Jsoup;
@@ -61,6 +62,7 @@ public class ConfluenceCrawlerService {
                     // Запускаем всю цепочку асинхронно
                     executeCrawling(spaceKey, category)
                             .subscribeOn(Schedulers.boundedElastic())
+                            .contextWrite(LlmPriority.assign(LlmPriority.BACKGROUND))
                             .subscribe(
                                     null, // onNext не нужен
                                     error -> log.error("Ошибка во время краулинга пространства {}:", spaceKey, error)
@@ -125,6 +127,6 @@ public class ConfluenceCrawlerService {
         );
 
         log.debug("Страница '{}' (ID: {}) с категорией '{}' отправлена на индексацию.", page.title(), page.id(), category);
-        return indexingPipelineService.process(request);
+        return indexingPipelineService.process(request).then();
     }
 }
@@ -4,6 +4,7 @@ import com.example.ragollama.agent.AgentOrchestratorService;
 import com.example.ragollama.agent.AgentResult;
 import com.example.ragollama.evaluation.api.dto.FeedbackToTestRequest;
 import com.example.ragollama.evaluation.model.EvaluationResult;
+import com.example.ragollama.evaluation.model.FusionComparisonResult;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
@@ -11,6 +12,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
 import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -44,6 +46,17 @@ public class RagEvaluationController {
         return evaluationService.evaluate();
     }
 
+    /**
+     * Сравнивает стандартные конфигурации слияния результатов поиска по "золотому датасету".
+     *
+     * @return {@link Mono} с результатами оценки каждой конфигурации.
+     */
+    @GetMapping("/fusion-comparison")
+    @Operation(summary = "Сравнить настройки слияния результатов поиска по 'золотому датасету'")
+    public Mono<FusionComparisonResult> compareFusion() {
+        return evaluationService.compareFusion();
+    }
+
     /**
      * Запускает конвейер для анализа фидбэка и автоматического создания нового теста.
      *
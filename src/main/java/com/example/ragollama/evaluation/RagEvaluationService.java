@@ -1,14 +1,21 @@
 package com.example.ragollama.evaluation;
 
 import com.example.ragollama.evaluation.model.EvaluationResult;
+import com.example.ragollama.evaluation.model.FusionComparisonResult;
 import com.example.ragollama.evaluation.model.GoldenRecord;
 import com.example.ragollama.rag.agent.QueryProcessingPipeline;
 import com.example.ragollama.rag.retrieval.HybridRetrievalStrategy;
 import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.rag.retrieval.fusion.FusionInput;
+import com.example.ragollama.rag.retrieval.fusion.FusionQueryType;
+import com.example.ragollama.rag.retrieval.fusion.FusionService;
+import com.example.ragollama.rag.retrieval.fusion.FusionSource;
+import com.example.ragollama.shared.llm.LlmPriority;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
@@ -36,6 +43,7 @@ public class RagEvaluationService {
     private final QueryProcessingPipeline queryProcessingPipeline;
     private final HybridRetrievalStrategy retrievalStrategy;
     private final RetrievalProperties retrievalProperties;
+    private final FusionService fusionService;
 
     private static final String GOLDEN_DATASET_PATH = "classpath:evaluation/golden-dataset.json";
 
@@ -60,7 +68,8 @@ public class RagEvaluationService {
                                     })
                                     .onErrorResume(e -> Mono.empty()),
                             concurrency) // Ограничиваем параллелизм
-                    .then(Mono.fromCallable(() -> calculateFinalResults(dataset.size(), details, failures)));
+                    .then(Mono.fromCallable(() -> calculateFinalResults(dataset.size(), details, failures)))
+                    .contextWrite(LlmPriority.assign(LlmPriority.BACKGROUND));
         } catch (IOException e) {
             log.error("Не удалось загрузить 'золотой датасет' из {}", GOLDEN_DATASET_PATH, e);
             return Mono.error(new IllegalStateException("Ошибка загрузки датасета", e));
@@ -77,32 +86,134 @@ public class RagEvaluationService {
                         retrievalConfig.similarityThreshold(),
                         null
                 ))
-                .map(retrievedDocs -> {
-                    List<String> retrievedIds = retrievedDocs.stream()
-                            .map(doc -> Objects.toString(doc.getMetadata().get("documentId"), null))
-                            .filter(Objects::nonNull)
-                            .toList();
-
-                    Set<String> expectedIds = record.expectedDocumentIds();
-                    Set<String> intersection = new HashSet<>(retrievedIds);
-                    intersection.retainAll(expectedIds);
-
-                    int tp = intersection.size();
-                    int fp = retrievedIds.size() - tp;
-                    int fn = expectedIds.size() - tp;
-
-                    double precision = (tp + fp) > 0 ? (double) tp / (tp + fp) : 0.0;
-                    double recall = (tp + fn) > 0 ? (double) tp / (tp + fn) : 0.0;
-
-                    double reciprocalRank = calculateReciprocalRank(retrievedIds, expectedIds);
-                    double dcg = calculateDcg(retrievedIds, expectedIds, 5);
-                    double idcg = calculateIdealDcg(expectedIds.size(), 5);
-
-                    var result = new EvaluationResult.RecordResult(
-                            precision, recall, reciprocalRank, dcg, idcg,
-                            expectedIds.size(), retrievedIds.size(), tp);
-                    return Tuples.of(record.queryId(), result);
-                });
+                .map(retrievedDocs -> Tuples.of(record.queryId(), score(retrievedDocs, record.expectedDocumentIds())));
+    }
+
+    /**
+     * Сравнивает набор стандартных конфигураций слияния по "золотому датасету"
+     * (см. {@link #defaultFusionCandidates()}).
+     *
+     * @return {@link Mono} с результатами оценки каждой конфигурации.
+     */
+    public Mono<FusionComparisonResult> compareFusion() {
+        return compareFusion(defaultFusionCandidates());
+    }
+
+    /**
+     * Сравнивает конфигурации слияния по "золотому датасету".
+     * <p>
+     * Обработка запроса и поиск по источникам выполняются для каждой записи один раз,
+     * после чего полученные ранжированные списки объединяются каждой конфигурацией.
+     * Так сравнение не зависит от недетерминированности LLM при расширении запроса
+     * и не умножает нагрузку на поиск на число кандидатов.
+     *
+     * @param candidates Конфигурации слияния по именам.
+     * @return {@link Mono} с результатами оценки каждой конфигурации.
+     */
+    public Mono<FusionComparisonResult> compareFusion(Map<String, RetrievalProperties.Fusion> candidates) {
+        try {
+            List<GoldenRecord> dataset = loadGoldenDataset();
+            if (dataset.isEmpty()) {
+                log.warn("'Золотой датасет' пуст. Сравнение слияния не будет проводиться.");
+                return Mono.just(new FusionComparisonResult(0, List.of(), Map.of()));
+            }
+            log.info("Начинается сравнение {} конфигураций слияния по {} записям.", candidates.size(), dataset.size());
+            Map<String, Map<String, EvaluationResult.RecordResult>> details = new LinkedHashMap<>();
+            candidates.keySet().forEach(name -> details.put(name, new ConcurrentHashMap<>()));
+            Set<String> failures = ConcurrentHashMap.newKeySet();
+            final int concurrency = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            return Flux.fromIterable(dataset)
+                    .flatMap(record -> retrieveSourceRankings(record)
+                                    .doOnNext(input -> candidates.forEach((name, fusion) -> details.get(name).put(
+                                            record.queryId(),
+                                            score(fusionService.fuse(input.rankings(), input.queryType(), fusion),
+                                                    record.expectedDocumentIds()))))
+                                    .doOnError(e -> {
+                                        log.error("Ошибка поиска для записи ID: {}", record.queryId(), e);
+                                        failures.add(record.queryId());
+                                    })
+                                    .onErrorResume(e -> Mono.empty()),
+                            concurrency)
+                    .then(Mono.fromCallable(() -> {
+                        Map<String, EvaluationResult> results = new LinkedHashMap<>();
+                        details.forEach((name, recordResults) -> {
+                            log.info("Конфигурация слияния '{}':", name);
+                            results.put(name, calculateFinalResults(dataset.size(), recordResults, failures));
+                        });
+                        return new FusionComparisonResult(dataset.size(), new ArrayList<>(failures), results);
+                    }))
+                    .contextWrite(LlmPriority.assign(LlmPriority.BACKGROUND));
+        } catch (IOException e) {
+            log.error("Не удалось загрузить 'золотой датасет' из {}", GOLDEN_DATASET_PATH, e);
+            return Mono.error(new IllegalStateException("Ошибка загрузки датасета", e));
+        }
+    }
+
+    /**
+     * Возвращает стандартный набор кандидатов для сравнения слияния:
+     * <ul>
+     *   <li>{@code configured} — текущие настройки приложения;</li>
+     *   <li>{@code rrf} — RRF с нейтральными весами;</li>
+     *   <li>{@code rrf-boosted} — RRF с усилением FTS для коротких запросов и графа для запросов о связях;</li>
+     *   <li>{@code score-min-max} и {@code score-z-score} — CombSUM с соответствующей нормализацией.</li>
+     * </ul>
+     * Все кандидаты, кроме текущих настроек, используют константу RRF из настроек приложения.
+     *
+     * @return Конфигурации слияния по именам в порядке сравнения.
+     */
+    public Map<String, RetrievalProperties.Fusion> defaultFusionCandidates() {
+        RetrievalProperties.Fusion configured = retrievalProperties.fusion();
+        Map<FusionSource, Double> neutral = Map.of(FusionSource.VECTOR, 1.0, FusionSource.FTS, 1.0, FusionSource.GRAPH, 1.0);
+        Map<String, RetrievalProperties.Fusion> candidates = new LinkedHashMap<>();
+        candidates.put("configured", configured);
+        candidates.put("rrf", new RetrievalProperties.Fusion(RetrievalProperties.Fusion.Method.RRF, configured.rrfK(),
+                configured.normalization(), neutral, Map.of()));
+        candidates.put("rrf-boosted", new RetrievalProperties.Fusion(RetrievalProperties.Fusion.Method.RRF, configured.rrfK(),
+                configured.normalization(), neutral, Map.of(
+                FusionQueryType.KEYWORD, Map.of(FusionSource.FTS, 1.5),
+                FusionQueryType.RELATIONAL, Map.of(FusionSource.GRAPH, 1.5))));
+        candidates.put("score-min-max", new RetrievalProperties.Fusion(RetrievalProperties.Fusion.Method.SCORE, configured.rrfK(),
+                RetrievalProperties.Fusion.Normalization.MIN_MAX, neutral, Map.of()));
+        candidates.put("score-z-score", new RetrievalProperties.Fusion(RetrievalProperties.Fusion.Method.SCORE, configured.rrfK(),
+                RetrievalProperties.Fusion.Normalization.Z_SCORE, neutral, Map.of()));
+        return candidates;
+    }
+
+    private Mono<FusionInput> retrieveSourceRankings(GoldenRecord record) {
+        var retrievalConfig = retrievalProperties.hybrid().vectorSearch();
+        return queryProcessingPipeline.process(record.queryText())
+                .flatMap(processedQueries -> retrievalStrategy.retrieveSourceRankings(
+                        processedQueries,
+                        record.queryText(),
+                        retrievalConfig.topK(),
+                        retrievalConfig.similarityThreshold(),
+                        null
+                ));
+    }
+
+    private EvaluationResult.RecordResult score(List<Document> retrievedDocs, Set<String> expectedIds) {
+        List<String> retrievedIds = retrievedDocs.stream()
+                .map(doc -> Objects.toString(doc.getMetadata().get("documentId"), null))
+                .filter(Objects::nonNull)
+                .toList();
+
+        Set<String> intersection = new HashSet<>(retrievedIds);
+        intersection.retainAll(expectedIds);
+
+        int tp = intersection.size();
+        int fp = retrievedIds.size() - tp;
+        int fn = expectedIds.size() - tp;
+
+        double precision = (tp + fp) > 0 ? (double) tp / (tp + fp) : 0.0;
+        double recall = (tp + fn) > 0 ? (double) tp / (tp + fn) : 0.0;
+
+        double reciprocalRank = calculateReciprocalRank(retrievedIds, expectedIds);
+        double dcg = calculateDcg(retrievedIds, expectedIds, 5);
+        double idcg = calculateIdealDcg(expectedIds.size(), 5);
+
+        return new EvaluationResult.RecordResult(
+                precision, recall, reciprocalRank, dcg, idcg,
+                expectedIds.size(), retrievedIds.size(), tp);
     }
 
     private EvaluationResult calculateFinalResults(int total, Map<String, EvaluationResult.RecordResult> details, Set<String> failures) {
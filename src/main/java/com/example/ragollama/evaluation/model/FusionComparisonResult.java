@@ -0,0 +1,25 @@
+package com.example.ragollama.evaluation.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DTO с результатами сравнения настроек слияния по "золотому датасету".
+ * <p>
+ * Все конфигурации объединяют одни и те же результаты поиска, поэтому различия
+ * в метриках вызваны только слиянием. Состав итогового списка от конфигурации не зависит,
+ * и точность с полнотой у всех кандидатов совпадают: сравнивать следует MRR и NDCG@5.
+ *
+ * @param totalRecords Общее количество записей датасета.
+ * @param failures     Список ID запросов, поиск по которым завершился ошибкой.
+ * @param candidates   Результаты оценки для каждой конфигурации по ее имени.
+ */
+@Schema(description = "Результаты сравнения настроек слияния по 'золотому датасету'")
+public record FusionComparisonResult(
+        int totalRecords,
+        List<String> failures,
+        Map<String, EvaluationResult> candidates
+) {
+}
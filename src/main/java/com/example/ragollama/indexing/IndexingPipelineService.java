@@ -1,10 +1,16 @@
 package com.example.ragollama.indexing;
 
+import com.example.ragollama.ingestion.ChunkedDocument;
 import com.example.ragollama.ingestion.TextSplitterService;
 import com.example.ragollama.ingestion.cleaning.DataCleaningService;
 import com.example.ragollama.optimization.VectorStoreRepository;
+import com.example.ragollama.rag.domain.retrieval.ParentChunkRepository;
 import com.example.ragollama.shared.caching.VectorCacheService;
+import com.example.ragollama.shared.exception.ProcessingException;
 import com.example.ragollama.shared.processing.PiiRedactionService;
+import com.example.ragollama.shared.util.ContentHashUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
@@ -13,14 +19,19 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
 /**
- * Сервис, реализующий унифицированный и идемпотентный конвейер для индексации
+ * Сервис, реализующий унифицированный, идемпотентный и инкрементальный конвейер для индексации
  * и управления жизненным циклом документов в векторном хранилище.
  * Является единой точкой входа для всех операций, изменяющих векторный индекс.
  */
@@ -35,60 +46,119 @@ public class IndexingPipelineService {
     private final DataCleaningService dataCleaningService;
     private final PiiRedactionService piiRedactionService;
     private final VectorStoreRepository vectorStoreRepository;
+    private final ParentChunkRepository parentChunkRepository;
+    private final ObjectMapper objectMapper;
 
     @Value("${spring.ai.ollama.embedding.options.model-version}")
     private String embeddingModelVersion;
 
     /**
-     * Выполняет полный, транзакционный и идемпотентный процесс индексации документа.
+     * Выполняет транзакционный, идемпотентный и инкрементальный процесс индексации документа.
      * <p>
-     * Сначала удаляет все существующие чанки для данного `documentId`, а затем
-     * выполняет очистку, разделение и индексацию нового контента. Это гарантирует
-     * консистентность данных и предотвращает появление дубликатов или "осиротевших" чанков.
+     * Новый контент очищается и разделяется на чанки, каждый из которых получает
+     * стабильный хеш содержимого ({@code contentHash}). Затем набор чанков сравнивается
+     * с уже сохраненным для данного `documentId`: эмбеддинги вычисляются и вставляются
+     * только для новых или измененных чанков, удаляются только исчезнувшие, а у
+     * неизмененных перезаписываются лишь метаданные. Родительские чанки
+     * сохраняются один раз в таблице {@code parent_chunks}. Из кэша поиска
+     * вытесняются только записи, ссылающиеся на данный документ.
+     * <p>
+     * Очистка, разбиение и хеширование выполняются только при подписке на результат.
      *
      * @param request DTO с данными для индексации.
-     * @return {@link Mono<Void>}, завершающийся после выполнения индексации.
+     * @return {@link Mono} с {@link IndexingResult}, описывающим количество добавленных,
+     * удаленных и пропущенных чанков.
      */
     @Transactional
-    public Mono<Void> process(IndexingRequest request) {
-        log.info("Запуск идемпотентного конвейера индексации для источника: '{}', ID: {}",
-                request.sourceName(), request.documentId());
+    public Mono<IndexingResult> process(IndexingRequest request) {
+        return Mono.defer(() -> {
+            log.info("Запуск инкрементального конвейера индексации для источника: '{}', ID: {}",
+                    request.sourceName(), request.documentId());
 
-        return vectorStoreRepository.deleteByDocumentId(request.documentId())
-                .flatMap(deletedCount -> {
-                    if (deletedCount > 0) {
-                        log.info("Удалено {} старых чанков для документа '{}' перед обновлением.", deletedCount, request.sourceName());
-                    }
+            String redactedText = piiRedactionService.redact(request.textContent());
+            String cleanedText = dataCleaningService.cleanDocumentText(redactedText);
 
-                    String redactedText = piiRedactionService.redact(request.textContent());
-                    String cleanedText = dataCleaningService.cleanDocumentText(redactedText);
+            Map<String, Object> metadata = new HashMap<>();
+            Optional.ofNullable(request.metadata()).ifPresent(metadata::putAll);
+            metadata.put("source", request.sourceName());
+            metadata.put("documentId", request.documentId());
+            metadata.put("embedding_model_version", this.embeddingModelVersion);
 
-                    Map<String, Object> metadata = new HashMap<>();
-                    Optional.ofNullable(request.metadata()).ifPresent(metadata::putAll);
-                    metadata.put("source", request.sourceName());
-                    metadata.put("documentId", request.documentId());
-                    metadata.put("embedding_model_version", this.embeddingModelVersion);
+            Document documentToSplit = new Document("passage: " + cleanedText, metadata);
+            ChunkedDocument chunkedDocument = textSplitterService.split(documentToSplit);
+            List<Document> chunks = chunkedDocument.children();
+            chunks.forEach(chunk -> chunk.getMetadata().put("contentHash", contentHashOf(chunk)));
+            log.debug("Создано {} чанков для документа '{}'", chunks.size(), request.sourceName());
 
-                    Document documentToSplit = new Document("passage: " + cleanedText, metadata);
-                    List<Document> chunks = textSplitterService.split(documentToSplit);
-                    log.debug("Создано {} чанков для документа '{}'", chunks.size(), request.sourceName());
+            return parentChunkRepository.replaceForDocument(request.documentId(), chunkedDocument.parents())
+                    .thenMany(vectorStoreRepository.findFingerprintsByDocumentId(request.documentId()))
+                    .collectList()
+                    .flatMap(stored -> applyDiff(request, chunks, stored))
+                    .doOnSuccess(result -> {
+                        vectorCacheService.evictByDocumentId(request.documentId());
+                        if (chunks.isEmpty()) {
+                            log.warn("Для документа '{}' (ID: {}) не было создано ни одного чанка. Все старые версии удалены.",
+                                    request.sourceName(), request.documentId());
+                        } else {
+                            log.info("Документ '{}' (ID: {}) (пере)индексирован: добавлено {}, удалено {}, пропущено {} чанков.",
+                                    request.sourceName(), request.documentId(), result.added(), result.removed(), result.skipped());
+                        }
+                    });
+        });
+    }
 
-                    if (!chunks.isEmpty()) {
-                        vectorStore.add(chunks);
-                        vectorCacheService.evictAll();
-                        log.info("Документ '{}' (ID: {}) успешно (пере)индексирован, добавлено {} чанков. Кэш поиска очищен.",
-                                request.sourceName(), request.documentId(), chunks.size());
-                    } else {
-                        log.warn("Для документа '{}' (ID: {}) не было создано ни одного чанка. Все старые версии удалены.",
-                                request.sourceName(), request.documentId());
-                    }
-                    return Mono.empty();
-                });
+    /**
+     * Сравнивает новый набор чанков с сохраненным и применяет минимальный набор изменений.
+     * Метаданные неизмененных чанков перезаписываются целиком метаданными соответствующих
+     * новых чанков, поэтому результат совпадает с полной переиндексацией.
+     */
+    private Mono<IndexingResult> applyDiff(IndexingRequest request, List<Document> chunks,
+                                           List<VectorStoreRepository.ChunkFingerprint> stored) {
+        Map<String, Document> chunksByHash = new HashMap<>();
+        chunks.forEach(chunk -> chunksByHash.putIfAbsent((String) chunk.getMetadata().get("contentHash"), chunk));
+        Set<String> retainedHashes = new HashSet<>();
+        Map<UUID, String> retainedMetadata = new HashMap<>();
+        List<UUID> idsToRemove = new ArrayList<>();
+        for (VectorStoreRepository.ChunkFingerprint fingerprint : stored) {
+            // Повторно встретившийся хеш означает дубликат, который также подлежит удалению
+            if (fingerprint.contentHash() != null && chunksByHash.containsKey(fingerprint.contentHash())
+                    && retainedHashes.add(fingerprint.contentHash())) {
+                retainedMetadata.put(fingerprint.id(), toJson(chunksByHash.get(fingerprint.contentHash()).getMetadata()));
+                continue;
+            }
+            idsToRemove.add(fingerprint.id());
+        }
+        List<Document> chunksToAdd = chunks.stream()
+                .filter(chunk -> !retainedHashes.contains((String) chunk.getMetadata().get("contentHash")))
+                .toList();
+        IndexingResult result = new IndexingResult(request.documentId(), chunksToAdd.size(), idsToRemove.size(), retainedHashes.size());
+
+        Mono<Long> refreshRetained = vectorStoreRepository.replaceMetadataByIds(retainedMetadata);
+        Mono<Void> addNew = chunksToAdd.isEmpty()
+                ? Mono.empty()
+                : Mono.fromRunnable(() -> vectorStore.add(chunksToAdd)).subscribeOn(Schedulers.boundedElastic()).then();
+
+        return vectorStoreRepository.deleteByIds(idsToRemove)
+                .then(refreshRetained)
+                .then(addNew)
+                .thenReturn(result);
+    }
+
+    private String contentHashOf(Document chunk) {
+        return ContentHashUtils.sha256(embeddingModelVersion, (String) chunk.getMetadata().get("chunkId"), chunk.getText());
+    }
+
+    private String toJson(Map<String, Object> metadata) {
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new ProcessingException("Не удалось сериализовать метаданные документа.", e);
+        }
     }
 
     /**
      * Асинхронно и идемпотентно удаляет все чанки, связанные с документом, из векторного хранилища.
-     * После успешного удаления инвалидирует кэш результатов поиска.
+     * После успешного удаления инвалидирует записи кэша поиска, ссылающиеся на документ.
      *
      * @param request Запрос, содержащий `documentId` для удаления.
      * @return {@link Mono<Void>}, завершающийся после удаления.
@@ -96,11 +166,12 @@ public class IndexingPipelineService {
     @Transactional
     public Mono<Void> delete(IndexingRequest request) {
         log.info("Запуск удаления чанков для документа ID: {}", request.documentId());
-        return vectorStoreRepository.deleteByDocumentId(request.documentId())
+        return parentChunkRepository.deleteByDocumentIds(List.of(request.documentId()))
+                .then(vectorStoreRepository.deleteByDocumentId(request.documentId()))
                 .doOnSuccess(deletedCount -> {
                     if (deletedCount > 0) {
-                        vectorCacheService.evictAll();
-                        log.info("Удалено {} чанков для документа '{}'. Кэш поиска очищен.", deletedCount, request.documentId());
+                        vectorCacheService.evictByDocumentId(request.documentId());
+                        log.info("Удалено {} чанков для документа '{}'. Связанные записи кэша поиска инвалидированы.", deletedCount, request.documentId());
                     } else {
                         log.warn("Не найдено чанков для удаления по документу ID: {}", request.documentId());
                     }
@@ -117,11 +188,12 @@ public class IndexingPipelineService {
     @Transactional
     public Mono<Long> delete(List<String> documentIds) {
         log.info("Запуск удаления чанков для {} документов.", documentIds.size());
-        return vectorStoreRepository.deleteByDocumentIds(documentIds)
+        return parentChunkRepository.deleteByDocumentIds(documentIds)
+                .then(vectorStoreRepository.deleteByDocumentIds(documentIds))
                 .doOnSuccess(deletedCount -> {
                     if (deletedCount > 0) {
-                        vectorCacheService.evictAll();
-                        log.info("Удалено {} чанков. Кэш поиска очищен.", deletedCount);
+                        vectorCacheService.evictByDocumentIds(documentIds);
+                        log.info("Удалено {} чанков. Связанные записи кэша поиска инвалидированы.", deletedCount);
                     }
                 });
     }
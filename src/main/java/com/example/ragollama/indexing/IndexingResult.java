@@ -0,0 +1,23 @@
+package com.example.ragollama.indexing;
+
+/**
+ * Результат инкрементальной (пере)индексации одного документа.
+ *
+ * @param documentId Уникальный идентификатор документа в источнике.
+ * @param added      Количество новых или измененных чанков, для которых были вычислены эмбеддинги.
+ * @param removed    Количество удаленных чанков, отсутствующих в новой версии документа.
+ * @param skipped    Количество неизмененных чанков, оставленных в хранилище без переэмбеддинга.
+ */
+public record IndexingResult(
+        String documentId,
+        int added,
+        int removed,
+        int skipped
+) {
+    /**
+     * @return {@code true}, если индексация изменила набор чанков документа.
+     */
+    public boolean hasChanges() {
+        return added > 0 || removed > 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.ragollama.ingestion;
+
+import com.example.ragollama.rag.domain.retrieval.ParentChunk;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * Результат разделения документа по стратегии Parent Document.
+ *
+ * @param parents  Уникальные родительские чанки, на которые ссылаются дочерние.
+ * @param children Дочерние чанки для индексации в векторном хранилище.
+ */
+public record ChunkedDocument(List<ParentChunk> parents, List<Document> children) {
+}
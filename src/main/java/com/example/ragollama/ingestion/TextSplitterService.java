@@ -2,13 +2,14 @@ package com.example.ragollama.ingestion;
 
 import com.example.ragollama.ingestion.splitter.DocumentSplitterStrategy;
 import com.example.ragollama.ingestion.splitter.SplitterConfig;
+import com.example.ragollama.rag.domain.retrieval.ParentChunk;
+import com.example.ragollama.shared.util.ContentHashUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @Slf4j
@@ -21,7 +22,18 @@ public class TextSplitterService {
     private static final List<String> PARENT_DELIMITERS = List.of("\n\n", "\n");
     private static final List<String> CHILD_DELIMITERS = List.of("(?<=[.!?])\\s+");
 
-    public List<Document> split(Document document) {
+    /**
+     * Разделяет документ по стратегии Parent Document: сначала на крупные родительские
+     * чанки, затем каждый из них — на дочерние чанки для индексации.
+     * <p>
+     * Текст родителя не копируется в метаданные дочерних чанков: дочерний чанк хранит
+     * только ссылку {@code parentChunkId}, а сами родители возвращаются отдельно
+     * для однократного сохранения.
+     *
+     * @param document Исходный документ с метаданными, включающими {@code documentId}.
+     * @return Родительские и дочерние чанки документа.
+     */
+    public ChunkedDocument split(Document document) {
         log.info("Применение Parent Document стратегии для документа: {}", document.getMetadata().get("source"));
 
         SplitterConfig parentConfig = new SplitterConfig(
@@ -31,12 +43,14 @@ public class TextSplitterService {
         );
         List<Document> parentChunks = getStrategyFor(document).split(document, parentConfig);
         List<Document> finalChildChunks = new ArrayList<>();
+        Map<String, ParentChunk> finalParentChunks = new LinkedHashMap<>();
         String originalDocumentId = (String) document.getMetadata().get("documentId");
-        AtomicInteger parentChunkCounter = new AtomicInteger(0);
-        AtomicInteger childChunkCounter = new AtomicInteger(0);
+        Set<String> usedChunkIds = new HashSet<>();
 
         for (Document parentChunk : parentChunks) {
-            String parentChunkId = String.format("%s:p%d", originalDocumentId, parentChunkCounter.getAndIncrement());
+            // Идентификаторы выводятся из содержимого, а не из позиции чанка, чтобы вставка
+            // абзаца в начало документа не меняла ID всех последующих чанков.
+            String parentChunkId = String.format("%s:p%s", originalDocumentId, ContentHashUtils.shortSha256(parentChunk.getText()));
             SplitterConfig childConfig = new SplitterConfig(
                     ingestionProperties.chunking().defaultChunkSize(),
                     ingestionProperties.chunking().chunkOverlap(),
@@ -44,18 +58,23 @@ public class TextSplitterService {
             );
             List<Document> childChunks = getStrategyFor(parentChunk).split(parentChunk, childConfig);
             for (Document childChunk : childChunks) {
+                String childChunkId = String.format("%s:c%s", parentChunkId, ContentHashUtils.shortSha256(childChunk.getText()));
+                if (!usedChunkIds.add(childChunkId)) {
+                    log.debug("Пропуск дублирующегося чанка '{}'", childChunkId);
+                    continue;
+                }
                 Map<String, Object> newMetadata = new HashMap<>(childChunk.getMetadata());
-                String childChunkId = String.format("%s:c%d", parentChunkId, childChunkCounter.getAndIncrement());
                 newMetadata.put("chunkId", childChunkId);
                 newMetadata.put("documentId", originalDocumentId);
                 newMetadata.put("parentChunkId", parentChunkId);
-                newMetadata.put("parentChunkText", parentChunk.getText());
                 String newDocumentId = UUID.randomUUID().toString();
                 finalChildChunks.add(new Document(newDocumentId, childChunk.getText(), newMetadata));
+                finalParentChunks.putIfAbsent(parentChunkId, new ParentChunk(parentChunkId, originalDocumentId, parentChunk.getText()));
             }
         }
-        log.info("Создано {} дочерних чанков для документа '{}'", finalChildChunks.size(), document.getMetadata().get("source"));
-        return finalChildChunks;
+        log.info("Создано {} родительских и {} дочерних чанков для документа '{}'",
+                finalParentChunks.size(), finalChildChunks.size(), document.getMetadata().get("source"));
+        return new ChunkedDocument(List.copyOf(finalParentChunks.values()), finalChildChunks);
     }
 
     private DocumentSplitterStrategy getStrategyFor(Document document) {
@@ -6,6 +6,7 @@ import com.example.ragollama.indexing.IndexingRequest;
 import com.example.ragollama.optimization.DocumentEnhancerAgent;
 import com.example.ragollama.optimization.model.EnhancedMetadata;
 import com.example.ragollama.shared.exception.ProcessingException;
+import com.example.ragollama.shared.llm.LlmPriority;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
@@ -76,7 +77,9 @@ public class DocumentProcessingWorker {
                     .onErrorResume(e -> {
                         log.error("Критическая ошибка при обработке документа. Job ID: {}", jobId, e);
                         return updateJobStatus(jobId, e.getMessage());
-                    });
+                    })
+                    // Обогащение документов не должно конкурировать с интерактивными запросами
+                    .contextWrite(LlmPriority.assign(LlmPriority.BACKGROUND));
         }
     }
 
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.StringJoiner;
 
 /**
  * Реализация {@link DocumentSplitterStrategy}, использующая рекурсивный подход
@@ -96,6 +97,13 @@ public class RecursiveTextSplitterStrategy implements DocumentSplitterStrategy {
 
     /**
      * Объединяет мелкие фрагменты в чанки, не превышающие целевой размер.
+     * <p>
+     * Количество токенов текущего чанка поддерживается инкрементально, а не
+     * пересчитывается по всей растущей строке после каждого добавления. Если текущий
+     * чанк заканчивается не пробельным символом, то pre-tokenizer BPE гарантированно
+     * разрывает строку на стыке {@code chunk + " " + fragment}, и количество токенов
+     * складывается точно. В редком случае пробельного окончания выполняется точный пересчет,
+     * поэтому границы чанков совпадают с наивным алгоритмом.
      *
      * @param fragments Список мелких фрагментов.
      * @param config    Конфигурация чанкинга.
@@ -104,20 +112,28 @@ public class RecursiveTextSplitterStrategy implements DocumentSplitterStrategy {
     private List<String> mergeChunks(List<String> fragments, SplitterConfig config) {
         List<String> merged = new ArrayList<>();
         StringBuilder currentChunk = new StringBuilder();
-        List<String> sentenceBuffer = new ArrayList<>(); // Буфер для управления пересечением
+        int currentTokens = 0;
+        List<CountedFragment> sentenceBuffer = new ArrayList<>(); // Буфер для управления пересечением
 
         for (String fragment : fragments) {
             if (fragment.isBlank()) continue;
             int fragmentTokens = tokenizationService.countTokens(fragment);
-            int currentTokens = tokenizationService.countTokens(currentChunk.toString());
 
             if (currentTokens + fragmentTokens > config.chunkSize() && !currentChunk.isEmpty()) {
                 merged.add(currentChunk.toString().trim());
                 sentenceBuffer = getOverlap(sentenceBuffer, config);
-                currentChunk = new StringBuilder(String.join(" ", sentenceBuffer));
+                currentChunk = new StringBuilder(joinFragments(sentenceBuffer));
+                currentTokens = tokenizationService.countTokens(currentChunk.toString());
             }
-            currentChunk.append(" ").append(fragment);
-            sentenceBuffer.add(fragment);
+            String appended = " " + fragment;
+            if (currentChunk.isEmpty() || !Character.isWhitespace(currentChunk.charAt(currentChunk.length() - 1))) {
+                currentTokens += tokenizationService.countTokens(appended);
+                currentChunk.append(appended);
+            } else {
+                currentChunk.append(appended);
+                currentTokens = tokenizationService.countTokens(currentChunk.toString());
+            }
+            sentenceBuffer.add(new CountedFragment(fragment, fragmentTokens));
         }
 
         if (!currentChunk.isEmpty()) {
@@ -126,15 +142,14 @@ public class RecursiveTextSplitterStrategy implements DocumentSplitterStrategy {
         return merged;
     }
 
-    private List<String> getOverlap(List<String> buffer, SplitterConfig config) {
+    private List<CountedFragment> getOverlap(List<CountedFragment> buffer, SplitterConfig config) {
         if (buffer.isEmpty() || config.chunkOverlap() <= 0) {
             return new ArrayList<>();
         }
         int currentOverlapTokens = 0;
         int startIndex = -1;
         for (int i = buffer.size() - 1; i >= 0; i--) {
-            String sentence = buffer.get(i);
-            currentOverlapTokens += tokenizationService.countTokens(sentence);
+            currentOverlapTokens += buffer.get(i).tokens();
             if (currentOverlapTokens > config.chunkOverlap()) {
                 break;
             }
@@ -143,17 +158,33 @@ public class RecursiveTextSplitterStrategy implements DocumentSplitterStrategy {
         return (startIndex == -1) ? new ArrayList<>() : new ArrayList<>(buffer.subList(startIndex, buffer.size()));
     }
 
+    private static String joinFragments(List<CountedFragment> fragments) {
+        StringJoiner joiner = new StringJoiner(" ");
+        fragments.forEach(fragment -> joiner.add(fragment.text()));
+        return joiner.toString();
+    }
+
+    /**
+     * Принудительно разделяет текст без разделителей на куски по {@code chunkSize} токенов.
+     * <p>
+     * Границы совпадают с прежним циклом усечения остатка текста, но полный подсчет
+     * токенов остатка на каждой итерации, делавший операцию квадратичной, не выполняется.
+     */
     private List<String> forceSplit(String text, int chunkSize) {
-        List<String> chunks = new ArrayList<>();
-        String remainingText = text;
-        while (tokenizationService.countTokens(remainingText) > chunkSize) {
-            String chunk = tokenizationService.truncate(remainingText, chunkSize);
-            chunks.add(chunk);
-            remainingText = remainingText.substring(chunk.length());
-        }
-        if (!remainingText.isBlank()) {
-            chunks.add(remainingText);
+        List<String> pieces = tokenizationService.splitByTokens(text, chunkSize);
+        List<String> chunks = new ArrayList<>(pieces.size());
+        for (int i = 0; i < pieces.size(); i++) {
+            // Как и прежде, отбрасывается только пустой хвост текста.
+            if (i < pieces.size() - 1 || !pieces.get(i).isBlank()) {
+                chunks.add(pieces.get(i));
+            }
         }
         return chunks;
     }
+
+    /**
+     * Фрагмент текста вместе с заранее подсчитанным количеством токенов.
+     */
+    private record CountedFragment(String text, int tokens) {
+    }
 }
@@ -1,31 +1,50 @@
 package com.example.ragollama.monitoring.AuditLoggingService;
 
-import com.example.ragollama.monitoring.domain.RagAuditLogRepository;
+import com.example.ragollama.monitoring.domain.RagAuditLogBatchRepository;
 import com.example.ragollama.monitoring.model.RagAuditLog;
 import com.example.ragollama.rag.domain.model.QueryFormationStep;
 import com.example.ragollama.rag.domain.model.SourceCitation;
-import lombok.RequiredArgsConstructor;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.persistence.WriteBehindProperties;
+import com.example.ragollama.shared.persistence.WriteBehindSink;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Mono;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
 /**
  * Сервис для асинхронной записи аудиторских логов RAG-взаимодействий.
+ * <p>
+ * Записи передаются в ограниченную очередь {@link WriteBehindSink} и сохраняются
+ * многострочными пакетами, поэтому запрос пользователя не порождает отдельный INSERT.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class AuditLoggingService {
 
-    private final RagAuditLogRepository auditLogRepository;
+    static final String SINK_NAME = "rag_audit_log";
+
+    private final WriteBehindSink<RagAuditLog> sink;
+
+    /**
+     * Конструктор для внедрения зависимостей.
+     *
+     * @param batchRepository       Репозиторий для пакетной вставки.
+     * @param writeBehindProperties Настройки очереди отложенной записи.
+     * @param metricService         Сервис метрик.
+     */
+    public AuditLoggingService(RagAuditLogBatchRepository batchRepository,
+                               WriteBehindProperties writeBehindProperties,
+                               MetricService metricService) {
+        this.sink = new WriteBehindSink<>(SINK_NAME, writeBehindProperties, metricService, batchRepository::insertAll);
+    }
 
     /**
-     * Асинхронно сохраняет полную запись о RAG-взаимодействии в новой транзакции.
+     * Ставит полную запись о RAG-взаимодействии в очередь на сохранение.
      *
      * @param requestId             Уникальный идентификатор HTTP-запроса.
      * @param taskId                ID асинхронной задачи.
@@ -35,9 +54,8 @@ public class AuditLoggingService {
      * @param finalPrompt           Финальный промпт, отправленный в LLM.
      * @param llmAnswer             Ответ, сгенерированный LLM.
      * @param queryFormationHistory История трансформации запроса.
-     * @return {@link Mono<Void>}, который завершается после успешного сохранения.
+     * @return {@link Mono<Void>}, который завершается сразу после постановки записи в очередь.
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public Mono<Void> logInteraction(
             String requestId,
             UUID taskId,
@@ -60,11 +78,21 @@ public class AuditLoggingService {
                 .finalPrompt(finalPrompt)
                 .llmAnswer(llmAnswer)
                 .queryFormationHistory(queryFormationHistory)
+                .createdAt(OffsetDateTime.now())
                 .build();
 
-        return auditLogRepository.save(auditLog)
-                .doOnSuccess(saved -> log.debug("Аудиторская запись для requestId {} успешно сохранена.", requestId))
-                .doOnError(e -> log.error("Не удалось сохранить аудиторскую запись для requestId {}: {}", requestId, e.getMessage(), e))
-                .then();
+        return Mono.fromRunnable(() -> {
+            if (sink.submit(auditLog)) {
+                log.debug("Аудиторская запись для requestId {} поставлена в очередь на сохранение.", requestId);
+            }
+        });
+    }
+
+    /**
+     * Сохраняет оставшиеся записи при штатной остановке приложения.
+     */
+    @PreDestroy
+    public void shutdown() {
+        sink.close();
     }
 }
@@ -0,0 +1,76 @@
+package com.example.ragollama.monitoring.domain;
+
+import com.example.ragollama.monitoring.model.RagAuditLog;
+import com.example.ragollama.shared.exception.ProcessingException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Репозиторий для пакетной вставки записей в {@code rag_audit_log}.
+ * <p>
+ * Весь пакет вставляется одним многострочным INSERT через {@code unnest} массивов.
+ * JSONB-колонки передаются как текст и приводятся к {@code jsonb} на стороне БД.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RagAuditLogBatchRepository {
+
+    private final DatabaseClient databaseClient;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Вставляет пакет записей одним запросом.
+     *
+     * @param entries Аудиторские записи с заполненным {@code createdAt}.
+     * @return {@link Mono} с количеством вставленных строк.
+     */
+    public Mono<Long> insertAll(List<RagAuditLog> entries) {
+        if (entries.isEmpty()) {
+            return Mono.just(0L);
+        }
+        final String sql = """
+                INSERT INTO rag_audit_log (request_id, task_id, session_id, username, original_query, source_citations,
+                                           final_prompt, llm_answer, query_formation_history, created_at)
+                SELECT a.request_id, CAST(a.task_id AS uuid), CAST(a.session_id AS uuid), a.username, a.original_query,
+                       CAST(a.source_citations AS jsonb), a.final_prompt, a.llm_answer,
+                       CAST(a.query_formation_history AS jsonb), CAST(a.created_at AS timestamptz)
+                FROM unnest(CAST(:requestIds AS text[]), CAST(:taskIds AS text[]), CAST(:sessionIds AS text[]),
+                            CAST(:usernames AS text[]), CAST(:originalQueries AS text[]), CAST(:sourceCitations AS text[]),
+                            CAST(:finalPrompts AS text[]), CAST(:llmAnswers AS text[]), CAST(:queryFormationHistories AS text[]),
+                            CAST(:createdAt AS text[]))
+                     AS a(request_id, task_id, session_id, username, original_query, source_citations,
+                          final_prompt, llm_answer, query_formation_history, created_at)
+                """;
+        return databaseClient.sql(sql)
+                .bind("requestIds", entries.stream().map(RagAuditLog::getRequestId).toArray(String[]::new))
+                .bind("taskIds", entries.stream().map(e -> Objects.toString(e.getTaskId(), null)).toArray(String[]::new))
+                .bind("sessionIds", entries.stream().map(e -> Objects.toString(e.getSessionId(), null)).toArray(String[]::new))
+                .bind("usernames", entries.stream().map(RagAuditLog::getUsername).toArray(String[]::new))
+                .bind("originalQueries", entries.stream().map(RagAuditLog::getOriginalQuery).toArray(String[]::new))
+                .bind("sourceCitations", entries.stream().map(e -> toJson(e.getSourceCitations())).toArray(String[]::new))
+                .bind("finalPrompts", entries.stream().map(RagAuditLog::getFinalPrompt).toArray(String[]::new))
+                .bind("llmAnswers", entries.stream().map(RagAuditLog::getLlmAnswer).toArray(String[]::new))
+                .bind("queryFormationHistories", entries.stream().map(e -> toJson(e.getQueryFormationHistory())).toArray(String[]::new))
+                .bind("createdAt", entries.stream().map(e -> e.getCreatedAt().toString()).toArray(String[]::new))
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private String toJson(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new ProcessingException("Не удалось сериализовать поле аудиторской записи в JSON.", e);
+        }
+    }
+}
@@ -24,7 +24,9 @@ import java.util.Map;
  * Агент, реализующий цикл самокорректирующегося поиска (Self-Correcting Retrieval).
  * <p>
  * Оценивает найденные документы и, при необходимости, переформулирует запрос для повторного поиска,
- * повышая надежность и качество извлечения информации.
+ * повышая надежность и качество извлечения информации. Перед обращением к LLM-судье
+ * результат проверяется {@link RetrievalConfidenceGate}: уверенные результаты
+ * принимаются сразу, без дополнительных вызовов LLM.
  */
 @Service
 @Slf4j
@@ -37,6 +39,7 @@ public class ReflectiveRetrieverAgent {
     private final ObjectMapper objectMapper;
     private static final int MAX_ATTEMPTS = 2;
     private final JsonExtractorUtil jsonExtractorUtil;
+    private final RetrievalConfidenceGate confidenceGate;
 
     private record JudgeResult(boolean isSufficient, String reasoning) {
     }
@@ -61,9 +64,10 @@ public class ReflectiveRetrieverAgent {
             return retrievalStrategy.retrieve(queries, originalQuery, topK, threshold, filter);
         }
 
-        return retrievalStrategy.retrieve(queries, originalQuery, topK, threshold, filter)
-                .flatMap(documents -> {
-                    if (documents.isEmpty()) {
+        return retrievalStrategy.retrieveWithSignals(queries, originalQuery, topK, threshold, filter)
+                .flatMap(result -> {
+                    List<Document> documents = result.documents();
+                    if (documents.isEmpty() || confidenceGate.isConfident(result)) {
                         return Mono.just(documents);
                     }
                     return judgeRetrieval(originalQuery, documents)
@@ -88,7 +92,7 @@ public class ReflectiveRetrieverAgent {
                 "query", query,
                 "documents", documents
         ));
-        return llmClient.callChat(new Prompt(promptString), ModelCapability.FAST_RELIABLE, true)
+        return llmClient.callChatCached(new Prompt(promptString), ModelCapability.FAST_RELIABLE, true)
                 .map(tuple -> parseJudgeResponse(tuple.getT1()));
     }
 
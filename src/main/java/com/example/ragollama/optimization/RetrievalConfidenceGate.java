@@ -0,0 +1,53 @@
+package com.example.ragollama.optimization;
+
+import com.example.ragollama.rag.retrieval.HybridRetrievalResult;
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Дешевый шлюз уверенности, определяющий, можно ли принять результаты поиска
+ * без LLM-оценки {@link ReflectiveRetrieverAgent}.
+ * <p>
+ * Решение принимается только по оценкам, уже полученным при поиске: высокой
+ * схожести лучшего векторного результата, подтвержденной либо его отрывом от
+ * второго результата, либо совпадением лидеров векторного и полнотекстового поиска.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RetrievalConfidenceGate {
+
+    private final RetrievalProperties retrievalProperties;
+    private final MetricService metricService;
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+
+    /**
+     * Проверяет, достаточно ли уверен результат поиска, чтобы пропустить LLM-оценку.
+     *
+     * @param result Результат гибридного поиска с сигналами уверенности.
+     * @return {@code true}, если LLM-оценку можно пропустить.
+     */
+    public boolean isConfident(HybridRetrievalResult result) {
+        RetrievalProperties.ConfidenceGate config = retrievalProperties.confidenceGate();
+        if (!config.enabled()) {
+            return false;
+        }
+        boolean confident = result.topSimilarity() >= config.minTopSimilarity()
+                && (result.scoreGap() >= config.minScoreGap() || result.sourceAgreement() >= config.minSourceAgreement());
+
+        long total = evaluated.incrementAndGet();
+        long skipped = confident ? fired.incrementAndGet() : fired.get();
+        metricService.recordRetrievalConfidenceGate(confident);
+        log.info("Шлюз уверенности: {} (top-1={}, отрыв={}, согласие FTS={}). Сработал {} из {} раз.",
+                confident ? "LLM-оценка пропущена" : "требуется LLM-оценка",
+                String.format("%.3f", result.topSimilarity()), String.format("%.3f", result.scoreGap()),
+                String.format("%.2f", result.sourceAgreement()), skipped, total);
+        return confident;
+    }
+}
@@ -32,7 +32,7 @@ public class VectorStoreCurationRepository {
      * @return Поток UUID документов.
      */
     public Flux<UUID> findDocumentsForCuration(int limit) {
-        final String sql = "SELECT DISTINCT CAST(metadata ->> 'documentId' AS UUID) " +
+        final String sql = "SELECT DISTINCT CAST(document_id AS UUID) " +
                 "FROM vector_store " +
                 "WHERE metadata ->> 'last_curated_at' IS NULL " +
                 "LIMIT :limit";
@@ -49,7 +49,7 @@ public class VectorStoreCurationRepository {
      * @return Mono с полным текстом документа.
      */
     public Mono<String> getFullTextByDocumentId(UUID documentId) {
-        final String sql = "SELECT content FROM vector_store WHERE metadata ->> 'documentId' = :docId ORDER BY id";
+        final String sql = "SELECT content FROM vector_store WHERE document_id = :docId ORDER BY id";
         return databaseClient.sql(sql)
                 .bind("docId", documentId.toString())
                 .map((row, metadata) -> row.get("content", String.class))
@@ -78,7 +78,7 @@ public class VectorStoreCurationRepository {
 
         final String sql = "UPDATE vector_store " +
                 "SET metadata = metadata || :mergeObject::jsonb " +
-                "WHERE metadata ->> 'documentId' = :docId";
+                "WHERE document_id = :docId";
 
         return databaseClient.sql(sql)
                 .bind("mergeObject", mergeObject)
@@ -3,14 +3,21 @@ package com.example.ragollama.optimization;
 import lombok.RequiredArgsConstructor;
 import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * Репозиторий для выполнения низкоуровневых операций с таблицей `vector_store`,
  * которые не покрываются стандартным интерфейсом {@link org.springframework.ai.vectorstore.VectorStore}.
  * Эта версия использует неблокирующий {@link DatabaseClient}.
+ * <p>
+ * Все выборки по документу используют индексируемую генерируемую колонку
+ * {@code document_id} (см. миграцию V30), а не выражение над JSONB.
  */
 @Repository
 @RequiredArgsConstructor
@@ -25,7 +32,7 @@ public class VectorStoreRepository {
      * @return {@link Mono} с количеством удаленных строк.
      */
     public Mono<Long> deleteByDocumentId(String documentId) {
-        final String sql = "DELETE FROM vector_store WHERE metadata ->> 'documentId' = :documentId";
+        final String sql = "DELETE FROM vector_store WHERE document_id = :documentId";
         return databaseClient.sql(sql)
                 .bind("documentId", documentId)
                 .fetch()
@@ -42,10 +49,83 @@ public class VectorStoreRepository {
         if (documentIds == null || documentIds.isEmpty()) {
             return Mono.just(0L);
         }
-        final String sql = "DELETE FROM vector_store WHERE metadata ->> 'documentId' IN (:documentIds)";
+        final String sql = "DELETE FROM vector_store WHERE document_id IN (:documentIds)";
         return databaseClient.sql(sql)
                 .bind("documentIds", documentIds)
                 .fetch()
                 .rowsUpdated();
     }
+
+    /**
+     * Отпечаток сохраненного чанка, достаточный для инкрементальной переиндексации.
+     *
+     * @param id          Первичный ключ строки в {@code vector_store}.
+     * @param contentHash Хеш содержимого чанка или {@code null} для чанков, проиндексированных до появления хешей.
+     */
+    public record ChunkFingerprint(UUID id, String contentHash) {
+    }
+
+    /**
+     * Асинхронно загружает отпечатки всех чанков документа без загрузки их содержимого и векторов.
+     *
+     * @param documentId Уникальный идентификатор документа.
+     * @return {@link Flux} с отпечатками чанков.
+     */
+    public Flux<ChunkFingerprint> findFingerprintsByDocumentId(String documentId) {
+        final String sql = "SELECT id, metadata ->> 'contentHash' AS content_hash FROM vector_store WHERE document_id = :documentId";
+        return databaseClient.sql(sql)
+                .bind("documentId", documentId)
+                .map((row, meta) -> new ChunkFingerprint(row.get("id", UUID.class), row.get("content_hash", String.class)))
+                .all();
+    }
+
+    /**
+     * Асинхронно удаляет чанки по их первичным ключам.
+     *
+     * @param ids Идентификаторы строк.
+     * @return {@link Mono} с количеством удаленных строк.
+     */
+    public Mono<Long> deleteByIds(Collection<UUID> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Mono.just(0L);
+        }
+        final String sql = "DELETE FROM vector_store WHERE id IN (:ids)";
+        return databaseClient.sql(sql)
+                .bind("ids", ids)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Асинхронно заменяет метаданные чанков целиком переданными JSON-объектами.
+     * Используется для чанков, которые не были переэмбеддены при переиндексации: их метаданные
+     * приводятся к тому же виду, что и при полной индексации, включая удаление исчезнувших ключей.
+     * Весь пакет обновляется одним запросом через {@code unnest} массивов.
+     *
+     * @param metadataById JSON-объекты метаданных по первичным ключам строк.
+     * @return {@link Mono} с количеством обновленных строк.
+     */
+    public Mono<Long> replaceMetadataByIds(Map<UUID, String> metadataById) {
+        if (metadataById == null || metadataById.isEmpty()) {
+            return Mono.just(0L);
+        }
+        UUID[] ids = new UUID[metadataById.size()];
+        String[] metadata = new String[metadataById.size()];
+        int i = 0;
+        for (Map.Entry<UUID, String> entry : metadataById.entrySet()) {
+            ids[i] = entry.getKey();
+            metadata[i] = entry.getValue();
+            i++;
+        }
+        final String sql = """
+                UPDATE vector_store v SET metadata = CAST(u.metadata AS jsonb)
+                FROM unnest(CAST(:ids AS uuid[]), CAST(:metadata AS text[])) AS u(id, metadata)
+                WHERE v.id = u.id
+                """;
+        return databaseClient.sql(sql)
+                .bind("ids", ids)
+                .bind("metadata", metadata)
+                .fetch()
+                .rowsUpdated();
+    }
 }
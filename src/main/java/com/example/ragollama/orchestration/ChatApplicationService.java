@@ -5,6 +5,7 @@ import com.example.ragollama.chat.api.dto.ChatResponse;
 import com.example.ragollama.chat.domain.ChatService;
 import com.example.ragollama.chat.domain.model.MessageRole;
 import com.example.ragollama.orchestration.dto.UniversalResponse;
+import com.example.ragollama.shared.llm.LlmPriority;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.prompt.Prompt;
@@ -47,7 +48,8 @@ public class ChatApplicationService {
                                     return dialogManager.endTurn(turnContext.sessionId(), turnContext.userMessageId(), llmAnswer, MessageRole.ASSISTANT, taskId)
                                             .thenReturn(new ChatResponse(llmAnswer, turnContext.sessionId(), finalPrompt));
                                 })
-                );
+                )
+                .contextWrite(LlmPriority.assignIfAbsent(LlmPriority.INTERACTIVE));
     }
 
     /**
@@ -85,6 +87,7 @@ public class ChatApplicationService {
                                     }
                                 }
                             });
-                });
+                })
+                .contextWrite(LlmPriority.assignIfAbsent(LlmPriority.INTERACTIVE));
     }
 }
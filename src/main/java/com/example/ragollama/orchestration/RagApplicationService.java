@@ -4,7 +4,10 @@ import com.example.ragollama.chat.domain.model.MessageRole;
 import com.example.ragollama.rag.api.dto.RagQueryRequest;
 import com.example.ragollama.rag.api.dto.RagQueryResponse;
 import com.example.ragollama.rag.api.dto.StreamingResponsePart;
+import com.example.ragollama.rag.pipeline.StreamingAnswerAccumulator;
 import com.example.ragollama.rag.pipeline.steps.RagPipelineOrchestrator;
+import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.llm.LlmPriority;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -27,6 +30,7 @@ public class RagApplicationService {
 
     private final RagPipelineOrchestrator ragPipelineOrchestrator;
     private final DialogManager dialogManager;
+    private final AppProperties appProperties;
 
     /**
      * Асинхронно обрабатывает RAG-запрос.
@@ -58,7 +62,8 @@ public class RagApplicationService {
                                                         ragAnswer.validationReport()
                                                 ))
                                 )
-                );
+                )
+                .contextWrite(LlmPriority.assignIfAbsent(LlmPriority.INTERACTIVE));
     }
 
     /**
@@ -71,30 +76,31 @@ public class RagApplicationService {
     public Flux<StreamingResponsePart> processRagRequestStream(RagQueryRequest request, UUID taskId) {
         return dialogManager.startTurn(request.sessionId(), request.query(), MessageRole.USER)
                 .flatMapMany(turnContext -> {
-                    final StringBuilder fullResponseBuilder = new StringBuilder();
+                    final StreamingAnswerAccumulator accumulator = new StreamingAnswerAccumulator(appProperties.rag().maxStoredAnswerChars());
                     return ragPipelineOrchestrator.queryStream(
                                     request.query(),
                                     turnContext.history(),
                                     request.topK(),
                                     request.similarityThreshold(),
                                     turnContext.sessionId(),
-                                    taskId
+                                    taskId,
+                                    accumulator
                             )
-                            .doOnNext(part -> {
-                                if (part instanceof StreamingResponsePart.Content content) {
-                                    fullResponseBuilder.append(content.text());
-                                }
-                            })
                             .doFinally(signalType -> {
                                 // Гарантированно сохраняем частичный или полный ответ при завершении или отмене
                                 if (signalType == SignalType.ON_COMPLETE || signalType == SignalType.CANCEL) {
-                                    String fullResponse = fullResponseBuilder.toString();
+                                    if (accumulator.isTruncated()) {
+                                        log.warn("Потоковый ответ для сессии {} превысил лимит {} символов и сохранен в истории в усеченном виде.",
+                                                turnContext.sessionId(), appProperties.rag().maxStoredAnswerChars());
+                                    }
+                                    String fullResponse = accumulator.answer();
                                     if (!fullResponse.isBlank()) {
                                         dialogManager.endTurn(turnContext.sessionId(), turnContext.userMessageId(), fullResponse, MessageRole.ASSISTANT, taskId)
                                                 .subscribe(null, error -> log.error("Ошибка при сохранении прерванного RAG-ответа", error));
                                     }
                                 }
                             });
-                });
+                })
+                .contextWrite(LlmPriority.assignIfAbsent(LlmPriority.INTERACTIVE));
     }
 }
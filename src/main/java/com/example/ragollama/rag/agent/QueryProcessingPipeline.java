@@ -1,21 +1,33 @@
 package com.example.ragollama.rag.agent;
 
 import com.example.ragollama.rag.domain.model.QueryFormationStep;
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
- * Сервис, реализующий последовательный конвейер для обработки и улучшения
+ * Сервис, реализующий конвейер для обработки и улучшения
  * пользовательского запроса перед этапом извлечения.
  * <p>
  * Эта версия не просто возвращает результат, а строит детальную историю
  * всех шагов трансформации, обеспечивая полную прозрачность процесса.
+ * <p>
+ * В спекулятивном режиме ({@code app.rag.retrieval.query-processing.speculative})
+ * все генераторы переформулировок запускаются одновременно, а их результаты
+ * принимаются по мере поступления. Как только получены основной запрос HyDE и
+ * достаточное количество качественных альтернативных формулировок, либо истек
+ * бюджет задержки этапа, оставшиеся вызовы LLM отменяются.
  */
 @Slf4j
 @Service
@@ -26,6 +38,7 @@ public class QueryProcessingPipeline {
     private final QueryTransformationAgent transformationAgent;
     private final MultiQueryGeneratorAgent multiQueryGeneratorAgent;
     private final StepBackQueryAgent stepBackQueryAgent;
+    private final RetrievalProperties retrievalProperties;
 
     /**
      * Выполняет полную цепочку обработки запроса и возвращает результат вместе с историей.
@@ -36,50 +49,156 @@ public class QueryProcessingPipeline {
      */
     public Mono<ProcessedQueries> process(String query) {
         log.info("Запуск конвейера обработки запроса для: '{}'", query);
+        RetrievalProperties.QueryProcessing config = retrievalProperties.queryProcessing();
+        if (config.speculative()) {
+            return processSpeculatively(query, config);
+        }
         List<QueryFormationStep> history = new ArrayList<>();
         List<String> expansionQueries = new ArrayList<>();
 
-        // Этап 1: HyDE - самый мощный, запускаем его первым для определения основного вектора поиска.
-        return hydeAgent.enhance(query)
-                .flatMap(hydeResult -> {
+        // Этапы 1 и 2 независимы друг от друга: HyDE определяет основной вектор поиска,
+        // трансформация извлекает ключевые слова. Запускаем их параллельно.
+        return Mono.zip(hydeAgent.enhance(query), transformationAgent.enhance(query))
+                .flatMap(tuple -> {
+                    List<String> hydeResult = tuple.getT1();
+                    List<String> transformedResult = tuple.getT2();
                     String primaryQuery = hydeResult.isEmpty() ? query : hydeResult.get(0);
                     history.add(new QueryFormationStep(
                             "HyDEAgent",
                             "Сгенерирован гипотетический документ для семантического поиска.",
                             primaryQuery
                     ));
+                    expansionQueries.addAll(transformedResult);
+                    history.add(new QueryFormationStep(
+                            "QueryTransformationAgent",
+                            "Извлечены ключевые термины для гибридного поиска.",
+                            String.join(", ", transformedResult)
+                    ));
+
+                    // Этап 3 (опциональный): Если трансформация не дала хороших результатов,
+                    // запускаем MultiQuery и StepBack для генерации альтернативных формулировок.
+                    if (isTransformationIneffective(query, transformedResult)) {
+                        log.debug("Трансформация не дала результата, запускаем MultiQuery и StepBack.");
+                        Mono<List<String>> multiQueryMono = multiQueryGeneratorAgent.enhance(query);
+                        Mono<List<String>> stepBackMono = stepBackQueryAgent.enhance(query);
 
-                    // Этап 2: Трансформация - для извлечения ключевых слов.
-                    return transformationAgent.enhance(query)
-                            .flatMap(transformedResult -> {
-                                expansionQueries.addAll(transformedResult);
-                                history.add(new QueryFormationStep(
-                                        "QueryTransformationAgent",
-                                        "Извлечены ключевые термины для гибридного поиска.",
-                                        String.join(", ", transformedResult)
-                                ));
-
-                                // Этап 3 (опциональный): Если трансформация не дала хороших результатов,
-                                // запускаем MultiQuery и StepBack для генерации альтернативных формулировок.
-                                if (isTransformationIneffective(query, transformedResult)) {
-                                    log.debug("Трансформация не дала результата, запускаем MultiQuery и StepBack.");
-                                    Mono<List<String>> multiQueryMono = multiQueryGeneratorAgent.enhance(query);
-                                    Mono<List<String>> stepBackMono = stepBackQueryAgent.enhance(query);
-
-                                    return Mono.zip(multiQueryMono, stepBackMono)
-                                            .map(tuple -> {
-                                                expansionQueries.addAll(tuple.getT1());
-                                                history.add(new QueryFormationStep("MultiQueryAgent", "Сгенерированы альтернативные формулировки.", tuple.getT1()));
-                                                expansionQueries.addAll(tuple.getT2());
-                                                history.add(new QueryFormationStep("StepBackQueryAgent", "Сгенерирован обобщенный концептуальный запрос.", tuple.getT2().get(0)));
-                                                return buildResult(query, primaryQuery, expansionQueries, history);
-                                            });
-                                }
-                                return Mono.just(buildResult(query, primaryQuery, expansionQueries, history));
-                            });
+                        return Mono.zip(multiQueryMono, stepBackMono)
+                                .map(expansions -> {
+                                    expansionQueries.addAll(expansions.getT1());
+                                    history.add(new QueryFormationStep("MultiQueryAgent", "Сгенерированы альтернативные формулировки.", expansions.getT1()));
+                                    expansionQueries.addAll(expansions.getT2());
+                                    history.add(new QueryFormationStep("StepBackQueryAgent", "Сгенерирован обобщенный концептуальный запрос.", expansions.getT2().get(0)));
+                                    return buildResult(query, primaryQuery, expansionQueries, history);
+                                });
+                    }
+                    return Mono.just(buildResult(query, primaryQuery, expansionQueries, history));
                 });
     }
 
+    /**
+     * Запускает все генераторы одновременно и собирает их результаты по мере поступления.
+     * Сбой отдельного генератора не прерывает этап: остальные генераторы его компенсируют.
+     */
+    private Mono<ProcessedQueries> processSpeculatively(String query, RetrievalProperties.QueryProcessing config) {
+        SpeculativeState state = new SpeculativeState(query, config.minExpansionQueries());
+        Flux<BranchResult> branches = Flux.merge(
+                branch(hydeAgent, query, "HyDEAgent", "Сгенерирован гипотетический документ для семантического поиска.", true),
+                branch(transformationAgent, query, "QueryTransformationAgent", "Извлечены ключевые термины для гибридного поиска.", false),
+                branch(multiQueryGeneratorAgent, query, "MultiQueryAgent", "Сгенерированы альтернативные формулировки.", false),
+                branch(stepBackQueryAgent, query, "StepBackQueryAgent", "Сгенерирован обобщенный концептуальный запрос.", false));
+
+        return branches
+                .take(config.latencyBudget())
+                .doOnNext(state::accept)
+                // Отмена после достаточного набора кандидатов отменяет и незавершенные вызовы LLM
+                .takeUntil(result -> state.isSufficient())
+                .then(Mono.fromCallable(() -> {
+                    log.debug("Спекулятивная обработка запроса: получено результатов генераторов: {}, достаточно: {}",
+                            state.history.size(), state.isSufficient());
+                    String primaryQuery = state.primaryQuery != null ? state.primaryQuery : query;
+                    return buildResult(query, primaryQuery, state.expansionQueries, state.history);
+                }));
+    }
+
+    private Mono<BranchResult> branch(QueryEnhancementAgent agent, String query, String stepName, String description, boolean primary) {
+        return agent.enhance(query)
+                .map(result -> new BranchResult(stepName, description, primary, result))
+                .onErrorResume(e -> {
+                    log.warn("Генератор '{}' завершился с ошибкой и будет пропущен: {}", stepName, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Результат одного генератора переформулировок.
+     */
+    private record BranchResult(String stepName, String description, boolean primary, List<String> queries) {
+    }
+
+    /**
+     * Накопитель результатов спекулятивного режима. Сигналы {@link Flux#merge} сериализованы,
+     * поэтому синхронизация не требуется.
+     * <p>
+     * Качественной считается формулировка, набор слов которой (без учета регистра, пунктуации
+     * и порядка) непуст и отличается от набора слов исходного запроса и от уже учтенных
+     * формулировок. Так повтор запроса, который MultiQuery возвращает первым элементом, его
+     * перестановки и ответы-заглушки генераторов с исходным запросом не приводят к досрочной
+     * отмене. Критерий лексический: семантически уводящая в сторону формулировка с новыми
+     * словами будет учтена, поэтому {@code minExpansionQueries} задает нижнюю границу
+     * разнообразия, а не релевантности.
+     */
+    private static final class SpeculativeState {
+        private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+        private final Set<String> originalWords;
+        private final int minExpansionQueries;
+        private final List<QueryFormationStep> history = new ArrayList<>();
+        private final List<String> expansionQueries = new ArrayList<>();
+        private final Set<Set<String>> qualityCandidates = new HashSet<>();
+        private String primaryQuery;
+
+        SpeculativeState(String originalQuery, int minExpansionQueries) {
+            this.originalWords = words(originalQuery);
+            this.minExpansionQueries = minExpansionQueries;
+        }
+
+        void accept(BranchResult result) {
+            List<String> queries = result.queries();
+            history.add(new QueryFormationStep(result.stepName(), result.description(),
+                    queries.size() == 1 ? queries.getFirst() : queries));
+            if (result.primary()) {
+                if (!queries.isEmpty() && StringUtils.isNotBlank(queries.getFirst())) {
+                    primaryQuery = queries.getFirst();
+                }
+                return;
+            }
+            for (String candidate : queries) {
+                if (StringUtils.isBlank(candidate)) {
+                    continue;
+                }
+                expansionQueries.add(candidate);
+                Set<String> candidateWords = words(candidate);
+                if (!candidateWords.isEmpty() && !candidateWords.equals(originalWords)) {
+                    qualityCandidates.add(candidateWords);
+                }
+            }
+        }
+
+        private static Set<String> words(String text) {
+            Set<String> words = new HashSet<>();
+            for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+            return words;
+        }
+
+        boolean isSufficient() {
+            return primaryQuery != null && qualityCandidates.size() >= minExpansionQueries;
+        }
+    }
+
     private boolean isTransformationIneffective(String originalQuery, List<String> transformedResult) {
         return transformedResult.size() <= 1 && transformedResult.getFirst().equals(originalQuery);
     }
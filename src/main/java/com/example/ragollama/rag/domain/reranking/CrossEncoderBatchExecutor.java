@@ -0,0 +1,155 @@
+package com.example.ragollama.rag.domain.reranking;
+
+import ai.djl.inference.Predictor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общий исполнитель для cross-encoder, объединяющий пары (query, passage) из
+ * конкурентных запросов в микро-батчи.
+ * <p>
+ * Пары помещаются в ограниченную очередь. Единственный рабочий поток забирает
+ * первую пару, затем добирает в батч до {@code maxBatchSize} пар, ожидая не дольше
+ * {@code maxWait}, и выполняет один {@link Predictor#batchPredict(List)}. Так как
+ * {@link Predictor} не потокобезопасен, один рабочий поток одновременно исключает
+ * гонки и позволяет модели обрабатывать батч одним прямым проходом.
+ * <p>
+ * При переполнении очереди новые пары отклоняются с {@link RejectedExecutionException},
+ * что дает вызывающей стороне явный сигнал обратного давления вместо неограниченного роста задержки.
+ */
+@Slf4j
+public class CrossEncoderBatchExecutor implements AutoCloseable {
+
+    private final Predictor<String[], Float> predictor;
+    private final BlockingQueue<PendingPair> queue;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * Создает и запускает исполнитель.
+     *
+     * @param predictor     Predictor, чей {@code Translator} поддерживает батчинг.
+     * @param queueCapacity Максимальное количество ожидающих пар.
+     * @param maxBatchSize  Максимальное количество пар в одном прямом проходе модели.
+     * @param maxWait       Максимальное время добора батча после появления первой пары.
+     */
+    public CrossEncoderBatchExecutor(Predictor<String[], Float> predictor, int queueCapacity, int maxBatchSize, Duration maxWait) {
+        this.predictor = Objects.requireNonNull(predictor, "predictor must not be null");
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.worker = new Thread(this::runLoop, "cross-encoder-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Ставит одну пару в очередь на оценку.
+     *
+     * @param query   Запрос пользователя.
+     * @param passage Текст документа.
+     * @return Future с оценкой релевантности пары.
+     */
+    public CompletableFuture<Float> submit(String query, String passage) {
+        PendingPair pending = new PendingPair(new String[]{query, passage}, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            pending.result().completeExceptionally(new RejectedExecutionException("Очередь cross-encoder переполнена или остановлена."));
+        }
+        return pending.result();
+    }
+
+    /**
+     * Асинхронно оценивает релевантность набора документов для одного запроса.
+     *
+     * @param query    Запрос пользователя.
+     * @param passages Тексты документов.
+     * @return {@link Mono} с массивом оценок в порядке документов.
+     */
+    public Mono<float[]> scoreAll(String query, List<String> passages) {
+        List<CompletableFuture<Float>> futures = passages.stream()
+                .map(passage -> submit(query, passage))
+                .toList();
+        return Mono.fromFuture(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)))
+                .then(Mono.fromCallable(() -> {
+                    float[] scores = new float[futures.size()];
+                    for (int i = 0; i < scores.length; i++) {
+                        Float score = futures.get(i).join();
+                        scores[i] = score != null ? score : 0f;
+                    }
+                    return scores;
+                }));
+    }
+
+    private void runLoop() {
+        List<PendingPair> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    PendingPair next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                predictBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } finally {
+                batch.forEach(p -> p.result().completeExceptionally(new RejectedExecutionException("Исполнитель cross-encoder остановлен.")));
+                batch.clear();
+            }
+        }
+    }
+
+    private void predictBatch(List<PendingPair> batch) {
+        List<String[]> inputs = batch.stream().map(PendingPair::pair).toList();
+        try {
+            List<Float> scores = predictor.batchPredict(inputs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(scores.get(i));
+            }
+            log.trace("Cross-encoder обработал батч из {} пар.", batch.size());
+        } catch (Exception e) {
+            log.error("Ошибка при батчевой оценке {} пар cross-encoder.", batch.size(), e);
+            batch.forEach(p -> p.result().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Останавливает рабочий поток и отклоняет все ожидающие пары.
+     */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        PendingPair pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result().completeExceptionally(new RejectedExecutionException("Исполнитель cross-encoder остановлен."));
+        }
+    }
+
+    private record PendingPair(String[] pair, CompletableFuture<Float> result) {
+    }
+}
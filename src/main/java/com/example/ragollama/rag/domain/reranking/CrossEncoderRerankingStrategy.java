@@ -10,13 +10,18 @@ import ai.djl.translate.Batchifier;
 import ai.djl.translate.TranslateException;
 import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class CrossEncoderRerankingStrategy {
 
     private final Predictor<String[], Float> predictor;
     private final HuggingFaceTokenizer tokenizer;
+    private final CrossEncoderBatchExecutor batchExecutor;
 
     /**
      * Конструктор.
@@ -26,8 +31,45 @@ public class CrossEncoderRerankingStrategy {
      */
     public CrossEncoderRerankingStrategy(Predictor<String[], Float> predictor,
                                          HuggingFaceTokenizer tokenizer) {
+        this(predictor, tokenizer, null);
+    }
+
+    /**
+     * Конструктор с общим исполнителем микро-батчей.
+     *
+     * @param predictor     Predictor, настроенный для модели cross-encoder
+     * @param tokenizer     HuggingFaceTokenizer, использованный при создании predictor'а
+     * @param batchExecutor Общий исполнитель, объединяющий пары из конкурентных запросов; может быть {@code null}
+     */
+    public CrossEncoderRerankingStrategy(Predictor<String[], Float> predictor,
+                                         HuggingFaceTokenizer tokenizer,
+                                         CrossEncoderBatchExecutor batchExecutor) {
         this.predictor = Objects.requireNonNull(predictor, "predictor must not be null");
         this.tokenizer = Objects.requireNonNull(tokenizer, "tokenizer must not be null");
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * Асинхронно оценивает документы для одного запроса.
+     * <p>
+     * Если задан общий исполнитель, пары ставятся в его очередь и объединяются
+     * с парами других запросов в микро-батчи. Иначе выполняется один
+     * {@link #rerank(String[][])} на пуле для блокирующих задач.
+     *
+     * @param query    запрос пользователя
+     * @param passages тексты документов
+     * @return {@link Mono} с массивом оценок в порядке документов
+     */
+    public Mono<float[]> rerank(String query, List<String> passages) {
+        if (passages == null || passages.isEmpty()) {
+            return Mono.just(new float[0]);
+        }
+        if (batchExecutor != null) {
+            return batchExecutor.scoreAll(query, passages);
+        }
+        String[][] pairs = passages.stream().map(p -> new String[]{query, p}).toArray(String[][]::new);
+        return Mono.fromCallable(() -> rerank(pairs))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
     /**
@@ -43,15 +85,26 @@ public class CrossEncoderRerankingStrategy {
             return new float[0];
         }
         float[] scores = new float[pairs.length];
+        List<String[]> validPairs = new ArrayList<>(pairs.length);
+        List<Integer> positions = new ArrayList<>(pairs.length);
         for (int i = 0; i < pairs.length; i++) {
             String[] pair = pairs[i];
             if (pair == null || pair.length < 2) {
                 scores[i] = 0f;
                 continue;
             }
-            // predictor принимает одну пару (String[]) и возвращает Float
-            Float s = predictor.predict(pair);
-            scores[i] = (s != null) ? s : 0f;
+            validPairs.add(pair);
+            positions.add(i);
+        }
+        if (validPairs.isEmpty()) {
+            return scores;
+        }
+        // Все пары оцениваются одним вызовом: при поддержке батчинга в Translator
+        // это один прямой проход модели вместо pairs.length последовательных.
+        List<Float> predicted = predictor.batchPredict(validPairs);
+        for (int i = 0; i < predicted.size(); i++) {
+            Float s = predicted.get(i);
+            scores[positions.get(i)] = (s != null) ? s : 0f;
         }
         return scores;
     }
@@ -62,6 +115,14 @@ public class CrossEncoderRerankingStrategy {
      * и формирует NDList: [input_ids, attention_mask] (+ token_type_ids если есть)
      * - processOutput: извлекает из NDList logits/score и возвращает single Float score.
      * <p>
+     * Если задан {@code maxLength > 0}, токенайзер должен быть настроен через
+     * {@link #configureTokenizer(HuggingFaceTokenizer.Builder, int)}: усечение только второй
+     * последовательности (документа) и паддинг до {@code maxLength} выполняет сам токенайзер,
+     * поэтому запрос и завершающий [SEP] сохраняются, а паддинг использует pad-токен модели.
+     * В этом случае {@link #getBatchifier()} возвращает {@link Batchifier#STACK}, и
+     * {@link Predictor#batchPredict(List)} складывает пары в тензор {@code [batch, maxLength]}
+     * для одного прямого прохода на весь батч.
+     * <p>
      * Реализация универсальна для моделей, которые возвращают:
      * - одиночный логит (shape [1,1]) -> возвращаем это значение
      * - два логита (shape [1,2]) -> применяем softmax и возвращаем вероятность положительного класса (index 1)
@@ -74,12 +135,33 @@ public class CrossEncoderRerankingStrategy {
         private final int maxLength;
 
         /**
-         * @param tokenizer HuggingFaceTokenizer (например, HuggingFaceTokenizer.newInstance(modelId))
-         * @param maxLength макс. длина (используется для pad/truncate при необходимости). Если <=0 — используется поведение токенайзера по умолчанию.
+         * @param tokenizer HuggingFaceTokenizer (например, HuggingFaceTokenizer.newInstance(modelId)). Если {@code maxLength > 0},
+         *                  токенайзер должен быть настроен через {@link #configureTokenizer(HuggingFaceTokenizer.Builder, int)}.
+         * @param maxLength макс. длина последовательности пары. Если <=0 — используется поведение токенайзера по умолчанию без батчинга.
+         * @throws IllegalArgumentException если токенайзер не усекает и не дополняет пары до {@code maxLength}
          */
         public CrossEncoderTranslator(HuggingFaceTokenizer tokenizer, int maxLength) {
             this.tokenizer = Objects.requireNonNull(tokenizer, "tokenizer must not be null");
             this.maxLength = maxLength;
+            if (maxLength > 0 && (tokenizer.getMaxLength() != maxLength
+                    || !"ONLY_SECOND".equals(tokenizer.getTruncation())
+                    || !"MAX_LENGTH".equals(tokenizer.getPadding()))) {
+                throw new IllegalArgumentException("tokenizer must truncate ONLY_SECOND and pad to MAX_LENGTH " + maxLength
+                        + ", see CrossEncoderTranslator.configureTokenizer");
+            }
+        }
+
+        /**
+         * Настраивает токенайзер для батчевой оценки пар фиксированной длины.
+         *
+         * @param builder   Builder токенайзера с уже указанной моделью.
+         * @param maxLength Длина последовательности пары в токенах.
+         * @return Тот же builder.
+         */
+        public static HuggingFaceTokenizer.Builder configureTokenizer(HuggingFaceTokenizer.Builder builder, int maxLength) {
+            return builder.optMaxLength(maxLength)
+                    .optTruncateSecondOnly()
+                    .optPadToMaxLength();
         }
 
         @Override
@@ -90,34 +172,30 @@ public class CrossEncoderRerankingStrategy {
             String first = input[0];
             String second = input[1];
 
-            // Выполняем токенизацию пары (включая спец. токены, разделители и т.д.)
-            // encode(first, second) возвращает Encoding с ids, attention mask и (опционально) type ids.
-            Encoding encoding;
-            if (maxLength > 0) {
-                // есть перегрузка encode(String, String, boolean) — но тут используем простую encode
-                // если нужно управление padding/truncation — конфигурировать токенайзер заранее через builder
-                encoding = tokenizer.encode(first, second);
-            } else {
-                encoding = tokenizer.encode(first, second);
-            }
+            // Выполняем токенизацию пары (включая спец. токены, разделители и т.д.).
+            // Усечение и паддинг до maxLength, если он задан, выполняет сам токенайзер.
+            Encoding encoding = tokenizer.encode(first, second);
 
             long[] ids = encoding.getIds(); // token ids
             long[] attention = encoding.getAttentionMask(); // attention mask
             long[] typeIds = encoding.getTypeIds(); // may be null (some tokenizers/models)
+            boolean hasTypeIds = typeIds != null && typeIds.length == ids.length;
 
-            NDManager mgr = ctx.getNDManager();
+            if (maxLength > 0 && ids.length != maxLength) {
+                // Batchifier.STACK требует одинаковой формы всех элементов батча
+                throw new IllegalStateException("tokenizer produced " + ids.length + " tokens, expected " + maxLength);
+            }
 
-            // Создаём NDArrays и приводим к форме [1, seq_len]
-            NDArray idsArray = mgr.create(ids).reshape(1, ids.length);
-            NDArray attentionArray = mgr.create(attention).reshape(1, attention.length);
+            NDManager mgr = ctx.getNDManager();
 
+            // При батчинге форма [seq_len] (батч-измерение добавит Batchifier),
+            // без батчинга — сразу [1, seq_len]
             NDList ndList = new NDList();
-            ndList.add(idsArray);
-            ndList.add(attentionArray);
+            ndList.add(toModelInput(mgr, ids));
+            ndList.add(toModelInput(mgr, attention));
 
-            if (typeIds != null && typeIds.length == ids.length) {
-                NDArray typeIdsArray = mgr.create(typeIds).reshape(1, typeIds.length);
-                ndList.add(typeIdsArray);
+            if (hasTypeIds) {
+                ndList.add(toModelInput(mgr, typeIds));
             }
 
             return ndList;
@@ -157,8 +235,14 @@ public class CrossEncoderRerankingStrategy {
 
         @Override
         public Batchifier getBatchifier() {
-            // null — мы не используем автоматический батчинг в Translator, batching может быть реализован извне
-            return null;
+            // Без фиксированной длины последовательности разной длины нельзя сложить в один тензор,
+            // поэтому DJL будет обрабатывать элементы batchPredict по одному.
+            return maxLength > 0 ? Batchifier.STACK : null;
+        }
+
+        private NDArray toModelInput(NDManager mgr, long[] values) {
+            NDArray array = mgr.create(values);
+            return maxLength > 0 ? array : array.reshape(1, values.length);
         }
     }
 }
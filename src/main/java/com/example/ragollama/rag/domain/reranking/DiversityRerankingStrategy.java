@@ -29,38 +29,47 @@ public class DiversityRerankingStrategy implements RerankingStrategy {
         double lambda = properties.strategies().diversity().lambda();
         log.debug("Применение DiversityRerankingStrategy (MMR) с lambda={}", lambda);
 
-        List<Document> remainingDocs = new ArrayList<>(documents);
-        List<Document> rerankedDocs = new ArrayList<>();
-
-        if (!remainingDocs.isEmpty()) {
-            // Первый документ всегда самый релевантный
-            rerankedDocs.add(remainingDocs.remove(0));
+        int n = documents.size();
+        float[] relevance = new float[n];
+        float[][] vectors = new float[n][];
+        for (int i = 0; i < n; i++) {
+            relevance[i] = getRelevanceScore(documents.get(i));
+            vectors[i] = toUnitVector(documents.get(i));
         }
+        float[][] similarity = similarityMatrix(vectors);
 
-        while (!remainingDocs.isEmpty()) {
-            Document nextDoc = null;
-            double maxMmrScore = Double.NEGATIVE_INFINITY;
-
-            for (Document candidateDoc : remainingDocs) {
-                float relevance = getRelevanceScore(candidateDoc);
-                double maxSimilarityToSelected = rerankedDocs.stream()
-                        .mapToDouble(selectedDoc -> cosineSimilarity(selectedDoc, candidateDoc))
-                        .max()
-                        .orElse(0.0);
+        boolean[] selected = new boolean[n];
+        // maxSimilarity[j] — максимальная схожесть кандидата j с уже выбранными документами.
+        // Обновляется инкрементально после каждого выбора, поэтому раунд стоит O(n).
+        float[] maxSimilarity = new float[n];
+        List<Document> rerankedDocs = new ArrayList<>(n);
 
-                double mmrScore = lambda * relevance - (1 - lambda) * maxSimilarityToSelected;
+        // Первый документ всегда самый релевантный
+        selected[0] = true;
+        rerankedDocs.add(documents.get(0));
+        System.arraycopy(similarity[0], 0, maxSimilarity, 0, n);
 
+        for (int round = 1; round < n; round++) {
+            int next = -1;
+            double maxMmrScore = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < n; j++) {
+                if (selected[j]) {
+                    continue;
+                }
+                double mmrScore = lambda * relevance[j] - (1 - lambda) * maxSimilarity[j];
                 if (mmrScore > maxMmrScore) {
                     maxMmrScore = mmrScore;
-                    nextDoc = candidateDoc;
+                    next = j;
                 }
             }
+            selected[next] = true;
+            rerankedDocs.add(documents.get(next));
 
-            if (nextDoc != null) {
-                rerankedDocs.add(nextDoc);
-                remainingDocs.remove(nextDoc);
-            } else {
-                break; // Больше нечего добавлять
+            float[] row = similarity[next];
+            for (int j = 0; j < n; j++) {
+                if (!selected[j] && row[j] > maxSimilarity[j]) {
+                    maxSimilarity[j] = row[j];
+                }
             }
         }
         return rerankedDocs;
@@ -75,30 +84,67 @@ public class DiversityRerankingStrategy implements RerankingStrategy {
     }
 
     /**
-     * Извлекаем эмбеддинги из метаданных документа.
+     * Вычисляет симметричную матрицу косинусных схожестей один раз на весь набор кандидатов.
+     * Векторы уже нормализованы, поэтому схожесть сводится к скалярному произведению.
+     * Пары, где хотя бы один эмбеддинг отсутствует, получают схожесть 0.
      */
-    @SuppressWarnings("unchecked")
-    private double cosineSimilarity(Document doc1, Document doc2) {
-        // Получаем эмбеддинг из метаданных
-        List<Double> v1 = (List<Double>) doc1.getMetadata().get("embedding");
-        List<Double> v2 = (List<Double>) doc2.getMetadata().get("embedding");
-
-        if (v1 == null || v2 == null) {
-            log.trace("Не удалось вычислить схожесть: один из эмбеддингов отсутствует.");
-            return 0.0;
+    private float[][] similarityMatrix(float[][] vectors) {
+        int n = vectors.length;
+        float[][] matrix = new float[n][n];
+        for (int i = 0; i < n; i++) {
+            float[] a = vectors[i];
+            if (a == null) {
+                continue;
+            }
+            for (int j = i + 1; j < n; j++) {
+                float[] b = vectors[j];
+                if (b == null) {
+                    continue;
+                }
+                Assert.isTrue(a.length == b.length, "Векторы должны иметь одинаковую размерность");
+                float dot = 0f;
+                for (int k = 0; k < a.length; k++) {
+                    dot += a[k] * b[k];
+                }
+                matrix[i][j] = dot;
+                matrix[j][i] = dot;
+            }
         }
+        return matrix;
+    }
 
-        Assert.isTrue(v1.size() == v2.size(), "Векторы должны иметь одинаковую размерность");
+    /**
+     * Извлекает эмбеддинг из метаданных документа и приводит его к единичной длине.
+     * Поддерживаются как {@code float[]}, так и список чисел.
+     *
+     * @return Нормализованный вектор или {@code null}, если эмбеддинг отсутствует или нулевой.
+     */
+    private float[] toUnitVector(Document doc) {
+        Object raw = doc.getMetadata().get("embedding");
+        float[] vector;
+        if (raw instanceof float[] array) {
+            vector = array.clone();
+        } else if (raw instanceof List<?> list) {
+            vector = new float[list.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = ((Number) list.get(i)).floatValue();
+            }
+        } else {
+            log.trace("Эмбеддинг отсутствует в метаданных документа, схожесть с ним считается нулевой.");
+            return null;
+        }
 
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        for (int i = 0; i < v1.size(); i++) {
-            dotProduct += v1.get(i) * v2.get(i);
-            normA += Math.pow(v1.get(i), 2);
-            normB += Math.pow(v2.get(i), 2);
+        double norm = 0.0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float inverse = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= inverse;
         }
-        if (normA == 0 || normB == 0) return 0.0;
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        return vector;
     }
 }
@@ -54,7 +54,13 @@ public class DocumentFtsRepository {
                     String content = row.get("content", String.class);
                     String metaJson = row.get("metadata", String.class);
                     Map<String, Object> meta = parseMetadata(metaJson);
-                    return new Document(id.toString(), content, meta);
+                    Double rank = row.get("rank", Double.class);
+                    return Document.builder()
+                            .id(id.toString())
+                            .text(content)
+                            .metadata(meta)
+                            .score(rank)
+                            .build();
                 })
                 .all()
                 .collectList();
@@ -0,0 +1,14 @@
+package com.example.ragollama.rag.domain.retrieval;
+
+/**
+ * Родительский чанк документа, используемый стратегией Parent Document Retriever.
+ * <p>
+ * Хранится один раз в таблице {@code parent_chunks}; дочерние чанки в
+ * {@code vector_store} ссылаются на него через метаданные {@code parentChunkId}.
+ *
+ * @param id         Идентификатор родительского чанка (значение {@code parentChunkId}).
+ * @param documentId Идентификатор исходного документа.
+ * @param content    Полный текст родительского чанка.
+ */
+public record ParentChunk(String id, String documentId, String content) {
+}
@@ -0,0 +1,95 @@
+package com.example.ragollama.rag.domain.retrieval;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий для работы с таблицей {@code parent_chunks} с использованием R2DBC.
+ * <p>
+ * Все операции выполняются одним SQL-запросом независимо от количества
+ * затрагиваемых родительских чанков.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ParentChunkRepository {
+
+    private final DatabaseClient databaseClient;
+
+    /**
+     * Загружает тексты родительских чанков одним пакетным запросом.
+     *
+     * @param ids Идентификаторы родительских чанков.
+     * @return {@link Mono} с картой {@code parentChunkId -> текст} для найденных записей.
+     */
+    public Mono<Map<String, String>> findContentByIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        final String sql = "SELECT id, content FROM parent_chunks WHERE id IN (:ids)";
+        return databaseClient.sql(sql)
+                .bind("ids", ids)
+                .map((row, metadata) -> Map.entry(row.get("id", String.class), row.get("content", String.class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Приводит набор родительских чанков документа к переданному: удаляет
+     * отсутствующие в нем и вставляет новые. Уже существующие записи не переписываются,
+     * так как идентификатор родителя выводится из его содержимого.
+     *
+     * @param documentId Идентификатор документа.
+     * @param parents    Актуальный набор родительских чанков документа.
+     * @return {@link Mono}, завершающийся после синхронизации.
+     */
+    public Mono<Void> replaceForDocument(String documentId, List<ParentChunk> parents) {
+        if (parents.isEmpty()) {
+            return deleteByDocumentIds(List.of(documentId)).then();
+        }
+        String[] ids = parents.stream().map(ParentChunk::id).toArray(String[]::new);
+        String[] contents = parents.stream().map(ParentChunk::content).toArray(String[]::new);
+
+        final String deleteSql = "DELETE FROM parent_chunks WHERE document_id = :documentId AND NOT (id = ANY(:ids))";
+        final String insertSql = """
+                INSERT INTO parent_chunks (id, document_id, content)
+                SELECT p.id, :documentId, p.content
+                FROM unnest(CAST(:ids AS text[]), CAST(:contents AS text[])) AS p(id, content)
+                ON CONFLICT (id) DO NOTHING
+                """;
+        return databaseClient.sql(deleteSql)
+                .bind("documentId", documentId)
+                .bind("ids", ids)
+                .fetch()
+                .rowsUpdated()
+                .then(databaseClient.sql(insertSql)
+                        .bind("documentId", documentId)
+                        .bind("ids", ids)
+                        .bind("contents", contents)
+                        .fetch()
+                        .rowsUpdated())
+                .then();
+    }
+
+    /**
+     * Удаляет все родительские чанки указанных документов.
+     *
+     * @param documentIds Идентификаторы документов.
+     * @return {@link Mono} с количеством удаленных строк.
+     */
+    public Mono<Long> deleteByDocumentIds(Collection<String> documentIds) {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return Mono.just(0L);
+        }
+        final String sql = "DELETE FROM parent_chunks WHERE document_id IN (:documentIds)";
+        return databaseClient.sql(sql)
+                .bind("documentIds", documentIds)
+                .fetch()
+                .rowsUpdated();
+    }
+}
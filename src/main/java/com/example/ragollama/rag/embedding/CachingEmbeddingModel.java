@@ -0,0 +1,227 @@
+package com.example.ragollama.rag.embedding;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.util.ContentHashUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Декоратор над {@link EmbeddingModel}, добавляющий двухуровневый кэш эмбеддингов.
+ * <p>
+ * Входные тексты дедуплицируются по SHA-256 хешу, в который помимо текста входят
+ * идентификатор модели с ее версией и модель/размерность из опций запроса, поэтому смена
+ * модели не возвращает векторы, посчитанные другой моделью. Повторы отдаются
+ * из ограниченного in-memory уровня, затем из таблицы {@code embedding_cache}, и только
+ * оставшиеся промахи отправляются в делегат пакетами размером не более
+ * {@link EmbeddingCacheProperties#batchSize()}. Благодаря этому повторная индексация
+ * неизмененного корпуса и повторяющиеся запросы (HyDE, multi-query) не вызывают модель.
+ * <p>
+ * Ожидается, что делегат уже возвращает L2-нормализованные векторы
+ * (см. {@link NormalizingEmbeddingModel}), поэтому в кэше хранятся именно они.
+ * Записи персистентного уровня старше {@link EmbeddingCacheProperties#ttl()} и записи
+ * других моделей периодически удаляются.
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    static final String CACHE_NAME = "embeddings";
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCacheRepository repository;
+    private final EmbeddingCacheProperties properties;
+    private final MetricService metricService;
+    private final String modelKey;
+    private final Cache<String, float[]> memoryCache;
+
+    /**
+     * Создает кэширующий декоратор.
+     *
+     * @param delegate      Модель, вычисляющая эмбеддинги для промахов кэша.
+     * @param repository    Репозиторий персистентного уровня кэша.
+     * @param properties    Настройки кэша.
+     * @param metricService Сервис метрик.
+     * @param modelKey      Идентификатор модели и ее версии, входящий в ключ кэша.
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate,
+                                 EmbeddingCacheRepository repository,
+                                 EmbeddingCacheProperties properties,
+                                 MetricService metricService,
+                                 String modelKey) {
+        this.delegate = delegate;
+        this.repository = repository;
+        this.properties = properties;
+        this.metricService = metricService;
+        this.modelKey = modelKey;
+        this.memoryCache = CacheBuilder.newBuilder()
+                .maximumSize(properties.maxSize())
+                .build();
+        metricService.registerCacheSizeGauge(CACHE_NAME, memoryCache::size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String optionsKey = optionsKey(request.getOptions());
+        List<String> hashes = texts.stream().map(text -> hash(optionsKey, text)).toList();
+        Map<String, float[]> resolved = resolve(texts, hashes, request.getOptions());
+
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            embeddings.add(new Embedding(resolved.get(hashes.get(i)).clone(), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return call(new EmbeddingRequest(List.of(text), EmbeddingOptionsBuilder.builder().build())).getResult().getOutput();
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        return call(new EmbeddingRequest(texts, EmbeddingOptionsBuilder.builder().build())).getResults().stream()
+                .map(Embedding::getOutput)
+                .toList();
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    /**
+     * Находит векторы для всех уникальных хешей, последовательно обращаясь
+     * к памяти, к базе данных и, для оставшихся промахов, к модели.
+     */
+    private Map<String, float[]> resolve(List<String> texts, List<String> hashes, EmbeddingOptions options) {
+        Map<String, float[]> resolved = new HashMap<>();
+        Map<String, String> misses = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String hash = hashes.get(i);
+            if (resolved.containsKey(hash) || misses.containsKey(hash)) {
+                continue;
+            }
+            float[] cached = memoryCache.getIfPresent(hash);
+            if (cached != null) {
+                resolved.put(hash, cached);
+            } else {
+                misses.put(hash, texts.get(i));
+            }
+        }
+
+        if (!misses.isEmpty() && properties.persistent()) {
+            Map<String, float[]> stored = loadPersisted(misses.keySet());
+            stored.forEach((hash, vector) -> {
+                misses.remove(hash);
+                memoryCache.put(hash, vector);
+                resolved.put(hash, vector);
+            });
+        }
+
+        int hits = resolved.size();
+        metricService.incrementCacheHit(CACHE_NAME, hits);
+        metricService.incrementCacheMiss(CACHE_NAME, misses.size());
+
+        if (!misses.isEmpty()) {
+            Map<String, float[]> computed = computeInBatches(misses, options);
+            computed.forEach(memoryCache::put);
+            resolved.putAll(computed);
+            if (properties.persistent()) {
+                persist(computed);
+            }
+        }
+        log.trace("Эмбеддинги: {} входных текстов, {} из кэша, {} вычислено моделью.", texts.size(), hits, misses.size());
+        return resolved;
+    }
+
+    private Map<String, float[]> computeInBatches(Map<String, String> misses, EmbeddingOptions options) {
+        Map<String, float[]> computed = new HashMap<>();
+        List<Map.Entry<String, String>> entries = new ArrayList<>(misses.entrySet());
+        for (List<Map.Entry<String, String>> batch : Lists.partition(entries, properties.batchSize())) {
+            List<String> batchTexts = batch.stream().map(Map.Entry::getValue).toList();
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(batchTexts, options));
+            List<Embedding> results = response.getResults();
+            for (int i = 0; i < batch.size(); i++) {
+                computed.put(batch.get(i).getKey(), results.get(i).getOutput());
+            }
+        }
+        return computed;
+    }
+
+    private Map<String, float[]> loadPersisted(Set<String> hashes) {
+        try {
+            return repository.findAll(modelKey, hashes);
+        } catch (DataAccessException e) {
+            log.warn("Не удалось прочитать персистентный кэш эмбеддингов, продолжаем без него.", e);
+            return Map.of();
+        }
+    }
+
+    private void persist(Map<String, float[]> computed) {
+        try {
+            repository.saveAll(modelKey, computed);
+        } catch (DataAccessException e) {
+            log.warn("Не удалось сохранить {} эмбеддингов в персистентный кэш.", computed.size(), e);
+        }
+    }
+
+    /**
+     * Периодически удаляет устаревшие записи персистентного уровня.
+     */
+    @Scheduled(fixedDelayString = "PT6H", initialDelayString = "PT10M")
+    public void pruneExpired() {
+        if (!properties.persistent()) {
+            return;
+        }
+        try {
+            int deleted = repository.deleteStale(modelKey, OffsetDateTime.now().minus(properties.ttl()));
+            log.debug("Удалено {} устаревших эмбеддингов из кэша БД.", deleted);
+        } catch (DataAccessException e) {
+            log.warn("Не удалось очистить персистентный кэш эмбеддингов: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Строит часть ключа, зависящую от модели: идентификатор модели делегата и
+     * переопределения модели и размерности из опций запроса.
+     */
+    private String optionsKey(EmbeddingOptions options) {
+        if (options == null) {
+            return modelKey;
+        }
+        return modelKey + "|" + Objects.toString(options.getModel(), "") + "|" + Objects.toString(options.getDimensions(), "");
+    }
+
+    private static String hash(String optionsKey, String text) {
+        return ContentHashUtils.sha256(optionsKey, text);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.ragollama.rag.embedding;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Типобезопасная конфигурация для кэша эмбеддингов.
+ *
+ * @param enabled       Включает или отключает кэширование эмбеддингов.
+ * @param maxSize       Максимальное количество векторов в in-memory уровне кэша.
+ * @param batchSize     Максимальное количество текстов, отправляемых в модель за один вызов.
+ * @param persistent    Включает персистентный уровень кэша в таблице {@code embedding_cache}.
+ * @param ttl           Время жизни записи персистентного уровня. Более старые записи, а также
+ *                      записи других моделей удаляются периодической очисткой.
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.embedding.cache")
+public record EmbeddingCacheProperties(
+        boolean enabled,
+        @Min(1) long maxSize,
+        @Min(1) @Max(512) int batchSize,
+        boolean persistent,
+        @NotNull Duration ttl
+) {
+}
@@ -0,0 +1,91 @@
+package com.example.ragollama.rag.embedding;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий для персистентного уровня кэша эмбеддингов (таблица {@code embedding_cache}).
+ * <p>
+ * Использует блокирующий {@link JdbcTemplate}, так как вызывается из синхронного
+ * контракта {@link org.springframework.ai.embedding.EmbeddingModel}, который, в свою
+ * очередь, используется {@code PgVectorStore} внутри JDBC-операций.
+ */
+@Repository
+@RequiredArgsConstructor
+public class EmbeddingCacheRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Загружает сохраненные векторы для набора хешей.
+     *
+     * @param modelKey Идентификатор модели эмбеддингов.
+     * @param hashes   Хеши текстов.
+     * @return Карта {@code хеш -> вектор} только для найденных записей.
+     */
+    public Map<String, float[]> findAll(String modelKey, Collection<String> hashes) {
+        Map<String, float[]> found = new HashMap<>();
+        if (hashes.isEmpty()) {
+            return found;
+        }
+        String sql = "SELECT content_hash, embedding FROM embedding_cache WHERE model_key = :modelKey AND content_hash IN (:hashes)";
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("modelKey", modelKey)
+                .addValue("hashes", hashes);
+        new NamedParameterJdbcTemplate(jdbcTemplate).query(sql, params, rs -> {
+            found.put(rs.getString("content_hash"), fromBytes(rs.getBytes("embedding")));
+        });
+        return found;
+    }
+
+    /**
+     * Сохраняет векторы одним пакетным запросом, игнорируя уже существующие записи.
+     *
+     * @param modelKey   Идентификатор модели эмбеддингов.
+     * @param embeddings Карта {@code хеш -> вектор}.
+     */
+    public void saveAll(String modelKey, Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO embedding_cache (content_hash, model_key, embedding) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+        List<Object[]> batchArgs = new ArrayList<>(embeddings.size());
+        embeddings.forEach((hash, vector) -> batchArgs.add(new Object[]{hash, modelKey, toBytes(vector)}));
+        jdbcTemplate.batchUpdate(sql, batchArgs);
+    }
+
+    /**
+     * Удаляет записи, созданные раньше указанного момента, и записи других моделей.
+     *
+     * @param currentModelKey Идентификатор текущей модели эмбеддингов.
+     * @param createdBefore   Граница времени жизни записей.
+     * @return Количество удаленных строк.
+     */
+    public int deleteStale(String currentModelKey, OffsetDateTime createdBefore) {
+        return jdbcTemplate.update("DELETE FROM embedding_cache WHERE model_key <> ? OR created_at < ?",
+                currentModelKey, createdBefore);
+    }
+
+    private static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] fromBytes(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.ai.document.Document;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -79,4 +80,24 @@ public record RagFlowContext(
     public RagFlowContext withFinalAnswer(RagAnswer answer) {
         return new RagFlowContext(this.originalQuery, this.history, this.topK, this.similarityThreshold, this.sessionId, this.promptModel, this.userProvidedContext, this.processedQueries, this.retrievedDocuments, this.rerankedDocuments, this.compressedContext, this.finalPrompt, answer);
     }
+
+    /**
+     * Возвращает копию контекста, в которой указанные поля взяты из другого контекста.
+     * Используется оркестратором для объединения результатов параллельно выполненных шагов.
+     *
+     * @param source Контекст, из которого берутся значения.
+     * @param fields Поля, значения которых нужно перенести.
+     * @return Новый контекст.
+     */
+    public RagFlowContext mergeFrom(RagFlowContext source, Set<RagFlowField> fields) {
+        return new RagFlowContext(this.originalQuery, this.history, this.topK, this.similarityThreshold, this.sessionId,
+                fields.contains(RagFlowField.PROMPT_MODEL) ? source.promptModel : this.promptModel,
+                fields.contains(RagFlowField.USER_PROVIDED_CONTEXT) ? source.userProvidedContext : this.userProvidedContext,
+                fields.contains(RagFlowField.PROCESSED_QUERIES) ? source.processedQueries : this.processedQueries,
+                fields.contains(RagFlowField.RETRIEVED_DOCUMENTS) ? source.retrievedDocuments : this.retrievedDocuments,
+                fields.contains(RagFlowField.RERANKED_DOCUMENTS) ? source.rerankedDocuments : this.rerankedDocuments,
+                fields.contains(RagFlowField.COMPRESSED_CONTEXT) ? source.compressedContext : this.compressedContext,
+                fields.contains(RagFlowField.FINAL_PROMPT) ? source.finalPrompt : this.finalPrompt,
+                fields.contains(RagFlowField.FINAL_ANSWER) ? source.finalAnswer : this.finalAnswer);
+    }
 }
@@ -0,0 +1,36 @@
+package com.example.ragollama.rag.pipeline;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Перечисление изменяемых полей {@link RagFlowContext}, через которые шаги
+ * конвейера обмениваются данными.
+ * <p>
+ * Шаги объявляют, какие поля они читают и какие записывают (см.
+ * {@link RagPipelineStep#dependsOn()} и {@link RagPipelineStep#produces()}).
+ * На основе этих деклараций {@code RagPipelineOrchestrator} строит граф
+ * зависимостей и запускает независимые шаги параллельно. Неизменяемые входные
+ * параметры запроса (исходный запрос, история, topK и т.д.) доступны всем шагам
+ * и в перечисление не входят.
+ */
+public enum RagFlowField {
+    PROMPT_MODEL,
+    USER_PROVIDED_CONTEXT,
+    PROCESSED_QUERIES,
+    RETRIEVED_DOCUMENTS,
+    RERANKED_DOCUMENTS,
+    COMPRESSED_CONTEXT,
+    FINAL_PROMPT,
+    FINAL_ANSWER;
+
+    /**
+     * Возвращает множество всех полей. Используется шагами без явных деклараций,
+     * которые тем самым выполняются как барьер — строго после всех предыдущих шагов.
+     *
+     * @return Изменяемое множество всех полей.
+     */
+    public static Set<RagFlowField> all() {
+        return EnumSet.allOf(RagFlowField.class);
+    }
+}
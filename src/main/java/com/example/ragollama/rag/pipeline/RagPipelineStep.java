@@ -2,6 +2,8 @@ package com.example.ragollama.rag.pipeline;
 
 import reactor.core.publisher.Mono;
 
+import java.util.Set;
+
 /**
  * Определяет контракт для одного шага в RAG-конвейере.
  * <p>
@@ -12,6 +14,8 @@ import reactor.core.publisher.Mono;
  * <p>
  * Реализации этого интерфейса должны быть аннотированы {@code @Order}, чтобы
  * определить их последовательность выполнения в {@link RagPipelineOrchestrator}.
+ * Шаг может дополнительно объявить поля контекста, которые он читает и записывает;
+ * тогда оркестратор запустит его параллельно с шагами, от которых он не зависит.
  */
 @FunctionalInterface
 public interface RagPipelineStep {
@@ -23,4 +27,28 @@ public interface RagPipelineStep {
      * @return {@link Mono}, который по завершении будет содержать обновленный контекст.
      */
     Mono<RagFlowContext> process(RagFlowContext context);
+
+    /**
+     * Возвращает поля контекста, которые шаг читает.
+     * <p>
+     * По умолчанию шаг зависит от всех полей, то есть выполняется после всех
+     * предыдущих по {@code @Order} шагов.
+     *
+     * @return Множество читаемых полей.
+     */
+    default Set<RagFlowField> dependsOn() {
+        return RagFlowField.all();
+    }
+
+    /**
+     * Возвращает поля контекста, которые шаг может изменить.
+     * <p>
+     * Значения остальных полей в результате шага оркестратором игнорируются.
+     * По умолчанию шаг считается изменяющим все поля.
+     *
+     * @return Множество записываемых полей.
+     */
+    default Set<RagFlowField> produces() {
+        return RagFlowField.all();
+    }
 }
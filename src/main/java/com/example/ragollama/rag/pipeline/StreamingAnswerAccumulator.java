@@ -0,0 +1,107 @@
+package com.example.ragollama.rag.pipeline;
+
+import com.example.ragollama.rag.api.dto.StreamingResponsePart;
+import com.example.ragollama.rag.domain.model.SourceCitation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ограниченный накопитель финального ответа, который строится по мере прохождения
+ * частей потокового ответа к клиенту.
+ * <p>
+ * Заменяет повторную подписку на поток с {@code collectList()}: в памяти хранится
+ * только текст ответа (не более {@code maxAnswerChars} символов) и список источников,
+ * а не все промежуточные объекты потока. Если ответ превысил лимит, к сохраненному
+ * тексту добавляется {@link #TRUNCATION_MARKER}, чтобы усечение было видно в истории диалога. Один и тот же экземпляр используется
+ * аудитом и постобработкой после завершения потока.
+ * <p>
+ * Части потока поступают последовательно (правило Reactive Streams), поэтому
+ * синхронизация нужна только для безопасной публикации результата в другой поток.
+ */
+public final class StreamingAnswerAccumulator {
+
+    /**
+     * Ограничение размера ответа по умолчанию.
+     */
+    public static final int DEFAULT_MAX_ANSWER_CHARS = 100_000;
+
+    /**
+     * Пометка, добавляемая в конец усеченного ответа.
+     */
+    public static final String TRUNCATION_MARKER = "\n\n[Ответ сокращен: превышен лимит сохраняемого размера]";
+
+    private final int maxAnswerChars;
+    private final StringBuilder answer = new StringBuilder();
+    private final List<SourceCitation> citations = new ArrayList<>();
+    private final AtomicBoolean handedOff = new AtomicBoolean(false);
+    private boolean truncated;
+
+    /**
+     * Создает накопитель с ограничением {@link #DEFAULT_MAX_ANSWER_CHARS}.
+     */
+    public StreamingAnswerAccumulator() {
+        this(DEFAULT_MAX_ANSWER_CHARS);
+    }
+
+    /**
+     * @param maxAnswerChars Максимальное количество накапливаемых символов ответа.
+     */
+    public StreamingAnswerAccumulator(int maxAnswerChars) {
+        this.maxAnswerChars = maxAnswerChars;
+    }
+
+    /**
+     * Добавляет очередную часть потока в накопитель.
+     *
+     * @param part Часть потокового ответа.
+     */
+    public synchronized void append(StreamingResponsePart part) {
+        if (part instanceof StreamingResponsePart.Content content && content.text() != null) {
+            if (truncated) {
+                return;
+            }
+            int remaining = maxAnswerChars - answer.length();
+            if (content.text().length() <= remaining) {
+                answer.append(content.text());
+            } else {
+                answer.append(content.text(), 0, remaining).append(TRUNCATION_MARKER);
+                truncated = true;
+            }
+        } else if (part instanceof StreamingResponsePart.Sources sources && sources.sources() != null) {
+            citations.addAll(sources.sources());
+        }
+    }
+
+    /**
+     * @return Накопленный текст ответа; при усечении оканчивается на {@link #TRUNCATION_MARKER}.
+     */
+    public synchronized String answer() {
+        return answer.toString();
+    }
+
+    /**
+     * @return Неизменяемый список накопленных источников.
+     */
+    public synchronized List<SourceCitation> citations() {
+        return Collections.unmodifiableList(new ArrayList<>(citations));
+    }
+
+    /**
+     * @return {@code true}, если ответ был обрезан из-за ограничения размера.
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Атомарно помечает накопитель как переданный на постобработку.
+     *
+     * @return {@code true} только для первого вызова.
+     */
+    public boolean markHandedOff() {
+        return handedOff.compareAndSet(false, true);
+    }
+}
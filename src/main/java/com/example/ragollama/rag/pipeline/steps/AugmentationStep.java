@@ -4,16 +4,17 @@ import com.example.ragollama.rag.advisors.RagAdvisor;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.prompts.PromptService;
+import com.example.ragollama.shared.prompts.RenderedPrompt;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -52,9 +53,10 @@ public class AugmentationStep implements RagPipelineStep {
             finalContext.promptModel().put("structuredContext", structuredContext);
             finalContext.promptModel().put("question", finalContext.originalQuery());
             finalContext.promptModel().put("history", formatHistory(finalContext.history()));
-            String promptString = promptService.render("ragPrompt", finalContext.promptModel());
-            log.debug("Этап Augmentation успешно завершен. Финальный промпт собран.");
-            return finalContext.withFinalPrompt(new Prompt(promptString));
+            // Счетчик токенов промпта сохраняется в метаданных и не пересчитывается при проверке квоты
+            RenderedPrompt renderedPrompt = promptService.renderCounted("ragPrompt", finalContext.promptModel(), Map.of());
+            log.debug("Этап Augmentation успешно завершен. Финальный промпт собран, ~{} токенов.", renderedPrompt.tokenCount());
+            return finalContext.withFinalPrompt(renderedPrompt.toPrompt());
         });
     }
 
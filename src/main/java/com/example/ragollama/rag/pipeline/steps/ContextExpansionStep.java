@@ -1,7 +1,9 @@
 package com.example.ragollama.rag.pipeline.steps;
 
 import com.example.ragollama.orchestration.dto.UniversalResponse;
+import com.example.ragollama.rag.domain.retrieval.ParentChunkRepository;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.task.TaskLifecycleService;
 import lombok.RequiredArgsConstructor;
@@ -12,12 +14,16 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * Шаг RAG-конвейера, реализующий логику Parent Document Retriever, адаптированный для R2DBC.
+ * <p>
+ * Тексты родительских чанков загружаются из таблицы {@code parent_chunks} одним
+ * пакетным запросом для всех уникальных родителей результата поиска.
  */
 @Component
 @Order(28)
@@ -26,6 +32,23 @@ import java.util.stream.Collectors;
 public class ContextExpansionStep implements RagPipelineStep {
 
     private final TaskLifecycleService taskLifecycleService;
+    private final ParentChunkRepository parentChunkRepository;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of(RagFlowField.RERANKED_DOCUMENTS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.RERANKED_DOCUMENTS);
+    }
 
     @Override
     public Mono<RagFlowContext> process(RagFlowContext context) {
@@ -40,29 +63,39 @@ public class ContextExpansionStep implements RagPipelineStep {
                 .doOnNext(task -> taskLifecycleService.emitEvent(task.getId(), new UniversalResponse.StatusUpdate("Расширяю контекст...")))
                 .subscribe();
 
-        Map<String, Document> parentDocsMap = rerankedChildDocs.stream()
-                .filter(doc -> doc.getMetadata().containsKey("parentChunkId") && doc.getMetadata().containsKey("parentChunkText"))
-                .collect(Collectors.toMap(
-                        doc -> (String) doc.getMetadata().get("parentChunkId"),
-                        this::createParentDocumentFromChild,
-                        (existing, replacement) -> existing
-                ));
+        Map<String, Document> firstChildByParentId = new LinkedHashMap<>();
+        for (Document doc : rerankedChildDocs) {
+            Object parentChunkId = doc.getMetadata().get("parentChunkId");
+            if (parentChunkId != null) {
+                firstChildByParentId.putIfAbsent(parentChunkId.toString(), doc);
+            }
+        }
 
-        if (parentDocsMap.isEmpty()) {
+        if (firstChildByParentId.isEmpty()) {
             log.warn("Не найдено ни одного чанка с метаданными родителя. Пропускаем шаг расширения контекста.");
             return Mono.just(context);
         }
-        List<Document> parentDocs = List.copyOf(parentDocsMap.values());
-        log.info("Заменено {} дочерних чанков на {} уникальных родительских.", rerankedChildDocs.size(), parentDocs.size());
-        return Mono.just(context.withRerankedDocuments(parentDocs));
+
+        // Все уникальные родители для результата поиска загружаются одним запросом
+        return parentChunkRepository.findContentByIds(firstChildByParentId.keySet())
+                .map(parentTexts -> {
+                    List<Document> parentDocs = firstChildByParentId.entrySet().stream()
+                            .map(entry -> {
+                                String parentText = parentTexts.get(entry.getKey());
+                                return parentText != null
+                                        ? createParentDocumentFromChild(entry.getValue(), parentText)
+                                        : entry.getValue();
+                            })
+                            .toList();
+                    log.info("Заменено {} дочерних чанков на {} уникальных родительских.", rerankedChildDocs.size(), parentDocs.size());
+                    return context.withRerankedDocuments(parentDocs);
+                });
     }
 
-    private Document createParentDocumentFromChild(Document childDoc) {
+    private Document createParentDocumentFromChild(Document childDoc, String parentText) {
         Map<String, Object> parentMetadata = new HashMap<>(childDoc.getMetadata());
         String parentChunkId = (String) childDoc.getMetadata().get("parentChunkId");
-        String parentText = (String) childDoc.getMetadata().get("parentChunkText");
         parentMetadata.remove("parentChunkId");
-        parentMetadata.remove("parentChunkText");
         parentMetadata.put("chunkId", parentChunkId);
         return new Document(parentChunkId, parentText, parentMetadata);
     }
@@ -2,14 +2,16 @@ package com.example.ragollama.rag.pipeline.steps;
 
 import com.example.ragollama.orchestration.dto.UniversalResponse;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.llm.LlmClient;
 import com.example.ragollama.shared.llm.ModelCapability;
 import com.example.ragollama.shared.prompts.PromptService;
+import com.example.ragollama.shared.prompts.RenderedPrompt;
 import com.example.ragollama.shared.task.TaskLifecycleService;
+import com.example.ragollama.shared.tokenization.TokenizationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.document.Document;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
@@ -17,7 +19,7 @@ import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * Шаг RAG-конвейера, отвечающий за интеллектуальное сжатие контекста, адаптированный для R2DBC.
@@ -31,6 +33,28 @@ public class ContextualCompressionStep implements RagPipelineStep {
     private final LlmClient llmClient;
     private final PromptService promptService;
     private final TaskLifecycleService taskLifecycleService;
+    private final TokenizationService tokenizationService;
+
+    /**
+     * Количество токенов разделителя и закрывающего тега {@code </doc>} одного документа.
+     */
+    private static final int DOCUMENT_FOOTER_TOKENS = 4;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of(RagFlowField.RERANKED_DOCUMENTS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.COMPRESSED_CONTEXT);
+    }
 
     @Override
     public Mono<RagFlowContext> process(RagFlowContext context) {
@@ -45,16 +69,25 @@ public class ContextualCompressionStep implements RagPipelineStep {
                 .doOnNext(task -> taskLifecycleService.emitEvent(task.getId(), new UniversalResponse.StatusUpdate("Сжимаю найденную информацию...")))
                 .subscribe();
 
-        String documentsForPrompt = documents.stream()
-                .map(doc -> String.format("<doc id=\"%s\">\n%s\n</doc>",
-                        doc.getMetadata().get("chunkId"), doc.getText()))
-                .collect(Collectors.joining("\n\n"));
-        String promptString = promptService.render("contextCompressorPrompt", Map.of(
+        StringBuilder documentsForPrompt = new StringBuilder();
+        int documentsTokens = 0;
+        for (Document doc : documents) {
+            if (!documentsForPrompt.isEmpty()) {
+                documentsForPrompt.append("\n\n");
+            }
+            String header = String.format("<doc id=\"%s\">\n", doc.getMetadata().get("chunkId"));
+            documentsForPrompt.append(header).append(doc.getText()).append("\n</doc>");
+            // Текст чанка повторяется между запросами, поэтому его счетчик берется из кэша токенизатора
+            documentsTokens += tokenizationService.countTokens(header)
+                    + tokenizationService.countTokens(doc.getText())
+                    + DOCUMENT_FOOTER_TOKENS;
+        }
+        RenderedPrompt renderedPrompt = promptService.renderCounted("contextCompressorPrompt", Map.of(
                 "question", context.originalQuery(),
-                "documents", documentsForPrompt
-        ));
+                "documents", documentsForPrompt.toString()
+        ), Map.of("documents", documentsTokens));
 
-        return llmClient.callChat(new Prompt(promptString), ModelCapability.FASTEST, false)
+        return llmClient.callChatCached(renderedPrompt.toPrompt(), ModelCapability.FASTEST, false)
                 .map(tuple -> {
                     String compressedText = tuple.getT1();
                     log.info("Контекст успешно сжат.");
@@ -3,6 +3,7 @@ package com.example.ragollama.rag.pipeline.steps;
 import com.example.ragollama.optimization.GraphContextExpanderService;
 import com.example.ragollama.orchestration.dto.UniversalResponse;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.config.properties.AppProperties;
 import com.example.ragollama.shared.task.TaskLifecycleService;
@@ -12,6 +13,8 @@ import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.util.Set;
+
 /**
  * Шаг RAG-конвейера для расширения контекста через Граф Знаний, адаптированный для R2DBC.
  */
@@ -39,6 +42,22 @@ public class GraphExpansionStep implements RagPipelineStep {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of(RagFlowField.RERANKED_DOCUMENTS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.RERANKED_DOCUMENTS);
+    }
+
     @Override
     public Mono<RagFlowContext> process(RagFlowContext context) {
         if (context.rerankedDocuments().isEmpty()) {
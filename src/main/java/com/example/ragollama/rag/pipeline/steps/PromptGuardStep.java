@@ -2,6 +2,7 @@ package com.example.ragollama.rag.pipeline.steps;
 
 import com.example.ragollama.orchestration.dto.UniversalResponse;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.exception.LlmJsonResponseParseException;
 import com.example.ragollama.shared.exception.PromptInjectionException;
@@ -65,6 +66,25 @@ public class PromptGuardStep implements RagPipelineStep {
             "act as", "ты теперь", "твои инструкции"
     );
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Проверка безопасности читает только исходный запрос и ничего не записывает,
+     * поэтому выполняется параллельно с остальными шагами; ее отказ отменяет их.
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of();
+    }
+
     /**
      * {@inheritDoc}
      */
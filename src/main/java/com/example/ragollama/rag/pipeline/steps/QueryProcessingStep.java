@@ -3,6 +3,7 @@ package com.example.ragollama.rag.pipeline.steps;
 import com.example.ragollama.orchestration.dto.UniversalResponse;
 import com.example.ragollama.rag.agent.QueryProcessingPipeline;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.task.TaskLifecycleService;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +12,8 @@ import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.util.Set;
+
 /**
  * Шаг RAG-конвейера для предварительной обработки и улучшения запроса пользователя.
  * <p>
@@ -27,6 +30,22 @@ public class QueryProcessingStep implements RagPipelineStep {
     private final QueryProcessingPipeline queryProcessingPipeline;
     private final TaskLifecycleService taskLifecycleService;
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.PROCESSED_QUERIES);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -2,10 +2,13 @@ package com.example.ragollama.rag.pipeline.steps;
 
 import com.example.ragollama.monitoring.AuditLoggingService.AuditLoggingService;
 import com.example.ragollama.rag.api.dto.StreamingResponsePart;
+import com.example.ragollama.rag.domain.model.QueryFormationStep;
 import com.example.ragollama.rag.domain.model.RagAnswer;
 import com.example.ragollama.rag.domain.model.SourceCitation;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
+import com.example.ragollama.rag.pipeline.StreamingAnswerAccumulator;
 import com.example.ragollama.rag.postprocessing.RagPostProcessingOrchestrator;
 import com.example.ragollama.rag.postprocessing.RagProcessingContext;
 import com.example.ragollama.shared.task.TaskLifecycleService;
@@ -15,13 +18,23 @@ import org.springframework.ai.chat.messages.Message;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Главный сервис-оркестратор, управляющий выполнением RAG-конвейера в реактивном стиле.
+ * <p>
+ * Пред-генерационные шаги выполняются как граф зависимостей, построенный из деклараций
+ * {@link RagPipelineStep#dependsOn()} и {@link RagPipelineStep#produces()}. Шаг ждет только
+ * те предыдущие шаги, с которыми у него есть конфликт по полям контекста, поэтому,
+ * например, проверка безопасности выполняется параллельно с обработкой запроса и поиском.
+ * Ошибка любого шага отменяет все еще выполняющиеся шаги.
  */
 @Slf4j
 @Service
@@ -29,6 +42,7 @@ public class RagPipelineOrchestrator {
 
     private final RagPostProcessingOrchestrator postProcessingOrchestrator;
     private final List<RagPipelineStep> preGenerationSteps;
+    private final List<List<Integer>> stepDependencies;
     private final GenerationStep generationStep;
     private final AuditLoggingService auditLoggingService;
     private final TaskLifecycleService taskLifecycleService;
@@ -51,8 +65,14 @@ public class RagPipelineOrchestrator {
                 .filter(step -> !(step instanceof GenerationStep))
                 .toList();
 
+        this.stepDependencies = buildDependencyGraph(preGenerationSteps);
+
         log.info("RagPipelineOrchestrator инициализирован. Пред-генерационных шагов: {}, Шаг генерации: {}.",
                 preGenerationSteps.size(), generationStep.getClass().getSimpleName());
+        for (int i = 0; i < preGenerationSteps.size(); i++) {
+            log.debug("Шаг {} зависит от: {}", preGenerationSteps.get(i).getClass().getSimpleName(),
+                    stepDependencies.get(i).stream().map(j -> preGenerationSteps.get(j).getClass().getSimpleName()).toList());
+        }
     }
 
     public Mono<RagAnswer> queryAsync(String query, List<Message> history, int topK, double similarityThreshold, UUID sessionId, UUID taskId) {
@@ -82,47 +102,135 @@ public class RagPipelineOrchestrator {
     }
 
     public Flux<StreamingResponsePart> queryStream(String query, List<Message> history, int topK, double similarityThreshold, UUID sessionId, UUID taskId) {
+        return queryStream(query, history, topK, similarityThreshold, sessionId, taskId, new StreamingAnswerAccumulator());
+    }
+
+    /**
+     * Выполняет RAG-конвейер в потоковом режиме, накапливая ответ в переданном накопителе.
+     * <p>
+     * Вызывающая сторона может использовать тот же накопитель (например, для сохранения
+     * ответа в истории диалога), не собирая текст повторно.
+     *
+     * @param accumulator Накопитель ответа, общий для аудита, постобработки и вызывающей стороны.
+     * @return {@link Flux} с частями ответа.
+     */
+    public Flux<StreamingResponsePart> queryStream(String query, List<Message> history, int topK, double similarityThreshold,
+                                                   UUID sessionId, UUID taskId, StreamingAnswerAccumulator accumulator) {
         final String requestId = MDC.get("requestId");
         RagFlowContext initialContext = new RagFlowContext(query, history, topK, similarityThreshold, sessionId);
 
         return executePreGenerationPipeline(initialContext).flatMapMany(context -> {
-            Flux<StreamingResponsePart> stream = generationStep.generateStructuredStream(
-                    context.finalPrompt(),
-                    context.rerankedDocuments(),
-                    context.processedQueries() != null ? context.processedQueries().formationHistory() : List.of()
-            );
-
-            // Собираем полный ответ в фоне для логирования и постобработки
-            stream.collectList().subscribe(parts -> {
-                String fullAnswer = parts.stream()
-                        .filter(p -> p instanceof StreamingResponsePart.Content)
-                        .map(p -> ((StreamingResponsePart.Content) p).text())
-                        .collect(Collectors.joining());
-
-                List<SourceCitation> citations = parts.stream()
-                        .filter(p -> p instanceof StreamingResponsePart.Sources)
-                        .flatMap(p -> ((StreamingResponsePart.Sources) p).sources().stream())
-                        .toList();
-
-                RagAnswer answerForPostProcessing = new RagAnswer(fullAnswer, citations, context.processedQueries() != null ? context.processedQueries().formationHistory() : List.of(), context.finalPrompt().getContents());
-
-                auditLoggingService.logInteraction(
-                        requestId, taskId, sessionId, query, citations,
-                        context.finalPrompt().getContents(), fullAnswer, answerForPostProcessing.queryFormationHistory()
-                ).subscribe();
-
-                var processingContext = new RagProcessingContext(requestId, query, context.rerankedDocuments(),
-                        context.finalPrompt(), answerForPostProcessing, sessionId);
-                postProcessingOrchestrator.process(processingContext);
-            });
-
-            return stream;
+            List<QueryFormationStep> formationHistory = context.processedQueries() != null ? context.processedQueries().formationHistory() : List.of();
+
+            // Единственная подписка на поток генерации: ответ собирается по мере отправки клиенту,
+            // а отмена подписки клиентом распространяется вверх и прерывает генерацию в Ollama.
+            return generationStep.generateStructuredStream(context.finalPrompt(), context.rerankedDocuments(), formationHistory)
+                    .doOnNext(accumulator::append)
+                    .doOnComplete(() -> handOffStreamedAnswer(accumulator, context, formationHistory, requestId, taskId))
+                    .doOnCancel(() -> log.info("Клиент отменил потоковый запрос для сессии {}. Генерация прервана.", sessionId));
         });
     }
 
+    /**
+     * Передает накопленный потоковый ответ в аудит и постобработку. Выполняется не более
+     * одного раза на запрос.
+     */
+    private void handOffStreamedAnswer(StreamingAnswerAccumulator accumulator, RagFlowContext context,
+                                       List<QueryFormationStep> formationHistory, String requestId, UUID taskId) {
+        if (!accumulator.markHandedOff()) {
+            return;
+        }
+        if (accumulator.isTruncated()) {
+            log.warn("Потоковый ответ для requestId {} превысил лимит накопителя и сохранен в усеченном виде.", requestId);
+        }
+        String fullAnswer = accumulator.answer();
+        List<SourceCitation> citations = accumulator.citations();
+        String promptContents = context.finalPrompt().getContents();
+        RagAnswer answerForPostProcessing = new RagAnswer(fullAnswer, citations, formationHistory, promptContents);
+
+        auditLoggingService.logInteraction(
+                requestId, taskId, context.sessionId(), context.originalQuery(), citations,
+                promptContents, fullAnswer, formationHistory
+        ).subscribe();
+
+        var processingContext = new RagProcessingContext(requestId, context.originalQuery(), context.rerankedDocuments(),
+                context.finalPrompt(), answerForPostProcessing, context.sessionId());
+        postProcessingOrchestrator.process(processingContext);
+    }
+
+    /**
+     * Выполняет пред-генерационные шаги согласно графу зависимостей.
+     * <p>
+     * Каждый шаг запускается, как только завершены шаги, от которых он зависит. Его входной
+     * контекст собирается из результатов этих шагов, а итоговый контекст — из полей,
+     * объявленных шагами в {@link RagPipelineStep#produces()}, в порядке {@code @Order}.
+     * При ошибке любого шага или отмене подписки остальные шаги отменяются.
+     */
     private Mono<RagFlowContext> executePreGenerationPipeline(RagFlowContext initialContext) {
-        return Flux.fromIterable(preGenerationSteps)
-                .reduce(Mono.just(initialContext), (contextMono, step) -> contextMono.flatMap(step::process))
-                .flatMap(mono -> mono);
+        if (preGenerationSteps.isEmpty()) {
+            return Mono.just(initialContext);
+        }
+        Sinks.One<Boolean> abort = Sinks.one();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Mono<RagFlowContext>> outputs = new ArrayList<>(preGenerationSteps.size());
+
+        for (int i = 0; i < preGenerationSteps.size(); i++) {
+            RagPipelineStep step = preGenerationSteps.get(i);
+            List<Integer> dependencies = stepDependencies.get(i);
+            Mono<RagFlowContext> input = dependencies.isEmpty()
+                    ? Mono.just(initialContext)
+                    : Mono.zip(dependencies.stream().map(outputs::get).toList(), results -> {
+                        RagFlowContext merged = initialContext;
+                        for (int k = 0; k < results.length; k++) {
+                            merged = merged.mergeFrom((RagFlowContext) results[k], preGenerationSteps.get(dependencies.get(k)).produces());
+                        }
+                        return merged;
+                    });
+            outputs.add(input
+                    .flatMap(step::process)
+                    .doOnError(error -> {
+                        failure.compareAndSet(null, error);
+                        abort.tryEmitValue(Boolean.TRUE);
+                    })
+                    .takeUntilOther(abort.asMono())
+                    .cache());
+        }
+
+        return Mono.zip(outputs, results -> {
+                    RagFlowContext merged = initialContext;
+                    for (int i = 0; i < results.length; i++) {
+                        merged = merged.mergeFrom((RagFlowContext) results[i], preGenerationSteps.get(i).produces());
+                    }
+                    return merged;
+                })
+                // Отмененные шаги завершаются пустыми, поэтому zip может завершиться раньше, чем увидит ошибку
+                .switchIfEmpty(Mono.defer(() -> failure.get() != null ? Mono.error(failure.get()) : Mono.empty()))
+                .doOnCancel(() -> abort.tryEmitValue(Boolean.TRUE));
+    }
+
+    /**
+     * Строит граф зависимостей шагов. Шаг {@code i} зависит от предыдущего шага {@code j}, если
+     * {@code i} читает поле, которое пишет {@code j}, если оба пишут одно и то же поле или если
+     * {@code i} пишет поле, которое читает {@code j}. Шаги без деклараций читают и пишут все поля
+     * и поэтому выполняются как барьер, сохраняя исходную последовательную семантику.
+     */
+    private static List<List<Integer>> buildDependencyGraph(List<RagPipelineStep> steps) {
+        List<List<Integer>> graph = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            Set<RagFlowField> reads = steps.get(i).dependsOn();
+            Set<RagFlowField> writes = steps.get(i).produces();
+            List<Integer> dependencies = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                Set<RagFlowField> previousReads = steps.get(j).dependsOn();
+                Set<RagFlowField> previousWrites = steps.get(j).produces();
+                if (!Collections.disjoint(reads, previousWrites)
+                        || !Collections.disjoint(writes, previousWrites)
+                        || !Collections.disjoint(writes, previousReads)) {
+                    dependencies.add(j);
+                }
+            }
+            graph.add(List.copyOf(dependencies));
+        }
+        return List.copyOf(graph);
     }
 }
@@ -3,6 +3,7 @@ package com.example.ragollama.rag.pipeline.steps;
 import com.example.ragollama.orchestration.dto.UniversalResponse;
 import com.example.ragollama.rag.domain.reranking.RerankingService;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.task.TaskLifecycleService;
 import lombok.RequiredArgsConstructor;
@@ -13,6 +14,7 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Шаг RAG-конвейера, отвечающий за переранжирование найденных документов
@@ -27,6 +29,22 @@ public class RerankingStep implements RagPipelineStep {
     private final RerankingService rerankingService;
     private final TaskLifecycleService taskLifecycleService;
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of(RagFlowField.RETRIEVED_DOCUMENTS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.RERANKED_DOCUMENTS);
+    }
+
     /**
      * {@inheritDoc}
      */
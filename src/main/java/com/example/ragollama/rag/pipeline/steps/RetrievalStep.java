@@ -3,6 +3,7 @@ package com.example.ragollama.rag.pipeline.steps;
 import com.example.ragollama.optimization.ReflectiveRetrieverAgent;
 import com.example.ragollama.orchestration.dto.UniversalResponse;
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.shared.task.TaskLifecycleService;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +12,8 @@ import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.util.Set;
+
 /**
  * Шаг RAG-конвейера, отвечающий за извлечение релевантных документов.
  * <p>
@@ -26,6 +29,22 @@ public class RetrievalStep implements RagPipelineStep {
     private final ReflectiveRetrieverAgent reflectiveRetrieverAgent;
     private final TaskLifecycleService taskLifecycleService;
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of(RagFlowField.PROCESSED_QUERIES);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.RETRIEVED_DOCUMENTS);
+    }
+
     /**
      * {@inheritDoc}
      */
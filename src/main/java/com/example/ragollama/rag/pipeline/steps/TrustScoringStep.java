@@ -74,7 +74,7 @@ public class TrustScoringStep implements RagPipelineStep {
         ));
 
         // 2. Оценка от AI-критика
-        return llmClient.callChat(new Prompt(promptString), ModelCapability.FAST_RELIABLE, true)
+        return llmClient.callChatCached(new Prompt(promptString), ModelCapability.FAST_RELIABLE, true)
                 .map(tuple -> {
                     String llmResponse = tuple.getT1();
                     TrustScoreReport partialReport = parseLlmResponse(llmResponse);
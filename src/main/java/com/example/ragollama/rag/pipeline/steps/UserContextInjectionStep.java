@@ -1,6 +1,7 @@
 package com.example.ragollama.rag.pipeline.steps;
 
 import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
 import com.example.ragollama.rag.pipeline.RagPipelineStep;
 import com.example.ragollama.web.FileContentService;
 import lombok.RequiredArgsConstructor;
@@ -10,6 +11,7 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -23,6 +25,22 @@ public class UserContextInjectionStep implements RagPipelineStep {
 
     private final FileContentService fileContentService;
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> dependsOn() {
+        return Set.of(RagFlowField.PROMPT_MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<RagFlowField> produces() {
+        return Set.of(RagFlowField.USER_PROVIDED_CONTEXT);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Mono<RagFlowContext> process(RagFlowContext context) {
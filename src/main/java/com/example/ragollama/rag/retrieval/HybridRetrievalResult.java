@@ -0,0 +1,22 @@
+package com.example.ragollama.rag.retrieval;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * Результат гибридного поиска вместе с дешевыми сигналами уверенности,
+ * вычисленными по исходным (до слияния) результатам источников.
+ *
+ * @param documents       Итоговый список документов после слияния RRF.
+ * @param topSimilarity   Схожесть лучшего векторного результата (0, если векторный поиск пуст).
+ * @param scoreGap        Отрыв лучшего векторного результата от второго (0, если результат один).
+ * @param sourceAgreement Доля совпадения лидеров векторного и полнотекстового поиска (от 0 до 1).
+ */
+public record HybridRetrievalResult(
+        List<Document> documents,
+        double topSimilarity,
+        double scoreGap,
+        double sourceAgreement
+) {
+}
@@ -2,22 +2,32 @@ package com.example.ragollama.rag.retrieval;
 
 import com.example.ragollama.monitoring.KnowledgeGapService;
 import com.example.ragollama.rag.agent.ProcessedQueries;
+import com.example.ragollama.rag.retrieval.fusion.FusionInput;
+import com.example.ragollama.rag.retrieval.fusion.FusionQueryType;
 import com.example.ragollama.rag.retrieval.fusion.FusionService;
+import com.example.ragollama.rag.retrieval.fusion.FusionSource;
+import com.example.ragollama.rag.retrieval.fusion.SourceRanking;
 import com.example.ragollama.rag.retrieval.search.FtsSearchService;
 import com.example.ragollama.rag.retrieval.search.GraphSearchService;
 import com.example.ragollama.rag.retrieval.search.VectorSearchService;
+import com.example.ragollama.shared.exception.RetrievalOverloadedException;
 import com.example.ragollama.shared.metrics.MetricService;
 import jakarta.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.filter.Filter;
-import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple3;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Реализует адаптивную гибридную стратегию извлечения документов, включая графовый поиск.
@@ -27,13 +37,23 @@ import java.util.List;
 @RequiredArgsConstructor
 public class HybridRetrievalStrategy {
 
+    /**
+     * Количество лидеров каждого источника, сравниваемых при оценке их согласованности.
+     */
+    private static final int AGREEMENT_DEPTH = 3;
+    private static final int KEYWORD_QUERY_MAX_WORDS = 3;
+    /**
+     * Ключи задач ({@code PROJ-123}), идентификаторы в snake_case/camelCase и составные имена через точку.
+     */
+    private static final Pattern IDENTIFIER_PATTERN =
+            Pattern.compile("\\b[A-Z][A-Z0-9]+-\\d+\\b|\\b\\w+_\\w+\\b|\\b[a-z]+[A-Z]\\w*\\b|\\b\\w+\\.\\w+\\b");
+
     private final VectorSearchService vectorSearchService;
     private final FtsSearchService ftsSearchService;
     private final FusionService fusionService;
     private final MetricService metricService;
     private final KnowledgeGapService knowledgeGapService;
     private final GraphSearchService graphSearchService;
-    private final AsyncTaskExecutor applicationTaskExecutor;
 
     /**
      * Асинхронно выполняет гибридный поиск.
@@ -51,37 +71,160 @@ public class HybridRetrievalStrategy {
             int topK,
             double similarityThreshold,
             @Nullable Filter.Expression businessFilter) {
+        return retrieveWithSignals(processedQueries, originalQuery, topK, similarityThreshold, businessFilter)
+                .map(HybridRetrievalResult::documents);
+    }
+
+    /**
+     * Выполняет гибридный поиск и дополнительно возвращает сигналы уверенности
+     * в результате, вычисленные по векторным и полнотекстовым результатам до слияния.
+     * Отклоненный из-за перегрузки векторный поиск ({@link RetrievalOverloadedException})
+     * не прерывает этап: результат строится по полнотекстовому и графовому поиску, а сигналы
+     * уверенности векторного поиска равны нулю. Остальные ошибки источников передаются дальше.
+     *
+     * @param processedQueries    Объект с обработанными запросами.
+     * @param originalQuery       Оригинальный запрос пользователя.
+     * @param topK                Количество документов для извлечения.
+     * @param similarityThreshold Порог схожести.
+     * @param businessFilter      Опциональный бизнес-фильтр.
+     * @return {@link Mono} с документами и сигналами уверенности.
+     */
+    public Mono<HybridRetrievalResult> retrieveWithSignals(
+            @Nullable ProcessedQueries processedQueries,
+            String originalQuery,
+            int topK,
+            double similarityThreshold,
+            @Nullable Filter.Expression businessFilter) {
 
         if (processedQueries == null || processedQueries.primaryQuery().isBlank()) {
             knowledgeGapService.recordGap(originalQuery).subscribe();
-            return Mono.just(List.of());
+            return Mono.just(new HybridRetrievalResult(List.of(), 0.0, 0.0, 0.0));
         }
 
-        Mono<List<Document>> vectorSearchMono = vectorSearchService.search(processedQueries.expansionQueries(), topK, similarityThreshold, businessFilter, null)
-                .subscribeOn(Schedulers.fromExecutor(applicationTaskExecutor));
-
-        Mono<List<Document>> ftsSearchMono = ftsSearchService.search(originalQuery);
-        Mono<List<Document>> graphSearchMono = isGraphQuery(originalQuery)
-                ? graphSearchService.search(originalQuery)
-                : Mono.just(List.of());
-
-        return Mono.zip(vectorSearchMono, ftsSearchMono, graphSearchMono)
+        return searchSources(processedQueries, originalQuery, topK, similarityThreshold, businessFilter)
                 .map(tuple -> {
-                    List<Document> vectorResults = tuple.getT1();
+                    List<List<Document>> vectorRankings = tuple.getT1();
                     List<Document> ftsResults = tuple.getT2();
                     List<Document> graphResults = tuple.getT3();
 
-                    metricService.recordRetrievedDocumentsCount(vectorResults.size() + ftsResults.size() + graphResults.size());
+                    int vectorCount = vectorRankings.stream().mapToInt(List::size).sum();
+                    metricService.recordRetrievedDocumentsCount(vectorCount + ftsResults.size() + graphResults.size());
 
                     if (!graphResults.isEmpty()) {
                         log.info("Получено {} результатов из Графа Знаний для запроса: '{}'", graphResults.size(), originalQuery);
                     }
-                    List<Document> fusedDocs = fusionService.reciprocalRankFusion(List.of(vectorResults, ftsResults, graphResults));
+                    List<Document> fusedDocs = fusionService.fuse(toRankings(vectorRankings, ftsResults, graphResults),
+                            classifyForFusion(originalQuery));
                     if (fusedDocs.isEmpty()) {
                         knowledgeGapService.recordGap(originalQuery).subscribe();
                     }
-                    return fusedDocs;
+                    return buildResult(fusedDocs, vectorRankings, ftsResults);
+                });
+    }
+
+    /**
+     * Выполняет поиск по всем источникам и возвращает их ранжированные списки до слияния
+     * вместе с типом запроса. Используется оффлайн-сравнением настроек слияния: одни и те же
+     * результаты поиска объединяются каждой конфигурацией без повторных запросов к источникам.
+     * В отличие от {@link #retrieveWithSignals}, не записывает метрики и пробелы в знаниях.
+     *
+     * @param processedQueries    Объект с обработанными запросами.
+     * @param originalQuery       Оригинальный запрос пользователя.
+     * @param topK                Количество документов для извлечения.
+     * @param similarityThreshold Порог схожести.
+     * @param businessFilter      Опциональный бизнес-фильтр.
+     * @return {@link Mono} с входными данными слияния.
+     */
+    public Mono<FusionInput> retrieveSourceRankings(
+            @Nullable ProcessedQueries processedQueries,
+            String originalQuery,
+            int topK,
+            double similarityThreshold,
+            @Nullable Filter.Expression businessFilter) {
+        FusionQueryType queryType = classifyForFusion(originalQuery);
+        if (processedQueries == null || processedQueries.primaryQuery().isBlank()) {
+            return Mono.just(new FusionInput(List.of(), queryType));
+        }
+        return searchSources(processedQueries, originalQuery, topK, similarityThreshold, businessFilter)
+                .map(tuple -> new FusionInput(toRankings(tuple.getT1(), tuple.getT2(), tuple.getT3()), queryType));
+    }
+
+    private Mono<Tuple3<List<List<Document>>, List<Document>, List<Document>>> searchSources(
+            ProcessedQueries processedQueries,
+            String originalQuery,
+            int topK,
+            double similarityThreshold,
+            @Nullable Filter.Expression businessFilter) {
+        // Каждый вариант запроса сохраняет собственное ранжирование для RRF
+        Mono<List<List<Document>>> vectorSearchMono = vectorSearchService.searchPerQuery(processedQueries.expansionQueries(), topK, similarityThreshold, businessFilter, null)
+                // При перегрузке векторного поиска ответ строится по остальным источникам
+                .onErrorResume(RetrievalOverloadedException.class, e -> {
+                    log.warn("Векторный поиск пропущен для запроса '{}': {}", originalQuery, e.getMessage());
+                    return Mono.just(List.of());
                 });
+
+        Mono<List<Document>> ftsSearchMono = ftsSearchService.search(originalQuery);
+        Mono<List<Document>> graphSearchMono = isGraphQuery(originalQuery)
+                ? graphSearchService.search(originalQuery)
+                : Mono.just(List.of());
+
+        return Mono.zip(vectorSearchMono, ftsSearchMono, graphSearchMono);
+    }
+
+    private static List<SourceRanking> toRankings(List<List<Document>> vectorRankings, List<Document> ftsResults,
+                                                  List<Document> graphResults) {
+        List<SourceRanking> rankings = new ArrayList<>(vectorRankings.size() + 2);
+        vectorRankings.forEach(ranking -> rankings.add(new SourceRanking(FusionSource.VECTOR, ranking)));
+        rankings.add(new SourceRanking(FusionSource.FTS, ftsResults));
+        rankings.add(new SourceRanking(FusionSource.GRAPH, graphResults));
+        return rankings;
+    }
+
+    /**
+     * Вычисляет сигналы уверенности: схожесть лучшего векторного результата,
+     * его отрыв от второго уникального результата и долю совпадения лидеров
+     * векторного и полнотекстового поиска.
+     */
+    private HybridRetrievalResult buildResult(List<Document> fusedDocs, List<List<Document>> vectorRankings, List<Document> ftsResults) {
+        Map<String, Double> bestScores = new HashMap<>();
+        for (List<Document> ranking : vectorRankings) {
+            for (Document document : ranking) {
+                double score = document.getScore() != null ? document.getScore() : 0.0;
+                bestScores.merge(document.getId(), score, Math::max);
+            }
+        }
+        List<Map.Entry<String, Double>> vectorLeaders = bestScores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(AGREEMENT_DEPTH)
+                .toList();
+
+        double topSimilarity = vectorLeaders.isEmpty() ? 0.0 : vectorLeaders.get(0).getValue();
+        double scoreGap = vectorLeaders.size() < 2 ? 0.0 : topSimilarity - vectorLeaders.get(1).getValue();
+
+        Set<String> ftsLeaders = ftsResults.stream()
+                .limit(AGREEMENT_DEPTH)
+                .map(Document::getId)
+                .collect(Collectors.toSet());
+        long shared = vectorLeaders.stream().filter(entry -> ftsLeaders.contains(entry.getKey())).count();
+        int depth = Math.min(vectorLeaders.size(), ftsLeaders.size());
+        double agreement = depth == 0 ? 0.0 : (double) shared / depth;
+
+        return new HybridRetrievalResult(fusedDocs, topSimilarity, scoreGap, agreement);
+    }
+
+    /**
+     * Определяет тип запроса для выбора весов слияния по тем же дешевым признакам,
+     * что и решение о графовом поиске.
+     */
+    private FusionQueryType classifyForFusion(String query) {
+        if (isGraphQuery(query)) {
+            return FusionQueryType.RELATIONAL;
+        }
+        String[] words = query.trim().split("\\s+");
+        if (words.length <= KEYWORD_QUERY_MAX_WORDS || IDENTIFIER_PATTERN.matcher(query).find()) {
+            return FusionQueryType.KEYWORD;
+        }
+        return FusionQueryType.DEFAULT;
     }
 
     private boolean isGraphQuery(String query) {
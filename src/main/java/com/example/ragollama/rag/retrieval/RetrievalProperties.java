@@ -1,23 +1,34 @@
 package com.example.ragollama.rag.retrieval;
 
+import com.example.ragollama.rag.retrieval.fusion.FusionQueryType;
+import com.example.ragollama.rag.retrieval.fusion.FusionSource;
 import jakarta.validation.constraints.DecimalMax;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+import java.util.Map;
+
 /**
  * Типобезопасная конфигурация для стратегий извлечения (Retrieval).
  * <p>
  * Позволяет гибко настраивать параметры гибридного поиска через {@code application.yml}
  * без необходимости изменять код. Включает параметр для управления адаптивной стратегией.
  *
- * @param hybrid Настройки для гибридной стратегии поиска.
+ * @param hybrid          Настройки для гибридной стратегии поиска.
+ * @param cache           Настройки кэша результатов векторного поиска.
+ * @param confidenceGate  Настройки шлюза уверенности перед LLM-оценкой результатов поиска.
+ * @param queryProcessing Настройки этапа обработки запроса перед поиском.
+ * @param fusion          Настройки слияния результатов источников поиска.
  */
 @Validated
 @ConfigurationProperties(prefix = "app.rag.retrieval")
-public record RetrievalProperties(Hybrid hybrid) {
+public record RetrievalProperties(Hybrid hybrid, @NotNull Cache cache, @NotNull ConfidenceGate confidenceGate,
+                                  @NotNull QueryProcessing queryProcessing, @NotNull Fusion fusion) {
     /**
      * Настройки для гибридной стратегии, сочетающей векторный и полнотекстовый поиск.
      *
@@ -33,13 +44,41 @@ public record RetrievalProperties(Hybrid hybrid) {
             @Min(1) @Max(10) int expansionMinDocsThreshold
     ) {
         /**
-         * @param topK                Количество наиболее релевантных документов для извлечения.
-         * @param similarityThreshold Минимальный порог схожести (0.0 до 1.0).
+         * @param topK                  Количество наиболее релевантных документов для извлечения.
+         * @param similarityThreshold   Минимальный порог схожести (0.0 до 1.0).
+         * @param maxConcurrentSearches Количество потоков выделенного планировщика векторного поиска.
+         * @param maxQueuedSearches     Максимальное количество поисков, ожидающих свободного потока.
+         * @param efSearch              Настройки выбора {@code hnsw.ef_search} для каждого поиска.
          */
         public record VectorSearch(
                 @Min(1) @Max(20) int topK,
-                @DecimalMin("0.0") @DecimalMax("1.0") double similarityThreshold
+                @DecimalMin("0.0") @DecimalMax("1.0") double similarityThreshold,
+                @Min(1) int maxConcurrentSearches,
+                @Min(1) int maxQueuedSearches,
+                @NotNull EfSearch efSearch
         ) {
+            /**
+             * Настройки адаптивного выбора {@code hnsw.ef_search}.
+             * <p>
+             * Базовое значение пропорционально запрошенному k, а при наличии бюджета
+             * задержки оно уменьшается так, чтобы ожидаемое время пакетного поиска в бюджет укладывалось.
+             *
+             * @param adaptive            Включает адаптивный выбор. Если выключен, используется
+             *                            {@code app.vector-store.index.ef-search}.
+             * @param candidateMultiplier Множитель k для базового значения ef_search.
+             * @param min                 Нижняя граница ef_search.
+             * @param max                 Верхняя граница ef_search (pgvector допускает не более 1000).
+             * @param latencyBudget       Бюджет задержки одного пакетного SQL-запроса, выполняющего поиск
+             *                            по всем вариантам запроса; {@code null} отключает ограничение по задержке.
+             */
+            public record EfSearch(
+                    boolean adaptive,
+                    @Min(1) int candidateMultiplier,
+                    @Min(1) @Max(1000) int min,
+                    @Min(1) @Max(1000) int max,
+                    Duration latencyBudget
+            ) {
+            }
         }
 
         /**
@@ -48,4 +87,105 @@ public record RetrievalProperties(Hybrid hybrid) {
         public record Fts(@Min(1) @Max(20) int topK) {
         }
     }
+
+    /**
+     * Настройки кэша результатов векторного поиска.
+     *
+     * @param maxSize Максимальное количество закэшированных поисковых запросов.
+     * @param ttl     Время жизни записи с момента ее создания.
+     */
+    public record Cache(
+            @Min(1) long maxSize,
+            @NotNull Duration ttl
+    ) {
+    }
+
+    /**
+     * Настройки шлюза уверенности, позволяющего пропустить LLM-оценку найденных документов.
+     * <p>
+     * Шлюз срабатывает, если лучший векторный результат достаточно близок к запросу
+     * и это подтверждается хотя бы одним дополнительным сигналом: заметным отрывом
+     * от следующего результата или совпадением лидеров векторного и полнотекстового поиска.
+     *
+     * @param enabled            Включает шлюз.
+     * @param minTopSimilarity   Минимальная схожесть лучшего векторного результата.
+     * @param minScoreGap        Минимальный отрыв лучшего результата от второго.
+     * @param minSourceAgreement Минимальная доля совпадения лидеров векторного и FTS-поиска.
+     */
+    public record ConfidenceGate(
+            boolean enabled,
+            @DecimalMin("0.0") @DecimalMax("1.0") double minTopSimilarity,
+            @DecimalMin("0.0") @DecimalMax("1.0") double minScoreGap,
+            @DecimalMin("0.0") @DecimalMax("1.0") double minSourceAgreement
+    ) {
+    }
+
+    /**
+     * Настройки этапа обработки запроса (HyDE, трансформация, MultiQuery, StepBack).
+     *
+     * @param speculative         Запускать все генераторы одновременно и отменять лишние.
+     * @param latencyBudget       Бюджет задержки этапа в спекулятивном режиме; по его истечении
+     *                            используются уже полученные результаты.
+     * @param minExpansionQueries Количество качественных альтернативных формулировок, после
+     *                            получения которого оставшиеся генераторы отменяются.
+     */
+    public record QueryProcessing(
+            boolean speculative,
+            @NotNull Duration latencyBudget,
+            @Min(1) int minExpansionQueries
+    ) {
+    }
+
+    /**
+     * Настройки слияния ранжированных списков векторного, полнотекстового и графового поиска.
+     *
+     * @param method           Алгоритм слияния.
+     * @param rrfK             Константа сглаживания RRF.
+     * @param normalization    Нормализация оценок для {@link Method#SCORE}.
+     * @param weights          Веса источников по умолчанию; отсутствующий источник имеет вес 1.0.
+     * @param queryTypeWeights Переопределения весов для отдельных типов запросов.
+     */
+    public record Fusion(
+            @NotNull Method method,
+            @Min(1) int rrfK,
+            @NotNull Normalization normalization,
+            @NotNull Map<FusionSource, Double> weights,
+            @NotNull Map<FusionQueryType, Map<FusionSource, Double>> queryTypeWeights
+    ) {
+        /**
+         * Алгоритм слияния.
+         */
+        public enum Method {
+            /**
+             * Взвешенный Reciprocal Rank Fusion: учитывает только позиции документов.
+             */
+            RRF,
+            /**
+             * Взвешенная сумма нормализованных оценок источников (CombSUM).
+             */
+            SCORE
+        }
+
+        /**
+         * Способ нормализации оценок внутри одного ранжированного списка.
+         */
+        public enum Normalization {
+            MIN_MAX, Z_SCORE
+        }
+
+        /**
+         * Возвращает вес источника для типа запроса.
+         *
+         * @param queryType Тип запроса.
+         * @param source    Источник.
+         * @return Вес источника.
+         */
+        public double weight(FusionQueryType queryType, FusionSource source) {
+            Map<FusionSource, Double> overrides = queryTypeWeights.get(queryType);
+            if (overrides != null && overrides.containsKey(source)) {
+                return overrides.get(source);
+            }
+            return weights.getOrDefault(source, 1.0);
+        }
+    }
 }
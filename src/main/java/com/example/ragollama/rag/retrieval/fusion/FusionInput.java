@@ -0,0 +1,12 @@
+package com.example.ragollama.rag.retrieval.fusion;
+
+import java.util.List;
+
+/**
+ * Входные данные слияния для одного запроса.
+ *
+ * @param rankings  Ранжированные списки источников.
+ * @param queryType Тип запроса, определяющий веса источников.
+ */
+public record FusionInput(List<SourceRanking> rankings, FusionQueryType queryType) {
+}
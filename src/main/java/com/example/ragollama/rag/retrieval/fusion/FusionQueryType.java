@@ -0,0 +1,23 @@
+package com.example.ragollama.rag.retrieval.fusion;
+
+/**
+ * Тип запроса, для которого могут быть заданы собственные веса источников при слиянии.
+ * <p>
+ * Определяется дешевыми эвристиками в
+ * {@link com.example.ragollama.rag.retrieval.HybridRetrievalStrategy} без обращения к LLM.
+ */
+public enum FusionQueryType {
+    /**
+     * Обычный запрос на естественном языке.
+     */
+    DEFAULT,
+    /**
+     * Короткий запрос или запрос с идентификаторами (ключи задач, имена классов),
+     * для которого лексический поиск обычно точнее семантического.
+     */
+    KEYWORD,
+    /**
+     * Запрос о связях между сущностями, для которого важен граф знаний.
+     */
+    RELATIONAL
+}
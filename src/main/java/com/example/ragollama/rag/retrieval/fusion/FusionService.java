@@ -1,95 +1,185 @@
 package com.example.ragollama.rag.retrieval.fusion;
 
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
- * Сервис, реализующий слияние результатов из различных источников поиска
- * с использованием алгоритма Reciprocal Rank Fusion (RRF).
+ * Сервис, реализующий слияние результатов из различных источников поиска.
  * <p>
- * RRF позволяет эффективно объединять ранжированные списки, не требуя
- * нормализации оценок релевантности, что делает его идеальным для гибридного поиска.
+ * Поддерживает два алгоритма (см. {@link RetrievalProperties.Fusion}):
+ * <ul>
+ *   <li>взвешенный Reciprocal Rank Fusion (RRF), не требующий нормализации оценок;</li>
+ *   <li>взвешенную сумму нормализованных оценок (CombSUM) с min-max или z-score нормализацией,
+ *       учитывающую косинусную схожесть векторного поиска и {@code ts_rank} полнотекстового.</li>
+ * </ul>
+ * Веса источников могут различаться для разных {@link FusionQueryType}.
+ * <p>
+ * Слияние выполняется на массивах, размер которых заранее известен из суммарной длины
+ * входных списков: документу назначается плотный индекс через хеш-таблицу с открытой
+ * адресацией на {@code int[]}, а оценки накапливаются в {@code double[]}, поэтому
+ * на один вызов не создается ни промежуточных коллекций, ни упакованных чисел.
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class FusionService {
 
+    private final RetrievalProperties retrievalProperties;
+
     /**
-     * Константа для сглаживания в формуле RRF. Предотвращает чрезмерное
-     * доминирование документов, находящихся на самой первой позиции.
-     * Значение 60 является общепринятым стандартом.
+     * Объединяет несколько ранжированных списков в один.
+     *
+     * @param rankings  Ранжированные списки с указанием источника.
+     * @param queryType Тип запроса, определяющий веса источников.
+     * @return Единый, переранжированный и отсортированный список уникальных документов.
      */
-    private static final int RRF_K = 60;
+    public List<Document> fuse(List<SourceRanking> rankings, FusionQueryType queryType) {
+        return fuse(rankings, queryType, retrievalProperties.fusion());
+    }
 
     /**
-     * Объединяет несколько списков документов с помощью Reciprocal Rank Fusion.
+     * Объединяет несколько ранжированных списков с явно заданными настройками слияния.
+     * Позволяет сравнивать конфигурации на одних и тех же результатах поиска,
+     * не меняя настройки приложения.
      *
-     * @param documentLists Список, содержащий результаты от каждого источника поиска.
+     * @param rankings  Ранжированные списки с указанием источника.
+     * @param queryType Тип запроса, определяющий веса источников.
+     * @param config    Настройки слияния.
      * @return Единый, переранжированный и отсортированный список уникальных документов.
      */
-    public List<Document> reciprocalRankFusion(List<List<Document>> documentLists) {
-        if (documentLists == null || documentLists.isEmpty()) {
+    public List<Document> fuse(List<SourceRanking> rankings, FusionQueryType queryType, RetrievalProperties.Fusion config) {
+        if (rankings == null || rankings.isEmpty()) {
+            return List.of();
+        }
+        int capacity = 0;
+        for (SourceRanking ranking : rankings) {
+            capacity += ranking.documents().size();
+        }
+        if (capacity == 0) {
             return List.of();
         }
-        // Шаг 1: Группируем все документы по их ID и вычисляем RRF-оценку для каждого.
-        Map<String, RrfScore> scores = documentLists.stream()
-                .flatMap(list -> {
-                    // Преобразуем список документов в поток с рангами (начиная с 1)
-                    return java.util.stream.IntStream.range(0, list.size())
-                            .mapToObj(i -> new RankedDocument(list.get(i), i + 1));
-                })
-                .collect(Collectors.toMap(
-                        rankedDoc -> rankedDoc.document().getId(), // Ключ - ID документа
-                        rankedDoc -> new RrfScore(rankedDoc.document(), 1.0 / (RRF_K + rankedDoc.rank())), // Начальная оценка
-                        (score1, score2) -> { // Функция слияния для дубликатов
-                            score1.add(score2.score());
-                            return score1;
-                        }));
 
-        // Шаг 2: Сортируем документы по убыванию их итоговой RRF-оценки.
-        List<Document> finalDocs = scores.values().stream()
-                .sorted(Comparator.comparing(RrfScore::score).reversed())
-                .map(RrfScore::document)
-                .toList();
+        // Заполненность таблицы не превышает половины, поэтому цепочки проб короткие
+        int[] slots = new int[Integer.highestOneBit(capacity) << 2];
+        Arrays.fill(slots, -1);
+        Document[] documents = new Document[capacity];
+        double[] scores = new double[capacity];
+        double[] normalized = new double[capacity];
+        int size = 0;
+
+        for (SourceRanking ranking : rankings) {
+            List<Document> list = ranking.documents();
+            int length = list.size();
+            if (length == 0) {
+                continue;
+            }
+            double weight = config.weight(queryType, ranking.source());
+            if (config.method() == RetrievalProperties.Fusion.Method.SCORE) {
+                normalizeScores(list, config.normalization(), normalized);
+            }
+            for (int rank = 0; rank < length; rank++) {
+                Document document = list.get(rank);
+                int slot = findSlot(slots, documents, document.getId());
+                int index = slots[slot];
+                if (index < 0) {
+                    index = size++;
+                    slots[slot] = index;
+                    documents[index] = document;
+                }
+                scores[index] += config.method() == RetrievalProperties.Fusion.Method.RRF
+                        ? weight / (config.rrfK() + rank + 1)
+                        : weight * normalized[rank];
+            }
+        }
 
-        log.info("Слияние результатов завершено. Итоговый список содержит {} уникальных документов.", finalDocs.size());
+        int[] order = sortByScoreDescending(scores, size);
+        List<Document> finalDocs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            finalDocs.add(documents[order[i]]);
+        }
+        log.info("Слияние результатов ({}, тип запроса {}) завершено. Итоговый список содержит {} уникальных документов.",
+                config.method(), queryType, finalDocs.size());
         return finalDocs;
     }
 
     /**
-     * Вспомогательный record для хранения документа и его ранга.
+     * Возвращает ячейку таблицы, в которой лежит индекс документа с данным ID,
+     * или свободную ячейку, в которую его следует записать (линейное пробирование).
      */
-    private record RankedDocument(Document document, int rank) {
+    private static int findSlot(int[] slots, Document[] documents, String id) {
+        int mask = slots.length - 1;
+        int hash = id.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] >= 0 && !documents[slots[slot]].getId().equals(id)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
     }
 
     /**
-     * Вспомогательный класс для хранения документа и его RRF-оценки.
+     * Записывает в {@code target} нормализованные оценки документов списка.
+     * Документ без оценки (например, из графа знаний) получает оценку {@code 1 / ранг}.
      */
-    private static class RrfScore {
-        private final Document document;
-        private double score;
-
-        RrfScore(Document document, double initialScore) {
-            this.document = document;
-            this.score = initialScore;
+    private static void normalizeScores(List<Document> list, RetrievalProperties.Fusion.Normalization normalization, double[] target) {
+        int length = list.size();
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum = 0.0;
+        for (int rank = 0; rank < length; rank++) {
+            Double score = list.get(rank).getScore();
+            double raw = score != null ? score : 1.0 / (rank + 1);
+            target[rank] = raw;
+            min = Math.min(min, raw);
+            max = Math.max(max, raw);
+            sum += raw;
         }
-
-        void add(double value) {
-            this.score += value;
-        }
-
-        Document document() {
-            return document;
+        switch (normalization) {
+            case MIN_MAX -> {
+                double range = max - min;
+                for (int rank = 0; rank < length; rank++) {
+                    target[rank] = range > 0 ? (target[rank] - min) / range : 1.0;
+                }
+            }
+            case Z_SCORE -> {
+                double mean = sum / length;
+                double variance = 0.0;
+                for (int rank = 0; rank < length; rank++) {
+                    double delta = target[rank] - mean;
+                    variance += delta * delta;
+                }
+                double std = Math.sqrt(variance / length);
+                for (int rank = 0; rank < length; rank++) {
+                    target[rank] = std > 0 ? (target[rank] - mean) / std : 0.0;
+                }
+            }
         }
+    }
 
-        double score() {
-            return score;
+    /**
+     * Возвращает индексы документов в порядке убывания оценки.
+     * <p>
+     * Используется сортировка вставками: сливаемые списки ограничены top-K источников
+     * (десятки документов), на таких размерах она быстрее общих алгоритмов и стабильна,
+     * поэтому при равных оценках сохраняется порядок первого появления документа.
+     */
+    private static int[] sortByScoreDescending(double[] scores, int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            int candidate = i;
+            int j = i - 1;
+            while (j >= 0 && scores[order[j]] < scores[candidate]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = candidate;
         }
+        return order;
     }
 }
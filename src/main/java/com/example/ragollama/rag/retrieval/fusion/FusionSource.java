@@ -0,0 +1,19 @@
+package com.example.ragollama.rag.retrieval.fusion;
+
+/**
+ * Источник ранжированного списка документов, участвующего в слиянии.
+ */
+public enum FusionSource {
+    /**
+     * Векторный (семантический) поиск; оценка - косинусная схожесть.
+     */
+    VECTOR,
+    /**
+     * Полнотекстовый поиск; оценка - {@code ts_rank}.
+     */
+    FTS,
+    /**
+     * Поиск по графу знаний; оценка отсутствует, используется ранг.
+     */
+    GRAPH
+}
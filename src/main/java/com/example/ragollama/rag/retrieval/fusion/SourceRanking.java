@@ -0,0 +1,14 @@
+package com.example.ragollama.rag.retrieval.fusion;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * Ранжированный список документов вместе с источником, из которого он получен.
+ *
+ * @param source    Источник списка.
+ * @param documents Документы в порядке убывания релевантности.
+ */
+public record SourceRanking(FusionSource source, List<Document> documents) {
+}
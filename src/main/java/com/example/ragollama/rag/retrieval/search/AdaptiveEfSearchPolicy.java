@@ -0,0 +1,148 @@
+package com.example.ragollama.rag.retrieval.search;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.config.properties.AppProperties;
+import jakarta.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Выбирает значение {@code hnsw.ef_search} для векторного поиска.
+ * <p>
+ * Размер очереди кандидатов HNSW ограничивает и число возвращаемых строк, поэтому
+ * ef_search никогда не опускается ниже запрошенного k. Базовое значение равно
+ * {@code k * candidateMultiplier}. Если задан бюджет задержки пакетного SQL-запроса,
+ * базовое значение уменьшается так, чтобы ожидаемое время пакета в бюджет укладывалось.
+ * <p>
+ * Время пакета моделируется как {@code fixed + perUnit * efSearch * queryCount}:
+ * постоянная часть (сетевой обмен, планирование, разбор векторов, выборка строк)
+ * не зависит от ef_search и оценивается отдельно от стоимости единицы ef_search
+ * экспоненциально взвешенной линейной регрессией по последним измерениям. Деление
+ * полного времени на ef_search завышало бы стоимость единицы при малых ef_search,
+ * и политика не смогла бы вернуться к базовому значению.
+ */
+@Component
+@RequiredArgsConstructor
+public class AdaptiveEfSearchPolicy {
+
+    /**
+     * Верхняя граница ef_search, допускаемая pgvector.
+     */
+    private static final int PGVECTOR_MAX_EF_SEARCH = 1000;
+
+    private final RetrievalProperties retrievalProperties;
+    private final AppProperties appProperties;
+    private final LatencyModel latencyModel = new LatencyModel();
+
+    /**
+     * Определяет ef_search для поиска.
+     *
+     * @param requested  Явно запрошенное значение или {@code null}.
+     * @param topK       Количество документов, запрашиваемое для каждого варианта.
+     * @param queryCount Количество вариантов запроса в пакете.
+     * @return Значение ef_search, которое нужно применить.
+     */
+    public int choose(@Nullable Integer requested, int topK, int queryCount) {
+        if (requested != null) {
+            return clamp(requested, 1, PGVECTOR_MAX_EF_SEARCH);
+        }
+        RetrievalProperties.Hybrid.VectorSearch.EfSearch config = retrievalProperties.hybrid().vectorSearch().efSearch();
+        if (!config.adaptive()) {
+            return clamp(Math.max(appProperties.vectorStore().index().efSearch(), topK), 1, PGVECTOR_MAX_EF_SEARCH);
+        }
+        int floor = Math.min(Math.max(config.min(), topK), config.max());
+        long ef = Math.max((long) topK * config.candidateMultiplier(), floor);
+
+        Duration budget = config.latencyBudget();
+        if (budget != null) {
+            // Все варианты пакета обрабатываются одним SQL-запросом, бюджет относится ко всему пакету
+            double affordableUnits = latencyModel.affordableUnits(budget.toNanos());
+            if (affordableUnits < Double.POSITIVE_INFINITY) {
+                ef = Math.min(ef, (long) (affordableUnits / Math.max(queryCount, 1)));
+            }
+        }
+        return (int) Math.max(floor, Math.min(ef, config.max()));
+    }
+
+    /**
+     * Учитывает фактическое время выполненного поиска в оценке стоимости.
+     *
+     * @param efSearch   Примененное значение ef_search.
+     * @param queryCount Количество вариантов запроса в пакете.
+     * @param elapsed    Время выполнения SQL-запроса.
+     */
+    public void recordLatency(int efSearch, int queryCount, Duration elapsed) {
+        if (efSearch <= 0 || queryCount <= 0) {
+            return;
+        }
+        latencyModel.record((double) efSearch * queryCount, elapsed.toNanos());
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * Экспоненциально взвешенная линейная регрессия времени пакета {@code t} по
+     * объему работы {@code x = efSearch * queryCount}.
+     * <p>
+     * Пока разброс {@code x} слишком мал, чтобы отделить постоянную часть от наклона,
+     * используется консервативная оценка {@code t / x}. Она может лишь уменьшить
+     * ef_search, что и создает разброс, необходимый для регрессии.
+     */
+    static final class LatencyModel {
+
+        private static final double ALPHA = 0.1;
+        /**
+         * Минимальный коэффициент вариации {@code x}, при котором наклон считается определенным.
+         */
+        private static final double MIN_RELATIVE_SPREAD = 0.1;
+
+        private boolean initialized;
+        private double meanX;
+        private double meanT;
+        private double meanXX;
+        private double meanXT;
+
+        synchronized void record(double x, double t) {
+            if (!initialized) {
+                meanX = x;
+                meanT = t;
+                meanXX = x * x;
+                meanXT = x * t;
+                initialized = true;
+                return;
+            }
+            meanX += ALPHA * (x - meanX);
+            meanT += ALPHA * (t - meanT);
+            meanXX += ALPHA * (x * x - meanXX);
+            meanXT += ALPHA * (x * t - meanXT);
+        }
+
+        /**
+         * Возвращает наибольший объем работы {@code x}, укладывающийся в бюджет,
+         * или {@link Double#POSITIVE_INFINITY}, если оценки еще нет или время не растет с ef_search.
+         */
+        synchronized double affordableUnits(double budgetNanos) {
+            if (!initialized || meanX <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double variance = meanXX - meanX * meanX;
+            double fixed;
+            double perUnit;
+            if (variance > MIN_RELATIVE_SPREAD * MIN_RELATIVE_SPREAD * meanX * meanX) {
+                perUnit = (meanXT - meanX * meanT) / variance;
+                fixed = Math.max(meanT - perUnit * meanX, 0.0);
+            } else {
+                perUnit = meanT / meanX;
+                fixed = 0.0;
+            }
+            if (perUnit <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return Math.max(budgetNanos - fixed, 0.0) / perUnit;
+        }
+    }
+}
@@ -1,34 +1,72 @@
 package com.example.ragollama.rag.retrieval.search;
 
-import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.caching.VectorCacheService;
+import com.example.ragollama.shared.tokenization.SearchRequestKeyGenerator;
 import jakarta.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.filter.Filter;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Декоратор, добавляющий кэширование к сервису векторного поиска, адаптированный для реактивного стека.
+ * <p>
+ * В отличие от {@code @Cacheable}, который для реактивных методов кэширует сам
+ * "холодный" {@link Mono}, этот декоратор кэширует уже полученный список документов
+ * в {@link VectorCacheService}. Бин создается в
+ * {@link com.example.ragollama.shared.config.VectorSearchConfig}.
  */
 @Slf4j
-@Service
 @RequiredArgsConstructor
 public class CachingVectorSearchService implements VectorSearchService {
 
     private final VectorSearchService delegate;
-    private final MetricService metricService;
+    private final VectorCacheService vectorCacheService;
+    private final SearchRequestKeyGenerator keyGenerator;
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Кэш ведется отдельно для каждого запроса, поэтому вариант, найденный
+     * в кэше, не требует повторного поиска, даже если соседние варианты изменились.
+     * Промахи передаются делегату одним пакетом.
+     */
     @Override
-    @Cacheable(value = "vector_search_results", keyGenerator = "searchRequestKeyGenerator")
-    public Mono<List<Document>> search(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch) {
-        log.warn("ПРОМАХ КЭША: Выполнение реального векторного поиска для запроса: '{}' с efSearch={}", queries.get(0), efSearch);
-        metricService.incrementCacheMiss();
-        // Делегируем выполнение и позволяем @Cacheable обернуть результат в Mono
-        return delegate.search(queries, topK, similarityThreshold, filter, efSearch);
+    public Mono<List<List<Document>>> searchPerQuery(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch) {
+        return Mono.defer(() -> {
+            List<List<Document>> results = new ArrayList<>(queries.size());
+            List<String> missedQueries = new ArrayList<>();
+            List<Integer> missedPositions = new ArrayList<>();
+            List<String> missedKeys = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                String query = queries.get(i);
+                String key = keyGenerator.generateKey(List.of(query), topK, similarityThreshold, filter, efSearch);
+                Optional<List<Document>> cached = vectorCacheService.get(key);
+                results.add(cached.orElse(null));
+                if (cached.isEmpty()) {
+                    missedQueries.add(query);
+                    missedPositions.add(i);
+                    missedKeys.add(key);
+                }
+            }
+            if (missedQueries.isEmpty()) {
+                return Mono.just(results);
+            }
+            log.debug("Промах кэша для {} из {} запросов: выполнение векторного поиска с efSearch={}",
+                    missedQueries.size(), queries.size(), efSearch);
+            return delegate.searchPerQuery(missedQueries, topK, similarityThreshold, filter, efSearch)
+                    .map(found -> {
+                        for (int i = 0; i < found.size(); i++) {
+                            vectorCacheService.put(missedKeys.get(i), found.get(i));
+                            results.set(missedPositions.get(i), found.get(i));
+                        }
+                        return results;
+                    });
+        });
     }
 }
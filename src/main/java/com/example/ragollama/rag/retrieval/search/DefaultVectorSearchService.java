@@ -1,69 +1,251 @@
 package com.example.ragollama.rag.retrieval.search;
 
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
 import com.example.ragollama.shared.exception.RetrievalException;
+import com.example.ragollama.shared.exception.RetrievalOverloadedException;
 import com.example.ragollama.shared.metrics.MetricService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Nullable;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
 import org.springframework.dao.DataAccessException;
-import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Базовая реализация {@link VectorSearchService}, адаптированная для R2DBC.
+ * Базовая реализация {@link VectorSearchService}.
+ * <p>
+ * Все варианты запроса векторизуются одним пакетным вызовом модели эмбеддингов,
+ * после чего поиск по всем векторам выполняется одним SQL-запросом
+ * ({@code unnest ... CROSS JOIN LATERAL}): каждый вектор получает собственную
+ * выборку top-K, а строки результата помечаются номером запроса, поэтому
+ * ранжирование каждого варианта сохраняется для последующего слияния RRF.
+ * <p>
+ * Блокирующий JDBC-вызов выполняется на выделенном ограниченном планировщике,
+ * чтобы векторный поиск не конкурировал за потоки с остальными задачами приложения.
+ * Если заняты все потоки и очередь ожидания планировщика, поиск завершается
+ * {@link RetrievalOverloadedException}.
+ * <p>
+ * Значение {@code hnsw.ef_search} (см. {@link AdaptiveEfSearchPolicy}) устанавливается
+ * через {@code set_config(..., true)} в той же транзакции и на том же соединении,
+ * что и поисковый запрос, поэтому оно гарантированно действует на этот поиск
+ * и не протекает в пул соединений.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class DefaultVectorSearchService implements VectorSearchService {
 
-    private final VectorStore vectorStore;
+    private static final String QUERY_PREFIX = "query: ";
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final AdaptiveEfSearchPolicy efSearchPolicy;
     private final MetricService metricService;
-    private final DatabaseClient databaseClient;
+    private final ObjectMapper objectMapper;
+    private final PgVectorFilterExpressionConverter filterConverter = new PgVectorFilterExpressionConverter();
+    private final Scheduler searchScheduler;
+
+    public DefaultVectorSearchService(EmbeddingModel embeddingModel,
+                                      JdbcTemplate jdbcTemplate,
+                                      AdaptiveEfSearchPolicy efSearchPolicy,
+                                      MetricService metricService,
+                                      ObjectMapper objectMapper,
+                                      RetrievalProperties retrievalProperties) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.efSearchPolicy = efSearchPolicy;
+        this.metricService = metricService;
+        this.objectMapper = objectMapper;
+        RetrievalProperties.Hybrid.VectorSearch config = retrievalProperties.hybrid().vectorSearch();
+        this.searchScheduler = Schedulers.newBoundedElastic(
+                config.maxConcurrentSearches(), config.maxQueuedSearches(), "vector-search");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchScheduler.dispose();
+    }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Mono<List<Document>> search(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch) {
-        Mono<Void> setupMono = Mono.empty();
-
-        if (efSearch != null) {
-            log.debug("Установка локального параметра hnsw.ef_search = {} для текущего запроса.", efSearch);
-            setupMono = databaseClient.sql("SET LOCAL hnsw.ef_search = :efSearch")
-                    .bind("efSearch", efSearch)
-                    .then();
+    public Mono<List<List<Document>>> searchPerQuery(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch) {
+        if (queries.isEmpty()) {
+            return Mono.just(List.of());
         }
-
-        return setupMono.then(Mono.fromCallable(() ->
-                queries.stream()
-                        .parallel()
-                        .flatMap(query -> performSingleSearch(query, topK, similarityThreshold, filter).stream())
-                        .distinct()
-                        .toList()
-        ));
+        return Mono.fromCallable(() -> performBatchSearch(queries, topK, similarityThreshold, filter, efSearch))
+                .subscribeOn(searchScheduler)
+                // Планировщик отклоняет задачу, когда заняты все потоки и очередь ожидания
+                .onErrorMap(RejectedExecutionException.class, e -> {
+                    log.warn("Векторный поиск для {} запросов отклонен: очередь планировщика переполнена.", queries.size());
+                    metricService.incrementVectorSearchRejected();
+                    return new RetrievalOverloadedException("Очередь векторного поиска переполнена.", e);
+                });
     }
 
-    private List<Document> performSingleSearch(String query, int topK, double threshold, Filter.Expression filter) {
+    private List<List<Document>> performBatchSearch(List<String> queries, int topK, double threshold,
+                                                    @Nullable Filter.Expression filter, @Nullable Integer requestedEfSearch) {
+        List<String> prefixed = queries.stream().map(query -> QUERY_PREFIX + query).toList();
+        List<float[]> embeddings = embeddingModel.embed(prefixed);
+        String[] vectorLiterals = embeddings.stream().map(DefaultVectorSearchService::toVectorLiteral).toArray(String[]::new);
+        String sql = buildBatchSql(filter);
+        int efSearch = efSearchPolicy.choose(requestedEfSearch, topK, queries.size());
+        log.debug("Векторный поиск для {} запросов с hnsw.ef_search = {}", queries.size(), efSearch);
+        metricService.recordVectorSearchEfSearch(efSearch);
+
+        List<RankedRow> rows;
         try {
-            SearchRequest request = SearchRequest.builder()
-                    .query("query: " + query)
-                    .topK(topK)
-                    .similarityThreshold(threshold)
-                    .filterExpression(filter)
-                    .build();
-            return metricService.recordTimer("rag.retrieval.vectors.single",
-                    () -> vectorStore.similaritySearch(request));
+            rows = metricService.recordTimer("rag.retrieval.vectors.batch", () -> jdbcTemplate.execute(
+                    (ConnectionCallback<List<RankedRow>>) con -> inTransaction(con, () -> {
+                        setLocalEfSearch(con, efSearch);
+                        long start = System.nanoTime();
+                        List<RankedRow> found = new ArrayList<>();
+                        try (PreparedStatement ps = con.prepareStatement(sql)) {
+                            Array vectors = con.createArrayOf("text", vectorLiterals);
+                            ps.setArray(1, vectors);
+                            ps.setDouble(2, 1.0 - threshold);
+                            ps.setInt(3, topK);
+                            try (ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    found.add(new RankedRow(rs.getInt("query_index") - 1, toDocument(rs)));
+                                }
+                            }
+                        }
+                        efSearchPolicy.recordLatency(efSearch, queries.size(), Duration.ofNanos(System.nanoTime() - start));
+                        return found;
+                    })));
         } catch (DataAccessException e) {
-            log.error("Ошибка доступа к векторному хранилищу: '{}'", query, e);
+            log.error("Ошибка доступа к векторному хранилищу для {} запросов: '{}'", queries.size(), queries.get(0), e);
             throw new RetrievalException("Не удалось выполнить поиск в векторном хранилище.", e);
         }
+
+        List<List<Document>> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(new ArrayList<>(topK));
+        }
+        // Строки уже упорядочены по номеру запроса и расстоянию
+        for (RankedRow row : rows) {
+            results.get(row.queryIndex()).add(row.document());
+        }
+        return results;
+    }
+
+    /**
+     * Выполняет действие в явной транзакции на переданном соединении и восстанавливает
+     * режим auto-commit перед возвратом соединения в пул.
+     */
+    private static <T> T inTransaction(Connection con, SqlWork<T> work) throws SQLException {
+        boolean autoCommit = con.getAutoCommit();
+        if (autoCommit) {
+            con.setAutoCommit(false);
+        }
+        try {
+            T result = work.execute();
+            con.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            if (autoCommit) {
+                con.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void setLocalEfSearch(Connection con, int efSearch) throws SQLException {
+        // set_config(..., true) эквивалентен SET LOCAL, но допускает параметр
+        try (PreparedStatement ps = con.prepareStatement("SELECT set_config('hnsw.ef_search', ?, true)")) {
+            ps.setString(1, Integer.toString(efSearch));
+            ps.execute();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T execute() throws SQLException;
+    }
+
+    /**
+     * Строка результата пакетного поиска: документ и номер запроса, к которому он относится.
+     */
+    private record RankedRow(int queryIndex, Document document) {
+    }
+
+    private String buildBatchSql(@Nullable Filter.Expression filter) {
+        String filterClause = filter == null
+                ? ""
+                : "AND metadata::jsonb @@ '" + filterConverter.convertExpression(filter) + "'::jsonpath ";
+        return """
+                SELECT q.idx AS query_index, v.id, v.content, v.metadata, v.distance
+                FROM unnest(CAST(? AS text[])) WITH ORDINALITY AS q(vec, idx)
+                CROSS JOIN LATERAL (
+                    SELECT id, content, metadata, embedding <=> CAST(q.vec AS vector) AS distance
+                    FROM vector_store
+                    WHERE embedding <=> CAST(q.vec AS vector) < ? %s
+                    ORDER BY embedding <=> CAST(q.vec AS vector)
+                    LIMIT ?
+                ) v
+                ORDER BY q.idx, v.distance
+                """.formatted(filterClause);
+    }
+
+    private Document toDocument(ResultSet rs) throws SQLException {
+        double distance = rs.getDouble("distance");
+        Map<String, Object> metadata = new HashMap<>(parseMetadata(rs.getString("metadata")));
+        metadata.put("distance", distance);
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata)
+                .score(1.0 - distance)
+                .build();
+    }
+
+    private Map<String, Object> parseMetadata(@Nullable String json) {
+        if (json == null || json.isBlank()) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new RetrievalException("Не удалось разобрать метаданные документа векторного хранилища.", e);
+        }
+    }
+
+    private static String toVectorLiteral(float[] embedding) {
+        StringBuilder sb = new StringBuilder(embedding.length * 10).append('[');
+        for (int i = 0; i < embedding.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(embedding[i]);
+        }
+        return sb.append(']').toString();
     }
 }
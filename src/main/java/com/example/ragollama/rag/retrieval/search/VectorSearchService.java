@@ -5,12 +5,30 @@ import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.filter.Filter;
 import reactor.core.publisher.Mono;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Определяет контракт для сервиса, выполняющего поиск в векторном хранилище.
  */
 public interface VectorSearchService {
+
+    /**
+     * Выполняет поиск по схожести для нескольких запросов, сохраняя отдельное
+     * ранжирование для каждого из них.
+     *
+     * @param queries             Список текстов запросов.
+     * @param topK                Количество извлекаемых документов для каждого запроса.
+     * @param similarityThreshold Порог схожести.
+     * @param filter              Опциональный фильтр метаданных.
+     * @param efSearch            Опциональное значение hnsw.ef_search; если не задано,
+     *                            значение выбирается адаптивно.
+     * @return Mono со списком результатов в порядке запросов; каждый результат
+     * отсортирован по убыванию схожести.
+     */
+    Mono<List<List<Document>>> searchPerQuery(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch);
+
     /**
      * Выполняет поиск по схожести для нескольких запросов.
      *
@@ -21,5 +39,24 @@ public interface VectorSearchService {
      * @param efSearch            Опциональное значение hnsw.ef_search.
      * @return Mono со списком уникальных документов.
      */
-    Mono<List<Document>> search(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch);
-}
\ No newline at end of file
+    default Mono<List<Document>> search(List<String> queries, int topK, double similarityThreshold, @Nullable Filter.Expression filter, @Nullable Integer efSearch) {
+        return searchPerQuery(queries, topK, similarityThreshold, filter, efSearch)
+                .map(VectorSearchService::mergeUnique);
+    }
+
+    /**
+     * Объединяет результаты нескольких запросов, оставляя первое вхождение каждого документа.
+     *
+     * @param rankings Результаты отдельных запросов.
+     * @return Список уникальных по ID документов.
+     */
+    static List<Document> mergeUnique(List<List<Document>> rankings) {
+        Map<String, Document> unique = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (Document document : ranking) {
+                unique.putIfAbsent(document.getId(), document);
+            }
+        }
+        return List.copyOf(unique.values());
+    }
+}
@@ -1,32 +1,153 @@
 package com.example.ragollama.shared.caching;
 
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
 /**
- * Сервис, инкапсулирующий логику управления кэшем для результатов векторного поиска.
+ * Сервис, владеющий кэшем результатов векторного поиска.
  * <p>
- * Предоставляет декларативный способ очистки кэша, следуя принципу
- * единственной ответственности (SRP) и скрывая детали реализации от других сервисов.
- * Использование этого сервиса делает код более чистым и устойчивым к изменениям,
- * так как имя кэша и логика его очистки централизованы в одном месте.
+ * Хранит уже материализованные списки документов (а не "холодные" {@code Mono}),
+ * ограничен по размеру и времени жизни записей. Дополнительно поддерживает
+ * обратный индекс {@code documentId -> ключи кэша}, что позволяет при
+ * переиндексации документа инвалидировать только те записи, которые на него
+ * ссылаются, вместо полной очистки кэша.
  */
 @Service
 @Slf4j
 public class VectorCacheService {
 
+    /**
+     * Имя кэша, используемое в тегах метрик.
+     */
+    public static final String CACHE_NAME = "vector_search_results";
+
+    private final MetricService metricService;
+    private final Cache<String, List<Document>> cache;
+    private final Map<String, Set<String>> keysByDocumentId = new ConcurrentHashMap<>();
+
+    /**
+     * Создает кэш на основе настроек {@code app.rag.retrieval.cache}.
+     *
+     * @param retrievalProperties Настройки подсистемы извлечения.
+     * @param metricService       Сервис для экспорта метрик кэша.
+     */
+    public VectorCacheService(RetrievalProperties retrievalProperties, MetricService metricService) {
+        this.metricService = metricService;
+        RetrievalProperties.Cache settings = retrievalProperties.cache();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(settings.maxSize())
+                .expireAfterWrite(settings.ttl())
+                .removalListener(this::onRemoval)
+                .build();
+        metricService.registerCacheSizeGauge(CACHE_NAME, cache::size);
+    }
+
+    /**
+     * Возвращает закэшированный результат поиска, если он есть.
+     *
+     * @param key Ключ, построенный {@link com.example.ragollama.shared.tokenization.SearchRequestKeyGenerator}.
+     * @return {@link Optional} с ранее найденными документами.
+     */
+    public Optional<List<Document>> get(String key) {
+        List<Document> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            metricService.incrementCacheHit(CACHE_NAME);
+        } else {
+            metricService.incrementCacheMiss(CACHE_NAME);
+        }
+        return Optional.ofNullable(cached);
+    }
+
+    /**
+     * Сохраняет результат поиска и регистрирует его во всех документах, на которые он ссылается.
+     *
+     * @param key       Ключ поискового запроса.
+     * @param documents Найденные документы.
+     */
+    public void put(String key, List<Document> documents) {
+        List<Document> snapshot = List.copyOf(documents);
+        documentIdsOf(snapshot).forEach(documentId ->
+                keysByDocumentId.computeIfAbsent(documentId, id -> ConcurrentHashMap.newKeySet()).add(key));
+        cache.put(key, snapshot);
+    }
+
+    /**
+     * Инвалидирует только те записи кэша, в результатах которых присутствует указанный документ.
+     * <p>
+     * Записи, которые не ссылались на документ, но могли бы начать его находить после
+     * переиндексации, остаются в кэше до истечения TTL — это осознанный компромисс
+     * между свежестью и эффективностью кэша.
+     *
+     * @param documentId Идентификатор переиндексированного или удаленного документа.
+     */
+    public void evictByDocumentId(String documentId) {
+        Set<String> keys = keysByDocumentId.remove(documentId);
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        cache.invalidateAll(keys);
+        log.debug("Инвалидировано {} записей кэша '{}' для документа ID: {}", keys.size(), CACHE_NAME, documentId);
+    }
+
+    /**
+     * Инвалидирует записи кэша для набора документов.
+     *
+     * @param documentIds Идентификаторы документов.
+     */
+    public void evictByDocumentIds(Collection<String> documentIds) {
+        documentIds.forEach(this::evictByDocumentId);
+    }
+
     /**
      * Полностью очищает кэш, в котором хранятся результаты векторного поиска.
      * <p>
-     * Эта операция должна вызываться после любого изменения данных в векторном хранилище
-     * (например, после индексации нового документа), чтобы предотвратить
-     * предоставление устаревших результатов поиска клиентам API.
-     * Аннотация {@code @CacheEvict} декларативно указывает Spring на необходимость
-     * инвалидации всех записей в кэше "vector_search_results".
+     * Следует использовать только для массовых операций, затрагивающих весь
+     * индекс (например, смена модели эмбеддингов).
      */
-    @CacheEvict(value = "vector_search_results", allEntries = true)
     public void evictAll() {
-        log.info("Декларативная очистка кэша 'vector_search_results' инициирована.");
+        cache.invalidateAll();
+        keysByDocumentId.clear();
+        log.info("Кэш '{}' полностью очищен.", CACHE_NAME);
+    }
+
+    private void onRemoval(RemovalNotification<String, List<Document>> notification) {
+        if (notification.wasEvicted()) {
+            metricService.incrementCacheEviction(CACHE_NAME, notification.getCause().name().toLowerCase());
+        }
+        List<Document> documents = notification.getValue();
+        // При замене значения ключ остается актуальным: обратный индекс уже обновлен в put()
+        if (documents == null || notification.getCause() == RemovalCause.REPLACED) {
+            return;
+        }
+        String key = notification.getKey();
+        documentIdsOf(documents).forEach(documentId ->
+                keysByDocumentId.computeIfPresent(documentId, (id, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                }));
+    }
+
+    private static Set<String> documentIdsOf(List<Document> documents) {
+        return documents.stream()
+                .map(doc -> doc.getMetadata().get("documentId"))
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
     }
 }
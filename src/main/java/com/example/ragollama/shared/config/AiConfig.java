@@ -1,11 +1,18 @@
 package com.example.ragollama.shared.config;
 
+import com.example.ragollama.rag.embedding.CachingEmbeddingModel;
+import com.example.ragollama.rag.embedding.EmbeddingCacheProperties;
+import com.example.ragollama.rag.embedding.EmbeddingCacheRepository;
 import com.example.ragollama.rag.embedding.NormalizingEmbeddingModel;
 import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.llm.LlmAdmissionScheduler;
 import com.example.ragollama.shared.llm.LlmClient;
 import com.example.ragollama.shared.llm.LlmGateway;
+import com.example.ragollama.shared.llm.LlmRequestCoalescer;
+import com.example.ragollama.shared.llm.LlmResponseCache;
 import com.example.ragollama.shared.llm.LlmRouterService;
 import com.example.ragollama.shared.llm.ResilientLlmExecutor;
+import com.example.ragollama.shared.metrics.MetricService;
 import io.netty.channel.ChannelOption;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.handler.timeout.WriteTimeoutHandler;
@@ -66,14 +73,33 @@ public class AiConfig {
 
     /**
      * Создает бин EmbeddingModel-декоратора.
+     * <p>
+     * Цепочка декораторов: кэш эмбеддингов (если включен) поверх L2-нормализации
+     * поверх стандартной модели Ollama.
      *
-     * @param ollamaEmbeddingModel Стандартный бин.
+     * @param ollamaEmbeddingModel     Стандартный бин.
+     * @param embeddingCacheRepository Репозиторий персистентного кэша эмбеддингов.
+     * @param embeddingCacheProperties Настройки кэша эмбеддингов.
+     * @param metricService            Сервис метрик.
+     * @param embeddingModelName       Имя модели эмбеддингов.
+     * @param embeddingModelVersion    Версия модели эмбеддингов.
      * @return Декоратор.
      */
     @Bean
     @Primary
-    public EmbeddingModel normalizingEmbeddingModel(OllamaEmbeddingModel ollamaEmbeddingModel) {
-        return new NormalizingEmbeddingModel(ollamaEmbeddingModel);
+    public EmbeddingModel normalizingEmbeddingModel(
+            OllamaEmbeddingModel ollamaEmbeddingModel,
+            EmbeddingCacheRepository embeddingCacheRepository,
+            EmbeddingCacheProperties embeddingCacheProperties,
+            MetricService metricService,
+            @Value("${spring.ai.ollama.embedding.options.model}") String embeddingModelName,
+            @Value("${spring.ai.ollama.embedding.options.model-version}") String embeddingModelVersion) {
+        EmbeddingModel normalizing = new NormalizingEmbeddingModel(ollamaEmbeddingModel);
+        if (!embeddingCacheProperties.enabled()) {
+            return normalizing;
+        }
+        return new CachingEmbeddingModel(normalizing, embeddingCacheRepository, embeddingCacheProperties,
+                metricService, embeddingModelName + ":" + embeddingModelVersion);
     }
 
     /**
@@ -94,18 +120,27 @@ public class AiConfig {
      * @param llmGateway        Низкоуровневый шлюз.
      * @param llmRouterService  Сервис-роутер.
      * @param resilientExecutor Декоратор отказоустойчивости.
+     * @param requestCoalescer  Компонент объединения идентичных одновременных вызовов.
+     * @param responseCache     Кэш ответов для вызовов, явно запросивших кэширование.
+     * @param admissionScheduler Планировщик допуска вызовов с учетом приоритета.
      * @return Полностью сконфигурированный {@link LlmClient}.
      */
     @Bean
     public LlmClient llmClient(
             LlmGateway llmGateway,
             LlmRouterService llmRouterService,
-            ResilientLlmExecutor resilientExecutor
+            ResilientLlmExecutor resilientExecutor,
+            LlmRequestCoalescer requestCoalescer,
+            LlmResponseCache responseCache,
+            LlmAdmissionScheduler admissionScheduler
     ) {
         return new LlmClient(
                 llmGateway,
                 llmRouterService,
-                resilientExecutor
+                resilientExecutor,
+                requestCoalescer,
+                responseCache,
+                admissionScheduler
         );
     }
 }
@@ -1,7 +1,10 @@
 package com.example.ragollama.shared.config;
 
+import com.example.ragollama.rag.retrieval.search.CachingVectorSearchService;
 import com.example.ragollama.rag.retrieval.search.DefaultVectorSearchService;
 import com.example.ragollama.rag.retrieval.search.VectorSearchService;
+import com.example.ragollama.shared.caching.VectorCacheService;
+import com.example.ragollama.shared.tokenization.SearchRequestKeyGenerator;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -9,16 +12,18 @@ import org.springframework.context.annotation.Primary;
 
 /**
  * Конфигурация для сборки и внедрения сервиса векторного поиска.
- * <p> После удаления Redis, эта конфигурация была значительно упрощена.
- * Она теперь напрямую предоставляет {@link DefaultVectorSearchService} как
- * основную и единственную реализацию {@link VectorSearchService}.
- * Декоратор для кэширования больше не требуется.
+ * <p>
+ * Собирает цепочку декораторов: {@link DefaultVectorSearchService} выполняет
+ * реальный поиск, а {@link CachingVectorSearchService} кэширует его результаты
+ * в ограниченном по размеру и TTL in-memory кэше.
  */
 @Configuration
 @RequiredArgsConstructor
 public class VectorSearchConfig {
 
     private final DefaultVectorSearchService defaultVectorSearchService;
+    private final VectorCacheService vectorCacheService;
+    private final SearchRequestKeyGenerator searchRequestKeyGenerator;
 
     /**
      * Предоставляет основной бин {@link VectorSearchService}.
@@ -32,6 +37,6 @@ public class VectorSearchConfig {
     @Bean
     @Primary
     public VectorSearchService vectorSearchService() {
-        return defaultVectorSearchService;
+        return new CachingVectorSearchService(defaultVectorSearchService, vectorCacheService, searchRequestKeyGenerator);
     }
 }
@@ -41,9 +41,16 @@ public record AppProperties(
     /**
      * Настройки токенизатора.
      *
-     * @param encodingModel Имя модели кодирования (например, "o200k_base").
+     * @param encodingModel         Имя модели кодирования (например, "o200k_base").
+     * @param countCacheMaxEntries  Максимальное количество записей в кэше счетчиков токенов.
+     * @param countCacheMinLength   Минимальная длина текста (в символах), начиная с которой
+     *                              счетчик токенов кэшируется; короткие тексты дешевле токенизировать заново.
      */
-    public record Tokenization(@NotBlank String encodingModel) {
+    public record Tokenization(
+            @NotBlank String encodingModel,
+            @Min(1) long countCacheMaxEntries,
+            @Min(0) int countCacheMinLength
+    ) {
     }
 
     /**
@@ -123,13 +130,17 @@ public record AppProperties(
     /**
      * Общие настройки для RAG-конвейера.
      * Специфичные настройки (retrieval, reranking) вынесены в отдельные классы.
+     *
+     * @param maxStoredAnswerChars Максимальный размер потокового ответа (в символах),
+     *                             сохраняемого в истории диалога; более длинный ответ усекается.
      */
     @Validated
     public record Rag(
             @NotBlank String noContextStrategy,
             @NotBlank String arrangementStrategy,
             @NotNull Summarizer summarizer,
-            @NotNull Validation validation
+            @NotNull Validation validation,
+            @Min(1) int maxStoredAnswerChars
     ) {
     }
 
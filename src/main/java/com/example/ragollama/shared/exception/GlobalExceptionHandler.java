@@ -116,6 +116,9 @@ public class GlobalExceptionHandler implements ErrorWebExceptionHandler {
         if (ex instanceof RetrievalException e) {
             return createProblemDetail(HttpStatus.SERVICE_UNAVAILABLE, "Retrieval Service Error", "Сервис извлечения документов временно недоступен.");
         }
+        if (ex instanceof LlmOverloadedException e) {
+            return createProblemDetail(HttpStatus.SERVICE_UNAVAILABLE, "LLM Overloaded", "Сервис генерации ответов перегружен. Повторите попытку позже.");
+        }
         if (ex instanceof GenerationException e) {
             return createProblemDetail(HttpStatus.SERVICE_UNAVAILABLE, "Generation Service Error", "Сервис генерации ответов временно недоступен.");
         }
@@ -0,0 +1,20 @@
+package com.example.ragollama.shared.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Исключение, выбрасываемое, когда очередь допуска к модели LLM переполнена
+ * и вызов не может быть поставлен в ожидание.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class LlmOverloadedException extends RuntimeException {
+    /**
+     * Конструктор с сообщением об ошибке.
+     *
+     * @param message Детальное описание причины.
+     */
+    public LlmOverloadedException(String message) {
+        super(message);
+    }
+}
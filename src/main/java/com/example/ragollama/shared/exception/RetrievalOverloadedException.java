@@ -0,0 +1,22 @@
+package com.example.ragollama.shared.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Исключение, выбрасываемое, когда очередь источника поиска переполнена и запрос
+ * отклонен без выполнения. В отличие от остальных {@link RetrievalException}, сигнализирует
+ * о временной перегрузке, при которой источник можно пропустить.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class RetrievalOverloadedException extends RetrievalException {
+    /**
+     * Конструктор с сообщением и причиной.
+     *
+     * @param message Детальное описание ошибки.
+     * @param cause   Исходное исключение-причина.
+     */
+    public RetrievalOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -5,22 +5,31 @@ import com.example.ragollama.shared.llm.aop.LlmUsageTracking;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.content.Media;
 import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 
 /**
  * Стандартная реализация {@link LlmGateway}, использующая Spring AI {@link ChatClient}.
  * <p>
  * Этот компонент отвечает исключительно за прямое, "сырое" взаимодействие с LLM.
- * Он выполняется в выделенном пуле потоков для I/O-операций и включает
- * детализированное логирование параметров вызова для улучшения наблюдаемости.
+ * Оба вызова используют неблокирующий потоковый HTTP-обмен: не-потоковый вызов
+ * агрегирует поток в единый ответ. Компонент также включает детализированное
+ * логирование параметров вызова для улучшения наблюдаемости.
  * <p> Методы этого класса аннотированы для активации AOP-аспектов.
  */
 @Slf4j
@@ -38,11 +47,14 @@ public class DefaultLlmGateway implements LlmGateway {
     @LlmUsageTracking
     public Mono<ChatResponse> call(Prompt prompt, OllamaOptions options) {
         log.debug("Выполнение не-потокового вызова к LLM. {}", formatOptionsForLogging(options));
-        return Mono.fromCallable(() -> chatClient.prompt(prompt)
+        // Ответ собирается из неблокирующего потока вместо блокирующего call(): ожидание
+        // генерации не занимает поток, поэтому число одновременных вызовов не ограничено пулом.
+        return Flux.defer(() -> chatClient.prompt(prompt)
                         .options(options)
-                        .call()
+                        .stream()
                         .chatResponse())
-                .subscribeOn(Schedulers.boundedElastic());
+                .collect(StreamedResponseAggregator::new, StreamedResponseAggregator::accept)
+                .map(StreamedResponseAggregator::toChatResponse);
     }
 
     /**
@@ -60,6 +72,47 @@ public class DefaultLlmGateway implements LlmGateway {
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
+    /**
+     * Собирает части потокового ответа в единый {@link ChatResponse}.
+     * <p>
+     * Текст частей конкатенируется, вызовы инструментов, медиа и метаданные сообщения
+     * накапливаются из всех частей, а метаданные генерации и ответа (usage, причина
+     * завершения) берутся из последней части, в которой Ollama возвращает итоговую статистику.
+     */
+    private static final class StreamedResponseAggregator {
+
+        private final StringBuilder text = new StringBuilder();
+        private final Map<String, Object> messageMetadata = new HashMap<>();
+        private final List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>();
+        private final List<Media> media = new ArrayList<>();
+        private ChatResponse lastChunk;
+
+        void accept(ChatResponse chunk) {
+            Generation result = chunk.getResult();
+            if (result != null && result.getOutput() != null) {
+                AssistantMessage output = result.getOutput();
+                if (output.getText() != null) {
+                    text.append(output.getText());
+                }
+                messageMetadata.putAll(output.getMetadata());
+                toolCalls.addAll(output.getToolCalls());
+                media.addAll(output.getMedia());
+            }
+            lastChunk = chunk;
+        }
+
+        ChatResponse toChatResponse() {
+            ChatGenerationMetadata generationMetadata = lastChunk != null && lastChunk.getResult() != null
+                    ? lastChunk.getResult().getMetadata()
+                    : ChatGenerationMetadata.NULL;
+            AssistantMessage message = new AssistantMessage(text.toString(), messageMetadata, toolCalls, media);
+            Generation generation = new Generation(message, generationMetadata);
+            return lastChunk != null
+                    ? new ChatResponse(List.of(generation), lastChunk.getMetadata())
+                    : new ChatResponse(List.of(generation));
+        }
+    }
+
     /**
      * Форматирует объект {@link OllamaOptions} в читаемую строку для логирования.
      * <p> Этот метод решает проблему неинформативного стандартного `toString()`
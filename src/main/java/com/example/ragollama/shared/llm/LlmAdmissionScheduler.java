@@ -0,0 +1,286 @@
+package com.example.ragollama.shared.llm;
+
+import com.example.ragollama.shared.exception.LlmOverloadedException;
+import com.example.ragollama.shared.metrics.MetricService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Планировщик допуска вызовов к моделям Ollama с учетом приоритета.
+ * <p>
+ * Для каждой модели ограничивается количество одновременных вызовов, а ожидающие
+ * вызовы распределяются по очередям классов {@link LlmPriority}:
+ * <ul>
+ *     <li>{@link LlmPriority#INTERACTIVE} и {@link LlmPriority#AGENT} получают освободившиеся
+ *     слоты по взвешенному справедливому алгоритму (smooth weighted round-robin), поэтому
+ *     агентные конвейеры не могут полностью вытеснить пользовательские запросы, и наоборот.</li>
+ *     <li>{@link LlmPriority#BACKGROUND} допускается, только если нет ожидающих вызовов
+ *     более высоких классов, и не может занять последние
+ *     {@link LlmSchedulerProperties#reservedInteractiveSlots()} слотов модели.</li>
+ * </ul>
+ * Уже выполняющиеся вызовы не прерываются: вытеснение происходит на этапе допуска.
+ * Время ожидания в очереди публикуется в метрике {@code llm.queue.wait}.
+ */
+@Slf4j
+@Component
+public class LlmAdmissionScheduler {
+
+    private final LlmSchedulerProperties properties;
+    private final MetricService metricService;
+    private final Map<String, ModelLane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор для внедрения зависимостей.
+     *
+     * @param properties    Настройки планировщика.
+     * @param metricService Сервис метрик.
+     */
+    public LlmAdmissionScheduler(LlmSchedulerProperties properties, MetricService metricService) {
+        this.properties = properties;
+        this.metricService = metricService;
+    }
+
+    /**
+     * Выполняет не-потоковый вызов после получения слота модели.
+     *
+     * @param modelName  Имя модели.
+     * @param capability Запрошенный уровень возможностей (используется как тег метрик).
+     * @param call       Фабрика вызова.
+     * @param <T>        Тип результата.
+     * @return {@link Mono} с результатом вызова; слот освобождается при любом завершении или отмене.
+     */
+    public <T> Mono<T> execute(String modelName, ModelCapability capability, Supplier<Mono<T>> call) {
+        if (!properties.enabled()) {
+            return Mono.defer(call);
+        }
+        return Mono.usingWhen(acquire(modelName, capability), permit -> Mono.defer(call), Permit::releaseAsync);
+    }
+
+    /**
+     * Выполняет потоковый вызов, удерживая слот модели до окончания потока.
+     *
+     * @param modelName  Имя модели.
+     * @param capability Запрошенный уровень возможностей (используется как тег метрик).
+     * @param call       Фабрика вызова.
+     * @param <T>        Тип элементов потока.
+     * @return {@link Flux} с результатом вызова.
+     */
+    public <T> Flux<T> executeStream(String modelName, ModelCapability capability, Supplier<Flux<T>> call) {
+        if (!properties.enabled()) {
+            return Flux.defer(call);
+        }
+        return Flux.usingWhen(acquire(modelName, capability), permit -> Flux.defer(call), Permit::releaseAsync);
+    }
+
+    private Mono<Permit> acquire(String modelName, ModelCapability capability) {
+        return Mono.deferContextual(context -> {
+            LlmPriority priority = LlmPriority.from(context);
+            ModelLane lane = lanes.computeIfAbsent(modelName, this::createLane);
+            return Mono.create(sink -> lane.enqueue(new Waiter(priority, capability, sink, System.nanoTime())));
+        });
+    }
+
+    private ModelLane createLane(String modelName) {
+        ModelLane lane = new ModelLane(modelName, properties.maxConcurrencyFor(modelName));
+        for (LlmPriority priority : LlmPriority.values()) {
+            metricService.registerLlmQueueGauge(modelName, tag(priority), () -> lane.queueSize(priority));
+        }
+        log.info("Планировщик LLM: модель {} ограничена {} одновременными вызовами.", modelName, lane.maxConcurrent);
+        return lane;
+    }
+
+    private static String tag(LlmPriority priority) {
+        return priority.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Состояние допуска к одной модели. Все изменяемые поля защищены монитором объекта;
+     * выдача слотов подписчикам выполняется вне монитора.
+     * <p>
+     * Подписчик может выполнить вызов и освободить слот прямо внутри выдачи (например, при
+     * ответе из кэша), а освобождение выдает слот следующему ожидающему. Чтобы такая цепочка
+     * не углублялась в стек на всю длину очереди, выданные слоты складываются в
+     * {@code pendingGrants} и передаются подписчикам циклом {@link #drainGrants()}: вложенный
+     * вызов только добавляет слот в очередь, а выдает его уже работающий цикл.
+     */
+    private final class ModelLane {
+        private final String modelName;
+        private final int maxConcurrent;
+        private final int backgroundLimit;
+        private final Map<LlmPriority, ArrayDeque<Waiter>> queues = new EnumMap<>(LlmPriority.class);
+        private final int[] credits = new int[LlmPriority.values().length];
+        private final ArrayDeque<Waiter> pendingGrants = new ArrayDeque<>();
+        private final AtomicInteger grantsWip = new AtomicInteger();
+        private int active;
+
+        ModelLane(String modelName, int maxConcurrent) {
+            this.modelName = modelName;
+            this.maxConcurrent = maxConcurrent;
+            this.backgroundLimit = Math.max(1, maxConcurrent - properties.reservedInteractiveSlots());
+            for (LlmPriority priority : LlmPriority.values()) {
+                queues.put(priority, new ArrayDeque<>());
+            }
+        }
+
+        void enqueue(Waiter waiter) {
+            waiter.sink.onCancel(() -> cancel(waiter));
+            boolean accepted;
+            synchronized (this) {
+                ArrayDeque<Waiter> queue = queues.get(waiter.priority);
+                accepted = queue.size() < properties.maxQueueSize();
+                if (accepted) {
+                    queue.addLast(waiter);
+                    dispatch();
+                }
+            }
+            if (!accepted) {
+                metricService.incrementLlmAdmissionRejected(modelName, tag(waiter.priority));
+                waiter.sink.error(new LlmOverloadedException(
+                        "Очередь вызовов модели " + modelName + " переполнена для приоритета " + waiter.priority + "."));
+                return;
+            }
+            drainGrants();
+        }
+
+        void release() {
+            synchronized (this) {
+                active--;
+                dispatch();
+            }
+            drainGrants();
+        }
+
+        synchronized int queueSize(LlmPriority priority) {
+            return queues.get(priority).size();
+        }
+
+        private void cancel(Waiter waiter) {
+            boolean removed;
+            synchronized (this) {
+                removed = queues.get(waiter.priority).remove(waiter);
+            }
+            if (!removed && waiter.permit != null) {
+                // Слот был выдан, но подписчик отменился до его получения.
+                waiter.permit.release();
+            }
+        }
+
+        private void dispatch() {
+            while (active < maxConcurrent) {
+                Waiter next = pollNext();
+                if (next == null) {
+                    break;
+                }
+                active++;
+                next.permit = new Permit(this);
+                pendingGrants.addLast(next);
+            }
+        }
+
+        /**
+         * Передает выданные слоты подписчикам. Цикл выполняет только один поток; вызов,
+         * пришедший во время работы цикла (в том числе из него самого), лишь увеличивает
+         * счетчик, и цикл делает еще один проход.
+         */
+        private void drainGrants() {
+            if (grantsWip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                Waiter next;
+                while ((next = pollGrant()) != null) {
+                    grant(next);
+                }
+                missed = grantsWip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private synchronized Waiter pollGrant() {
+            return pendingGrants.pollFirst();
+        }
+
+        private Waiter pollNext() {
+            LlmPriority selected = null;
+            int totalWeight = 0;
+            for (LlmPriority priority : new LlmPriority[]{LlmPriority.INTERACTIVE, LlmPriority.AGENT}) {
+                if (queues.get(priority).isEmpty()) {
+                    continue;
+                }
+                int weight = properties.weightFor(priority);
+                credits[priority.ordinal()] += weight;
+                totalWeight += weight;
+                if (selected == null || credits[priority.ordinal()] > credits[selected.ordinal()]) {
+                    selected = priority;
+                }
+            }
+            if (selected != null) {
+                credits[selected.ordinal()] -= totalWeight;
+                return queues.get(selected).pollFirst();
+            }
+            if (active < backgroundLimit) {
+                return queues.get(LlmPriority.BACKGROUND).pollFirst();
+            }
+            return null;
+        }
+
+        private void grant(Waiter waiter) {
+            metricService.recordLlmQueueWait(modelName, waiter.capability.name(), tag(waiter.priority),
+                    Duration.ofNanos(System.nanoTime() - waiter.enqueuedAt));
+            waiter.sink.success(waiter.permit);
+        }
+    }
+
+    /**
+     * Вызов, ожидающий допуска.
+     */
+    private static final class Waiter {
+        private final LlmPriority priority;
+        private final ModelCapability capability;
+        private final MonoSink<Permit> sink;
+        private final long enqueuedAt;
+        private volatile Permit permit;
+
+        Waiter(LlmPriority priority, ModelCapability capability, MonoSink<Permit> sink, long enqueuedAt) {
+            this.priority = priority;
+            this.capability = capability;
+            this.sink = sink;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * Выданный слот модели. Повторное освобождение игнорируется.
+     */
+    private static final class Permit {
+        private final ModelLane lane;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        Permit(ModelLane lane) {
+            this.lane = lane;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                lane.release();
+            }
+        }
+
+        Mono<Void> releaseAsync() {
+            return Mono.fromRunnable(this::release);
+        }
+    }
+}
@@ -22,6 +22,9 @@ public class LlmClient {
     private final LlmGateway llmGateway;
     private final LlmRouterService llmRouterService;
     private final ResilientLlmExecutor resilientExecutor;
+    private final LlmRequestCoalescer requestCoalescer;
+    private final LlmResponseCache responseCache;
+    private final LlmAdmissionScheduler admissionScheduler;
 
     /**
      * Конструктор для внедрения зависимостей.
@@ -29,15 +32,24 @@ public class LlmClient {
      * @param llmGateway        Низкоуровневый шлюз для прямого вызова LLM.
      * @param llmRouterService  Сервис для выбора модели на основе требуемых возможностей.
      * @param resilientExecutor Декоратор, добавляющий политики отказоустойчивости (Retry, Circuit Breaker).
+     * @param requestCoalescer  Компонент, объединяющий одновременные идентичные детерминированные вызовы.
+     * @param responseCache     Опциональный кэш ответов для вызовов, явно запросивших кэширование.
+     * @param admissionScheduler Планировщик допуска вызовов к модели с учетом приоритета.
      */
     public LlmClient(
             LlmGateway llmGateway,
             LlmRouterService llmRouterService,
-            ResilientLlmExecutor resilientExecutor
+            ResilientLlmExecutor resilientExecutor,
+            LlmRequestCoalescer requestCoalescer,
+            LlmResponseCache responseCache,
+            LlmAdmissionScheduler admissionScheduler
     ) {
         this.llmGateway = llmGateway;
         this.llmRouterService = llmRouterService;
         this.resilientExecutor = resilientExecutor;
+        this.requestCoalescer = requestCoalescer;
+        this.responseCache = responseCache;
+        this.admissionScheduler = admissionScheduler;
     }
 
 
@@ -61,17 +73,78 @@ public class LlmClient {
      * @return {@link Mono}, который по завершении будет содержать кортеж (Tuple2) с текстовым ответом и самим промптом.
      */
     public Mono<Tuple2<String, Prompt>> callChat(Prompt prompt, ModelCapability capability, boolean isJson) {
+        return callChat(prompt, capability, isJson, false);
+    }
+
+    /**
+     * Выполняет не-потоковый текстовый вызов к LLM с температурой 0.
+     * <p>
+     * Предназначен для вызовов, чей результат должен зависеть только от промпта
+     * (например, суммаризация истории диалога). Такие вызовы объединяются
+     * {@link LlmRequestCoalescer} с одновременными идентичными вызовами.
+     *
+     * @param prompt     Промпт для LLM.
+     * @param capability Требуемый уровень возможностей модели.
+     * @return {@link Mono} с кортежем из текстового ответа и промпта.
+     */
+    public Mono<Tuple2<String, Prompt>> callChatDeterministic(Prompt prompt, ModelCapability capability) {
+        return callChat(prompt, capability, false, true);
+    }
+
+    private Mono<Tuple2<String, Prompt>> callChat(Prompt prompt, ModelCapability capability, boolean isJson, boolean deterministic) {
+        return llmRouterService.getModelFor(capability)
+                .flatMap(modelName -> {
+                    OllamaOptions options = buildOptions(modelName, isJson, deterministic);
+                    return executeCall(prompt, capability, options, isJson)
+                            .map(text -> Tuples.of(text, prompt));
+                });
+    }
+
+    /**
+     * Выполняет не-потоковый вызов к LLM с использованием кэша ответов.
+     * <p>
+     * Предназначен для детерминированных вызовов, чей результат полностью определяется
+     * промптом (оценки, классификация, сжатие). Вызов всегда выполняется с температурой 0,
+     * чтобы в кэш не попадала одна случайная выборка. Кэш применяется, только если он включен
+     * и для {@code capability} задано время жизни; иначе поведение совпадает с
+     * {@link #callChatDeterministic(Prompt, ModelCapability)}.
+     *
+     * @param prompt     Промпт для LLM.
+     * @param capability Требуемый уровень возможностей модели.
+     * @return {@link Mono} с кортежем из текстового ответа и промпта.
+     */
+    public Mono<Tuple2<String, Prompt>> callChatCached(Prompt prompt, ModelCapability capability) {
+        return callChatCached(prompt, capability, false);
+    }
+
+    /**
+     * Выполняет не-потоковый вызов к LLM с использованием кэша ответов и возможностью
+     * запросить JSON-ответ.
+     *
+     * @param prompt     Промпт для LLM.
+     * @param capability Требуемый уровень возможностей модели.
+     * @param isJson     {@code true}, если требуется ответ в формате JSON.
+     * @return {@link Mono} с кортежем из текстового ответа и промпта.
+     * @see #callChatCached(Prompt, ModelCapability)
+     */
+    public Mono<Tuple2<String, Prompt>> callChatCached(Prompt prompt, ModelCapability capability, boolean isJson) {
         return llmRouterService.getModelFor(capability)
                 .flatMap(modelName -> {
-                    OllamaOptions options = buildOptions(modelName, isJson);
-                    return resilientExecutor.execute(() -> llmGateway.call(prompt, options))
-                            .map(chatResponse -> Tuples.of(
-                                    chatResponse.getResult().getOutput().getText(),
-                                    prompt
-                            ));
+                    OllamaOptions options = buildOptions(modelName, isJson, true);
+                    return responseCache.getOrCompute(prompt, capability, options, isJson,
+                                    () -> executeCall(prompt, capability, options, isJson))
+                            .map(text -> Tuples.of(text, prompt));
                 });
     }
 
+    private Mono<String> executeCall(Prompt prompt, ModelCapability capability, OllamaOptions options, boolean isJson) {
+        return requestCoalescer.execute(prompt, options, isJson,
+                        () -> admissionScheduler.execute(options.getModel(), capability,
+                                () -> resilientExecutor.execute(options.getModel(), capability,
+                                        () -> llmGateway.call(prompt, options))))
+                .map(chatResponse -> chatResponse.getResult().getOutput().getText());
+    }
+
     /**
      * Выполняет потоковый вызов к LLM.
      *
@@ -82,8 +155,10 @@ public class LlmClient {
     public Flux<String> streamChat(Prompt prompt, ModelCapability capability) {
         return llmRouterService.getModelFor(capability)
                 .flatMapMany(modelName -> {
-                    OllamaOptions options = buildOptions(modelName, false);
-                    return resilientExecutor.executeStream(() -> llmGateway.stream(prompt, options))
+                    OllamaOptions options = buildOptions(modelName, false, false);
+                    return admissionScheduler.executeStream(modelName, capability,
+                                    () -> resilientExecutor.executeStream(modelName, capability,
+                                            () -> llmGateway.stream(prompt, options)))
                             .map(chatResponse -> chatResponse.getResult().getOutput().getText());
                 });
     }
@@ -92,15 +167,19 @@ public class LlmClient {
      * Собирает объект {@link OllamaOptions} для вызова API.
      *
      * @param modelName Имя модели для использования.
-     * @param isJson    Флаг, указывающий, нужно ли запрашивать JSON-формат.
+     * @param isJson        Флаг, указывающий, нужно ли запрашивать JSON-формат.
+     * @param deterministic Флаг, требующий генерации с температурой 0.
      * @return Сконфигурированный объект опций.
      */
-    private OllamaOptions buildOptions(String modelName, boolean isJson) {
+    private OllamaOptions buildOptions(String modelName, boolean isJson, boolean deterministic) {
         OllamaOptions options = new OllamaOptions();
         options.setModel(modelName);
         if (isJson) {
             options.setFormat("json");
         }
+        if (deterministic) {
+            options.setTemperature(0.0);
+        }
         return options;
     }
 
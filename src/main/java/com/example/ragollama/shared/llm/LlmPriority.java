@@ -0,0 +1,62 @@
+package com.example.ragollama.shared.llm;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.function.Function;
+
+/**
+ * Класс приоритета вызова LLM, используемый {@link LlmAdmissionScheduler}.
+ * <p>
+ * Приоритет передается через Reactor {@link Context}, поэтому его достаточно
+ * один раз указать на входе в сценарий (HTTP-запрос, фоновая задача), а не
+ * протаскивать через все агенты и шаги конвейера. Вызовы без явного приоритета
+ * считаются {@link #AGENT}.
+ */
+public enum LlmPriority {
+    /**
+     * Вызовы, на ответ которых ждет пользователь ({@code /query}, чат).
+     */
+    INTERACTIVE,
+    /**
+     * Агентные конвейеры и прочие вызовы без явного приоритета.
+     */
+    AGENT,
+    /**
+     * Фоновые задачи: обогащение документов, краулинг, оценка качества.
+     */
+    BACKGROUND;
+
+    private static final String CONTEXT_KEY = LlmPriority.class.getName();
+
+    /**
+     * Возвращает функцию для {@code contextWrite}, устанавливающую приоритет.
+     *
+     * @param priority Приоритет вызовов LLM в рамках подписки.
+     * @return Функция модификации контекста.
+     */
+    public static Function<Context, Context> assign(LlmPriority priority) {
+        return context -> context.put(CONTEXT_KEY, priority);
+    }
+
+    /**
+     * Возвращает функцию для {@code contextWrite}, устанавливающую приоритет,
+     * только если он не был задан вызывающей стороной.
+     *
+     * @param priority Приоритет по умолчанию.
+     * @return Функция модификации контекста.
+     */
+    public static Function<Context, Context> assignIfAbsent(LlmPriority priority) {
+        return context -> context.hasKey(CONTEXT_KEY) ? context : context.put(CONTEXT_KEY, priority);
+    }
+
+    /**
+     * Извлекает приоритет из контекста подписки.
+     *
+     * @param context Контекст подписки.
+     * @return Приоритет или {@link #AGENT}, если он не задан.
+     */
+    public static LlmPriority from(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, AGENT);
+    }
+}
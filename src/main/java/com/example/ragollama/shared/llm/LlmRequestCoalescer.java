@@ -0,0 +1,106 @@
+package com.example.ragollama.shared.llm;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.util.ContentHashUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Реализует single-flight дедупликацию одинаковых не-потоковых вызовов LLM.
+ * <p>
+ * Если в момент вызова уже выполняется запрос с тем же промптом, моделью и опциями,
+ * новый подписчик получает результат этого запроса вместо отдельной генерации.
+ * Дедупликация применяется только к детерминированным вызовам (JSON-режим или
+ * температура 0, см. {@link LlmClient#callChatDeterministic}), для которых разные
+ * подписчики и так получили бы эквивалентный ответ.
+ * Запись удаляется из таблицы сразу после завершения вызова, поэтому компонент
+ * не является кэшем: он объединяет только одновременные запросы.
+ * <p>
+ * Общий вызов отменяется, только когда от него отписались все ожидающие.
+ * Ответ общего вызова запоминается ({@code replay(1)}): подписчик, нашедший запись
+ * в таблице в момент завершения вызова, получает уже полученный ответ, а подписавшийся
+ * после завершения и сброса соединения инициирует новый вызов.
+ * <p>
+ * Общий вызов выполняется в Reactor-контексте первого подписчика. Чтобы вызов
+ * интерактивного запроса не ожидал в очереди фоновой задачи, {@link LlmPriority}
+ * входит в ключ: объединяются только вызовы одного класса приоритета. Использование
+ * токенов учитывается один раз на фактическую генерацию, а не на каждого ожидающего.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LlmRequestCoalescer {
+
+    private final MetricService metricService;
+    private final Map<String, Mono<ChatResponse>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Выполняет вызов, объединяя его с уже выполняющимся идентичным вызовом.
+     *
+     * @param prompt  Промпт вызова.
+     * @param options Опции модели.
+     * @param isJson  Запрошен ли JSON-ответ.
+     * @param call    Фабрика фактического вызова LLM.
+     * @return {@link Mono} с ответом модели.
+     */
+    public Mono<ChatResponse> execute(Prompt prompt, OllamaOptions options, boolean isJson, Supplier<Mono<ChatResponse>> call) {
+        if (!isDeterministic(options, isJson)) {
+            return call.get();
+        }
+        return Mono.deferContextual(context -> {
+            String key = LlmPriority.from(context).name() + ":" + buildKey(prompt, options, isJson);
+            AtomicReference<Mono<ChatResponse>> self = new AtomicReference<>();
+            Mono<ChatResponse> candidate = Flux.from(Mono.defer(call))
+                    .doFinally(signal -> inFlight.remove(key, self.get()))
+                    .replay(1)
+                    .refCount(1)
+                    .singleOrEmpty();
+            self.set(candidate);
+
+            Mono<ChatResponse> existing = inFlight.putIfAbsent(key, candidate);
+            if (existing != null) {
+                metricService.incrementLlmCallsCoalesced();
+                log.debug("Вызов LLM объединен с уже выполняющимся идентичным запросом к модели {}.", options.getModel());
+                return existing;
+            }
+            return candidate;
+        });
+    }
+
+    private boolean isDeterministic(OllamaOptions options, boolean isJson) {
+        return isJson || (options.getTemperature() != null && options.getTemperature() == 0.0);
+    }
+
+    /**
+     * Строит ключ запроса по модели, параметрам генерации и содержимому сообщений.
+     * Используется также {@link LlmResponseCache}.
+     */
+    static String buildKey(Prompt prompt, OllamaOptions options, boolean isJson) {
+        List<String> parts = new ArrayList<>();
+        parts.add(options.getModel());
+        parts.add(String.valueOf(options.getFormat()));
+        parts.add(String.valueOf(options.getTemperature()));
+        parts.add(String.valueOf(options.getTopK()));
+        parts.add(String.valueOf(options.getTopP()));
+        parts.add(String.valueOf(isJson));
+        for (Message message : prompt.getInstructions()) {
+            parts.add(message.getMessageType().getValue());
+            parts.add(message.getText());
+        }
+        return ContentHashUtils.sha256(parts.toArray(String[]::new));
+    }
+}
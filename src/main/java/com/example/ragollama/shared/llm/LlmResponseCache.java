@@ -0,0 +1,193 @@
+package com.example.ragollama.shared.llm;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.util.ContentHashUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Двухуровневый кэш ответов LLM для детерминированных вызовов с неизменным промптом
+ * (оценка релевантности, сжатие контекста, генерация Cypher и т.п.).
+ * <p>
+ * Кэш используется только вызовами, явно выбравшими его через
+ * {@link LlmClient#callChatCached(Prompt, ModelCapability, boolean)}, и только для уровней
+ * возможностей, для которых в {@link LlmResponseCacheProperties#ttl()} задано время жизни.
+ * Ключ включает digest модели из Ollama, поэтому после обновления модели старые ответы
+ * не используются: записи предыдущей версии удаляются из памяти и из таблицы
+ * {@code llm_response_cache} при первом обнаружении нового digest.
+ * Если digest модели неизвестен, вызов выполняется без кэша.
+ */
+@Slf4j
+@Component
+public class LlmResponseCache {
+
+    static final String CACHE_NAME = "llm_responses";
+
+    private final LlmResponseCacheProperties properties;
+    private final LlmResponseCacheRepository repository;
+    private final OllamaModelManager modelManager;
+    private final MetricService metricService;
+    private final Clock clock;
+    private final Cache<String, CachedResponse> memoryCache;
+    private final Map<String, String> knownDigests = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор для внедрения зависимостей.
+     *
+     * @param properties    Настройки кэша.
+     * @param repository    Репозиторий персистентного уровня кэша.
+     * @param modelManager  Источник актуальных digest моделей.
+     * @param metricService Сервис метрик.
+     */
+    @Autowired
+    public LlmResponseCache(LlmResponseCacheProperties properties,
+                            LlmResponseCacheRepository repository,
+                            OllamaModelManager modelManager,
+                            MetricService metricService) {
+        this(properties, repository, modelManager, metricService, Clock.systemDefaultZone());
+    }
+
+    LlmResponseCache(LlmResponseCacheProperties properties,
+                     LlmResponseCacheRepository repository,
+                     OllamaModelManager modelManager,
+                     MetricService metricService,
+                     Clock clock) {
+        this.properties = properties;
+        this.repository = repository;
+        this.modelManager = modelManager;
+        this.metricService = metricService;
+        this.clock = clock;
+        this.memoryCache = CacheBuilder.newBuilder()
+                .maximumSize(properties.maxSize())
+                .build();
+        metricService.registerCacheSizeGauge(CACHE_NAME, memoryCache::size);
+    }
+
+    /**
+     * Возвращает закэшированный ответ или выполняет вызов и кэширует его результат.
+     *
+     * @param prompt     Промпт вызова.
+     * @param capability Уровень возможностей, определяющий время жизни записи.
+     * @param options    Опции модели.
+     * @param isJson     Запрошен ли JSON-ответ.
+     * @param call       Фабрика фактического вызова LLM.
+     * @return {@link Mono} с текстом ответа.
+     */
+    public Mono<String> getOrCompute(Prompt prompt, ModelCapability capability, OllamaOptions options,
+                                     boolean isJson, Supplier<Mono<String>> call) {
+        Duration ttl = properties.ttl().get(capability);
+        if (!properties.enabled() || ttl == null || ttl.isZero() || ttl.isNegative()) {
+            return Mono.defer(call);
+        }
+        String modelName = options.getModel().replace(":latest", "");
+        return modelManager.getModelDigest(modelName)
+                .filter(digest -> !digest.isBlank())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(digest -> digest
+                        .map(d -> lookupOrCompute(modelName, d, ttl, prompt, options, isJson, call))
+                        .orElseGet(() -> Mono.defer(call)));
+    }
+
+    private Mono<String> lookupOrCompute(String modelName, String digest, Duration ttl, Prompt prompt,
+                                         OllamaOptions options, boolean isJson, Supplier<Mono<String>> call) {
+        invalidateIfDigestChanged(modelName, digest);
+        String key = ContentHashUtils.sha256(digest, LlmRequestCoalescer.buildKey(prompt, options, isJson));
+
+        CachedResponse cached = memoryCache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.expiresAt().isAfter(OffsetDateTime.now(clock))) {
+                metricService.incrementCacheHit(CACHE_NAME);
+                return Mono.just(cached.response());
+            }
+            memoryCache.invalidate(key);
+        }
+
+        Mono<String> persisted = properties.persistent()
+                ? repository.find(key)
+                .doOnNext(stored -> memoryCache.put(key, new CachedResponse(modelName, stored.response(), stored.expiresAt())))
+                .map(LlmResponseCacheRepository.StoredResponse::response)
+                .onErrorResume(e -> {
+                    log.warn("Не удалось прочитать кэш ответов LLM из БД: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                : Mono.empty();
+
+        return persisted
+                .doOnNext(response -> metricService.incrementCacheHit(CACHE_NAME))
+                .switchIfEmpty(Mono.defer(() -> {
+                    metricService.incrementCacheMiss(CACHE_NAME);
+                    return Mono.defer(call)
+                            .doOnNext(response -> store(key, modelName, digest, response, ttl));
+                }));
+    }
+
+    private void store(String key, String modelName, String digest, String response, Duration ttl) {
+        if (response == null || response.isBlank()) {
+            return;
+        }
+        OffsetDateTime expiresAt = OffsetDateTime.now(clock).plus(ttl);
+        memoryCache.put(key, new CachedResponse(modelName, response, expiresAt));
+        if (properties.persistent()) {
+            repository.save(key, modelName, digest, response, expiresAt)
+                    .subscribe(null, e -> log.warn("Не удалось сохранить ответ LLM в кэш БД: {}", e.getMessage()));
+        }
+    }
+
+    /**
+     * Удаляет записи предыдущей версии модели, если ее digest изменился
+     * (или впервые наблюдается в этом экземпляре приложения).
+     */
+    private void invalidateIfDigestChanged(String modelName, String digest) {
+        String previous = knownDigests.put(modelName, digest);
+        if (digest.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            memoryCache.asMap().values().removeIf(entry -> entry.modelName().equals(modelName));
+            log.info("Digest модели {} изменился, кэш ответов LLM для нее инвалидирован.", modelName);
+        }
+        if (properties.persistent()) {
+            repository.deleteStaleDigests(modelName, digest)
+                    .subscribe(
+                            deleted -> {
+                                if (deleted > 0) {
+                                    log.info("Удалено {} устаревших ответов модели {} из кэша БД.", deleted, modelName);
+                                }
+                            },
+                            e -> log.warn("Не удалось инвалидировать кэш ответов модели {}: {}", modelName, e.getMessage()));
+        }
+    }
+
+    /**
+     * Периодически удаляет устаревшие записи персистентного уровня.
+     */
+    @Scheduled(fixedDelayString = "PT1H", initialDelayString = "PT5M")
+    public void purgeExpired() {
+        if (!properties.enabled() || !properties.persistent()) {
+            return;
+        }
+        repository.deleteExpired()
+                .subscribe(
+                        deleted -> log.debug("Удалено {} устаревших ответов LLM из кэша БД.", deleted),
+                        e -> log.warn("Не удалось очистить кэш ответов LLM: {}", e.getMessage()));
+    }
+
+    private record CachedResponse(String modelName, String response, OffsetDateTime expiresAt) {
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.ragollama.shared.llm;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Типобезопасная конфигурация кэша ответов LLM.
+ *
+ * @param enabled    Включает/выключает кэш. Даже при включенном кэше он используется
+ *                   только вызовами, явно запросившими кэширование.
+ * @param maxSize    Максимальное количество записей в in-memory уровне.
+ * @param persistent Использовать ли таблицу {@code llm_response_cache} как второй уровень.
+ * @param ttl        Время жизни записи для каждого уровня возможностей модели. Вызовы
+ *                   с уровнем, отсутствующим в карте, не кэшируются.
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.llm.response-cache")
+public record LlmResponseCacheProperties(
+        boolean enabled,
+        @Min(1) long maxSize,
+        boolean persistent,
+        @NotNull Map<ModelCapability, Duration> ttl
+) {
+}
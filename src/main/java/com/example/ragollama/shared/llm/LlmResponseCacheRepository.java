@@ -0,0 +1,95 @@
+package com.example.ragollama.shared.llm;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Репозиторий для персистентного уровня кэша ответов LLM (таблица {@code llm_response_cache}).
+ */
+@Repository
+@RequiredArgsConstructor
+public class LlmResponseCacheRepository {
+
+    private final DatabaseClient databaseClient;
+
+    /**
+     * Находит неустаревший ответ по ключу.
+     *
+     * @param cacheKey Ключ кэша.
+     * @return {@link Mono} с записью или пустой {@link Mono}, если она отсутствует или устарела.
+     */
+    public Mono<StoredResponse> find(String cacheKey) {
+        final String sql = "SELECT response, expires_at FROM llm_response_cache WHERE cache_key = :cacheKey AND expires_at > now()";
+        return databaseClient.sql(sql)
+                .bind("cacheKey", cacheKey)
+                .map((row, metadata) -> new StoredResponse(row.get("response", String.class), row.get("expires_at", OffsetDateTime.class)))
+                .one();
+    }
+
+    /**
+     * Сохраняет или обновляет ответ.
+     *
+     * @param cacheKey    Ключ кэша.
+     * @param modelName   Имя модели.
+     * @param modelDigest Digest модели, с которой получен ответ.
+     * @param response    Текст ответа.
+     * @param expiresAt   Момент устаревания записи.
+     * @return {@link Mono}, завершающийся после сохранения.
+     */
+    public Mono<Void> save(String cacheKey, String modelName, String modelDigest, String response, OffsetDateTime expiresAt) {
+        final String sql = """
+                INSERT INTO llm_response_cache (cache_key, model_name, model_digest, response, expires_at)
+                VALUES (:cacheKey, :modelName, :modelDigest, :response, :expiresAt)
+                ON CONFLICT (cache_key) DO UPDATE SET response = EXCLUDED.response, expires_at = EXCLUDED.expires_at, created_at = now()
+                """;
+        return databaseClient.sql(sql)
+                .bind("cacheKey", cacheKey)
+                .bind("modelName", modelName)
+                .bind("modelDigest", modelDigest)
+                .bind("response", response)
+                .bind("expiresAt", expiresAt)
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+    /**
+     * Удаляет ответы модели, полученные с другой версией (digest) модели.
+     *
+     * @param modelName     Имя модели.
+     * @param currentDigest Актуальный digest модели.
+     * @return {@link Mono} с количеством удаленных строк.
+     */
+    public Mono<Long> deleteStaleDigests(String modelName, String currentDigest) {
+        final String sql = "DELETE FROM llm_response_cache WHERE model_name = :modelName AND model_digest <> :currentDigest";
+        return databaseClient.sql(sql)
+                .bind("modelName", modelName)
+                .bind("currentDigest", currentDigest)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Удаляет все устаревшие записи.
+     *
+     * @return {@link Mono} с количеством удаленных строк.
+     */
+    public Mono<Long> deleteExpired() {
+        return databaseClient.sql("DELETE FROM llm_response_cache WHERE expires_at <= now()")
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Сохраненный ответ.
+     *
+     * @param response  Текст ответа.
+     * @param expiresAt Момент устаревания.
+     */
+    public record StoredResponse(String response, OffsetDateTime expiresAt) {
+    }
+}
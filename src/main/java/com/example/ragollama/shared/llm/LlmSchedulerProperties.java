@@ -0,0 +1,50 @@
+package com.example.ragollama.shared.llm;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.util.Map;
+
+/**
+ * Типобезопасная конфигурация планировщика допуска вызовов к моделям Ollama.
+ *
+ * @param enabled                  Включает/выключает ограничение параллелизма и очереди.
+ * @param defaultMaxConcurrency    Максимум одновременных вызовов одной модели по умолчанию.
+ * @param maxConcurrency           Переопределения лимита для конкретных моделей.
+ * @param reservedInteractiveSlots Количество слотов модели, недоступных фоновым вызовам.
+ * @param maxQueueSize             Максимальная длина очереди одного класса приоритета для модели.
+ * @param weights                  Веса справедливой очереди для {@link LlmPriority#INTERACTIVE}
+ *                                 и {@link LlmPriority#AGENT}.
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.llm.scheduler")
+public record LlmSchedulerProperties(
+        boolean enabled,
+        @Min(1) int defaultMaxConcurrency,
+        @NotNull Map<String, Integer> maxConcurrency,
+        @Min(0) int reservedInteractiveSlots,
+        @Min(1) int maxQueueSize,
+        @NotNull Map<LlmPriority, Integer> weights
+) {
+    /**
+     * Возвращает лимит параллелизма для модели.
+     *
+     * @param modelName Имя модели.
+     * @return Максимум одновременных вызовов.
+     */
+    public int maxConcurrencyFor(String modelName) {
+        return Math.max(1, maxConcurrency.getOrDefault(modelName, defaultMaxConcurrency));
+    }
+
+    /**
+     * Возвращает вес класса приоритета.
+     *
+     * @param priority Класс приоритета.
+     * @return Положительный вес.
+     */
+    public int weightFor(LlmPriority priority) {
+        return Math.max(1, weights.getOrDefault(priority, 1));
+    }
+}
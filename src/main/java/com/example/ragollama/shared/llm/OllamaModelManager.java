@@ -10,6 +10,7 @@ import reactor.core.publisher.Mono;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -20,7 +21,7 @@ import java.util.stream.Collectors;
 @Slf4j
 public class OllamaModelManager {
     private final WebClient webClient;
-    private final Mono<Set<String>> cachedModels;
+    private final Mono<Map<String, String>> cachedModels;
 
     /**
      * Конструктор, инициализирующий WebClient и настраивающий кэширующий Mono.
@@ -47,10 +48,11 @@ public class OllamaModelManager {
     /**
      * DTO для десериализации объекта одной модели.
      *
-     * @param name Имя модели (например, 'llama3:latest').
+     * @param name   Имя модели (например, 'llama3:latest').
+     * @param digest Хеш содержимого модели, меняющийся при ее обновлении.
      */
     @JsonIgnoreProperties(ignoreUnknown = true)
-    private record OllamaModel(String name) {
+    private record OllamaModel(String name, String digest) {
     }
 
     /**
@@ -59,7 +61,18 @@ public class OllamaModelManager {
      * @return {@link Mono}, который эммитит множество имен моделей.
      */
     public Mono<Set<String>> getAvailableModels() {
-        return this.cachedModels;
+        return this.cachedModels.map(Map::keySet);
+    }
+
+    /**
+     * Возвращает digest указанной модели из кэшированного списка моделей.
+     * Digest меняется при каждом обновлении модели через {@code ollama pull}.
+     *
+     * @param modelName Имя модели без суффикса {@code :latest}.
+     * @return {@link Mono} с digest модели или пустой {@link Mono}, если модель неизвестна.
+     */
+    public Mono<String> getModelDigest(String modelName) {
+        return this.cachedModels.flatMap(models -> Mono.justOrEmpty(models.get(modelName)));
     }
 
     /**
@@ -67,7 +80,7 @@ public class OllamaModelManager {
      *
      * @return {@link Mono} с результатом запроса.
      */
-    private Mono<Set<String>> fetchAvailableModels() {
+    private Mono<Map<String, String>> fetchAvailableModels() {
         log.info("Обновление кэша доступных моделей из Ollama...");
         return webClient.get()
                 .uri("/api/tags")
@@ -75,18 +88,19 @@ public class OllamaModelManager {
                 .bodyToMono(OllamaTagResponse.class)
                 .map(response -> {
                     if (response == null || response.models() == null) {
-                        return Collections.<String>emptySet();
+                        return Collections.<String, String>emptyMap();
                     }
-                    Set<String> models = response.models().stream()
-                            .map(OllamaModel::name)
-                            .map(name -> name.replace(":latest", ""))
-                            .collect(Collectors.toSet());
-                    log.info("Доступные модели в Ollama: {}", models);
+                    Map<String, String> models = response.models().stream()
+                            .collect(Collectors.toMap(
+                                    model -> model.name().replace(":latest", ""),
+                                    model -> model.digest() != null ? model.digest() : "",
+                                    (first, second) -> first));
+                    log.info("Доступные модели в Ollama: {}", models.keySet());
                     return models;
                 })
                 .onErrorResume(e -> {
                     log.error("Не удалось получить список моделей из Ollama API. Проверьте, что сервис Ollama запущен и доступен. Возвращен пустой список.", e);
-                    return Mono.just(Collections.emptySet());
+                    return Mono.just(Collections.emptyMap());
                 });
     }
 }
@@ -1,6 +1,7 @@
 package com.example.ragollama.shared.llm;
 
 import com.example.ragollama.shared.metrics.MetricService;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
@@ -12,10 +13,15 @@ import io.github.resilience4j.timelimiter.TimeLimiter;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 /**
@@ -52,33 +58,141 @@ public class ResilientLlmExecutor {
 
     /**
      * Выполняет не-потоковый вызов, обернутый в политики отказоустойчивости.
+     * <p>
+     * Метрики снимаются с жизненного цикла подписки, а не со сборки {@link Mono}:
+     * полное время вызова (включая повторы), отдельные таймеры повторных попыток
+     * и отклонений circuit breaker, а также скорость генерации в токенах в секунду.
      *
+     * @param modelName    Имя модели (тег метрик).
+     * @param capability   Запрошенный уровень возможностей (тег метрик).
      * @param monoSupplier {@link Supplier}, возвращающий "сырой" {@link Mono} с вызовом LLM.
-     * @param <T>          Тип результата.
      * @return {@link Mono} с примененными политиками.
      */
-    public <T> Mono<T> execute(Supplier<Mono<T>> monoSupplier) {
-        return metricService.recordTimer("llm.requests", () ->
-                Mono.defer(monoSupplier)
-                        .transformDeferred(RetryOperator.of(retry))
-                        .transformDeferred(TimeLimiterOperator.of(timeLimiter))
-                        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
-        );
+    public Mono<ChatResponse> execute(String modelName, ModelCapability capability, Supplier<Mono<ChatResponse>> monoSupplier) {
+        return Mono.defer(() -> {
+            CallObservation observation = new CallObservation(modelName, capability, false);
+            return Mono.defer(() -> observation.observeAttempt(Mono.defer(monoSupplier)))
+                    .transformDeferred(RetryOperator.of(retry))
+                    .transformDeferred(TimeLimiterOperator.of(timeLimiter))
+                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                    .doOnError(observation::onError)
+                    .doFinally(observation::finish);
+        });
     }
 
     /**
      * Выполняет потоковый вызов, обернутый в политики отказоустойчивости.
+     * <p>
+     * Дополнительно к метрикам не-потокового вызова записывает время до первого токена.
+     * Скорость генерации считается по интервалу от первого токена до завершения потока.
      *
+     * @param modelName    Имя модели (тег метрик).
+     * @param capability   Запрошенный уровень возможностей (тег метрик).
      * @param fluxSupplier {@link Supplier}, возвращающий "сырой" {@link Flux} с вызовом LLM.
-     * @param <T>          Тип элементов в потоке.
      * @return {@link Flux} с примененными политиками.
      */
-    public <T> Flux<T> executeStream(Supplier<Flux<T>> fluxSupplier) {
-        return metricService.recordTimer("llm.requests.stream", () ->
-                Flux.defer(fluxSupplier)
-                        .transformDeferred(RetryOperator.of(retry))
-                        .transformDeferred(TimeLimiterOperator.of(timeLimiter))
-                        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
-        );
+    public Flux<ChatResponse> executeStream(String modelName, ModelCapability capability, Supplier<Flux<ChatResponse>> fluxSupplier) {
+        return Flux.defer(() -> {
+            CallObservation observation = new CallObservation(modelName, capability, true);
+            return Flux.defer(() -> observation.observeAttempt(Flux.defer(fluxSupplier)))
+                    .transformDeferred(RetryOperator.of(retry))
+                    .transformDeferred(TimeLimiterOperator.of(timeLimiter))
+                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                    .doOnError(observation::onError)
+                    .doFinally(observation::finish);
+        });
+    }
+
+    /**
+     * Состояние измерения одного логического вызова LLM (все попытки).
+     */
+    private final class CallObservation {
+        private static final long NOT_SET = Long.MIN_VALUE;
+
+        private final String modelName;
+        private final String capability;
+        private final boolean streaming;
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicLong firstTokenNanos = new AtomicLong(NOT_SET);
+        private volatile int completionTokens;
+        private volatile boolean rejected;
+
+        CallObservation(String modelName, ModelCapability capability, boolean streaming) {
+            this.modelName = modelName;
+            this.capability = capability.name();
+            this.streaming = streaming;
+        }
+
+        Mono<ChatResponse> observeAttempt(Mono<ChatResponse> attempt) {
+            int number = attempts.incrementAndGet();
+            long attemptStart = System.nanoTime();
+            return attempt
+                    .doOnNext(this::onResponse)
+                    .doFinally(signal -> recordRetry(number, attemptStart, signal));
+        }
+
+        Flux<ChatResponse> observeAttempt(Flux<ChatResponse> attempt) {
+            int number = attempts.incrementAndGet();
+            long attemptStart = System.nanoTime();
+            return attempt
+                    .doOnNext(this::onResponse)
+                    .doFinally(signal -> recordRetry(number, attemptStart, signal));
+        }
+
+        private void onResponse(ChatResponse response) {
+            long now = System.nanoTime();
+            if (streaming && firstTokenNanos.compareAndSet(NOT_SET, now)) {
+                metricService.recordLlmTimeToFirstToken(modelName, capability, Duration.ofNanos(now - startNanos));
+            }
+            if (response != null && response.getMetadata() != null && response.getMetadata().getUsage() != null) {
+                Integer tokens = response.getMetadata().getUsage().getCompletionTokens();
+                if (tokens != null && tokens > 0) {
+                    completionTokens = tokens;
+                }
+            }
+        }
+
+        private void recordRetry(int number, long attemptStart, SignalType signal) {
+            if (number > 1) {
+                metricService.recordLlmRetryAttempt(mode(), modelName, capability, outcome(signal),
+                        Duration.ofNanos(System.nanoTime() - attemptStart));
+            }
+        }
+
+        private void onError(Throwable error) {
+            if (error instanceof CallNotPermittedException) {
+                rejected = true;
+            }
+        }
+
+        private void finish(SignalType signal) {
+            long endNanos = System.nanoTime();
+            Duration total = Duration.ofNanos(endNanos - startNanos);
+            if (rejected) {
+                metricService.recordLlmRejected(mode(), modelName, capability, total);
+                return;
+            }
+            String outcome = outcome(signal);
+            metricService.recordLlmRequest(streaming ? "llm.requests.stream" : "llm.requests", modelName, capability, outcome, total);
+
+            long generationStart = streaming ? firstTokenNanos.get() : startNanos;
+            if (signal == SignalType.ON_COMPLETE && completionTokens > 0 && generationStart != NOT_SET && endNanos > generationStart) {
+                double seconds = (endNanos - generationStart) / 1_000_000_000.0;
+                metricService.recordLlmTokensPerSecond(modelName, capability, completionTokens / seconds);
+            }
+        }
+
+        private String mode() {
+            return streaming ? "stream" : "call";
+        }
+
+        private String outcome(SignalType signal) {
+            return switch (signal) {
+                case ON_COMPLETE -> "success";
+                case CANCEL -> "cancelled";
+                default -> "error";
+            };
+        }
     }
 }
@@ -46,7 +46,7 @@ public class LlmGatewayAspect {
     public Object checkQuota(ProceedingJoinPoint joinPoint) throws Throwable {
         String username = "anonymous_user";
         Prompt prompt = (Prompt) joinPoint.getArgs()[0];
-        int promptTokens = tokenizationService.countTokens(prompt.getContents());
+        int promptTokens = tokenizationService.countPromptTokens(prompt);
         Mono<Boolean> quotaExceededMono = quotaService.isQuotaExceeded(username, promptTokens);
         MethodSignature signature = (MethodSignature) joinPoint.getSignature();
         Class<?> returnType = signature.getReturnType();
@@ -2,10 +2,12 @@ package com.example.ragollama.shared.metrics;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.function.Supplier;
 
 /**
@@ -19,8 +21,6 @@ import java.util.function.Supplier;
 public class MetricService {
 
     private final MeterRegistry meterRegistry;
-    private final Counter cacheHitCounter;
-    private final Counter cacheMissCounter;
     private final Counter emptyRetrievalCounter;
     private final Counter successfulRetrievalCounter;
     private final DistributionSummary retrievedDocumentsSummary;
@@ -37,16 +37,6 @@ public class MetricService {
      */
     public MetricService(MeterRegistry meterRegistry) {
         this.meterRegistry = meterRegistry;
-        this.cacheHitCounter = Counter.builder("cache.requests")
-                .tag("result", "hit")
-                .description("Количество попаданий в кэш")
-                .register(meterRegistry);
-
-        this.cacheMissCounter = Counter.builder("cache.requests")
-                .tag("result", "miss")
-                .description("Количество промахов кэша")
-                .register(meterRegistry);
-
         this.emptyRetrievalCounter = Counter.builder("rag.retrieval.results")
                 .tag("status", "empty")
                 .description("Количество RAG-запросов, для которых поиск не нашел ни одного документа.")
@@ -107,17 +97,311 @@ public class MetricService {
     }
 
     /**
-     * Увеличивает счетчик попаданий в кэш.
+     * Увеличивает счетчик попаданий в указанный кэш.
+     *
+     * @param cacheName Имя кэша, используемое в качестве тега метрики.
+     */
+    public void incrementCacheHit(String cacheName) {
+        cacheRequestCounter(cacheName, "hit").increment();
+    }
+
+    /**
+     * Увеличивает счетчик промахов указанного кэша.
+     *
+     * @param cacheName Имя кэша, используемое в качестве тега метрики.
+     */
+    public void incrementCacheMiss(String cacheName) {
+        cacheRequestCounter(cacheName, "miss").increment();
+    }
+
+    /**
+     * Увеличивает счетчик попаданий в кэш на заданное количество (для пакетных операций).
+     *
+     * @param cacheName Имя кэша.
+     * @param count     Количество попаданий.
+     */
+    public void incrementCacheHit(String cacheName, long count) {
+        if (count > 0) {
+            cacheRequestCounter(cacheName, "hit").increment(count);
+        }
+    }
+
+    /**
+     * Увеличивает счетчик промахов кэша на заданное количество (для пакетных операций).
+     *
+     * @param cacheName Имя кэша.
+     * @param count     Количество промахов.
+     */
+    public void incrementCacheMiss(String cacheName, long count) {
+        if (count > 0) {
+            cacheRequestCounter(cacheName, "miss").increment(count);
+        }
+    }
+
+    /**
+     * Увеличивает счетчик вытеснений записей из указанного кэша.
+     *
+     * @param cacheName Имя кэша.
+     * @param cause     Причина вытеснения (например, "size", "expired", "explicit").
+     */
+    public void incrementCacheEviction(String cacheName, String cause) {
+        Counter.builder("cache.evictions")
+                .tag("cache", cacheName)
+                .tag("cause", cause)
+                .description("Количество записей, вытесненных из кэша")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Регистрирует gauge с текущим количеством записей в кэше.
+     *
+     * @param cacheName    Имя кэша.
+     * @param sizeSupplier Поставщик текущего размера кэша.
+     */
+    public void registerCacheSizeGauge(String cacheName, Supplier<Number> sizeSupplier) {
+        Gauge.builder("cache.size", sizeSupplier)
+                .tag("cache", cacheName)
+                .description("Текущее количество записей в кэше")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Регистрирует gauge с оценкой занимаемой кэшем памяти.
+     *
+     * @param cacheName     Имя кэша.
+     * @param bytesSupplier Поставщик оценки размера кэша в байтах.
+     */
+    public void registerCacheFootprintGauge(String cacheName, Supplier<Number> bytesSupplier) {
+        Gauge.builder("cache.footprint", bytesSupplier)
+                .tag("cache", cacheName)
+                .description("Оценка памяти, занимаемой записями кэша")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Регистрирует gauge с долей попаданий в кэш с момента запуска.
+     *
+     * @param cacheName        Имя кэша.
+     * @param hitRatioSupplier Поставщик доли попаданий (от 0 до 1).
      */
-    public void incrementCacheHit() {
-        cacheHitCounter.increment();
+    public void registerCacheHitRatioGauge(String cacheName, Supplier<Number> hitRatioSupplier) {
+        Gauge.builder("cache.hit_ratio", hitRatioSupplier)
+                .tag("cache", cacheName)
+                .description("Доля обращений к кэшу, завершившихся попаданием")
+                .register(meterRegistry);
+    }
+
+    private Counter cacheRequestCounter(String cacheName, String result) {
+        return Counter.builder("cache.requests")
+                .tag("cache", cacheName)
+                .tag("result", result)
+                .description("Количество обращений к кэшу")
+                .register(meterRegistry);
     }
 
     /**
-     * Увеличивает счетчик промахов кэша.
+     * Увеличивает счетчик вызовов LLM, объединенных с уже выполняющимся идентичным вызовом.
      */
-    public void incrementCacheMiss() {
-        cacheMissCounter.increment();
+    public void incrementLlmCallsCoalesced() {
+        Counter.builder("llm.requests.coalesced")
+                .description("Количество вызовов LLM, получивших результат общего идентичного запроса")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Записывает время ожидания вызова LLM в очереди допуска к модели.
+     *
+     * @param model      Имя модели.
+     * @param capability Запрошенный уровень возможностей модели.
+     * @param priority   Класс приоритета вызова.
+     * @param wait       Время от постановки в очередь до получения слота.
+     */
+    public void recordLlmQueueWait(String model, String capability, String priority, Duration wait) {
+        Timer.builder("llm.queue.wait")
+                .tag("model", model)
+                .tag("capability", capability)
+                .tag("priority", priority)
+                .description("Время ожидания вызова LLM в очереди допуска")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(wait);
+    }
+
+    /**
+     * Записывает полную длительность вызова LLM от подписки до завершения, включая повторы.
+     *
+     * @param metricName Имя метрики: {@code llm.requests} или {@code llm.requests.stream}.
+     * @param model      Имя модели.
+     * @param capability Уровень возможностей модели.
+     * @param outcome    Результат: {@code success}, {@code error} или {@code cancelled}.
+     * @param duration   Длительность вызова.
+     */
+    public void recordLlmRequest(String metricName, String model, String capability, String outcome, Duration duration) {
+        Timer.builder(metricName)
+                .tag("model", model)
+                .tag("capability", capability)
+                .tag("outcome", outcome)
+                .description("Полное время выполнения вызова LLM, включая повторные попытки")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    /**
+     * Записывает длительность повторной попытки вызова LLM.
+     *
+     * @param mode       Режим вызова: {@code call} или {@code stream}.
+     * @param model      Имя модели.
+     * @param capability Уровень возможностей модели.
+     * @param outcome    Результат попытки.
+     * @param duration   Длительность попытки.
+     */
+    public void recordLlmRetryAttempt(String mode, String model, String capability, String outcome, Duration duration) {
+        Timer.builder("llm.requests.retry")
+                .tag("mode", mode)
+                .tag("model", model)
+                .tag("capability", capability)
+                .tag("outcome", outcome)
+                .description("Длительность повторных попыток вызова LLM")
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    /**
+     * Записывает вызов LLM, отклоненный открытым circuit breaker.
+     *
+     * @param mode       Режим вызова: {@code call} или {@code stream}.
+     * @param model      Имя модели.
+     * @param capability Уровень возможностей модели.
+     * @param duration   Время до отклонения.
+     */
+    public void recordLlmRejected(String mode, String model, String capability, Duration duration) {
+        Timer.builder("llm.requests.rejected")
+                .tag("mode", mode)
+                .tag("model", model)
+                .tag("capability", capability)
+                .description("Вызовы LLM, отклоненные circuit breaker без обращения к модели")
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    /**
+     * Записывает время до первого токена потокового ответа LLM.
+     *
+     * @param model      Имя модели.
+     * @param capability Уровень возможностей модели.
+     * @param duration   Время от подписки до первой части ответа.
+     */
+    public void recordLlmTimeToFirstToken(String model, String capability, Duration duration) {
+        Timer.builder("llm.stream.time_to_first_token")
+                .tag("model", model)
+                .tag("capability", capability)
+                .description("Время до первого токена потокового ответа LLM")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    /**
+     * Записывает скорость генерации ответа LLM.
+     *
+     * @param model           Имя модели.
+     * @param capability      Уровень возможностей модели.
+     * @param tokensPerSecond Количество сгенерированных токенов в секунду.
+     */
+    public void recordLlmTokensPerSecond(String model, String capability, double tokensPerSecond) {
+        DistributionSummary.builder("llm.generation.tokens_per_second")
+                .tag("model", model)
+                .tag("capability", capability)
+                .description("Скорость генерации ответа LLM")
+                .baseUnit("tokens/s")
+                .register(meterRegistry)
+                .record(tokensPerSecond);
+    }
+
+    /**
+     * Регистрирует gauge с количеством вызовов LLM, ожидающих допуска.
+     *
+     * @param model         Имя модели.
+     * @param priority      Класс приоритета.
+     * @param depthSupplier Поставщик текущей длины очереди.
+     */
+    public void registerLlmQueueGauge(String model, String priority, Supplier<Number> depthSupplier) {
+        Gauge.builder("llm.queue.depth", depthSupplier)
+                .tag("model", model)
+                .tag("priority", priority)
+                .description("Количество вызовов LLM, ожидающих допуска к модели")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Увеличивает счетчик вызовов LLM, отклоненных из-за переполнения очереди допуска.
+     *
+     * @param model    Имя модели.
+     * @param priority Класс приоритета вызова.
+     */
+    public void incrementLlmAdmissionRejected(String model, String priority) {
+        Counter.builder("llm.queue.rejected")
+                .tag("model", model)
+                .tag("priority", priority)
+                .description("Количество вызовов LLM, отклоненных при допуске")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Регистрирует gauge с текущей глубиной очереди отложенной записи.
+     *
+     * @param sinkName      Имя очереди.
+     * @param depthSupplier Поставщик текущего количества ожидающих записей.
+     */
+    public void registerWriteBehindQueueGauge(String sinkName, Supplier<Number> depthSupplier) {
+        Gauge.builder("write_behind.queue.depth", depthSupplier)
+                .tag("sink", sinkName)
+                .description("Количество записей, ожидающих сохранения")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Записывает размер и длительность одного сброса пакета в БД.
+     *
+     * @param sinkName  Имя очереди.
+     * @param batchSize Количество записей в пакете.
+     * @param latency   Длительность записи пакета.
+     * @param success   Успешно ли записан пакет.
+     */
+    public void recordWriteBehindFlush(String sinkName, int batchSize, Duration latency, boolean success) {
+        DistributionSummary.builder("write_behind.batch.size")
+                .tag("sink", sinkName)
+                .description("Распределение размеров пакетов отложенной записи")
+                .baseUnit("records")
+                .register(meterRegistry)
+                .record(batchSize);
+        Timer.builder("write_behind.flush.latency")
+                .tag("sink", sinkName)
+                .tag("result", success ? "success" : "failure")
+                .description("Длительность записи пакета в БД")
+                .register(meterRegistry)
+                .record(latency);
+    }
+
+    /**
+     * Увеличивает счетчик записей, отброшенных очередью отложенной записи.
+     *
+     * @param sinkName Имя очереди.
+     * @param reason   Причина: {@code overflow}, {@code closed}, {@code write_failure} или {@code shutdown}.
+     * @param count    Количество отброшенных записей.
+     */
+    public void incrementWriteBehindDropped(String sinkName, String reason, long count) {
+        Counter.builder("write_behind.dropped")
+                .tag("sink", sinkName)
+                .tag("reason", reason)
+                .description("Количество записей, которые не были сохранены")
+                .register(meterRegistry)
+                .increment(count);
     }
 
     /**
@@ -147,6 +431,41 @@ public class MetricService {
         retrievedDocumentsSummary.record(count);
     }
 
+    /**
+     * Записывает значение {@code hnsw.ef_search}, выбранное для векторного поиска.
+     *
+     * @param efSearch Примененное значение ef_search.
+     */
+    public void recordVectorSearchEfSearch(int efSearch) {
+        DistributionSummary.builder("rag.retrieval.vectors.ef_search")
+                .description("Значение hnsw.ef_search, примененное к векторному поиску")
+                .register(meterRegistry)
+                .record(efSearch);
+    }
+
+    /**
+     * Учитывает векторный поиск, отклоненный из-за переполненной очереди планировщика.
+     */
+    public void incrementVectorSearchRejected() {
+        Counter.builder("rag.retrieval.vectors.rejected")
+                .description("Количество векторных поисков, отклоненных из-за перегрузки")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Учитывает решение шлюза уверенности перед LLM-оценкой результатов поиска.
+     *
+     * @param skippedJudge {@code true}, если LLM-оценка была пропущена.
+     */
+    public void recordRetrievalConfidenceGate(boolean skippedJudge) {
+        Counter.builder("rag.retrieval.confidence_gate")
+                .tag("decision", skippedJudge ? "skip_judge" : "judge")
+                .description("Решения шлюза уверенности перед LLM-оценкой поиска")
+                .register(meterRegistry)
+                .increment();
+    }
+
     /**
      * Записывает результат проверки "обоснованности" (grounding) ответа.
      *
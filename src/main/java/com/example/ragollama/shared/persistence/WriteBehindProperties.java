@@ -0,0 +1,46 @@
+package com.example.ragollama.shared.persistence;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Типобезопасная конфигурация очередей отложенной (write-behind) записи
+ * в журналы {@code llm_usage_log} и {@code rag_audit_log}.
+ *
+ * @param capacity        Максимальное количество записей, ожидающих сохранения в одной очереди.
+ * @param batchSize       Максимальный размер пакета; при его накоплении сброс запускается немедленно.
+ * @param flushInterval   Интервал периодического сброса неполных пакетов.
+ * @param overflowPolicy  Поведение при заполненной очереди.
+ * @param blockTimeout    Максимальное время ожидания места в очереди для политики {@code BLOCK}.
+ * @param shutdownTimeout Максимальное время на сохранение оставшихся записей при остановке.
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.write-behind")
+public record WriteBehindProperties(
+        @Min(1) int capacity,
+        @Min(1) int batchSize,
+        @NotNull Duration flushInterval,
+        @NotNull OverflowPolicy overflowPolicy,
+        @NotNull Duration blockTimeout,
+        @NotNull Duration shutdownTimeout
+) {
+    /**
+     * Поведение очереди при отсутствии свободного места.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Новая запись отбрасывается, вызывающий поток не блокируется.
+         */
+        DROP,
+        /**
+         * Вызывающий поток ждет освобождения места не дольше {@code blockTimeout},
+         * после чего запись отбрасывается. Не следует использовать, если запись
+         * производится из потоков event loop.
+         */
+        BLOCK
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.ragollama.shared.persistence;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Ограниченная очередь отложенной записи, сохраняющая записи в БД пакетами.
+ * <p>
+ * Записи принимаются методом {@link #submit(Object)} без ожидания БД. Сброс пакета
+ * выполняется выделенным потоком при накоплении {@code batchSize} записей или по
+ * истечении {@code flushInterval}. Пакет записывается одной операцией
+ * {@code batchWriter} (многострочный INSERT). При заполненной очереди применяется
+ * {@link WriteBehindProperties.OverflowPolicy}. При остановке приложения оставшиеся
+ * записи сохраняются в пределах {@code shutdownTimeout}.
+ * <p>
+ * Публикует метрики глубины очереди, размера пакета, длительности сброса и
+ * количества отброшенных записей с тегом {@code sink}.
+ *
+ * @param <T> Тип записи.
+ */
+@Slf4j
+public class WriteBehindSink<T> implements AutoCloseable {
+
+    private final String name;
+    private final WriteBehindProperties properties;
+    private final MetricService metricService;
+    private final Function<List<T>, Mono<Long>> batchWriter;
+    private final BlockingQueue<T> queue;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * Создает очередь и запускает периодический сброс.
+     *
+     * @param name          Имя очереди, используемое в логах и метриках.
+     * @param properties    Настройки очереди.
+     * @param metricService Сервис метрик.
+     * @param batchWriter   Функция, записывающая пакет одним запросом и возвращающая количество строк.
+     */
+    public WriteBehindSink(String name,
+                           WriteBehindProperties properties,
+                           MetricService metricService,
+                           Function<List<T>, Mono<Long>> batchWriter) {
+        this.name = name;
+        this.properties = properties;
+        this.metricService = metricService;
+        this.batchWriter = batchWriter;
+        this.queue = new ArrayBlockingQueue<>(properties.capacity());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = properties.flushInterval().toMillis();
+        this.flusher.scheduleWithFixedDelay(this::flushAvailable, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        metricService.registerWriteBehindQueueGauge(name, queue::size);
+    }
+
+    /**
+     * Ставит запись в очередь на сохранение.
+     *
+     * @param record Запись.
+     * @return {@code true}, если запись принята; {@code false}, если она отброшена.
+     */
+    public boolean submit(T record) {
+        if (closed.get()) {
+            log.warn("Очередь '{}' остановлена, запись отброшена.", name);
+            metricService.incrementWriteBehindDropped(name, "closed", 1);
+            return false;
+        }
+        boolean accepted = switch (properties.overflowPolicy()) {
+            case DROP -> queue.offer(record);
+            case BLOCK -> offerBlocking(record);
+        };
+        if (!accepted) {
+            log.warn("Очередь '{}' заполнена ({} записей), запись отброшена.", name, properties.capacity());
+            metricService.incrementWriteBehindDropped(name, "overflow", 1);
+            return false;
+        }
+        if (closed.get()) {
+            // close() мог завершить финальный сброс между проверкой выше и offer
+            return withdrawAfterClose(record);
+        }
+        if (queue.size() >= properties.batchSize() && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushAvailable);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);
+                return withdrawAfterClose(record);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Останавливает периодический сброс и сохраняет все оставшиеся записи.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(properties.shutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Сброс очереди '{}' не завершился вовремя.", name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long deadline = System.nanoTime() + properties.shutdownTimeout().toNanos();
+        int drained = 0;
+        while (!queue.isEmpty() && System.nanoTime() < deadline) {
+            drained += flushBatch();
+        }
+        if (!queue.isEmpty()) {
+            log.error("При остановке очереди '{}' не удалось сохранить {} записей.", name, queue.size());
+            metricService.incrementWriteBehindDropped(name, "shutdown", queue.size());
+        }
+        log.info("Очередь '{}' остановлена, при остановке сохранено {} записей.", name, drained);
+    }
+
+    /**
+     * Забирает запись, попавшую в очередь во время остановки. Если финальный сброс
+     * уже забрал ее из очереди, запись считается принятой; иначе она отбрасывается.
+     */
+    private boolean withdrawAfterClose(T record) {
+        if (!queue.remove(record)) {
+            return true;
+        }
+        log.warn("Очередь '{}' остановлена, запись отброшена.", name);
+        metricService.incrementWriteBehindDropped(name, "closed", 1);
+        return false;
+    }
+
+    private boolean offerBlocking(T record) {
+        try {
+            return queue.offer(record, properties.blockTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Сбрасывает пакеты, пока в очереди есть записи. Выполняется только в потоке сброса.
+     */
+    private void flushAvailable() {
+        flushRequested.set(false);
+        try {
+            while (!queue.isEmpty()) {
+                flushBatch();
+            }
+        } catch (RuntimeException e) {
+            log.error("Непредвиденная ошибка при сбросе очереди '{}'.", name, e);
+        }
+    }
+
+    private int flushBatch() {
+        List<T> batch = new ArrayList<>(properties.batchSize());
+        queue.drainTo(batch, properties.batchSize());
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            batchWriter.apply(batch).block(properties.shutdownTimeout());
+            metricService.recordWriteBehindFlush(name, batch.size(), Duration.ofNanos(System.nanoTime() - start), true);
+            log.debug("Очередь '{}': сохранен пакет из {} записей.", name, batch.size());
+            return batch.size();
+        } catch (RuntimeException e) {
+            metricService.recordWriteBehindFlush(name, batch.size(), Duration.ofNanos(System.nanoTime() - start), false);
+            metricService.incrementWriteBehindDropped(name, "write_failure", batch.size());
+            log.error("Очередь '{}': не удалось сохранить пакет из {} записей.", name, batch.size(), e);
+            return 0;
+        }
+    }
+}
@@ -1,25 +1,43 @@
 package com.example.ragollama.shared.prompts;
 
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import com.example.ragollama.shared.util.ContentHashUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import freemarker.template.DefaultMapAdapter;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.DefaultObjectWrapperBuilder;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 
 /**
  * Сервис для централизованного управления и рендеринга шаблонов FreeMarker.
  * <p>
  * Эта версия доработана для поддержки временного переопределения шаблонов
  * с помощью {@link ThreadLocalPromptOverride}, что является ключевым
- * механизмом для A/B-тестирования промптов.
+ * механизмом для A/B-тестирования промптов. Шаблоны-переопределения компилируются
+ * один раз и кэшируются по хешу содержимого, а модель данных передается в FreeMarker
+ * через адаптер без копирования карты при каждом рендеринге.
  */
 @Slf4j
 @Service
@@ -27,10 +45,36 @@ import java.util.concurrent.ConcurrentHashMap;
 public class PromptService {
 
     private final freemarker.template.Configuration freemarkerConfig;
+    private final TokenizationService tokenizationService;
     private final Map<String, Template> templateCache = new ConcurrentHashMap<>();
 
+    /**
+     * Максимальное количество одновременно используемых вариантов шаблонов-переопределений.
+     */
+    private static final int OVERRIDE_CACHE_SIZE = 256;
+    private static final String SKELETON_MARKER_PREFIX = "skeletonslot";
+    private static final String SKELETON_MARKER_SUFFIX = "x";
+    private static final Pattern SKELETON_MARKER = Pattern.compile(
+            SKELETON_MARKER_PREFIX + "\\d+" + SKELETON_MARKER_SUFFIX, Pattern.CASE_INSENSITIVE);
+
+    private final Cache<String, Template> overrideTemplateCache = CacheBuilder.newBuilder()
+            .maximumSize(OVERRIDE_CACHE_SIZE)
+            .build();
+    /**
+     * Скелеты шаблонов по шаблону, его содержимому-переопределению и набору ключей модели.
+     */
+    private final Cache<String, Skeleton> skeletonCache = CacheBuilder.newBuilder()
+            .maximumSize(OVERRIDE_CACHE_SIZE)
+            .build();
+    private DefaultObjectWrapper modelWrapper;
+
     @PostConstruct
     public void init() {
+        DefaultObjectWrapperBuilder wrapperBuilder = new DefaultObjectWrapperBuilder(freemarkerConfig.getIncompatibleImprovements());
+        // Адаптеры оборачивают коллекции модели "на лету" вместо их копирования в SimpleHash
+        wrapperBuilder.setUseAdaptersForContainers(true);
+        this.modelWrapper = wrapperBuilder.build();
+
         log.info("Начало динамического сканирования и кэширования шаблонов FreeMarker...");
         PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
         try {
@@ -38,7 +82,7 @@ public class PromptService {
             for (Resource resource : resources) {
                 String fileName = resource.getFilename();
                 if (fileName != null) {
-                    String templateName = toCamelCase(fileName.replace(".ftl", ""));
+                    String templateName = templateName(fileName);
                     Template template = freemarkerConfig.getTemplate(fileName);
                     templateCache.put(templateName, template);
                     log.trace("Шаблон '{}' из файла '{}' успешно загружен и закэширован.", templateName, fileName);
@@ -69,7 +113,7 @@ public class PromptService {
             Template template;
             if (overrideContent != null) {
                 log.debug("Применение временного шаблона для '{}'", templateName);
-                template = new Template(templateName, overrideContent, freemarkerConfig);
+                template = getOverrideTemplate(templateName, overrideContent);
             } else {
                 template = templateCache.get(templateName);
                 if (template == null) {
@@ -80,7 +124,7 @@ public class PromptService {
             }
 
             try (StringWriter writer = new StringWriter()) {
-                template.process(model, writer);
+                template.process(DefaultMapAdapter.adapt(model, modelWrapper), writer);
                 return writer.toString();
             }
         } catch (TemplateException | IOException e) {
@@ -89,7 +133,113 @@ public class PromptService {
         }
     }
 
-    private String toCamelCase(String s) {
+    /**
+     * Рендерит шаблон и оценивает количество токенов результата без токенизации всего текста.
+     * <p>
+     * Количество токенов складывается из счетчика "скелета" шаблона (шаблон, в котором
+     * все значения модели заменены пробелом) и счетчиков самих значений, умноженных на
+     * количество их подстановок. Скелет зависит только от шаблона и набора ключей модели,
+     * поэтому он вычисляется один раз и хранится в {@code skeletonCache}. Значения, которые
+     * шаблон не выводит, не учитываются и не токенизируются. Для остальных значений
+     * используются переданные известные счетчики, а неизвестные токенизируются по отдельности.
+     * Результат - оценка: на стыках частей токенизатор может объединить несколько символов,
+     * а условные блоки скелета вычисляются для непустых значений.
+     * <p>
+     * Если в модели есть не строковые значения (коллекции, числа), скелет зависит от их
+     * содержимого; в этом случае токенизируется весь отрендеренный текст. Метод выгоден
+     * только тогда, когда для крупных значений счетчики известны заранее.
+     *
+     * @param templateName     Имя шаблона в формате camelCase.
+     * @param model            Карта с данными для подстановки в шаблон.
+     * @param knownTokenCounts Уже известные количества токенов для значений модели по их ключам.
+     * @return Текст промпта вместе с оценкой количества токенов.
+     */
+    public RenderedPrompt renderCounted(String templateName, Map<String, Object> model, Map<String, Integer> knownTokenCounts) {
+        String text = render(templateName, model);
+        if (!model.values().stream().allMatch(String.class::isInstance)) {
+            return new RenderedPrompt(text, tokenizationService.countTokens(text));
+        }
+        Skeleton skeleton = skeleton(templateName, model.keySet());
+        int tokens = skeleton.tokens();
+        for (Map.Entry<String, Integer> usage : skeleton.occurrences().entrySet()) {
+            Integer known = knownTokenCounts.get(usage.getKey());
+            int valueTokens = known != null ? known : tokenizationService.countTokens((String) model.get(usage.getKey()));
+            tokens += usage.getValue() * valueTokens;
+        }
+        return new RenderedPrompt(text, tokens);
+    }
+
+    /**
+     * Рендерит шаблон, подставив вместо каждого значения модели уникальную метку. Количество
+     * вхождений метки в результат - число подстановок значения; после замены меток пробелом
+     * получается скелет. Метки состоят из латинских букв и цифр и ищутся без учета регистра,
+     * чтобы пережить встроенные функции FreeMarker вроде {@code ?upper_case}.
+     */
+    private Skeleton skeleton(String templateName, Set<String> keys) {
+        String overrideContent = ThreadLocalPromptOverride.getOverride(templateName);
+        List<String> sortedKeys = List.copyOf(new TreeSet<>(keys));
+        String key = ContentHashUtils.sha256(templateName, overrideContent == null ? "" : overrideContent,
+                String.join(",", sortedKeys));
+        try {
+            return skeletonCache.get(key, () -> {
+                Map<String, Object> skeletonModel = new HashMap<>();
+                for (int i = 0; i < sortedKeys.size(); i++) {
+                    skeletonModel.put(sortedKeys.get(i), SKELETON_MARKER_PREFIX + i + SKELETON_MARKER_SUFFIX);
+                }
+                String rendered = render(templateName, skeletonModel);
+                String lowerCased = rendered.toLowerCase(Locale.ROOT);
+                Map<String, Integer> occurrences = new HashMap<>();
+                for (int i = 0; i < sortedKeys.size(); i++) {
+                    int count = StringUtils.countMatches(lowerCased, SKELETON_MARKER_PREFIX + i + SKELETON_MARKER_SUFFIX);
+                    if (count > 0) {
+                        occurrences.put(sortedKeys.get(i), count);
+                    }
+                }
+                String skeletonText = SKELETON_MARKER.matcher(rendered).replaceAll(" ");
+                return new Skeleton(tokenizationService.countTokens(skeletonText), Map.copyOf(occurrences));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Ошибка подсчета токенов скелета шаблона '" + templateName + "'", e.getCause());
+        }
+    }
+
+    /**
+     * Скелет шаблона.
+     *
+     * @param tokens      Количество токенов шаблона без значений модели.
+     * @param occurrences Количество подстановок каждого выводимого значения по его ключу.
+     */
+    private record Skeleton(int tokens, Map<String, Integer> occurrences) {
+    }
+
+    /**
+     * Возвращает скомпилированный шаблон-переопределение, компилируя его только
+     * при первом использовании данного содержимого.
+     */
+    private Template getOverrideTemplate(String templateName, String overrideContent) throws IOException {
+        String key = ContentHashUtils.sha256(templateName, overrideContent);
+        try {
+            return overrideTemplateCache.get(key, () -> new Template(templateName, overrideContent, freemarkerConfig));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IllegalStateException("Ошибка компиляции временного шаблона '" + templateName + "'", e.getCause());
+        }
+    }
+
+    /**
+     * Возвращает имя шаблона в формате camelCase по имени его файла
+     * (например, {@code rag-prompt.ftl} -> {@code ragPrompt}).
+     */
+    static String templateName(String fileName) {
+        return toCamelCase(fileName.replace(".ftl", ""));
+    }
+
+    private static String toCamelCase(String s) {
         String[] parts = s.split("-");
         StringBuilder camelCaseString = new StringBuilder(parts[0]);
         for (int i = 1; i < parts.length; i++) {
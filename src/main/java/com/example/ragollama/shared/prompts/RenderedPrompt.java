@@ -0,0 +1,30 @@
+package com.example.ragollama.shared.prompts;
+
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.Map;
+
+/**
+ * Результат рендеринга шаблона вместе с оценкой количества токенов.
+ *
+ * @param text       Готовый текст промпта.
+ * @param tokenCount Оценка количества токенов, собранная из счетчиков частей шаблона.
+ */
+public record RenderedPrompt(String text, int tokenCount) {
+
+    /**
+     * Создает {@link Prompt} из одного пользовательского сообщения, в метаданных
+     * которого сохранено количество токенов. {@link TokenizationService#countPromptTokens(Prompt)}
+     * использует это значение вместо повторной токенизации текста.
+     *
+     * @return Промпт для передачи в LLM.
+     */
+    public Prompt toPrompt() {
+        return new Prompt(UserMessage.builder()
+                .text(text)
+                .metadata(Map.of(TokenizationService.TOKEN_COUNT_METADATA_KEY, tokenCount))
+                .build());
+    }
+}
@@ -30,25 +30,42 @@ public class SearchRequestKeyGenerator implements KeyGenerator {
         if (params.length < 5) {
             throw new IllegalArgumentException("KeyGenerator ожидает как минимум 5 параметров для метода search.");
         }
-        // 1. Извлекаем все параметры из вызова метода
+        // Извлекаем все параметры из вызова метода
         List<String> queries = (List<String>) params[0];
         int topK = (int) params[1];
         double similarityThreshold = (double) params[2];
         Filter.Expression filter = (Filter.Expression) params[3];
         Integer efSearch = (Integer) params[4];
-        // 2. Нормализуем и объединяем запросы
+        return generateKey(queries, topK, similarityThreshold, filter, efSearch);
+    }
+
+    /**
+     * Создает ключ кэша напрямую из параметров поиска.
+     * <p>
+     * Используется программными (не аннотационными) кэшами, которым
+     * необходим тот же формат ключа, что и декларативному {@code @Cacheable}.
+     *
+     * @param queries             Список текстов запросов.
+     * @param topK                Количество извлекаемых документов.
+     * @param similarityThreshold Порог схожести.
+     * @param filter              Опциональный фильтр метаданных.
+     * @param efSearch            Опциональное значение hnsw.ef_search.
+     * @return MD5-хеш, однозначно идентифицирующий поисковый запрос.
+     */
+    public String generateKey(List<String> queries, int topK, double similarityThreshold, Filter.Expression filter, Integer efSearch) {
+        // 1. Нормализуем и объединяем запросы
         String normalizedQueries = queries.stream()
                 .map(q -> q.toLowerCase().replaceAll(PUNCTUATION_REGEX, "").trim())
                 .sorted() // Сортируем, чтобы порядок не влиял на ключ
                 .collect(Collectors.joining("|"));
-        // 3. Собираем все параметры в одну детерминированную строку
+        // 2. Собираем все параметры в одну детерминированную строку
         StringJoiner rawKeyBuilder = new StringJoiner("_")
                 .add(normalizedQueries)
                 .add("k" + topK)
                 .add("t" + similarityThreshold)
                 .add("f" + FilterExpressionKeyHelper.generateKey(filter))
                 .add("ef" + (efSearch != null ? efSearch.toString() : "default"));
-        // 4. Хешируем для получения безопасного и уникального ключа
+        // 3. Хешируем для получения безопасного и уникального ключа
         String hashedKey = DigestUtils.md5DigestAsHex(rawKeyBuilder.toString().getBytes(StandardCharsets.UTF_8));
         log.trace("Сгенерирован ключ кэша: '{}' для запроса: '{}'", hashedKey, queries.get(0));
         return hashedKey;
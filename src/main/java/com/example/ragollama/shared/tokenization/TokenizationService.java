@@ -1,16 +1,24 @@
 package com.example.ragollama.shared.tokenization;
 
 import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.util.ContentHashUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.knuddels.jtokkit.Encodings;
 import com.knuddels.jtokkit.api.Encoding;
 import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingResult;
 import com.knuddels.jtokkit.api.EncodingType;
 import com.knuddels.jtokkit.api.IntArrayList;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -22,11 +30,45 @@ import java.util.Optional;
 @Service
 public class TokenizationService {
 
+    static final String COUNT_CACHE_NAME = "token_counts";
+
+    /**
+     * Оценка памяти одной записи кэша счетчиков: строка хеша из 64 символов,
+     * упакованный {@link Integer} и служебная запись Guava.
+     */
+    private static final int ESTIMATED_COUNT_ENTRY_BYTES = 200;
+
+    /**
+     * Ключ метаданных сообщения, в котором хранится уже известное количество токенов его текста.
+     */
+    public static final String TOKEN_COUNT_METADATA_KEY = "tokenCount";
+
     private final String encodingModel;
+    private final int countCacheMinLength;
+    private final MetricService metricService;
+    private final Cache<String, Integer> countCache;
     private Encoding encoding;
 
-    public TokenizationService(AppProperties appProperties) {
-        this.encodingModel = appProperties.tokenization().encodingModel();
+    /**
+     * Конструктор для внедрения зависимостей.
+     *
+     * @param appProperties Конфигурация приложения.
+     * @param metricService Сервис метрик.
+     */
+    public TokenizationService(AppProperties appProperties, MetricService metricService) {
+        AppProperties.Tokenization tokenization = appProperties.tokenization();
+        this.encodingModel = tokenization.encodingModel();
+        this.countCacheMinLength = tokenization.countCacheMinLength();
+        this.metricService = metricService;
+        // Ключ - хеш содержимого, поэтому размер записи не зависит от длины текста,
+        // и ограничение количества записей одновременно ограничивает занимаемую память.
+        this.countCache = CacheBuilder.newBuilder()
+                .maximumSize(tokenization.countCacheMaxEntries())
+                .recordStats()
+                .build();
+        metricService.registerCacheSizeGauge(COUNT_CACHE_NAME, countCache::size);
+        metricService.registerCacheFootprintGauge(COUNT_CACHE_NAME, () -> countCache.size() * ESTIMATED_COUNT_ENTRY_BYTES);
+        metricService.registerCacheHitRatioGauge(COUNT_CACHE_NAME, () -> countCache.stats().hitRate());
     }
 
     @PostConstruct
@@ -54,11 +96,13 @@ public class TokenizationService {
 
     /**
      * Подсчитывает количество токенов в заданной строке.
+     * <p>
+     * Для текстов длиннее {@code countCacheMinLength} результат кэшируется в ограниченном
+     * кэше по SHA-256 хешу содержимого, так что в памяти не остаются сами тексты.
      *
      * @param text Текст для токенизации.
      * @return Количество токенов.
      */
-    @Cacheable(value = "token_counts", key = "#text")
     public int countTokens(String text) {
         if (text == null || text.isEmpty()) {
             return 0;
@@ -66,16 +110,45 @@ public class TokenizationService {
         if (encoding == null) {
             throw new IllegalStateException("TokenizationService не инициализирован: encoding == null");
         }
-        return encoding.countTokens(text);
+        if (text.length() < countCacheMinLength) {
+            return encoding.countTokens(text);
+        }
+        String key = ContentHashUtils.sha256(text);
+        Integer cached = countCache.getIfPresent(key);
+        if (cached != null) {
+            metricService.incrementCacheHit(COUNT_CACHE_NAME);
+            return cached;
+        }
+        metricService.incrementCacheMiss(COUNT_CACHE_NAME);
+        int count = encoding.countTokens(text);
+        countCache.put(key, count);
+        return count;
+    }
+
+    /**
+     * Подсчитывает количество токенов во всех сообщениях промпта.
+     * <p>
+     * Для сообщений, в метаданных которых есть {@link #TOKEN_COUNT_METADATA_KEY},
+     * используется сохраненное значение; остальные сообщения токенизируются.
+     *
+     * @param prompt Промпт.
+     * @return Количество токенов.
+     */
+    public int countPromptTokens(Prompt prompt) {
+        int total = 0;
+        for (Message message : prompt.getInstructions()) {
+            Object known = message.getMetadata().get(TOKEN_COUNT_METADATA_KEY);
+            total += known instanceof Number number ? number.intValue() : countTokens(message.getText());
+        }
+        return total;
     }
 
     /**
      * Обрезает текст до заданного лимита токенов.
      * <p>
-     * Этот метод корректно работает с токенами, используя нативный для
-     * jtokkit тип {@link IntArrayList} для максимальной производительности.
-     * Он кодирует текст, берет необходимое количество токенов и декодирует
-     * их обратно в строку.
+     * Текст кодируется с ограничением {@code maxTokens}: jtokkit прекращает кодирование
+     * после лимита и возвращает уже усеченный массив токенов, который сразу декодируется.
+     * Полная токенизация длинного текста и копирование массива не выполняются.
      *
      * @param text      Исходный текст.
      * @param maxTokens Максимальное количество токенов в результирующей строке.
@@ -89,18 +162,52 @@ public class TokenizationService {
             throw new IllegalStateException("TokenizationService не инициализирован: encoding == null");
         }
 
-        // Используем IntArrayList
-        IntArrayList tokens = encoding.encode(text);
-        if (tokens.size() <= maxTokens) {
+        EncodingResult result = encoding.encode(text, maxTokens);
+        if (!result.isTruncated()) {
             return text;
         }
+        return encoding.decode(result.getTokens());
+    }
 
-        // Создаем новый IntArrayList из подсписка
-        IntArrayList truncatedTokens = new IntArrayList(maxTokens);
-        for (int i = 0; i < maxTokens; i++) {
-            truncatedTokens.add(tokens.get(i));
+    /**
+     * Разделяет текст на последовательные фрагменты, каждый из которых содержит
+     * не более {@code maxTokens} токенов.
+     * <p>
+     * Границы совпадают с последовательным применением {@link #truncate(String, int)}
+     * к остатку текста: каждый фрагмент является декодируемым префиксом остатка, поэтому
+     * многобайтовые символы не разрываются между соседними фрагментами. На каждой итерации
+     * кодируется только очередной префикс с ограничением {@code maxTokens}, а признак
+     * усечения заменяет полный подсчет токенов остатка.
+     *
+     * @param text      Исходный текст.
+     * @param maxTokens Максимальное количество токенов в одном фрагменте.
+     * @return Список фрагментов в исходном порядке.
+     */
+    public List<String> splitByTokens(String text, int maxTokens) {
+        if (text == null || text.isEmpty() || maxTokens <= 0) {
+            return List.of();
         }
-
-        return encoding.decode(truncatedTokens);
+        if (encoding == null) {
+            throw new IllegalStateException("TokenizationService не инициализирован: encoding == null");
+        }
+        List<String> parts = new ArrayList<>();
+        String remaining = text;
+        while (!remaining.isEmpty()) {
+            EncodingResult result = encoding.encode(remaining, maxTokens);
+            if (!result.isTruncated()) {
+                parts.add(remaining);
+                break;
+            }
+            String part = encoding.decode(result.getTokens());
+            if (part.isEmpty()) {
+                // Первый символ остатка не помещается в лимит: отдаем остаток целиком,
+                // чтобы не зациклиться.
+                parts.add(remaining);
+                break;
+            }
+            parts.add(part);
+            remaining = remaining.substring(part.length());
+        }
+        return parts;
     }
 }
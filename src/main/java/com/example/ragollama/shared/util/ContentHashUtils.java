@@ -0,0 +1,47 @@
+package com.example.ragollama.shared.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.experimental.UtilityClass;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Утилитарный класс для вычисления стабильных хешей содержимого.
+ * <p>
+ * Используется везде, где текст должен служить ключом (кэши, дедупликация чанков),
+ * но хранить сам текст в качестве ключа нежелательно.
+ */
+@UtilityClass
+public final class ContentHashUtils {
+
+    /**
+     * Вычисляет SHA-256 хеш от последовательности частей.
+     * <p>
+     * Части разделяются нулевым символом, поэтому {@code ("ab", "c")} и
+     * {@code ("a", "bc")} дают разные хеши.
+     *
+     * @param parts Части, из которых строится хеш. {@code null} трактуется как пустая строка.
+     * @return Хеш в шестнадцатеричном представлении (64 символа).
+     */
+    public static String sha256(String... parts) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                hasher.putByte((byte) 0);
+            }
+            hasher.putString(parts[i] == null ? "" : parts[i], StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Вычисляет укороченный SHA-256 хеш, пригодный для включения в человекочитаемые идентификаторы.
+     *
+     * @param text Исходный текст.
+     * @return Первые 12 шестнадцатеричных символов хеша.
+     */
+    public static String shortSha256(String text) {
+        return sha256(text).substring(0, 12);
+    }
+}
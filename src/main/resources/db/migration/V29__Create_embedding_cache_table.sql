@@ -0,0 +1,14 @@
+-- V29__Create_embedding_cache_table.sql
+
+-- Персистентный уровень кэша эмбеддингов.
+-- Ключом является SHA-256 хеш текста, отправляемого в модель, и идентификатор модели,
+-- поэтому смена модели или ее версии автоматически делает старые записи неактуальными.
+-- Вектор хранится в компактном бинарном виде (float32, big-endian).
+CREATE TABLE IF NOT EXISTS embedding_cache
+(
+    content_hash VARCHAR(64)              NOT NULL,
+    model_key    VARCHAR(255)             NOT NULL,
+    embedding    BYTEA                    NOT NULL,
+    created_at   TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    PRIMARY KEY (model_key, content_hash)
+);
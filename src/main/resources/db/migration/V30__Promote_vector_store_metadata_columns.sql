@@ -0,0 +1,24 @@
+-- V30__Promote_vector_store_metadata_columns.sql
+
+-- Выносим часто используемые в фильтрах ключи JSONB-метаданных в генерируемые колонки.
+-- Колонки вычисляются самой СУБД при каждой вставке/обновлении, поэтому PgVectorStore,
+-- который пишет только в колонку metadata, продолжает работать без изменений.
+-- Добавление STORED-колонки переписывает всю таблицу вместе с эмбеддингами под ACCESS EXCLUSIVE,
+-- поэтому все три колонки добавляются одной командой ALTER TABLE: таблица переписывается один раз.
+ALTER TABLE vector_store
+    ADD COLUMN IF NOT EXISTS document_id TEXT GENERATED ALWAYS AS (metadata ->> 'documentId') STORED,
+    ADD COLUMN IF NOT EXISTS source TEXT GENERATED ALWAYS AS (metadata ->> 'source') STORED,
+    ADD COLUMN IF NOT EXISTS doc_type TEXT GENERATED ALWAYS AS (metadata ->> 'doc_type') STORED;
+
+-- Индекс для удаления и переиндексации чанков документа без последовательного сканирования таблицы.
+CREATE INDEX IF NOT EXISTS idx_vector_store_document_id ON vector_store (document_id);
+
+-- Индексы для фильтрации по источнику и типу документа.
+CREATE INDEX IF NOT EXISTS idx_vector_store_source ON vector_store (source);
+CREATE INDEX IF NOT EXISTS idx_vector_store_doc_type ON vector_store (doc_type);
+
+-- Частичный индекс для поиска документов, еще не прошедших курирование.
+CREATE INDEX IF NOT EXISTS idx_vector_store_uncurated_document_id ON vector_store (document_id)
+    WHERE metadata ->> 'last_curated_at' IS NULL;
+
+ANALYZE vector_store;
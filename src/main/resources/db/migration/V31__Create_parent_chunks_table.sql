@@ -0,0 +1,27 @@
+-- V31__Create_parent_chunks_table.sql
+
+-- Родительские чанки (Parent Document Retriever) хранятся один раз в отдельной таблице,
+-- а не копируются в метаданные каждого дочернего чанка в vector_store.
+CREATE TABLE IF NOT EXISTS parent_chunks
+(
+    id          VARCHAR(512) PRIMARY KEY,
+    document_id TEXT                     NOT NULL,
+    content     TEXT                     NOT NULL,
+    created_at  TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
+
+-- Индекс для замены и удаления родительских чанков при переиндексации документа.
+CREATE INDEX IF NOT EXISTS idx_parent_chunks_document_id ON parent_chunks (document_id);
+
+-- Переносим уже проиндексированные родительские тексты из метаданных дочерних чанков.
+INSERT INTO parent_chunks (id, document_id, content)
+SELECT DISTINCT ON (metadata ->> 'parentChunkId') metadata ->> 'parentChunkId', document_id, metadata ->> 'parentChunkText'
+FROM vector_store
+WHERE metadata ? 'parentChunkText'
+  AND metadata ->> 'parentChunkId' IS NOT NULL
+  AND document_id IS NOT NULL
+ON CONFLICT (id) DO NOTHING;
+
+UPDATE vector_store
+SET metadata = metadata - 'parentChunkText'
+WHERE metadata ? 'parentChunkText';
@@ -0,0 +1,15 @@
+-- Персистентный уровень кэша ответов LLM для детерминированных вызовов.
+-- Ключ - SHA-256 от модели, ее digest, опций и текста промпта.
+CREATE TABLE IF NOT EXISTS llm_response_cache
+(
+    cache_key    VARCHAR(64) PRIMARY KEY,
+    model_name   VARCHAR(255)             NOT NULL,
+    model_digest VARCHAR(128)             NOT NULL,
+    response     TEXT                     NOT NULL,
+    created_at   TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    expires_at   TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+-- Индексы для инвалидации по модели и очистки устаревших записей.
+CREATE INDEX IF NOT EXISTS idx_llm_response_cache_model ON llm_response_cache (model_name);
+CREATE INDEX IF NOT EXISTS idx_llm_response_cache_expires_at ON llm_response_cache (expires_at);
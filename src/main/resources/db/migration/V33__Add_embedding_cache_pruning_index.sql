@@ -0,0 +1,5 @@
+-- V33__Add_embedding_cache_pruning_index.sql
+
+-- Индекс для периодической очистки кэша эмбеддингов по времени жизни записи
+-- (см. CachingEmbeddingModel#pruneExpired).
+CREATE INDEX IF NOT EXISTS idx_embedding_cache_created_at ON embedding_cache (created_at);
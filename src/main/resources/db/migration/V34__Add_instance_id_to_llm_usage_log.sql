@@ -0,0 +1,6 @@
+-- V34__Add_instance_id_to_llm_usage_log.sql
+
+-- Идентификатор экземпляра приложения, записавшего строку. Используется QuotaService,
+-- чтобы при сверке с БД не учитывать дважды записи, уже учтенные в памяти этим экземпляром.
+-- Для существующих строк значение остается NULL.
+ALTER TABLE llm_usage_log ADD COLUMN IF NOT EXISTS instance_id VARCHAR(64);
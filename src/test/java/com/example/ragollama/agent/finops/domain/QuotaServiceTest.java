@@ -0,0 +1,200 @@
+package com.example.ragollama.agent.finops.domain;
+
+import com.example.ragollama.agent.config.QuotaProperties;
+import com.example.ragollama.agent.finops.model.LlmUsageLog;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Проверяет учет квот {@link QuotaService} при перезапуске, работе нескольких реплик
+ * и смене календарного месяца на общем журнале {@code llm_usage_log} в памяти.
+ */
+class QuotaServiceTest {
+
+    private static final String USER = "anonymous_user";
+    private static final Duration RECONCILE_INTERVAL = Duration.ofSeconds(30);
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-03-10T12:00:00Z"));
+    private final InMemoryUsageRepository repository = new InMemoryUsageRepository();
+
+    @Test
+    void restartShouldCountUsagePersistedByPreviousInstanceOnce() {
+        QuotaService beforeRestart = service();
+        track(beforeRestart, 100, true);
+
+        QuotaService afterRestart = service();
+        assertThat(afterRestart.getCurrentUsage(USER).block()).isEqualTo(100);
+
+        track(afterRestart, 20, true);
+        clock.advance(RECONCILE_INTERVAL);
+        afterRestart.getCurrentUsage(USER).block();
+        assertThat(afterRestart.getCurrentUsage(USER).block()).isEqualTo(120);
+    }
+
+    @Test
+    void ownUsageShouldBeCountedOnceBeforeAndAfterItIsPersisted() {
+        QuotaService service = service();
+        assertThat(service.getCurrentUsage(USER).block()).isZero();
+
+        service.recordUsage(USER, 30);
+        assertThat(service.getCurrentUsage(USER).block()).isEqualTo(30);
+
+        repository.insertAll(List.of(row(service, 30))).block();
+        clock.advance(RECONCILE_INTERVAL);
+        service.getCurrentUsage(USER).block();
+        assertThat(service.getCurrentUsage(USER).block()).isEqualTo(30);
+    }
+
+    @Test
+    void usageOfOtherReplicasShouldBeReconciledAfterInterval() {
+        QuotaService first = service();
+        QuotaService second = service();
+        assertThat(first.getCurrentUsage(USER).block()).isZero();
+
+        track(second, 600, true);
+        assertThat(first.getCurrentUsage(USER).block()).isZero();
+
+        clock.advance(RECONCILE_INTERVAL);
+        first.getCurrentUsage(USER).block();
+        assertThat(first.getCurrentUsage(USER).block()).isEqualTo(600);
+        assertThat(first.isQuotaExceeded(USER, 500).block()).isTrue();
+        assertThat(first.isQuotaExceeded(USER, 400).block()).isFalse();
+        assertThat(repository.sumCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void countersShouldStartFromZeroInNewMonth() {
+        clock.set(Instant.parse("2026-03-31T23:59:59Z"));
+        QuotaService service = service();
+        track(service, 70, true);
+        assertThat(service.getCurrentUsage(USER).block()).isEqualTo(70);
+
+        clock.advance(Duration.ofSeconds(2));
+        assertThat(service.getCurrentUsage(USER).block()).isZero();
+
+        track(service, 5, true);
+        assertThat(service.getCurrentUsage(USER).block()).isEqualTo(5);
+        // Новый экземпляр в апреле не видит мартовских записей
+        assertThat(service().getCurrentUsage(USER).block()).isEqualTo(5);
+    }
+
+    @Test
+    void failedInitialLoadShouldBeRetried() {
+        QuotaService service = service();
+        repository.failNext = true;
+
+        assertThatThrownBy(() -> service.getCurrentUsage(USER).block()).hasMessageContaining("БД недоступна");
+        assertThat(service.getCurrentUsage(USER).block()).isZero();
+    }
+
+    private QuotaService service() {
+        var properties = new QuotaProperties(true, "free", Map.of("free", new QuotaProperties.Tier(1000)),
+                new QuotaProperties.Costs(0.0, 0.0), RECONCILE_INTERVAL);
+        return new QuotaService(properties, repository, clock);
+    }
+
+    /**
+     * Повторяет {@link LlmUsageTracker}: учет в счетчике и (при {@code persisted}) сохранение записи.
+     */
+    private void track(QuotaService service, long tokens, boolean persisted) {
+        service.recordUsage(USER, tokens);
+        if (persisted) {
+            repository.insertAll(List.of(row(service, tokens))).block();
+        }
+    }
+
+    private LlmUsageLog row(QuotaService service, long tokens) {
+        return LlmUsageLog.builder()
+                .username(USER)
+                .modelName("llama3")
+                .totalTokens(tokens)
+                .instanceId(service.instanceId())
+                .createdAt(OffsetDateTime.ofInstant(clock.instant(), clock.getZone()))
+                .build();
+    }
+
+    /**
+     * Журнал использования в памяти с той же семантикой выборки, что и SQL-запрос репозитория.
+     */
+    private static final class InMemoryUsageRepository extends LlmUsageLogBatchRepository {
+
+        private final List<LlmUsageLog> rows = new CopyOnWriteArrayList<>();
+        private final AtomicInteger sumCalls = new AtomicInteger();
+        private volatile boolean failNext;
+
+        InMemoryUsageRepository() {
+            super(null);
+        }
+
+        @Override
+        public Mono<Long> insertAll(List<LlmUsageLog> entries) {
+            rows.addAll(entries);
+            return Mono.just((long) entries.size());
+        }
+
+        @Override
+        public Mono<Long> sumTotalTokensExcludingInstance(String username, OffsetDateTime since, OffsetDateTime until,
+                                                          String excludedInstanceId) {
+            return Mono.fromCallable(() -> {
+                sumCalls.incrementAndGet();
+                if (failNext) {
+                    failNext = false;
+                    throw new IllegalStateException("БД недоступна");
+                }
+                return rows.stream()
+                        .filter(row -> row.getUsername().equals(username))
+                        .filter(row -> !row.getCreatedAt().isBefore(since) && row.getCreatedAt().isBefore(until))
+                        .filter(row -> !Objects.equals(row.getInstanceId(), excludedInstanceId))
+                        .mapToLong(LlmUsageLog::getTotalTokens)
+                        .sum();
+            });
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant instant) {
+            now = instant;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.ragollama.evaluation;
+
+import com.example.ragollama.evaluation.model.EvaluationResult;
+import com.example.ragollama.evaluation.model.FusionComparisonResult;
+import com.example.ragollama.rag.agent.ProcessedQueries;
+import com.example.ragollama.rag.agent.QueryProcessingPipeline;
+import com.example.ragollama.rag.retrieval.HybridRetrievalStrategy;
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.rag.retrieval.fusion.FusionInput;
+import com.example.ragollama.rag.retrieval.fusion.FusionQueryType;
+import com.example.ragollama.rag.retrieval.fusion.FusionService;
+import com.example.ragollama.rag.retrieval.fusion.FusionSource;
+import com.example.ragollama.rag.retrieval.fusion.SourceRanking;
+import com.example.ragollama.shared.exception.RetrievalException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.DefaultResourceLoader;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет сравнение настроек слияния по "золотому датасету" из
+ * {@code classpath:evaluation/golden-dataset.json} на заглушках поиска.
+ */
+class RagEvaluationServiceFusionComparisonTest {
+
+    private static final Map<FusionSource, Double> NEUTRAL = Map.of(FusionSource.VECTOR, 1.0, FusionSource.FTS, 1.0, FusionSource.GRAPH, 1.0);
+
+    private final QueryProcessingPipeline queryProcessingPipeline = mock(QueryProcessingPipeline.class);
+    private final HybridRetrievalStrategy retrievalStrategy = mock(HybridRetrievalStrategy.class);
+    private final RetrievalProperties retrievalProperties = retrievalProperties();
+    private final RagEvaluationService service = new RagEvaluationService(new DefaultResourceLoader(), new ObjectMapper(),
+            queryProcessingPipeline, retrievalStrategy, retrievalProperties, new FusionService(retrievalProperties));
+
+    @Test
+    void shouldScoreEveryCandidateOnTheSameSourceRankings() {
+        givenQueryProcessing();
+        // Все источники ставят ожидаемый документ первым: любое слияние дает его первым
+        givenRankings("Что такое Spring AI?", new FusionInput(List.of(
+                new SourceRanking(FusionSource.VECTOR, docs("manual-doc-1", "other-1")),
+                new SourceRanking(FusionSource.FTS, docs("manual-doc-1"))), FusionQueryType.DEFAULT));
+        // Ожидаемый документ найден только полнотекстовым поиском, а x — обоими вариантами запроса
+        givenRankings("Как интегрироваться с Ollama?", new FusionInput(List.of(
+                new SourceRanking(FusionSource.VECTOR, docs("a", "x")),
+                new SourceRanking(FusionSource.VECTOR, docs("y", "x")),
+                new SourceRanking(FusionSource.FTS, docs("manual-doc-1"))), FusionQueryType.KEYWORD));
+        givenRankings("Какая погода на Марсе?", new FusionInput(List.of(
+                new SourceRanking(FusionSource.VECTOR, List.of()),
+                new SourceRanking(FusionSource.FTS, List.of())), FusionQueryType.DEFAULT));
+
+        FusionComparisonResult result = service.compareFusion().block();
+
+        assertThat(result.totalRecords()).isEqualTo(3);
+        assertThat(result.failures()).isEmpty();
+        assertThat(result.candidates()).containsOnlyKeys("configured", "rrf", "rrf-boosted", "score-min-max", "score-z-score");
+        assertThat(result.candidates().values()).allSatisfy(candidate -> {
+            assertThat(candidate.details()).hasSize(3);
+            assertThat(candidate.retrievalRecall()).isEqualTo(result.candidates().get("rrf").retrievalRecall());
+            assertThat(candidate.details().get("spring-ai-intro-01").reciprocalRank()).isEqualTo(1.0);
+        });
+        assertThat(result.candidates().get("configured")).isEqualTo(result.candidates().get("rrf"));
+
+        // RRF: x = 2/62 впереди a, y и manual-doc-1 (по 1/61, порядок первого появления)
+        assertThat(reciprocalRank(result, "rrf", "ollama-integration-01")).isEqualTo(0.25);
+        // Усиление FTS для коротких запросов: manual-doc-1 = 1.5/61 опережает a и y
+        assertThat(reciprocalRank(result, "rrf-boosted", "ollama-integration-01")).isEqualTo(0.5);
+        assertThat(result.candidates().get("rrf-boosted").meanReciprocalRank())
+                .isGreaterThan(result.candidates().get("rrf").meanReciprocalRank());
+        // Поиск выполняется один раз на запись, а не на каждого кандидата
+        verify(retrievalStrategy, times(1)).retrieveSourceRankings(any(), eq("Как интегрироваться с Ollama?"), anyInt(), anyDouble(), any());
+    }
+
+    @Test
+    void shouldReportFailedRecordsForAllCandidates() {
+        givenQueryProcessing();
+        givenRankings("Что такое Spring AI?", new FusionInput(List.of(
+                new SourceRanking(FusionSource.FTS, docs("manual-doc-1"))), FusionQueryType.DEFAULT));
+        when(retrievalStrategy.retrieveSourceRankings(any(), eq("Как интегрироваться с Ollama?"), anyInt(), anyDouble(), any()))
+                .thenReturn(Mono.error(new RetrievalException("Не удалось выполнить поиск.", new IllegalStateException())));
+        givenRankings("Какая погода на Марсе?", new FusionInput(List.of(), FusionQueryType.DEFAULT));
+
+        FusionComparisonResult result = service.compareFusion(Map.of("rrf", retrievalProperties.fusion())).block();
+
+        assertThat(result.failures()).containsExactly("ollama-integration-01");
+        EvaluationResult rrf = result.candidates().get("rrf");
+        assertThat(rrf.failures()).containsExactly("ollama-integration-01");
+        assertThat(rrf.details()).containsOnlyKeys("spring-ai-intro-01", "no-context-query-01");
+    }
+
+    private double reciprocalRank(FusionComparisonResult result, String candidate, String queryId) {
+        return result.candidates().get(candidate).details().get(queryId).reciprocalRank();
+    }
+
+    private void givenQueryProcessing() {
+        when(queryProcessingPipeline.process(anyString())).thenAnswer(invocation -> {
+            String query = invocation.getArgument(0);
+            return Mono.just(new ProcessedQueries(query, List.of(query)));
+        });
+    }
+
+    private void givenRankings(String query, FusionInput input) {
+        when(retrievalStrategy.retrieveSourceRankings(any(), eq(query), anyInt(), anyDouble(), any())).thenReturn(Mono.just(input));
+    }
+
+    /**
+     * Документы, идентификатор которых совпадает с {@code documentId}, по которому считается оценка.
+     */
+    private static List<Document> docs(String... ids) {
+        List<Document> documents = new ArrayList<>();
+        for (String id : ids) {
+            documents.add(Document.builder().id(id).text("документ " + id).metadata(Map.of("documentId", id)).build());
+        }
+        return documents;
+    }
+
+    private static RetrievalProperties retrievalProperties() {
+        var vectorSearch = new RetrievalProperties.Hybrid.VectorSearch(5, 0.7, 4, 100,
+                new RetrievalProperties.Hybrid.VectorSearch.EfSearch(false, 4, 40, 200, null));
+        var fusion = new RetrievalProperties.Fusion(RetrievalProperties.Fusion.Method.RRF, 60,
+                RetrievalProperties.Fusion.Normalization.MIN_MAX, NEUTRAL, Map.of());
+        return new RetrievalProperties(new RetrievalProperties.Hybrid(vectorSearch, null, 2), null, null, null, fusion);
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.ragollama.ingestion.splitter;
+
+import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет, что оптимизированный {@link RecursiveTextSplitterStrategy} дает те же границы
+ * чанков, что и исходный алгоритм с полным пересчетом токенов, на корпусе примеров
+ * из {@code src/test/resources/splitter/corpus}, и измеряет пропускную способность на 5 МБ текста.
+ * <p>
+ * Эталон ниже воспроизводит исходную реализацию дословно, включая прежний {@code truncate},
+ * который отрезал ровно N токенов. Если граница N токенов приходилась на середину многобайтового
+ * символа, прежний алгоритм получал U+FFFD и сдвигал смещение остатка текста. Новая реализация
+ * режет по декодируемому префиксу; это единственное намеренное отличие, и только в этом случае
+ * результаты не сравниваются напрямую.
+ */
+class RecursiveTextSplitterStrategyTest {
+
+    private static final Logger log = LoggerFactory.getLogger(RecursiveTextSplitterStrategyTest.class);
+
+    private static final List<String> CORPUS = List.of(
+            "vacation-policy-ru.md", "ingestion-guide-en.md", "splitter-sample-java.txt", "long-tokens-mixed.txt");
+
+    private static final List<SplitterConfig> CONFIGS = List.of(
+            new SplitterConfig(256, 32, List.of("\n\n", "(?<=[.!?])\\s+", " ")),
+            new SplitterConfig(64, 16, List.of("\n\n", "(?<=[.!?])\\s+", " ")),
+            new SplitterConfig(32, 0, List.of("\n\n")),
+            new SplitterConfig(12, 0, List.of()));
+
+    private static final String CYRILLIC_PARAGRAPH = """
+            Системы поиска с дополненной генерацией объединяют извлечение документов и языковую модель. \
+            Каждый документ делится на чанки, которые индексируются в векторном хранилище. \
+            Ёмкость контекстного окна ограничена, поэтому размер чанка подбирается в токенах, а не в символах. \
+            Съешь же ещё этих мягких французских булок, да выпей чаю! \
+            """;
+
+    private final Encoding encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.O200K_BASE);
+
+    private TokenizationService tokenizationService;
+    private RecursiveTextSplitterStrategy strategy;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties(null,
+                new AppProperties.Tokenization("o200k_base", 1_000, 256),
+                null, null, null, null, null, null, null, null, null);
+        tokenizationService = new TokenizationService(appProperties, new MetricService(new SimpleMeterRegistry()));
+        tokenizationService.init();
+        strategy = new RecursiveTextSplitterStrategy(tokenizationService);
+    }
+
+    @Test
+    void shouldProduceSameBoundariesAsFullRecount() {
+        String text = String.join("\n\n", List.of(
+                CYRILLIC_PARAGRAPH.repeat(3),
+                CYRILLIC_PARAGRAPH,
+                "Короткий абзац.",
+                CYRILLIC_PARAGRAPH.repeat(5)));
+        SplitterConfig config = new SplitterConfig(64, 16, List.of("\n\n", "(?<=[.!?])\\s+", " "));
+
+        List<String> actual = chunkTexts(strategy.split(new Document(text), config));
+
+        assertThat(actual).isEqualTo(referenceSplit(List.of(text), config.delimiters(), config));
+        assertThat(actual).allSatisfy(chunk -> assertThat(chunk).doesNotContain("\uFFFD"));
+    }
+
+    @Test
+    void shouldMatchBaselineOnCorpus() throws IOException {
+        int compared = 0;
+        for (String name : CORPUS) {
+            String text = corpusFile(name);
+            for (SplitterConfig config : CONFIGS) {
+                List<String> actual = chunkTexts(strategy.split(new Document(text), config));
+                List<String> reference = referenceSplit(List.of(text), config.delimiters(), config);
+
+                assertThat(actual).as("%s, chunkSize=%d", name, config.chunkSize())
+                        .allSatisfy(chunk -> assertThat(chunk).doesNotContain("\uFFFD"));
+                if (reference.stream().noneMatch(chunk -> chunk.contains("\uFFFD"))) {
+                    assertThat(actual).as("%s, chunkSize=%d", name, config.chunkSize()).isEqualTo(reference);
+                    compared++;
+                } else {
+                    log.info("{}, chunkSize={}: прежний алгоритм разрывал символ, сравнение пропущено.", name, config.chunkSize());
+                }
+            }
+        }
+        // Латинский текст и текст с разделителями всегда сравниваются напрямую
+        assertThat(compared).isGreaterThan(CONFIGS.size());
+    }
+
+    @Test
+    void shouldForceSplitOnDecodableBoundaries() {
+        String text = "Длинноесловобезразделителей".repeat(40) + "ёЁйЙщЩ".repeat(30) + "👩‍💻🇷🇺".repeat(20);
+        SplitterConfig config = new SplitterConfig(7, 0, List.of());
+
+        List<String> actual = chunkTexts(strategy.split(new Document(text), config));
+
+        assertThat(actual).hasSizeGreaterThan(1).allSatisfy(chunk -> assertThat(chunk).doesNotContain("\uFFFD"));
+        // Текст без пробелов: чанки, склеенные слиянием через пробел, восстанавливают исходный текст без потерь
+        assertThat(String.join("", actual).replace(" ", "")).isEqualTo(text);
+    }
+
+    @Test
+    void benchmarkFiveMegabytes() throws IOException {
+        StringBuilder corpus = new StringBuilder();
+        for (String name : CORPUS) {
+            corpus.append(corpusFile(name)).append("\n\n");
+        }
+        int repeats = (5 * 1024 * 1024) / corpus.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+        String text = corpus.toString().repeat(repeats);
+        SplitterConfig config = new SplitterConfig(512, 64, List.of("\n\n", "(?<=[.!?])\\s+", " "));
+        Document document = new Document(text);
+        strategy.split(new Document(corpus.toString()), config);
+
+        long start = System.nanoTime();
+        int chunks = strategy.split(document, config).size();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytes = text.getBytes(StandardCharsets.UTF_8).length / (1024.0 * 1024.0);
+
+        assertThat(chunks).isPositive();
+        log.info("Разделение {} МБ: {} чанков за {} с ({} МБ/с)", String.format("%.1f", megabytes), chunks,
+                String.format("%.2f", seconds), String.format("%.2f", megabytes / seconds));
+    }
+
+    @Test
+    void splitByTokensShouldCoverTextWithPrefixesWithinLimit() {
+        String text = "ёЁйЙщЩ".repeat(50);
+
+        List<String> pieces = tokenizationService.splitByTokens(text, 3);
+
+        assertThat(String.join("", pieces)).isEqualTo(text);
+        assertThat(pieces).allSatisfy(piece -> {
+            assertThat(piece).isNotEmpty().doesNotContain("\uFFFD");
+            assertThat(tokenizationService.countTokens(piece)).isLessThanOrEqualTo(3);
+        });
+    }
+
+    private static String corpusFile(String name) throws IOException {
+        try (InputStream in = RecursiveTextSplitterStrategyTest.class.getResourceAsStream("/splitter/corpus/" + name)) {
+            assertThat(in).as(name).isNotNull();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<String> chunkTexts(List<Document> documents) {
+        return documents.stream().map(Document::getText).toList();
+    }
+
+    private List<String> referenceSplit(List<String> texts, List<String> delimiters, SplitterConfig config) {
+        List<String> finalChunks = new ArrayList<>();
+        for (String text : texts) {
+            if (tokenizationService.countTokens(text) <= config.chunkSize()) {
+                finalChunks.add(text);
+            } else if (delimiters.isEmpty()) {
+                finalChunks.addAll(referenceForceSplit(text, config.chunkSize()));
+            } else {
+                List<String> subTexts = Arrays.asList(text.split(delimiters.getFirst()));
+                finalChunks.addAll(referenceSplit(subTexts, delimiters.subList(1, delimiters.size()), config));
+            }
+        }
+        return referenceMerge(finalChunks, config);
+    }
+
+    private List<String> referenceMerge(List<String> fragments, SplitterConfig config) {
+        List<String> merged = new ArrayList<>();
+        StringBuilder currentChunk = new StringBuilder();
+        List<String> sentenceBuffer = new ArrayList<>();
+        for (String fragment : fragments) {
+            if (fragment.isBlank()) continue;
+            int fragmentTokens = tokenizationService.countTokens(fragment);
+            int currentTokens = tokenizationService.countTokens(currentChunk.toString());
+            if (currentTokens + fragmentTokens > config.chunkSize() && !currentChunk.isEmpty()) {
+                merged.add(currentChunk.toString().trim());
+                sentenceBuffer = referenceOverlap(sentenceBuffer, config);
+                currentChunk = new StringBuilder(String.join(" ", sentenceBuffer));
+            }
+            currentChunk.append(" ").append(fragment);
+            sentenceBuffer.add(fragment);
+        }
+        if (!currentChunk.isEmpty()) {
+            merged.add(currentChunk.toString().trim());
+        }
+        return merged;
+    }
+
+    private List<String> referenceOverlap(List<String> buffer, SplitterConfig config) {
+        if (buffer.isEmpty() || config.chunkOverlap() <= 0) {
+            return new ArrayList<>();
+        }
+        int currentOverlapTokens = 0;
+        int startIndex = -1;
+        for (int i = buffer.size() - 1; i >= 0; i--) {
+            currentOverlapTokens += tokenizationService.countTokens(buffer.get(i));
+            if (currentOverlapTokens > config.chunkOverlap()) {
+                break;
+            }
+            startIndex = i;
+        }
+        return (startIndex == -1) ? new ArrayList<>() : new ArrayList<>(buffer.subList(startIndex, buffer.size()));
+    }
+
+    private List<String> referenceForceSplit(String text, int chunkSize) {
+        List<String> chunks = new ArrayList<>();
+        String remainingText = text;
+        while (tokenizationService.countTokens(remainingText) > chunkSize) {
+            String chunk = referenceTruncate(remainingText, chunkSize);
+            chunks.add(chunk);
+            remainingText = remainingText.substring(chunk.length());
+        }
+        if (!remainingText.isBlank()) {
+            chunks.add(remainingText);
+        }
+        return chunks;
+    }
+
+    /**
+     * Прежний {@code TokenizationService.truncate}: декодирует ровно {@code maxTokens} первых токенов.
+     */
+    private String referenceTruncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty() || maxTokens <= 0) {
+            return "";
+        }
+        IntArrayList tokens = encoding.encode(text);
+        if (tokens.size() <= maxTokens) {
+            return text;
+        }
+        IntArrayList truncatedTokens = new IntArrayList(maxTokens);
+        for (int i = 0; i < maxTokens; i++) {
+            truncatedTokens.add(tokens.get(i));
+        }
+        return encoding.decode(truncatedTokens);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.ragollama.optimization;
+
+import com.example.ragollama.rag.agent.ProcessedQueries;
+import com.example.ragollama.rag.retrieval.HybridRetrievalResult;
+import com.example.ragollama.rag.retrieval.HybridRetrievalStrategy;
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.llm.LlmClient;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.prompts.PromptService;
+import com.example.ragollama.shared.util.JsonExtractorUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет решения {@link RetrievalConfidenceGate} и то, что {@link ReflectiveRetrieverAgent}
+ * не обращается к LLM-судье, когда шлюз признает результат поиска уверенным.
+ */
+class RetrievalConfidenceGateTest {
+
+    private static final List<Document> DOCUMENTS = List.of(new Document("Отпуск составляет 28 дней."));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RetrievalConfidenceGate gate = gate(true);
+
+    @Test
+    void shouldRequireHighTopSimilarityConfirmedByGapOrAgreement() {
+        assertThat(gate.isConfident(new HybridRetrievalResult(DOCUMENTS, 0.90, 0.05, 0.0))).isTrue();
+        assertThat(gate.isConfident(new HybridRetrievalResult(DOCUMENTS, 0.90, 0.01, 0.67))).isTrue();
+        // Высокая схожесть без подтверждающего сигнала недостаточна
+        assertThat(gate.isConfident(new HybridRetrievalResult(DOCUMENTS, 0.95, 0.01, 0.33))).isFalse();
+        // Сильные подтверждающие сигналы не компенсируют низкую схожесть лидера
+        assertThat(gate.isConfident(new HybridRetrievalResult(DOCUMENTS, 0.80, 0.20, 1.0))).isFalse();
+
+        assertThat(meterRegistry.get("rag.retrieval.confidence_gate").tag("decision", "skip_judge").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("rag.retrieval.confidence_gate").tag("decision", "judge").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void disabledGateShouldNeverSkipJudge() {
+        assertThat(gate(false).isConfident(new HybridRetrievalResult(DOCUMENTS, 0.99, 0.5, 1.0))).isFalse();
+    }
+
+    @Test
+    void agentShouldSkipLlmJudgeForConfidentResult() {
+        HybridRetrievalStrategy strategy = strategyReturning(new HybridRetrievalResult(DOCUMENTS, 0.93, 0.08, 1.0));
+        LlmClient llmClient = mock(LlmClient.class);
+        PromptService promptService = mock(PromptService.class);
+        ReflectiveRetrieverAgent agent = agent(strategy, llmClient, promptService);
+
+        List<Document> documents = agent.retrieve(new ProcessedQueries("отпуск", List.of("отпуск")), "отпуск", 5, 0.7, null).block();
+
+        assertThat(documents).isEqualTo(DOCUMENTS);
+        verifyNoInteractions(llmClient, promptService);
+    }
+
+    @Test
+    void agentShouldAskLlmJudgeForUncertainResult() {
+        HybridRetrievalStrategy strategy = strategyReturning(new HybridRetrievalResult(DOCUMENTS, 0.75, 0.01, 0.0));
+        LlmClient llmClient = mock(LlmClient.class);
+        when(llmClient.callChatCached(any(Prompt.class), any(), anyBoolean()))
+                .thenReturn(Mono.just(Tuples.of("{\"isSufficient\": true, \"reasoning\": \"достаточно\"}", new Prompt("судья"))));
+        PromptService promptService = mock(PromptService.class);
+        when(promptService.render(anyString(), anyMap())).thenReturn("промпт судьи");
+        ReflectiveRetrieverAgent agent = agent(strategy, llmClient, promptService);
+
+        List<Document> documents = agent.retrieve(new ProcessedQueries("отпуск", List.of("отпуск")), "отпуск", 5, 0.7, null).block();
+
+        assertThat(documents).isEqualTo(DOCUMENTS);
+        verify(llmClient).callChatCached(any(Prompt.class), any(), eq(true));
+    }
+
+    private RetrievalConfidenceGate gate(boolean enabled) {
+        var confidenceGate = new RetrievalProperties.ConfidenceGate(enabled, 0.86, 0.04, 0.5);
+        return new RetrievalConfidenceGate(new RetrievalProperties(null, null, confidenceGate, null, null),
+                new MetricService(meterRegistry));
+    }
+
+    private static HybridRetrievalStrategy strategyReturning(HybridRetrievalResult result) {
+        HybridRetrievalStrategy strategy = mock(HybridRetrievalStrategy.class);
+        when(strategy.retrieveWithSignals(any(), anyString(), anyInt(), anyDouble(), any())).thenReturn(Mono.just(result));
+        return strategy;
+    }
+
+    private ReflectiveRetrieverAgent agent(HybridRetrievalStrategy strategy, LlmClient llmClient, PromptService promptService) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return new ReflectiveRetrieverAgent(strategy, llmClient, promptService, objectMapper,
+                new JsonExtractorUtil(objectMapper), gate);
+    }
+}
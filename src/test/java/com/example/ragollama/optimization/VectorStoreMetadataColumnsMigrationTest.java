@@ -0,0 +1,103 @@
+package com.example.ragollama.optimization;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет миграцию V30: генерируемые колонки {@code document_id}, {@code source} и
+ * {@code doc_type} заполняются из метаданных, а селективные фильтры по ним используют индексы.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class VectorStoreMetadataColumnsMigrationTest {
+
+    private static final int ROWS = 10_000;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>(
+            DockerImageName.parse("pgvector/pgvector:pg16").asCompatibleSubstituteFor("postgres"));
+
+    private static Connection connection;
+
+    @BeforeAll
+    static void setUp() throws SQLException {
+        Flyway.configure()
+                .dataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword())
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+        connection = DriverManager.getConnection(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO vector_store (content, metadata) VALUES (?, CAST(? AS jsonb))")) {
+            for (int i = 0; i < ROWS; i++) {
+                String docType = i % 1000 == 0 ? "rare" : "common";
+                insert.setString(1, "chunk " + i);
+                insert.setString(2, String.format("{\"documentId\": \"doc-%d\", \"source\": \"src-%d\", \"doc_type\": \"%s\"}",
+                        i % 2000, i % 500, docType));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE vector_store");
+        }
+    }
+
+    @AfterAll
+    static void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    void generatedColumnsShouldMirrorMetadata() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("""
+                     SELECT count(*) FROM vector_store
+                     WHERE document_id IS DISTINCT FROM metadata ->> 'documentId'
+                        OR source IS DISTINCT FROM metadata ->> 'source'
+                        OR doc_type IS DISTINCT FROM metadata ->> 'doc_type'
+                     """)) {
+            rs.next();
+            assertThat(rs.getLong(1)).isZero();
+        }
+    }
+
+    @Test
+    void selectiveFiltersShouldUseIndexes() throws SQLException {
+        assertThat(plan("SELECT id FROM vector_store WHERE document_id = 'doc-7'"))
+                .contains("idx_vector_store_document_id");
+        assertThat(plan("DELETE FROM vector_store WHERE document_id = 'doc-7'"))
+                .contains("idx_vector_store_document_id");
+        assertThat(plan("SELECT id FROM vector_store WHERE source = 'src-42'"))
+                .contains("idx_vector_store_source");
+        assertThat(plan("SELECT id FROM vector_store WHERE doc_type = 'rare'"))
+                .contains("idx_vector_store_doc_type");
+    }
+
+    private static String plan(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("EXPLAIN " + sql)) {
+            while (rs.next()) {
+                plan.append(rs.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.ragollama.rag.agent;
+
+import com.example.ragollama.rag.domain.model.QueryFormationStep;
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет спекулятивный режим {@link QueryProcessingPipeline} в виртуальном времени:
+ * бюджет задержки, досрочное завершение с отменой оставшихся генераторов и пропуск
+ * генератора, завершившегося ошибкой.
+ */
+class QueryProcessingPipelineTest {
+
+    private static final String QUERY = "Как оформить отпуск?";
+    private static final Duration BUDGET = Duration.ofSeconds(4);
+    private static final Duration SLOW = Duration.ofSeconds(30);
+
+    private final HyDEAgent hydeAgent = mock(HyDEAgent.class);
+    private final QueryTransformationAgent transformationAgent = mock(QueryTransformationAgent.class);
+    private final MultiQueryGeneratorAgent multiQueryAgent = mock(MultiQueryGeneratorAgent.class);
+    private final StepBackQueryAgent stepBackAgent = mock(StepBackQueryAgent.class);
+
+    private QueryProcessingPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        RetrievalProperties properties = new RetrievalProperties(null, null, null,
+                new RetrievalProperties.QueryProcessing(true, BUDGET, 3), null);
+        pipeline = new QueryProcessingPipeline(hydeAgent, transformationAgent, multiQueryAgent, stepBackAgent, properties);
+    }
+
+    @Test
+    void shouldReturnCollectedResultsWhenLatencyBudgetExpires() {
+        AtomicBoolean transformationCancelled = new AtomicBoolean();
+        AtomicBoolean multiQueryCancelled = new AtomicBoolean();
+        AtomicBoolean stepBackCancelled = new AtomicBoolean();
+        respond(hydeAgent, Duration.ofSeconds(1), List.of("гипотетический документ"), null);
+        respond(transformationAgent, SLOW, List.of("оформление отпуска"), transformationCancelled);
+        respond(multiQueryAgent, SLOW, List.of(QUERY, "порядок оформления отпуска"), multiQueryCancelled);
+        respond(stepBackAgent, Duration.ofSeconds(2), List.of("правила предоставления отпусков"), stepBackCancelled);
+
+        StepVerifier.withVirtualTime(() -> pipeline.process(QUERY))
+                .expectSubscription()
+                .expectNoEvent(BUDGET.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .assertNext(result -> {
+                    assertThat(result.primaryQuery()).isEqualTo("гипотетический документ");
+                    assertThat(result.expansionQueries()).containsExactly("правила предоставления отпусков");
+                    assertThat(result.formationHistory()).extracting(QueryFormationStep::stepName)
+                            .containsExactly("HyDEAgent", "StepBackQueryAgent");
+                })
+                .verifyComplete();
+
+        assertThat(transformationCancelled).isTrue();
+        assertThat(multiQueryCancelled).isTrue();
+        assertThat(stepBackCancelled).isFalse();
+    }
+
+    @Test
+    void shouldCompleteEarlyAndCancelRemainingBranchesOnceSufficient() {
+        AtomicBoolean stepBackCancelled = new AtomicBoolean();
+        respond(hydeAgent, Duration.ofSeconds(1), List.of("гипотетический документ"), null);
+        respond(transformationAgent, Duration.ofMillis(500), List.of("оформление отпуск"), null);
+        respond(multiQueryAgent, Duration.ofSeconds(2),
+                List.of(QUERY, "порядок оформления отпуска", "заявление на ежегодный отпуск"), null);
+        respond(stepBackAgent, SLOW, List.of("правила предоставления отпусков"), stepBackCancelled);
+
+        StepVerifier.withVirtualTime(() -> pipeline.process(QUERY))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(1999))
+                .thenAwait(Duration.ofMillis(1))
+                .assertNext(result -> {
+                    assertThat(result.primaryQuery()).isEqualTo("гипотетический документ");
+                    assertThat(result.expansionQueries()).containsExactly(
+                            "оформление отпуск", "порядок оформления отпуска", "заявление на ежегодный отпуск");
+                })
+                .verifyComplete();
+
+        assertThat(stepBackCancelled).isTrue();
+    }
+
+    @Test
+    void shouldSkipFailingBranchAndKeepOthers() {
+        respond(hydeAgent, Duration.ofSeconds(1), List.of("гипотетический документ"), null);
+        when(transformationAgent.enhance(anyString())).thenAnswer(invocation ->
+                Mono.delay(Duration.ofMillis(500)).then(Mono.error(new IllegalStateException("LLM недоступна"))));
+        respond(multiQueryAgent, Duration.ofSeconds(2), List.of(QUERY, "порядок оформления отпуска"), null);
+        respond(stepBackAgent, Duration.ofSeconds(3), List.of("правила предоставления отпусков"), null);
+
+        StepVerifier.withVirtualTime(() -> pipeline.process(QUERY))
+                .expectSubscription()
+                // Трех качественных формулировок нет, поэтому этап ждет все генераторы, но не бюджет
+                .expectNoEvent(Duration.ofMillis(2999))
+                .thenAwait(Duration.ofMillis(1))
+                .assertNext(result -> {
+                    assertThat(result.expansionQueries())
+                            .containsExactly("порядок оформления отпуска", "правила предоставления отпусков");
+                    assertThat(result.formationHistory()).extracting(QueryFormationStep::stepName)
+                            .doesNotContain("QueryTransformationAgent");
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldNotTreatRephrasedOriginalQueryAsQualityCandidate() {
+        AtomicBoolean stepBackCancelled = new AtomicBoolean();
+        respond(hydeAgent, Duration.ofSeconds(1), List.of("гипотетический документ"), null);
+        respond(transformationAgent, Duration.ofMillis(500), List.of("как оформить отпуск"), null);
+        respond(multiQueryAgent, Duration.ofSeconds(2),
+                List.of(QUERY, "ОТПУСК: как оформить", "порядок оформления отпуска", "  "), null);
+        respond(stepBackAgent, SLOW, List.of("правила предоставления отпусков"), stepBackCancelled);
+
+        // Одна качественная формулировка из трех требуемых: досрочного завершения нет
+        StepVerifier.withVirtualTime(() -> pipeline.process(QUERY))
+                .expectSubscription()
+                .expectNoEvent(BUDGET.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .assertNext(result -> assertThat(result.expansionQueries()).contains("порядок оформления отпуска"))
+                .verifyComplete();
+
+        assertThat(stepBackCancelled).isTrue();
+    }
+
+    private static void respond(QueryEnhancementAgent agent, Duration delay, List<String> result, AtomicBoolean cancelled) {
+        when(agent.enhance(anyString())).thenAnswer(invocation -> {
+            Mono<List<String>> response = Mono.delay(delay).thenReturn(result);
+            return cancelled == null ? response : response.doOnCancel(() -> cancelled.set(true));
+        });
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.ragollama.rag.domain.reranking;
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.djl.inference.Predictor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет батчинг cross-encoder на заглушке {@link Predictor}, которая оценивает пару
+ * длиной текста документа и запоминает размеры полученных батчей.
+ */
+class CrossEncoderBatchExecutorTest {
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private CrossEncoderBatchExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Test
+    void shouldCoalescePairsFromConcurrentQueriesIntoBatches() throws Exception {
+        executor = new CrossEncoderBatchExecutor(stubPredictor(), 1024, 64, Duration.ofMillis(50));
+        List<List<String>> passagesByQuery = IntStream.range(0, 4)
+                .mapToObj(q -> IntStream.range(0, 8).mapToObj(p -> "x".repeat(q * 10 + p + 1)).toList())
+                .toList();
+
+        List<float[]> results = Flux.range(0, passagesByQuery.size())
+                .flatMapSequential(q -> executor.scoreAll("query " + q, passagesByQuery.get(q)))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(results).hasSize(4);
+        for (int q = 0; q < results.size(); q++) {
+            float[] expected = new float[8];
+            for (int p = 0; p < 8; p++) {
+                expected[p] = passagesByQuery.get(q).get(p).length();
+            }
+            assertThat(results.get(q)).containsExactly(expected);
+        }
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(32);
+        // 32 пары из четырех запросов укладываются в малое число прямых проходов, а не в 32
+        assertThat(batchSizes.size()).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    void shouldRespectMaxBatchSize() throws Exception {
+        executor = new CrossEncoderBatchExecutor(stubPredictor(), 1024, 5, Duration.ofMillis(50));
+        List<String> passages = IntStream.range(0, 12).mapToObj(i -> "p".repeat(i + 1)).toList();
+
+        float[] scores = executor.scoreAll("query", passages).block(Duration.ofSeconds(5));
+
+        assertThat(scores).hasSize(12);
+        assertThat(scores[11]).isEqualTo(12f);
+        assertThat(batchSizes).allSatisfy(size -> assertThat(size).isLessThanOrEqualTo(5));
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(12);
+    }
+
+    @Test
+    void strategyShouldScoreAllValidPairsInOneBatchPredict() throws Exception {
+        Predictor<String[], Float> predictor = stubPredictor();
+        CrossEncoderRerankingStrategy strategy = new CrossEncoderRerankingStrategy(predictor, mock(HuggingFaceTokenizer.class));
+
+        float[] scores = strategy.rerank(new String[][]{{"q", "aa"}, null, {"q", "aaaa"}, {"q"}});
+
+        assertThat(scores).containsExactly(2f, 0f, 4f, 0f);
+        assertThat(batchSizes).containsExactly(2);
+        verify(predictor).batchPredict(anyList());
+    }
+
+    @Test
+    void strategyShouldDelegateToSharedExecutor() throws Exception {
+        executor = new CrossEncoderBatchExecutor(stubPredictor(), 16, 16, Duration.ofMillis(10));
+        CrossEncoderRerankingStrategy strategy = new CrossEncoderRerankingStrategy(
+                mock(Predictor.class), mock(HuggingFaceTokenizer.class), executor);
+
+        float[] scores = Mono.defer(() -> strategy.rerank("q", List.of("a", "abc"))).block(Duration.ofSeconds(5));
+
+        assertThat(scores).containsExactly(1f, 3f);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Predictor<String[], Float> stubPredictor() throws Exception {
+        Predictor<String[], Float> predictor = mock(Predictor.class);
+        when(predictor.batchPredict(anyList())).thenAnswer(invocation -> {
+            List<String[]> inputs = invocation.getArgument(0);
+            batchSizes.add(inputs.size());
+            return inputs.stream().map(pair -> (float) pair[1].length()).toList();
+        });
+        return predictor;
+    }
+}
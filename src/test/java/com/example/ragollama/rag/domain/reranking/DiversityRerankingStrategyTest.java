@@ -0,0 +1,156 @@
+package com.example.ragollama.rag.domain.reranking;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет, что {@link DiversityRerankingStrategy} на {@code float[]} с инкрементальным
+ * максимумом схожести выбирает документы в том же порядке, что и прежняя реализация MMR
+ * на {@code List<Double>}, воспроизведенная ниже.
+ * <p>
+ * Новая реализация считает в {@code float}, поэтому кандидаты, чьи MMR-оценки отличаются
+ * меньше чем на {@link #TIE_TOLERANCE}, считаются равными: на каждом шаге проверяется, что
+ * выбранный документ имеет максимальную по прежнему алгоритму оценку с этой точностью.
+ */
+class DiversityRerankingStrategyTest {
+
+    private static final double LAMBDA = 0.5;
+    private static final double TIE_TOLERANCE = 1e-5;
+
+    private final DiversityRerankingStrategy strategy = new DiversityRerankingStrategy(new RerankingProperties(true,
+            new RerankingProperties.Strategies(new RerankingProperties.KeywordBoost(false, 0.0),
+                    new RerankingProperties.Diversity(true, LAMBDA))));
+
+    @Test
+    void shouldSelectInSameOrderAsBoxedMmrOn1024Dimensions() {
+        for (long seed = 1; seed <= 3; seed++) {
+            List<Document> documents = randomDocuments(new Random(seed), 100, 1024);
+
+            List<Document> actual = strategy.apply(documents, "запрос");
+
+            assertSameSelectionOrder(documents, actual);
+            assertThat(referenceMmr(documents).subList(0, 10)).isEqualTo(actual.subList(0, 10));
+        }
+    }
+
+    @Test
+    void shouldSelectInSameOrderAsBoxedMmrForManyCandidates() {
+        List<Document> documents = randomDocuments(new Random(42), 500, 32);
+
+        assertSameSelectionOrder(documents, strategy.apply(documents, "запрос"));
+    }
+
+    @Test
+    void shouldTreatMissingEmbeddingAsZeroSimilarity() {
+        Random random = new Random(7);
+        List<Document> documents = randomDocuments(random, 20, 32);
+        documents.set(3, withoutEmbedding(documents.get(3)));
+        documents.set(11, withoutEmbedding(documents.get(11)));
+
+        List<Document> actual = strategy.apply(documents, "запрос");
+
+        assertThat(actual).containsExactlyInAnyOrderElementsOf(documents).first().isSameAs(documents.get(0));
+        assertSameSelectionOrder(documents, actual);
+    }
+
+    /**
+     * Проверяет, что на каждом шаге выбран кандидат с максимальной оценкой прежнего алгоритма.
+     */
+    private static void assertSameSelectionOrder(List<Document> documents, List<Document> actual) {
+        assertThat(actual).hasSameSizeAs(documents).first().isSameAs(documents.get(0));
+        List<Document> selected = new ArrayList<>(List.of(actual.get(0)));
+        List<Document> remaining = new ArrayList<>(documents);
+        remaining.remove(actual.get(0));
+        for (int round = 1; round < actual.size(); round++) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (Document candidate : remaining) {
+                best = Math.max(best, referenceMmrScore(candidate, selected));
+            }
+            Document chosen = actual.get(round);
+            assertThat(remaining).as("раунд %d", round).contains(chosen);
+            assertThat(referenceMmrScore(chosen, selected)).as("раунд %d", round).isGreaterThanOrEqualTo(best - TIE_TOLERANCE);
+            selected.add(chosen);
+            remaining.remove(chosen);
+        }
+    }
+
+    private static Document withoutEmbedding(Document document) {
+        return Document.builder().id(document.getId()).text(document.getText())
+                .metadata(Map.of("rerankedSimilarity", document.getMetadata().get("rerankedSimilarity")))
+                .build();
+    }
+
+    private static List<Document> randomDocuments(Random random, int count, int dimensions) {
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<Double> embedding = new ArrayList<>(dimensions);
+            for (int d = 0; d < dimensions; d++) {
+                embedding.add(random.nextGaussian());
+            }
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("embedding", embedding);
+            metadata.put("rerankedSimilarity", random.nextFloat());
+            documents.add(Document.builder().id("doc-" + i).text("документ " + i).metadata(metadata).build());
+        }
+        return documents;
+    }
+
+    /**
+     * Прежняя реализация MMR на упакованных {@code Double} с пересчетом схожестей в каждом раунде.
+     */
+    private static List<Document> referenceMmr(List<Document> documents) {
+        List<Document> remainingDocs = new ArrayList<>(documents);
+        List<Document> rerankedDocs = new ArrayList<>();
+        rerankedDocs.add(remainingDocs.remove(0));
+        while (!remainingDocs.isEmpty()) {
+            Document nextDoc = null;
+            double maxMmrScore = Double.NEGATIVE_INFINITY;
+            for (Document candidateDoc : remainingDocs) {
+                double mmrScore = referenceMmrScore(candidateDoc, rerankedDocs);
+                if (mmrScore > maxMmrScore) {
+                    maxMmrScore = mmrScore;
+                    nextDoc = candidateDoc;
+                }
+            }
+            rerankedDocs.add(nextDoc);
+            remainingDocs.remove(nextDoc);
+        }
+        return rerankedDocs;
+    }
+
+    private static double referenceMmrScore(Document candidate, List<Document> selected) {
+        float relevance = candidate.getMetadata().get("rerankedSimilarity") instanceof Float score ? score : 0.0f;
+        double maxSimilarityToSelected = selected.stream()
+                .mapToDouble(selectedDoc -> referenceCosineSimilarity(selectedDoc, candidate))
+                .max()
+                .orElse(0.0);
+        return LAMBDA * relevance - (1 - LAMBDA) * maxSimilarityToSelected;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double referenceCosineSimilarity(Document doc1, Document doc2) {
+        List<Double> v1 = (List<Double>) doc1.getMetadata().get("embedding");
+        List<Double> v2 = (List<Double>) doc2.getMetadata().get("embedding");
+        if (v1 == null || v2 == null) {
+            return 0.0;
+        }
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < v1.size(); i++) {
+            dotProduct += v1.get(i) * v2.get(i);
+            normA += Math.pow(v1.get(i), 2);
+            normB += Math.pow(v2.get(i), 2);
+        }
+        if (normA == 0 || normB == 0) return 0.0;
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
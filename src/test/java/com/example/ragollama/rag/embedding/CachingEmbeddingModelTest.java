@@ -0,0 +1,197 @@
+package com.example.ragollama.rag.embedding;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет {@link CachingEmbeddingModel} на заглушке модели, считающей обращения к ней,
+ * и на репозитории в памяти вместо таблицы {@code embedding_cache}.
+ */
+class CachingEmbeddingModelTest {
+
+    private static final EmbeddingCacheProperties PROPERTIES =
+            new EmbeddingCacheProperties(true, 1_000, 8, true, Duration.ofDays(30));
+
+    private final InMemoryEmbeddingCacheRepository repository = new InMemoryEmbeddingCacheRepository();
+    private final MetricService metricService = new MetricService(new SimpleMeterRegistry());
+
+    @Test
+    void reindexingUnchangedCorpusShouldNotCallModel() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(1f);
+        CachingEmbeddingModel model = new CachingEmbeddingModel(stub, repository, PROPERTIES, metricService, "stub:1");
+        List<Document> corpus = corpus(20);
+
+        List<float[]> first = reindex(model, corpus);
+        int textsAfterFirstRun = stub.texts.get();
+        List<float[]> second = reindex(model, corpus);
+
+        assertThat(textsAfterFirstRun).isEqualTo(20);
+        assertThat(stub.calls.get()).isEqualTo(3);
+        assertThat(stub.texts.get()).isEqualTo(textsAfterFirstRun);
+        assertThat(second).hasSameSizeAs(first);
+        for (int i = 0; i < first.size(); i++) {
+            assertThat(second.get(i)).containsExactly(first.get(i));
+        }
+    }
+
+    @Test
+    void reindexingAfterRestartShouldBeServedFromPersistentLevel() {
+        List<Document> corpus = corpus(20);
+        reindex(new CachingEmbeddingModel(new StubEmbeddingModel(1f), repository, PROPERTIES, metricService, "stub:1"), corpus);
+
+        StubEmbeddingModel restarted = new StubEmbeddingModel(1f);
+        reindex(new CachingEmbeddingModel(restarted, repository, PROPERTIES, metricService, "stub:1"), corpus);
+
+        assertThat(restarted.calls.get()).isZero();
+    }
+
+    @Test
+    void switchingModelShouldNotReturnVectorsOfPreviousModel() {
+        List<Document> corpus = corpus(4);
+        reindex(new CachingEmbeddingModel(new StubEmbeddingModel(1f), repository, PROPERTIES, metricService, "stub:1"), corpus);
+
+        StubEmbeddingModel upgraded = new StubEmbeddingModel(2f);
+        List<float[]> vectors = reindex(
+                new CachingEmbeddingModel(upgraded, repository, PROPERTIES, metricService, "stub:2"), corpus);
+
+        assertThat(upgraded.texts.get()).isEqualTo(4);
+        assertThat(vectors).allSatisfy(vector -> assertThat(vector[0]).isEqualTo(2f));
+    }
+
+    @Test
+    void overridingModelInOptionsShouldBypassEntriesOfDefaultModel() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(1f);
+        CachingEmbeddingModel model = new CachingEmbeddingModel(stub, repository, PROPERTIES, metricService, "stub:1");
+
+        model.call(new EmbeddingRequest(List.of("текст"), EmbeddingOptionsBuilder.builder().build()));
+        model.call(new EmbeddingRequest(List.of("текст"), new EmbeddingOptions() {
+            @Override
+            public String getModel() {
+                return "other";
+            }
+
+            @Override
+            public Integer getDimensions() {
+                return null;
+            }
+        }));
+
+        assertThat(stub.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void pruneShouldRemoveExpiredEntriesAndEntriesOfOtherModels() {
+        reindex(new CachingEmbeddingModel(new StubEmbeddingModel(1f), repository, PROPERTIES, metricService, "stub:1"), corpus(3));
+        CachingEmbeddingModel current = new CachingEmbeddingModel(new StubEmbeddingModel(2f), repository, PROPERTIES,
+                metricService, "stub:2");
+        reindex(current, corpus(2));
+
+        current.pruneExpired();
+
+        assertThat(repository.lastPruneModelKey).isEqualTo("stub:2");
+        assertThat(repository.lastPruneCutoff).isBefore(OffsetDateTime.now().minusDays(29));
+        assertThat(repository.entries).containsOnlyKeys("stub:2");
+    }
+
+    private static List<float[]> reindex(EmbeddingModel model, List<Document> corpus) {
+        // Тот же путь, которым PgVectorStore вычисляет эмбеддинги при индексации
+        return model.embed(corpus, EmbeddingOptionsBuilder.builder().build(), new TokenCountBatchingStrategy());
+    }
+
+    private static List<Document> corpus(int size) {
+        return IntStream.range(0, size)
+                .mapToObj(i -> new Document("Фрагмент документа номер " + i + " о правилах оформления отпуска."))
+                .toList();
+    }
+
+    /**
+     * Модель, вектор которой зависит только от длины текста и множителя, различающего "версии".
+     */
+    private static final class StubEmbeddingModel implements EmbeddingModel {
+
+        private final float scale;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger texts = new AtomicInteger();
+
+        private StubEmbeddingModel(float scale) {
+            this.scale = scale;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            calls.incrementAndGet();
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                texts.incrementAndGet();
+                String text = request.getInstructions().get(i);
+                embeddings.add(new Embedding(new float[]{scale, text.length()}, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return call(new EmbeddingRequest(List.of(document.getText()), null)).getResult().getOutput();
+        }
+
+        @Override
+        public int dimensions() {
+            return 2;
+        }
+    }
+
+    private static final class InMemoryEmbeddingCacheRepository extends EmbeddingCacheRepository {
+
+        private final Map<String, Map<String, float[]>> entries = new HashMap<>();
+        private String lastPruneModelKey;
+        private OffsetDateTime lastPruneCutoff;
+
+        private InMemoryEmbeddingCacheRepository() {
+            super(null);
+        }
+
+        @Override
+        public Map<String, float[]> findAll(String modelKey, Collection<String> hashes) {
+            Map<String, float[]> stored = entries.getOrDefault(modelKey, Map.of());
+            Map<String, float[]> found = new HashMap<>();
+            hashes.stream().filter(stored::containsKey).forEach(hash -> found.put(hash, stored.get(hash)));
+            return found;
+        }
+
+        @Override
+        public void saveAll(String modelKey, Map<String, float[]> embeddings) {
+            embeddings.forEach((hash, vector) ->
+                    entries.computeIfAbsent(modelKey, k -> new HashMap<>()).putIfAbsent(hash, vector));
+        }
+
+        @Override
+        public int deleteStale(String currentModelKey, OffsetDateTime createdBefore) {
+            lastPruneModelKey = currentModelKey;
+            lastPruneCutoff = createdBefore;
+            int before = entries.values().stream().mapToInt(Map::size).sum();
+            entries.keySet().removeIf(key -> !key.equals(currentModelKey));
+            return before - entries.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+}
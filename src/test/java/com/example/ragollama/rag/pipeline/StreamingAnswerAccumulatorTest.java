@@ -0,0 +1,32 @@
+package com.example.ragollama.rag.pipeline;
+
+import com.example.ragollama.rag.api.dto.StreamingResponsePart;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет ограничение размера и пометку усечения в {@link StreamingAnswerAccumulator}.
+ */
+class StreamingAnswerAccumulatorTest {
+
+    @Test
+    void shouldKeepAnswerWithinLimitUnchanged() {
+        StreamingAnswerAccumulator accumulator = new StreamingAnswerAccumulator(10);
+        accumulator.append(new StreamingResponsePart.Content("Отпуск "));
+        accumulator.append(new StreamingResponsePart.Content("28"));
+
+        assertThat(accumulator.answer()).isEqualTo("Отпуск 28");
+        assertThat(accumulator.isTruncated()).isFalse();
+    }
+
+    @Test
+    void shouldMarkTruncatedAnswerOnce() {
+        StreamingAnswerAccumulator accumulator = new StreamingAnswerAccumulator(10);
+        accumulator.append(new StreamingResponsePart.Content("Отпуск составляет "));
+        accumulator.append(new StreamingResponsePart.Content("28 дней"));
+
+        assertThat(accumulator.answer()).isEqualTo("Отпуск сос" + StreamingAnswerAccumulator.TRUNCATION_MARKER);
+        assertThat(accumulator.isTruncated()).isTrue();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.ragollama.rag.pipeline.steps;
+
+import com.example.ragollama.monitoring.AuditLoggingService.AuditLoggingService;
+import com.example.ragollama.rag.domain.model.RagAnswer;
+import com.example.ragollama.rag.pipeline.RagFlowContext;
+import com.example.ragollama.rag.pipeline.RagFlowField;
+import com.example.ragollama.rag.pipeline.RagPipelineStep;
+import com.example.ragollama.rag.postprocessing.RagPostProcessingOrchestrator;
+import com.example.ragollama.shared.task.TaskLifecycleService;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет выполнение пред-генерационных шагов {@link RagPipelineOrchestrator} по графу
+ * зависимостей на шагах-заглушках с искусственной задержкой.
+ */
+class RagPipelineOrchestratorTest {
+
+    private static final Duration STEP_DELAY = Duration.ofMillis(300);
+
+    @Test
+    void independentStepsShouldRunConcurrentlyAndDependentStepShouldSeeTheirResults() {
+        Document retrieved = new Document("найденный документ");
+        RagPipelineStep guard = step(Set.of(), Set.of(), context -> context);
+        RagPipelineStep userContext = step(Set.of(), EnumSet.of(RagFlowField.USER_PROVIDED_CONTEXT),
+                context -> context.withUserProvidedContext("контекст пользователя"));
+        RagPipelineStep retrieval = step(Set.of(), EnumSet.of(RagFlowField.RETRIEVED_DOCUMENTS),
+                context -> context.withRetrievedDocuments(List.of(retrieved)));
+        RagPipelineStep reranking = step(EnumSet.of(RagFlowField.RETRIEVED_DOCUMENTS, RagFlowField.USER_PROVIDED_CONTEXT),
+                EnumSet.of(RagFlowField.RERANKED_DOCUMENTS),
+                context -> context.withRerankedDocuments(context.userProvidedContext() != null
+                        ? context.retrievedDocuments() : List.of()));
+
+        RagPipelineOrchestrator orchestrator = orchestrator(List.of(guard, userContext, retrieval, reranking),
+                context -> new RagAnswer(context.rerankedDocuments().get(0).getText(), List.of(), List.of(), "промпт"));
+
+        long start = System.nanoTime();
+        StepVerifier.create(orchestrator.queryAsync("вопрос", List.of(), 5, 0.5, UUID.randomUUID(), UUID.randomUUID()))
+                .assertNext(answer -> assertThat(answer.answer()).isEqualTo("найденный документ"))
+                .verifyComplete();
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // Три независимых шага идут параллельно, зависимый — после них: два интервала вместо четырех
+        assertThat(elapsed).isLessThan(STEP_DELAY.multipliedBy(3));
+    }
+
+    @Test
+    void failingStepShouldCancelStepsStillInFlight() {
+        AtomicBoolean slowStepCancelled = new AtomicBoolean();
+        RagPipelineStep slow = new RagPipelineStep() {
+            @Override
+            public Mono<RagFlowContext> process(RagFlowContext context) {
+                return Mono.just(context).delayElement(Duration.ofSeconds(10))
+                        .doOnCancel(() -> slowStepCancelled.set(true));
+            }
+
+            @Override
+            public Set<RagFlowField> dependsOn() {
+                return Set.of();
+            }
+
+            @Override
+            public Set<RagFlowField> produces() {
+                return EnumSet.of(RagFlowField.RETRIEVED_DOCUMENTS);
+            }
+        };
+        RagPipelineStep failingGuard = step(Set.of(), Set.of(), context -> {
+            throw new IllegalArgumentException("запрос отклонен");
+        });
+
+        RagPipelineOrchestrator orchestrator = orchestrator(List.of(slow, failingGuard),
+                context -> new RagAnswer("", List.of(), List.of(), ""));
+
+        StepVerifier.create(orchestrator.queryAsync("вопрос", List.of(), 5, 0.5, UUID.randomUUID(), UUID.randomUUID()))
+                .expectErrorMessage("запрос отклонен")
+                .verify(Duration.ofSeconds(5));
+        assertThat(slowStepCancelled).isTrue();
+    }
+
+    private static RagPipelineStep step(Set<RagFlowField> reads, Set<RagFlowField> writes,
+                                        Function<RagFlowContext, RagFlowContext> action) {
+        return new RagPipelineStep() {
+            @Override
+            public Mono<RagFlowContext> process(RagFlowContext context) {
+                return Mono.delay(STEP_DELAY).map(tick -> action.apply(context));
+            }
+
+            @Override
+            public Set<RagFlowField> dependsOn() {
+                return reads;
+            }
+
+            @Override
+            public Set<RagFlowField> produces() {
+                return writes;
+            }
+        };
+    }
+
+    private static RagPipelineOrchestrator orchestrator(List<RagPipelineStep> steps,
+                                                        Function<RagFlowContext, RagAnswer> answer) {
+        GenerationStep generationStep = mock(GenerationStep.class);
+        when(generationStep.process(any())).thenAnswer(invocation -> {
+            RagFlowContext context = invocation.getArgument(0);
+            return Mono.just(context.withFinalPrompt(new Prompt("промпт")).withFinalAnswer(answer.apply(context)));
+        });
+        AuditLoggingService auditLoggingService = mock(AuditLoggingService.class, invocation -> Mono.empty());
+        List<RagPipelineStep> allSteps = new ArrayList<>(steps);
+        allSteps.add(generationStep);
+        return new RagPipelineOrchestrator(allSteps, mock(RagPostProcessingOrchestrator.class),
+                auditLoggingService, mock(TaskLifecycleService.class));
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.ragollama.rag.retrieval;
+
+import com.example.ragollama.monitoring.KnowledgeGapService;
+import com.example.ragollama.rag.agent.ProcessedQueries;
+import com.example.ragollama.rag.retrieval.fusion.FusionInput;
+import com.example.ragollama.rag.retrieval.fusion.FusionQueryType;
+import com.example.ragollama.rag.retrieval.fusion.FusionService;
+import com.example.ragollama.rag.retrieval.fusion.FusionSource;
+import com.example.ragollama.rag.retrieval.fusion.SourceRanking;
+import com.example.ragollama.rag.retrieval.search.FtsSearchService;
+import com.example.ragollama.rag.retrieval.search.GraphSearchService;
+import com.example.ragollama.rag.retrieval.search.VectorSearchService;
+import com.example.ragollama.shared.exception.RetrievalException;
+import com.example.ragollama.shared.exception.RetrievalOverloadedException;
+import com.example.ragollama.shared.metrics.MetricService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет сигналы уверенности, которые {@link HybridRetrievalStrategy} вычисляет
+ * по результатам источников до слияния, и сами эти результаты на заглушках поисковых сервисов.
+ */
+class HybridRetrievalStrategyTest {
+
+    private final VectorSearchService vectorSearchService = mock(VectorSearchService.class);
+    private final FtsSearchService ftsSearchService = mock(FtsSearchService.class);
+    private final KnowledgeGapService knowledgeGapService = mock(KnowledgeGapService.class);
+    private final HybridRetrievalStrategy strategy = new HybridRetrievalStrategy(vectorSearchService, ftsSearchService,
+            new FusionService(retrievalProperties()), new MetricService(new SimpleMeterRegistry()),
+            knowledgeGapService, mock(GraphSearchService.class));
+
+    @Test
+    void shouldComputeSignalsFromBestScoresAcrossQueryVariants() {
+        givenVectorRankings(List.of(
+                List.of(scored("a", 0.92), scored("b", 0.80)),
+                List.of(scored("b", 0.85), scored("c", 0.70))));
+        givenFts(List.of(scored("a", 0.3), scored("x", 0.2), scored("y", 0.1)));
+
+        HybridRetrievalResult result = retrieve("сколько дней длится ежегодный отпуск сотрудника");
+
+        assertThat(result.topSimilarity()).isEqualTo(0.92);
+        // Отрыв считается до второго уникального документа с его лучшей оценкой (b = 0.85)
+        assertThat(result.scoreGap()).isCloseTo(0.07, within(1e-9));
+        assertThat(result.sourceAgreement()).isCloseTo(1.0 / 3, within(1e-9));
+        assertThat(result.documents()).extracting(Document::getId).containsExactlyInAnyOrder("a", "b", "c", "x", "y");
+    }
+
+    @Test
+    void shouldReportNoConfidenceWhenNothingFound() {
+        givenVectorRankings(List.of(List.of()));
+        givenFts(List.of());
+        when(knowledgeGapService.recordGap(anyString())).thenReturn(Mono.empty());
+
+        HybridRetrievalResult result = retrieve("неизвестная тема без документов в базе");
+
+        assertThat(result.documents()).isEmpty();
+        assertThat(result.topSimilarity()).isZero();
+        assertThat(result.scoreGap()).isZero();
+        assertThat(result.sourceAgreement()).isZero();
+    }
+
+    @Test
+    void shouldFallBackToOtherSourcesWhenVectorSearchIsOverloaded() {
+        when(vectorSearchService.searchPerQuery(anyList(), anyInt(), anyDouble(), any(), any())).thenReturn(Mono.error(
+                new RetrievalOverloadedException("Очередь векторного поиска переполнена.", new RejectedExecutionException())));
+        givenFts(List.of(scored("x", 0.4), scored("y", 0.2)));
+
+        HybridRetrievalResult result = retrieve("сколько дней длится ежегодный отпуск сотрудника");
+
+        assertThat(result.documents()).extracting(Document::getId).containsExactlyInAnyOrder("x", "y");
+        assertThat(result.topSimilarity()).isZero();
+    }
+
+    @Test
+    void shouldPropagateOtherVectorSearchFailures() {
+        when(vectorSearchService.searchPerQuery(anyList(), anyInt(), anyDouble(), any(), any())).thenReturn(Mono.error(
+                new RetrievalException("Не удалось выполнить поиск в векторном хранилище.", new IllegalStateException())));
+        givenFts(List.of(scored("x", 0.4)));
+
+        StepVerifier.create(strategy.retrieveWithSignals(new ProcessedQueries("запрос", List.of("запрос")),
+                        "запрос", 5, 0.7, null))
+                .expectError(RetrievalException.class)
+                .verify();
+    }
+
+    @Test
+    void shouldReturnSourceRankingsBeforeFusion() {
+        givenVectorRankings(List.of(
+                List.of(scored("a", 0.92), scored("b", 0.80)),
+                List.of(scored("c", 0.70))));
+        givenFts(List.of(scored("b", 0.3)));
+
+        FusionInput input = strategy.retrieveSourceRankings(new ProcessedQueries("PROJ-42", List.of("PROJ-42", "задача PROJ-42")),
+                "PROJ-42", 5, 0.7, null).block();
+
+        assertThat(input.queryType()).isEqualTo(FusionQueryType.KEYWORD);
+        assertThat(input.rankings()).extracting(SourceRanking::source)
+                .containsExactly(FusionSource.VECTOR, FusionSource.VECTOR, FusionSource.FTS, FusionSource.GRAPH);
+        assertThat(input.rankings().get(0).documents()).extracting(Document::getId).containsExactly("a", "b");
+        assertThat(input.rankings().get(2).documents()).extracting(Document::getId).containsExactly("b");
+        assertThat(input.rankings().get(3).documents()).isEmpty();
+    }
+
+    private HybridRetrievalResult retrieve(String query) {
+        return strategy.retrieveWithSignals(new ProcessedQueries(query, List.of(query, query + " подробно")),
+                query, 5, 0.7, null).block();
+    }
+
+    private void givenVectorRankings(List<List<Document>> rankings) {
+        when(vectorSearchService.searchPerQuery(anyList(), anyInt(), anyDouble(), any(), any())).thenReturn(Mono.just(rankings));
+    }
+
+    private void givenFts(List<Document> documents) {
+        when(ftsSearchService.search(anyString())).thenReturn(Mono.just(documents));
+    }
+
+    private static Document scored(String id, double score) {
+        return Document.builder().id(id).text("документ " + id).score(score).build();
+    }
+
+    private static RetrievalProperties retrievalProperties() {
+        var fusion = new RetrievalProperties.Fusion(RetrievalProperties.Fusion.Method.RRF, 60,
+                RetrievalProperties.Fusion.Normalization.MIN_MAX,
+                Map.of(FusionSource.VECTOR, 1.0, FusionSource.FTS, 1.0, FusionSource.GRAPH, 1.0), Map.of());
+        return new RetrievalProperties(null, null, null, null, fusion);
+    }
+}
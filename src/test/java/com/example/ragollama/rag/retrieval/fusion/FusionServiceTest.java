@@ -0,0 +1,164 @@
+package com.example.ragollama.rag.retrieval.fusion;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет алгоритмы слияния {@link FusionService} и сравнивает его время работы
+ * с простой реализацией RRF на {@link Map} для типичных размеров входа.
+ */
+class FusionServiceTest {
+
+    private static final Logger log = LoggerFactory.getLogger(FusionServiceTest.class);
+
+    private static final Map<FusionSource, Double> NEUTRAL = Map.of(FusionSource.VECTOR, 1.0, FusionSource.FTS, 1.0, FusionSource.GRAPH, 1.0);
+
+    @Test
+    void rrfShouldRewardDocumentsFoundBySeveralSources() {
+        FusionService service = service(RetrievalProperties.Fusion.Method.RRF, NEUTRAL, Map.of());
+
+        List<Document> fused = service.fuse(List.of(
+                new SourceRanking(FusionSource.VECTOR, docs("a", "b", "c")),
+                new SourceRanking(FusionSource.VECTOR, docs("c", "d")),
+                new SourceRanking(FusionSource.FTS, docs("b", "e"))), FusionQueryType.DEFAULT);
+
+        // b: 1/62 + 1/61, c: 1/63 + 1/61, a: 1/61, d: 1/62, e: 1/62 (порядок первого появления при равенстве)
+        assertThat(fused).extracting(Document::getId).containsExactly("b", "c", "a", "d", "e");
+    }
+
+    @Test
+    void queryTypeWeightsShouldOverrideSourceWeights() {
+        FusionService service = service(RetrievalProperties.Fusion.Method.RRF, NEUTRAL,
+                Map.of(FusionQueryType.KEYWORD, Map.of(FusionSource.FTS, 2.0)));
+        List<SourceRanking> rankings = List.of(
+                new SourceRanking(FusionSource.VECTOR, docs("v1", "v2")),
+                new SourceRanking(FusionSource.FTS, docs("f1", "f2")));
+
+        assertThat(service.fuse(rankings, FusionQueryType.DEFAULT)).extracting(Document::getId)
+                .containsExactly("v1", "f1", "v2", "f2");
+        assertThat(service.fuse(rankings, FusionQueryType.KEYWORD)).extracting(Document::getId)
+                .containsExactly("f1", "f2", "v1", "v2");
+    }
+
+    @Test
+    void scoreFusionShouldUseNormalizedSourceScores() {
+        FusionService service = service(RetrievalProperties.Fusion.Method.SCORE, NEUTRAL, Map.of());
+
+        List<Document> fused = service.fuse(List.of(
+                new SourceRanking(FusionSource.VECTOR, List.of(scored("a", 0.90), scored("b", 0.89), scored("c", 0.50))),
+                new SourceRanking(FusionSource.FTS, List.of(scored("c", 0.8), scored("a", 0.1), scored("b", 0.0)))),
+                FusionQueryType.DEFAULT);
+
+        // min-max: a = 1.0 + 0.125, b = 0.975 + 0.0, c = 0.0 + 1.0
+        assertThat(fused).extracting(Document::getId).containsExactly("a", "c", "b");
+    }
+
+    @Test
+    void shouldHandleEmptyInput() {
+        FusionService service = service(RetrievalProperties.Fusion.Method.RRF, NEUTRAL, Map.of());
+
+        assertThat(service.fuse(List.of(), FusionQueryType.DEFAULT)).isEmpty();
+        assertThat(service.fuse(List.of(new SourceRanking(FusionSource.FTS, List.of())), FusionQueryType.DEFAULT)).isEmpty();
+    }
+
+    @Test
+    void benchmarkAgainstMapBasedRrf() {
+        FusionService service = service(RetrievalProperties.Fusion.Method.RRF, NEUTRAL, Map.of());
+        Random random = new Random(42);
+        List<List<SourceRanking>> inputs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // Типичный вход: пять вариантов запроса по top-10 векторного поиска, FTS top-10 и граф
+            List<SourceRanking> rankings = new ArrayList<>();
+            for (int v = 0; v < 5; v++) {
+                rankings.add(new SourceRanking(FusionSource.VECTOR, randomDocs(random, 10)));
+            }
+            rankings.add(new SourceRanking(FusionSource.FTS, randomDocs(random, 10)));
+            rankings.add(new SourceRanking(FusionSource.GRAPH, randomDocs(random, 3)));
+            inputs.add(rankings);
+        }
+        for (List<SourceRanking> rankings : inputs) {
+            assertThat(service.fuse(rankings, FusionQueryType.DEFAULT)).extracting(Document::getId)
+                    .containsExactlyElementsOf(mapBasedRrf(rankings).stream().map(Document::getId).toList());
+        }
+
+        int iterations = 20_000;
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += service.fuse(inputs.get(i % inputs.size()), FusionQueryType.DEFAULT).size();
+            sink += mapBasedRrf(inputs.get(i % inputs.size())).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += service.fuse(inputs.get(i % inputs.size()), FusionQueryType.DEFAULT).size();
+        }
+        long fusionNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += mapBasedRrf(inputs.get(i % inputs.size())).size();
+        }
+        long mapNanos = System.nanoTime() - start;
+        log.info("Слияние ~60 документов: FusionService {} нс/вызов, RRF на Map {} нс/вызов (контрольная сумма {})",
+                fusionNanos / iterations, mapNanos / iterations, sink);
+    }
+
+    /**
+     * Эталонная реализация RRF: накопление оценок в {@link Map} и сортировка потоком.
+     */
+    private static List<Document> mapBasedRrf(List<SourceRanking> rankings) {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        Map<String, Document> documents = new LinkedHashMap<>();
+        for (SourceRanking ranking : rankings) {
+            for (int rank = 0; rank < ranking.documents().size(); rank++) {
+                Document document = ranking.documents().get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (60 + rank + 1), Double::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .map(entry -> documents.get(entry.getKey()))
+                .toList();
+    }
+
+    private static FusionService service(RetrievalProperties.Fusion.Method method, Map<FusionSource, Double> weights,
+                                         Map<FusionQueryType, Map<FusionSource, Double>> queryTypeWeights) {
+        var fusion = new RetrievalProperties.Fusion(method, 60, RetrievalProperties.Fusion.Normalization.MIN_MAX,
+                weights, queryTypeWeights);
+        return new FusionService(new RetrievalProperties(null, null, null, null, fusion));
+    }
+
+    private static List<Document> docs(String... ids) {
+        List<Document> documents = new ArrayList<>();
+        for (String id : ids) {
+            documents.add(Document.builder().id(id).text("документ " + id).build());
+        }
+        return documents;
+    }
+
+    private static Document scored(String id, double score) {
+        return Document.builder().id(id).text("документ " + id).score(score).build();
+    }
+
+    private static List<Document> randomDocs(Random random, int count) {
+        List<Document> documents = new ArrayList<>();
+        while (documents.size() < count) {
+            String id = "doc-" + random.nextInt(40);
+            if (documents.stream().noneMatch(d -> d.getId().equals(id))) {
+                documents.add(Document.builder().id(id).text(id).build());
+            }
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.ragollama.rag.retrieval.search;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveEfSearchPolicyTest {
+
+    private static final int TOP_K = 5;
+    private static final int BASELINE_EF = 40;
+
+    private final AdaptiveEfSearchPolicy policy = new AdaptiveEfSearchPolicy(retrievalProperties(Duration.ofMillis(50)), null);
+
+    @Test
+    void shouldUseBaselineWithoutLatencySamples() {
+        assertThat(policy.choose(null, TOP_K, 1)).isEqualTo(BASELINE_EF);
+    }
+
+    @Test
+    void shouldHonourExplicitValue() {
+        assertThat(policy.choose(123, TOP_K, 1)).isEqualTo(123);
+    }
+
+    @Test
+    void shouldRecoverBaselineAfterTransientLatencySpike() {
+        for (int i = 0; i < 20; i++) {
+            int ef = policy.choose(null, TOP_K, 1);
+            policy.recordLatency(ef, 1, Duration.ofMillis(100));
+        }
+        assertThat(policy.choose(null, TOP_K, 1)).isLessThan(BASELINE_EF);
+
+        // Постоянная часть 20 мс и 50 мкс на единицу ef_search: базовое значение укладывается в бюджет
+        for (int i = 0; i < 200; i++) {
+            int ef = policy.choose(null, TOP_K, 1);
+            policy.recordLatency(ef, 1, Duration.ofNanos(20_000_000L + 50_000L * ef));
+        }
+
+        assertThat(policy.choose(null, TOP_K, 1)).isEqualTo(BASELINE_EF);
+    }
+
+    @Test
+    void shouldTreatBudgetAsPerBatchAndSeparateFixedCost() {
+        // Постоянная часть 10 мс и 1 мс на единицу ef_search * queryCount: в бюджет 50 мс укладывается x = 40
+        for (int i = 0; i < 300; i++) {
+            int queryCount = 1 + i % 3;
+            int ef = policy.choose(null, TOP_K, queryCount);
+            policy.recordLatency(ef, queryCount, Duration.ofNanos(10_000_000L + 1_000_000L * ef * queryCount));
+        }
+
+        assertThat((double) policy.choose(null, TOP_K, 1)).isCloseTo(40, within(2.0));
+        assertThat((double) policy.choose(null, TOP_K, 2)).isCloseTo(20, within(2.0));
+    }
+
+    private static RetrievalProperties retrievalProperties(Duration latencyBudget) {
+        var efSearch = new RetrievalProperties.Hybrid.VectorSearch.EfSearch(true, 8, 10, 400, latencyBudget);
+        var vectorSearch = new RetrievalProperties.Hybrid.VectorSearch(TOP_K, 0.7, 4, 64, efSearch);
+        var hybrid = new RetrievalProperties.Hybrid(vectorSearch, null, 3);
+        return new RetrievalProperties(hybrid, null, null, null, null);
+    }
+}
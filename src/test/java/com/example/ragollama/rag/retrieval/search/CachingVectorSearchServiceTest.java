@@ -0,0 +1,75 @@
+package com.example.ragollama.rag.retrieval.search;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.caching.VectorCacheService;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.tokenization.SearchRequestKeyGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет, что {@link CachingVectorSearchService} кэширует результаты по отдельным
+ * вариантам запроса и отправляет делегату только промахи одним пакетом.
+ */
+class CachingVectorSearchServiceTest {
+
+    private final RecordingSearchService delegate = new RecordingSearchService();
+    private final CachingVectorSearchService service = new CachingVectorSearchService(delegate,
+            new VectorCacheService(new RetrievalProperties(null, new RetrievalProperties.Cache(100, Duration.ofMinutes(5)),
+                    null, null, null), new MetricService(new SimpleMeterRegistry())),
+            new SearchRequestKeyGenerator());
+
+    @Test
+    void shouldSendOnlyMissedVariantsToDelegateInOneBatch() {
+        List<List<Document>> first = service.searchPerQuery(List.of("отпуск", "больничный"), 5, 0.7, null, null).block();
+        List<List<Document>> second = service.searchPerQuery(List.of("больничный", "командировка", "отпуск"), 5, 0.7, null, null).block();
+
+        assertThat(delegate.batches).containsExactly(List.of("отпуск", "больничный"), List.of("командировка"));
+        assertThat(first).extracting(ranking -> ranking.get(0).getText()).containsExactly("отпуск", "больничный");
+        assertThat(second).extracting(ranking -> ranking.get(0).getText())
+                .containsExactly("больничный", "командировка", "отпуск");
+    }
+
+    @Test
+    void shouldNotCallDelegateWhenAllVariantsAreCached() {
+        service.searchPerQuery(List.of("отпуск"), 5, 0.7, null, null).block();
+        service.searchPerQuery(List.of("отпуск"), 5, 0.7, null, null).block();
+        service.searchPerQuery(List.of("отпуск"), 10, 0.7, null, null).block();
+
+        // Другой topK — другой ключ кэша
+        assertThat(delegate.batches).containsExactly(List.of("отпуск"), List.of("отпуск"));
+    }
+
+    @Test
+    void mergedSearchShouldKeepFirstOccurrenceOfEachDocument() {
+        List<Document> merged = service.search(List.of("общий", "общий", "другой"), 5, 0.7, null, null).block();
+
+        assertThat(merged).extracting(Document::getText).containsExactly("общий", "другой");
+    }
+
+    /**
+     * Делегат, возвращающий для каждого запроса документ с текстом запроса и запоминающий пакеты.
+     */
+    private static final class RecordingSearchService implements VectorSearchService {
+
+        private final List<List<String>> batches = new ArrayList<>();
+
+        @Override
+        public Mono<List<List<Document>>> searchPerQuery(List<String> queries, int topK, double similarityThreshold,
+                                                         Filter.Expression filter, Integer efSearch) {
+            batches.add(List.copyOf(queries));
+            return Mono.just(queries.stream()
+                    .map(query -> List.of(Document.builder().id("id-" + query).text(query).build()))
+                    .toList());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.ragollama.rag.retrieval.search;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.exception.RetrievalOverloadedException;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.jdbc.core.JdbcTemplate;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет, что переполнение очереди планировщика {@link DefaultVectorSearchService}
+ * завершает поиск {@link RetrievalOverloadedException}, а не необработанным
+ * {@code RejectedExecutionException}. База данных не нужна: поиск удерживается
+ * на этапе векторизации.
+ */
+class DefaultVectorSearchServiceOverloadTest {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DefaultVectorSearchService service;
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void searchBeyondQueueCapacityShouldFailWithOverloadError() throws InterruptedException {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            throw new IllegalStateException("векторизация прервана тестом");
+        });
+        var efSearch = new RetrievalProperties.Hybrid.VectorSearch.EfSearch(true, 8, 10, 400, Duration.ofMillis(200));
+        var vectorSearch = new RetrievalProperties.Hybrid.VectorSearch(3, 0.0, 1, 1, efSearch);
+        var properties = new RetrievalProperties(new RetrievalProperties.Hybrid(vectorSearch, null, 3), null, null, null, null);
+        service = new DefaultVectorSearchService(embeddingModel, mock(JdbcTemplate.class), new AdaptiveEfSearchPolicy(properties, null),
+                new MetricService(meterRegistry), new ObjectMapper(), properties);
+
+        // Первый поиск занимает единственный поток, второй ждет в очереди
+        Disposable running = service.searchPerQuery(List.of("первый"), 3, 0.5, null, null).subscribe(r -> { }, e -> { });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Disposable queued = service.searchPerQuery(List.of("второй"), 3, 0.5, null, null).subscribe(r -> { }, e -> { });
+
+        StepVerifier.create(service.searchPerQuery(List.of("третий"), 3, 0.5, null, null))
+                .expectError(RetrievalOverloadedException.class)
+                .verify(Duration.ofSeconds(5));
+        assertThat(meterRegistry.counter("rag.retrieval.vectors.rejected").count()).isEqualTo(1.0);
+
+        running.dispose();
+        queued.dispose();
+    }
+}
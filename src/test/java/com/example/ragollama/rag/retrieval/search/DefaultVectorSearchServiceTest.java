@@ -0,0 +1,170 @@
+package com.example.ragollama.rag.retrieval.search;
+
+import com.example.ragollama.rag.retrieval.RetrievalProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет пакетный векторный поиск {@link DefaultVectorSearchService} на pgvector:
+ * все варианты запроса векторизуются одним вызовом модели, а результат одного SQL-запроса
+ * совпадает с результатами отдельных поисков по каждому варианту.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DefaultVectorSearchServiceTest {
+
+    private static final int DIMENSIONS = 1024;
+    private static final int DOCUMENTS = 40;
+    private static final int TOP_K = 3;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>(
+            DockerImageName.parse("pgvector/pgvector:pg16").asCompatibleSubstituteFor("postgres"));
+
+    private static final List<float[]> documentVectors = new ArrayList<>();
+    private static final List<UUID> documentIds = new ArrayList<>();
+    private static JdbcTemplate jdbcTemplate;
+
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel();
+    private DefaultVectorSearchService service;
+
+    @BeforeAll
+    static void setUp() {
+        Flyway.configure()
+                .dataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword())
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        Random random = new Random(7);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            float[] vector = new float[DIMENSIONS];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            UUID id = UUID.randomUUID();
+            documentVectors.add(vector);
+            documentIds.add(id);
+            jdbcTemplate.update("INSERT INTO vector_store (id, content, metadata, embedding) VALUES (?, ?, CAST(? AS jsonb), CAST(? AS vector))",
+                    id, "документ " + i, "{\"doc_type\": \"" + (i % 2 == 0 ? "even" : "odd") + "\"}", literal(vector));
+        }
+    }
+
+    @AfterAll
+    static void tearDown() {
+        jdbcTemplate.update("DELETE FROM vector_store");
+    }
+
+    @BeforeEach
+    void createService() {
+        var efSearch = new RetrievalProperties.Hybrid.VectorSearch.EfSearch(true, 8, 10, 400, Duration.ofMillis(200));
+        var vectorSearch = new RetrievalProperties.Hybrid.VectorSearch(TOP_K, 0.0, 2, 16, efSearch);
+        var properties = new RetrievalProperties(new RetrievalProperties.Hybrid(vectorSearch, null, 3), null, null, null, null);
+        service = new DefaultVectorSearchService(embeddingModel, jdbcTemplate, new AdaptiveEfSearchPolicy(properties, null),
+                new MetricService(new SimpleMeterRegistry()), new ObjectMapper(), properties);
+    }
+
+    @AfterEach
+    void shutdownService() {
+        service.shutdown();
+    }
+
+    @Test
+    void batchSearchShouldMatchIndividualSearchesWithOneEmbeddingCall() {
+        List<String> queries = List.of("5", "17", "30");
+
+        List<List<Document>> batch = service.searchPerQuery(queries, TOP_K, -1.0, null, null).block();
+        int callsForBatch = embeddingModel.calls.getAndSet(0);
+
+        assertThat(callsForBatch).isEqualTo(1);
+        assertThat(batch).hasSize(queries.size());
+        for (int q = 0; q < queries.size(); q++) {
+            List<Document> single = service.searchPerQuery(List.of(queries.get(q)), TOP_K, -1.0, null, null).block().get(0);
+            assertThat(batch.get(q)).extracting(Document::getId)
+                    .hasSize(TOP_K)
+                    .containsExactlyElementsOf(single.stream().map(Document::getId).toList())
+                    .startsWith(documentIds.get(Integer.parseInt(queries.get(q))).toString());
+        }
+    }
+
+    @Test
+    void batchSearchShouldApplyThresholdAndFilterPerQuery() {
+        var filter = new FilterExpressionBuilder().eq("doc_type", "odd").build();
+
+        List<List<Document>> batch = service.searchPerQuery(List.of("4", "9"), TOP_K, 0.5, filter, 40).block();
+
+        // Близок к запросу только собственный документ; четный отсекается фильтром
+        assertThat(batch.get(0)).isEmpty();
+        assertThat(batch.get(1)).extracting(Document::getId).containsExactly(documentIds.get(9).toString());
+        assertThat(batch.get(1).get(0).getMetadata()).containsEntry("doc_type", "odd").containsKey("distance");
+    }
+
+    private static String literal(float[] vector) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Модель, которая для запроса {@code "query: N"} возвращает вектор документа N с небольшим шумом.
+     */
+    private static final class StubEmbeddingModel implements EmbeddingModel {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            calls.incrementAndGet();
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                String text = request.getInstructions().get(i);
+                int documentIndex = Integer.parseInt(text.substring("query: ".length()));
+                float[] vector = documentVectors.get(documentIndex).clone();
+                Random noise = new Random(documentIndex);
+                for (int d = 0; d < vector.length; d++) {
+                    vector[d] += (float) (noise.nextGaussian() * 0.1);
+                }
+                embeddings.add(new Embedding(vector, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.ragollama.rag.retrieval.search;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Замеряет полноту (recall@k) и задержку HNSW-поиска pgvector при разных {@code hnsw.ef_search}.
+ * <p>
+ * Эталоном служит точный поиск с отключенными индексными сканами. Результаты пишутся в лог,
+ * а проверки фиксируют свойства, на которые опирается {@link AdaptiveEfSearchPolicy}:
+ * полнота не падает с ростом ef_search, а базовое значение {@code k * 8} дает высокую полноту.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class EfSearchRecallBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EfSearchRecallBenchmarkTest.class);
+
+    private static final int DIMENSIONS = 64;
+    private static final int ROWS = 20_000;
+    private static final int QUERIES = 50;
+    private static final int TOP_K = 5;
+    private static final int[] EF_VALUES = {10, 20, 40, 80, 160, 400};
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>(
+            DockerImageName.parse("pgvector/pgvector:pg16").asCompatibleSubstituteFor("postgres"));
+
+    private static Connection connection;
+    private static List<String> queries;
+
+    @BeforeAll
+    static void setUp() throws SQLException {
+        connection = DriverManager.getConnection(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+        Random random = new Random(42);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            statement.execute("CREATE TABLE items (id int PRIMARY KEY, embedding vector(" + DIMENSIONS + "))");
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO items VALUES (?, CAST(? AS vector))")) {
+            for (int i = 0; i < ROWS; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, randomVector(random));
+                insert.addBatch();
+                if (i % 1000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX ON items USING hnsw (embedding vector_cosine_ops) WITH (m = 16, ef_construction = 64)");
+            statement.execute("ANALYZE items");
+        }
+        queries = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(randomVector(random));
+        }
+    }
+
+    @AfterAll
+    static void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    void recallShouldGrowWithEfSearch() throws SQLException {
+        List<Set<Integer>> exact = new ArrayList<>();
+        for (String query : queries) {
+            exact.add(search(query, null));
+        }
+
+        Map<Integer, Double> recallByEf = new LinkedHashMap<>();
+        for (int ef : EF_VALUES) {
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                Set<Integer> found = search(queries.get(i), ef);
+                found.retainAll(exact.get(i));
+                hits += found.size();
+            }
+            double micros = (System.nanoTime() - start) / 1_000.0 / queries.size();
+            double recall = (double) hits / (queries.size() * TOP_K);
+            recallByEf.put(ef, recall);
+            log.info("ef_search={} recall@{}={} avg latency={} us", ef, TOP_K, String.format("%.3f", recall), String.format("%.0f", micros));
+        }
+
+        double previous = 0.0;
+        for (double recall : recallByEf.values()) {
+            // Небольшой допуск на недетерминированность обхода графа
+            assertThat(recall).isGreaterThanOrEqualTo(previous - 0.02);
+            previous = recall;
+        }
+        assertThat(recallByEf.get(TOP_K * 8)).isGreaterThanOrEqualTo(0.8);
+        assertThat(recallByEf.get(EF_VALUES[EF_VALUES.length - 1])).isGreaterThanOrEqualTo(0.95);
+    }
+
+    private static Set<Integer> search(String query, Integer efSearch) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            if (efSearch == null) {
+                statement.execute("SET LOCAL enable_indexscan = off");
+            } else {
+                statement.execute("SET LOCAL hnsw.ef_search = " + efSearch);
+            }
+            Set<Integer> ids = new HashSet<>();
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "SELECT id FROM items ORDER BY embedding <=> CAST(? AS vector) LIMIT " + TOP_K)) {
+                ps.setString(1, query);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt(1));
+                    }
+                }
+            }
+            return ids;
+        } finally {
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static String randomVector(Random random) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < DIMENSIONS; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(random.nextGaussian());
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.ragollama.shared.llm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет сборку не-потокового ответа {@link DefaultLlmGateway} из потока частей
+ * на заглушке {@link ChatClient}, отдающей части с задержкой, как медленная модель.
+ */
+class DefaultLlmGatewayTest {
+
+    private static final Prompt PROMPT = new Prompt("вопрос");
+    private static final OllamaOptions OPTIONS = OllamaOptions.builder().model("llama3").build();
+
+    @Test
+    void callShouldPreserveToolCallsAndMetadataOfAllChunks() {
+        AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall("call-1", "function", "search", "{\"q\":\"отпуск\"}");
+        ChatResponse first = chunk(new AssistantMessage("Ищу ", Map.of("model", "llama3"), List.of(toolCall)),
+                ChatGenerationMetadata.NULL, null);
+        ChatResponse last = chunk(new AssistantMessage("ответ", Map.of("done", true)),
+                ChatGenerationMetadata.builder().finishReason("stop").build(),
+                ChatResponseMetadata.builder().usage(new DefaultUsage(12, 3)).build());
+        DefaultLlmGateway gateway = new DefaultLlmGateway(stubClient(Flux.just(first, last)));
+
+        StepVerifier.create(gateway.call(PROMPT, OPTIONS))
+                .assertNext(response -> {
+                    AssistantMessage output = response.getResult().getOutput();
+                    assertThat(output.getText()).isEqualTo("Ищу ответ");
+                    assertThat(output.getToolCalls()).containsExactly(toolCall);
+                    assertThat(output.getMetadata()).containsEntry("model", "llama3").containsEntry("done", true);
+                    assertThat(response.getResult().getMetadata().getFinishReason()).isEqualTo("stop");
+                    assertThat(response.getMetadata().getUsage().getTotalTokens()).isEqualTo(15);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void concurrentSlowCallsShouldNotGrowThreads() {
+        int concurrency = 500;
+        Duration chunkDelay = Duration.ofMillis(200);
+        ChatResponse part = chunk(new AssistantMessage("часть "), ChatGenerationMetadata.NULL, null);
+        DefaultLlmGateway gateway = new DefaultLlmGateway(stubClient(
+                Flux.just(part, part, part).delayElements(chunkDelay)));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+
+        List<ChatResponse> responses = Flux.range(0, concurrency)
+                .flatMap(i -> gateway.call(PROMPT, OPTIONS), concurrency)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        assertThat(responses).hasSize(concurrency)
+                .allSatisfy(r -> assertThat(r.getResult().getOutput().getText()).isEqualTo("часть часть часть "));
+        // Все вызовы ждут генерацию одновременно: время близко к одному вызову, а не к 500
+        assertThat(elapsed).isLessThan(chunkDelay.multipliedBy(3).multipliedBy(10));
+        // Ожидание ответа не занимает поток: пик потоков не растет с числом вызовов
+        assertThat(threads.getPeakThreadCount() - threadsBefore).isLessThan(concurrency / 10);
+    }
+
+    private static ChatResponse chunk(AssistantMessage message, ChatGenerationMetadata generationMetadata,
+                                      ChatResponseMetadata responseMetadata) {
+        Generation generation = new Generation(message, generationMetadata);
+        return responseMetadata != null
+                ? new ChatResponse(List.of(generation), responseMetadata)
+                : new ChatResponse(List.of(generation));
+    }
+
+    private static ChatClient stubClient(Flux<ChatResponse> response) {
+        ChatClient chatClient = mock(ChatClient.class, RETURNS_DEEP_STUBS);
+        when(chatClient.prompt(any(Prompt.class)).options(any(ChatOptions.class)).stream().chatResponse())
+                .thenReturn(response);
+        return chatClient;
+    }
+}
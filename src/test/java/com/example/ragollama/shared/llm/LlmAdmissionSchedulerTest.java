@@ -0,0 +1,226 @@
+package com.example.ragollama.shared.llm;
+
+import com.example.ragollama.shared.exception.LlmOverloadedException;
+import com.example.ragollama.shared.metrics.MetricService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет порядок допуска вызовов {@link LlmAdmissionScheduler}: вызовы удерживают слот,
+ * пока тест не завершит их вручную, поэтому очередь формируется детерминированно.
+ * Задержка интерактивных вызовов под фоновой нагрузкой измеряется в виртуальном времени
+ * на заглушке Ollama с ограниченным числом слотов.
+ */
+class LlmAdmissionSchedulerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmAdmissionSchedulerTest.class);
+
+    private static final String MODEL = "llama3";
+    private static final int OLLAMA_SLOTS = 2;
+    private static final Duration OLLAMA_LATENCY = Duration.ofMillis(100);
+    private static final int BACKGROUND_CALLS = 20;
+
+    private final List<String> admitted = new CopyOnWriteArrayList<>();
+
+    @Test
+    void shouldAdmitByWeightsAndRunBackgroundOnlyWhenNothingElseWaits() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 0, 16);
+        Sinks.One<String> holder = Sinks.one();
+        Disposable running = call(scheduler, "holder", LlmPriority.AGENT, holder.asMono()).subscribe();
+
+        call(scheduler, "B", LlmPriority.BACKGROUND).subscribe();
+        for (int i = 0; i < 4; i++) {
+            call(scheduler, "I", LlmPriority.INTERACTIVE).subscribe();
+        }
+        for (int i = 0; i < 2; i++) {
+            call(scheduler, "A", LlmPriority.AGENT).subscribe();
+        }
+        assertThat(admitted).containsExactly("holder");
+
+        holder.tryEmitValue("done");
+
+        // Веса 3:1 чередуют интерактивные и агентные вызовы, фоновый ждет, пока очереди не опустеют
+        assertThat(admitted).containsExactly("holder", "I", "I", "A", "I", "I", "A", "B");
+        running.dispose();
+    }
+
+    @Test
+    void backgroundCallsShouldNotTakeReservedSlots() {
+        LlmAdmissionScheduler scheduler = scheduler(3, 1, 16);
+        Sinks.One<String> never = Sinks.one();
+        for (int i = 0; i < 3; i++) {
+            call(scheduler, "B", LlmPriority.BACKGROUND, never.asMono()).subscribe();
+        }
+        assertThat(admitted).containsExactly("B", "B");
+
+        call(scheduler, "I", LlmPriority.INTERACTIVE, never.asMono()).subscribe();
+        assertThat(admitted).containsExactly("B", "B", "I");
+    }
+
+    @Test
+    void cancelledWaiterShouldNotHoldSlot() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 0, 16);
+        Sinks.One<String> holder = Sinks.one();
+        call(scheduler, "holder", LlmPriority.AGENT, holder.asMono()).subscribe();
+        Disposable cancelled = call(scheduler, "cancelled", LlmPriority.INTERACTIVE).subscribe();
+        call(scheduler, "next", LlmPriority.AGENT).subscribe();
+
+        cancelled.dispose();
+        holder.tryEmitValue("done");
+
+        assertThat(admitted).containsExactly("holder", "next");
+    }
+
+    @Test
+    void shouldRejectWhenQueueOfPriorityIsFull() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 0, 1);
+        Sinks.One<String> holder = Sinks.one();
+        call(scheduler, "holder", LlmPriority.AGENT, holder.asMono()).subscribe();
+        call(scheduler, "queued", LlmPriority.INTERACTIVE).subscribe();
+
+        StepVerifier.create(call(scheduler, "rejected", LlmPriority.INTERACTIVE))
+                .expectError(LlmOverloadedException.class)
+                .verify();
+        assertThat(admitted).containsExactly("holder");
+    }
+
+    @Test
+    void releaseShouldNotGrantNextWaitersRecursively() {
+        int queued = 20_000;
+        LlmAdmissionScheduler scheduler = scheduler(1, 0, queued);
+        Sinks.One<String> holder = Sinks.one();
+        call(scheduler, "holder", LlmPriority.AGENT, holder.asMono()).subscribe();
+        AtomicInteger minDepth = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicInteger maxDepth = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < queued; i++) {
+            // Вызов завершается синхронно прямо внутри выдачи слота, как ответ из кэша
+            scheduler.execute(MODEL, ModelCapability.BALANCED, () -> {
+                        int depth = Thread.currentThread().getStackTrace().length;
+                        minDepth.accumulateAndGet(depth, Math::min);
+                        maxDepth.accumulateAndGet(depth, Math::max);
+                        return Mono.just("ok");
+                    })
+                    .contextWrite(LlmPriority.assign(LlmPriority.AGENT))
+                    .subscribe(result -> completed.incrementAndGet());
+        }
+
+        holder.tryEmitValue("done");
+
+        assertThat(completed).hasValue(queued);
+        // Каждая выдача выполняется на одной и той же глубине стека, а не внутри предыдущей
+        assertThat(maxDepth.get() - minDepth.get()).isLessThan(50);
+    }
+
+    @Test
+    void interactiveLatencyShouldStayLowUnderBackgroundLoad() {
+        Duration unscheduled = interactiveLatencyUnderBackgroundLoad(false);
+        Duration scheduled = interactiveLatencyUnderBackgroundLoad(true);
+        log.info("Задержка интерактивного вызова на фоне {} фоновых: без планировщика {} мс, с планировщиком {} мс.",
+                BACKGROUND_CALLS, unscheduled.toMillis(), scheduled.toMillis());
+
+        // Без планировщика интерактивный вызов ждет в общей очереди Ollama за всеми фоновыми
+        assertThat(unscheduled).isGreaterThanOrEqualTo(OLLAMA_LATENCY.multipliedBy(BACKGROUND_CALLS / OLLAMA_SLOTS));
+        // С планировщиком фоновые вызовы не занимают зарезервированный слот
+        assertThat(scheduled).isEqualTo(OLLAMA_LATENCY);
+    }
+
+    /**
+     * Запускает {@link #BACKGROUND_CALLS} фоновых вызовов к заглушке Ollama, затем один
+     * интерактивный, и возвращает задержку интерактивного вызова в виртуальном времени.
+     */
+    private Duration interactiveLatencyUnderBackgroundLoad(boolean schedulerEnabled) {
+        VirtualTimeScheduler time = VirtualTimeScheduler.create();
+        try {
+            LlmSchedulerProperties properties = new LlmSchedulerProperties(schedulerEnabled, OLLAMA_SLOTS, Map.of(),
+                    1, BACKGROUND_CALLS, Map.of(LlmPriority.INTERACTIVE, 3, LlmPriority.AGENT, 1));
+            LlmAdmissionScheduler scheduler = new LlmAdmissionScheduler(properties, new MetricService(new SimpleMeterRegistry()));
+            OllamaStub ollama = new OllamaStub(time, OLLAMA_SLOTS, OLLAMA_LATENCY);
+
+            for (int i = 0; i < BACKGROUND_CALLS; i++) {
+                scheduler.execute(MODEL, ModelCapability.BALANCED, ollama::generate)
+                        .contextWrite(LlmPriority.assign(LlmPriority.BACKGROUND))
+                        .subscribe();
+            }
+            time.advanceTimeBy(OLLAMA_LATENCY.dividedBy(2));
+
+            long start = time.now(TimeUnit.MILLISECONDS);
+            AtomicLong finished = new AtomicLong(-1);
+            scheduler.execute(MODEL, ModelCapability.BALANCED, ollama::generate)
+                    .contextWrite(LlmPriority.assign(LlmPriority.INTERACTIVE))
+                    .subscribe(result -> finished.set(time.now(TimeUnit.MILLISECONDS)));
+            time.advanceTimeBy(OLLAMA_LATENCY.multipliedBy(BACKGROUND_CALLS + 1));
+
+            assertThat(finished.get()).isNotNegative();
+            return Duration.ofMillis(finished.get() - start);
+        } finally {
+            time.dispose();
+        }
+    }
+
+    /**
+     * Заглушка Ollama с {@code slots} параллельными слотами, общей FIFO-очередью запросов
+     * и фиксированным временем генерации одного ответа.
+     */
+    private static final class OllamaStub {
+        private final VirtualTimeScheduler time;
+        private final long[] slotFreeAt;
+        private final long latencyMillis;
+
+        OllamaStub(VirtualTimeScheduler time, int slots, Duration latency) {
+            this.time = time;
+            this.slotFreeAt = new long[slots];
+            this.latencyMillis = latency.toMillis();
+        }
+
+        Mono<String> generate() {
+            return Mono.defer(() -> {
+                long now = time.now(TimeUnit.MILLISECONDS);
+                int slot = 0;
+                for (int i = 1; i < slotFreeAt.length; i++) {
+                    if (slotFreeAt[i] < slotFreeAt[slot]) {
+                        slot = i;
+                    }
+                }
+                long finishAt = Math.max(now, slotFreeAt[slot]) + latencyMillis;
+                slotFreeAt[slot] = finishAt;
+                return Mono.delay(Duration.ofMillis(finishAt - now), time).thenReturn("ответ");
+            });
+        }
+    }
+
+    private Mono<String> call(LlmAdmissionScheduler scheduler, String label, LlmPriority priority) {
+        return call(scheduler, label, priority, Mono.just(label));
+    }
+
+    private Mono<String> call(LlmAdmissionScheduler scheduler, String label, LlmPriority priority, Mono<String> result) {
+        return scheduler.execute(MODEL, ModelCapability.BALANCED, () -> {
+                    admitted.add(label);
+                    return result;
+                })
+                .contextWrite(LlmPriority.assign(priority));
+    }
+
+    private static LlmAdmissionScheduler scheduler(int maxConcurrency, int reservedInteractiveSlots, int maxQueueSize) {
+        LlmSchedulerProperties properties = new LlmSchedulerProperties(true, maxConcurrency, Map.of(),
+                reservedInteractiveSlots, maxQueueSize, Map.of(LlmPriority.INTERACTIVE, 3, LlmPriority.AGENT, 1));
+        return new LlmAdmissionScheduler(properties, new MetricService(new SimpleMeterRegistry()));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.ragollama.shared.llm;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет single-flight семантику {@link LlmRequestCoalescer}: общий вызов отменяется
+ * только последним отписавшимся, после завершения выполняется заново, а вызовы разных
+ * классов приоритета не объединяются.
+ */
+class LlmRequestCoalescerTest {
+
+    private static final Prompt PROMPT = new Prompt("Сожми контекст.");
+    private static final OllamaOptions OPTIONS = OllamaOptions.builder().model("llama3").temperature(0.0).build();
+
+    private final LlmRequestCoalescer coalescer = new LlmRequestCoalescer(new MetricService(new SimpleMeterRegistry()));
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<Sinks.One<ChatResponse>> responses = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    @Test
+    void onlyLastCancellationShouldCancelSharedCall() {
+        Disposable first = execute(LlmPriority.AGENT).subscribe();
+        Disposable second = execute(LlmPriority.AGENT).subscribe();
+        assertThat(calls).hasValue(1);
+
+        first.dispose();
+        assertThat(cancelled).isFalse();
+
+        second.dispose();
+        assertThat(cancelled).isTrue();
+
+        // Отмененный вызов удален из таблицы: следующий идентичный запрос выполняется заново
+        execute(LlmPriority.AGENT).subscribe();
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void subscriberAfterCompletionShouldTriggerFreshCall() {
+        AtomicReference<String> first = new AtomicReference<>();
+        execute(LlmPriority.AGENT).subscribe(response -> first.set(text(response)));
+        responses.get(0).tryEmitValue(response("первый ответ"));
+        assertThat(first).hasValue("первый ответ");
+
+        AtomicReference<String> second = new AtomicReference<>();
+        execute(LlmPriority.AGENT).subscribe(response -> second.set(text(response)));
+        assertThat(calls).hasValue(2);
+        responses.get(1).tryEmitValue(response("второй ответ"));
+        assertThat(second).hasValue("второй ответ");
+    }
+
+    @Test
+    void subscriberJoiningWhileResultIsDeliveredShouldReceiveIt() {
+        AtomicReference<String> late = new AtomicReference<>();
+        // Второй подписчик находит запись в таблице, когда ответ уже выдан, но вызов еще не завершен
+        execute(LlmPriority.AGENT).subscribe(response ->
+                execute(LlmPriority.AGENT).subscribe(lateResponse -> late.set(text(lateResponse))));
+
+        responses.get(0).tryEmitValue(response("ответ"));
+
+        assertThat(late).hasValue("ответ");
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void callsWithDifferentPrioritiesShouldNotBeMerged() {
+        execute(LlmPriority.INTERACTIVE).subscribe();
+        execute(LlmPriority.BACKGROUND).subscribe();
+        assertThat(calls).hasValue(2);
+
+        AtomicReference<String> interactive = new AtomicReference<>();
+        execute(LlmPriority.INTERACTIVE).subscribe(response -> interactive.set(text(response)));
+        assertThat(calls).hasValue(2);
+
+        responses.get(0).tryEmitValue(response("интерактивный ответ"));
+        assertThat(interactive).hasValue("интерактивный ответ");
+    }
+
+    private Mono<ChatResponse> execute(LlmPriority priority) {
+        return coalescer.execute(PROMPT, OPTIONS, false, () -> {
+                    calls.incrementAndGet();
+                    Sinks.One<ChatResponse> sink = Sinks.one();
+                    responses.add(sink);
+                    return sink.asMono().doOnCancel(() -> cancelled.set(true));
+                })
+                .contextWrite(LlmPriority.assign(priority));
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static String text(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+}
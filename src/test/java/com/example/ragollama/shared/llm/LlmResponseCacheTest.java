@@ -0,0 +1,175 @@
+package com.example.ragollama.shared.llm;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет {@link LlmResponseCache}: инвалидацию при смене digest модели, время жизни
+ * записей в памяти и в БД и обход кэша, когда digest модели неизвестен.
+ */
+class LlmResponseCacheTest {
+
+    private static final String MODEL = "llama3";
+    private static final Duration TTL = Duration.ofMinutes(10);
+    private static final Prompt PROMPT = new Prompt("Оцени релевантность документа.");
+    private static final OllamaOptions OPTIONS = OllamaOptions.builder().model(MODEL + ":latest").temperature(0.0).build();
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-03-10T12:00:00Z"));
+    private final LlmResponseCacheRepository repository = mock(LlmResponseCacheRepository.class);
+    private final OllamaModelManager modelManager = mock(OllamaModelManager.class);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        when(repository.find(anyString())).thenReturn(Mono.empty());
+        when(repository.save(anyString(), anyString(), anyString(), anyString(), any())).thenReturn(Mono.empty());
+        when(repository.deleteStaleDigests(anyString(), anyString())).thenReturn(Mono.just(0L));
+    }
+
+    @Test
+    void digestChangeShouldInvalidateMemoryAndPersistentEntries() {
+        LlmResponseCache cache = cache(true);
+        digest("sha256:v1");
+        assertThat(get(cache)).isEqualTo("ответ 1");
+        assertThat(get(cache)).isEqualTo("ответ 1");
+
+        digest("sha256:v2");
+        assertThat(get(cache)).isEqualTo("ответ 2");
+        verify(repository).deleteStaleDigests(MODEL, "sha256:v2");
+
+        // Ответ прежней версии удален из памяти и не возвращается даже после отката digest
+        digest("sha256:v1");
+        assertThat(get(cache)).isEqualTo("ответ 3");
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    void expiredMemoryEntryShouldFallBackToPersistentEntryWithItsOwnExpiry() {
+        LlmResponseCache cache = cache(true);
+        digest("sha256:v1");
+        assertThat(get(cache)).isEqualTo("ответ 1");
+
+        // Запись в памяти устарела, а в БД другой экземпляр продлил ее еще на 5 минут
+        clock.advance(TTL.plusSeconds(1));
+        OffsetDateTime persistedUntil = OffsetDateTime.now(clock).plusMinutes(5);
+        when(repository.find(anyString())).thenReturn(Mono.just(
+                new LlmResponseCacheRepository.StoredResponse("ответ из БД", persistedUntil)));
+        assertThat(get(cache)).isEqualTo("ответ из БД");
+
+        // Загруженная из БД запись живет в памяти до своего срока, а не полный TTL
+        when(repository.find(anyString())).thenReturn(Mono.empty());
+        clock.advance(Duration.ofMinutes(4));
+        assertThat(get(cache)).isEqualTo("ответ из БД");
+        clock.advance(Duration.ofMinutes(2));
+        assertThat(get(cache)).isEqualTo("ответ 2");
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void memoryOnlyCacheShouldRecomputeAfterTtl() {
+        LlmResponseCache cache = cache(false);
+        digest("sha256:v1");
+        assertThat(get(cache)).isEqualTo("ответ 1");
+
+        clock.advance(TTL.minusSeconds(1));
+        assertThat(get(cache)).isEqualTo("ответ 1");
+        clock.advance(Duration.ofSeconds(2));
+        assertThat(get(cache)).isEqualTo("ответ 2");
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void unknownDigestShouldBypassCache() {
+        LlmResponseCache cache = cache(true);
+        when(modelManager.getModelDigest(MODEL)).thenReturn(Mono.empty());
+        assertThat(get(cache)).isEqualTo("ответ 1");
+        assertThat(get(cache)).isEqualTo("ответ 2");
+
+        digest(" ");
+        assertThat(get(cache)).isEqualTo("ответ 3");
+
+        verify(repository, never()).find(anyString());
+        verify(repository, never()).save(anyString(), anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    void capabilityWithoutTtlShouldBypassCache() {
+        LlmResponseCache cache = cache(true);
+        digest("sha256:v1");
+        cache.getOrCompute(PROMPT, ModelCapability.FASTEST, OPTIONS, false, this::compute).block();
+        cache.getOrCompute(PROMPT, ModelCapability.FASTEST, OPTIONS, false, this::compute).block();
+
+        assertThat(calls).hasValue(2);
+        verify(modelManager, times(0)).getModelDigest(anyString());
+    }
+
+    private String get(LlmResponseCache cache) {
+        return cache.getOrCompute(PROMPT, ModelCapability.BALANCED, OPTIONS, false, this::compute).block();
+    }
+
+    private Mono<String> compute() {
+        return Mono.fromSupplier(() -> "ответ " + calls.incrementAndGet());
+    }
+
+    private void digest(String digest) {
+        when(modelManager.getModelDigest(MODEL)).thenReturn(Mono.just(digest));
+    }
+
+    private LlmResponseCache cache(boolean persistent) {
+        LlmResponseCacheProperties properties = new LlmResponseCacheProperties(true, 100, persistent,
+                Map.of(ModelCapability.BALANCED, TTL));
+        return new LlmResponseCache(properties, repository, modelManager, new MetricService(new SimpleMeterRegistry()), clock);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.ragollama.shared.persistence;
+
+import com.example.ragollama.shared.metrics.MetricService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет, что {@link WriteBehindSink} сохраняет принятые записи и учитывает как
+ * отброшенные записи, поступившие во время или после остановки.
+ */
+class WriteBehindSinkTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ConcurrentLinkedQueue<Integer> written = new ConcurrentLinkedQueue<>();
+
+    @Test
+    void shouldPersistAcceptedRecordsOnClose() {
+        WriteBehindSink<Integer> sink = sink(1000);
+        for (int i = 0; i < 25; i++) {
+            assertThat(sink.submit(i)).isTrue();
+        }
+
+        sink.close();
+
+        assertThat(written).hasSize(25);
+        assertThat(dropped()).isZero();
+    }
+
+    @Test
+    void submitAfterCloseShouldBeCountedAsDropped() {
+        WriteBehindSink<Integer> sink = sink(10);
+        sink.close();
+
+        assertThat(sink.submit(1)).isFalse();
+
+        assertThat(written).isEmpty();
+        assertThat(dropped()).isEqualTo(1);
+    }
+
+    @RepeatedTest(20)
+    void submittersRacingCloseShouldNeitherFailNorLoseRecords() throws Exception {
+        WriteBehindSink<Integer> sink = sink(4);
+        int threads = 8;
+        int perThread = 500;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    if (sink.submit(base + i)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        sink.close();
+        for (Future<?> future : futures) {
+            // Исключение из submit (например, RejectedExecutionException) всплывет здесь
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(written).hasSize(accepted.get());
+        assertThat((long) accepted.get() + (long) dropped()).isEqualTo((long) threads * perThread);
+    }
+
+    private WriteBehindSink<Integer> sink(int batchSize) {
+        var properties = new WriteBehindProperties(100_000, batchSize, Duration.ofMillis(50),
+                WriteBehindProperties.OverflowPolicy.DROP, Duration.ZERO, Duration.ofSeconds(5));
+        return new WriteBehindSink<>("test", properties, new MetricService(meterRegistry), batch -> {
+            written.addAll(batch);
+            return Mono.just((long) batch.size());
+        });
+    }
+
+    private double dropped() {
+        return meterRegistry.find("write_behind.dropped").counters().stream().mapToDouble(Counter::count).sum();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.ragollama.shared.prompts;
+
+import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import freemarker.template.Configuration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Проверяет, что передача модели через {@code DefaultMapAdapter} дает для каждого шаблона
+ * из {@code classpath:/prompts} тот же результат, что и прежнее оборачивание модели
+ * {@code object_wrapper} конфигурации приложения, в том числе при активном переопределении.
+ */
+class PromptServiceTemplatesTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptServiceTemplatesTest.class);
+
+    private Configuration configuration;
+    private PromptService promptService;
+    private List<PromptTemplateFixtures.Fixture> fixtures;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        AppProperties appProperties = new AppProperties(null,
+                new AppProperties.Tokenization("o200k_base", 10_000, 256),
+                null, null, null, null, null, null, null, null, null);
+        TokenizationService tokenizationService = new TokenizationService(appProperties, new MetricService(new SimpleMeterRegistry()));
+        tokenizationService.init();
+
+        configuration = PromptTemplateFixtures.applicationConfiguration();
+        promptService = new PromptService(configuration, tokenizationService);
+        promptService.init();
+        fixtures = PromptTemplateFixtures.load(configuration);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ThreadLocalPromptOverride.clear();
+    }
+
+    @Test
+    void everyTemplateShouldRenderAsWithLegacyWrapper() throws Exception {
+        int rendered = 0;
+        for (PromptTemplateFixtures.Fixture fixture : fixtures) {
+            if (fixture.renderable()) {
+                String expected = PromptTemplateFixtures.legacyRender(configuration.getTemplate(fixture.fileName()), fixture.model());
+                assertThat(promptService.render(fixture.templateName(), fixture.model()))
+                        .as(fixture.fileName()).isEqualTo(expected);
+                rendered++;
+            } else {
+                // Модель подобрать не удалось: новый рендеринг должен завершаться ошибкой так же, как прежний
+                assertThatThrownBy(() -> promptService.render(fixture.templateName(), fixture.model()))
+                        .as(fixture.fileName()).isInstanceOf(IllegalStateException.class);
+            }
+        }
+        log.info("Сравнено {} из {} шаблонов.", rendered, fixtures.size());
+        assertThat(fixtures).hasSizeGreaterThanOrEqualTo(120);
+        assertThat(rendered).isGreaterThan(fixtures.size() * 3 / 4);
+    }
+
+    @Test
+    void overriddenTemplatesShouldRenderAsOriginals() throws Exception {
+        for (PromptTemplateFixtures.Fixture fixture : fixtures) {
+            if (!fixture.renderable()) {
+                continue;
+            }
+            String expected = PromptTemplateFixtures.legacyRender(configuration.getTemplate(fixture.fileName()), fixture.model());
+            ThreadLocalPromptOverride.setOverride(fixture.templateName(), fixture.source());
+            assertThat(promptService.render(fixture.templateName(), fixture.model()))
+                    .as(fixture.fileName()).isEqualTo(expected);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.ragollama.shared.prompts;
+
+import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import freemarker.template.Configuration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Проверяет рендеринг {@link PromptService}: переопределения шаблонов через
+ * {@link ThreadLocalPromptOverride} и передачу вложенных коллекций модели через адаптеры.
+ */
+class PromptServiceTest {
+
+    private static final String TEMPLATE = "contextCompressorPrompt";
+
+    private PromptService promptService;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties(null,
+                new AppProperties.Tokenization("o200k_base", 10_000, 256),
+                null, null, null, null, null, null, null, null, null);
+        TokenizationService tokenizationService = new TokenizationService(appProperties, new MetricService(new SimpleMeterRegistry()));
+        tokenizationService.init();
+
+        Configuration freemarkerConfig = new Configuration(Configuration.VERSION_2_3_32);
+        freemarkerConfig.setClassForTemplateLoading(PromptServiceTest.class, "/prompts");
+        freemarkerConfig.setDefaultEncoding("UTF-8");
+        promptService = new PromptService(freemarkerConfig, tokenizationService);
+        promptService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        ThreadLocalPromptOverride.clear();
+    }
+
+    @Test
+    void overrideShouldApplyOnlyToCurrentThreadAndFollowItsContent() throws Exception {
+        Map<String, Object> model = Map.of("question", "вопрос", "documents", "документы");
+
+        ThreadLocalPromptOverride.setOverride(TEMPLATE, "A: ${question}");
+        assertThat(promptService.render(TEMPLATE, model)).isEqualTo("A: вопрос");
+        assertThat(promptService.render(TEMPLATE, model)).isEqualTo("A: вопрос");
+
+        // Другой поток не видит переопределение и получает шаблон из classpath
+        String otherThread = CompletableFuture.supplyAsync(() -> promptService.render(TEMPLATE, model)).get();
+        assertThat(otherThread).contains("ЗАПРОС ПОЛЬЗОВАТЕЛЯ").contains("вопрос").contains("документы");
+
+        ThreadLocalPromptOverride.setOverride(TEMPLATE, "B: ${documents}");
+        assertThat(promptService.render(TEMPLATE, model)).isEqualTo("B: документы");
+
+        ThreadLocalPromptOverride.clear();
+        assertThat(promptService.render(TEMPLATE, model)).isEqualTo(otherThread);
+    }
+
+    @Test
+    void shouldRenderNestedCollectionsOfModel() {
+        ThreadLocalPromptOverride.setOverride(TEMPLATE, """
+                <#list documents as doc>[${doc.id}] ${doc.metadata.source}<#sep>; </#list> \
+                (${documents?size}, есть вопрос: ${(question?has_content)?c})""");
+        List<Map<String, Object>> documents = List.of(
+                Map.of("id", "doc-1", "metadata", Map.of("source", "hr.pdf")),
+                Map.of("id", "doc-2", "metadata", Map.of("source", "it.pdf")));
+
+        String rendered = promptService.render(TEMPLATE, Map.of("question", "", "documents", documents));
+
+        assertThat(rendered).isEqualTo("[doc-1] hr.pdf; [doc-2] it.pdf (2, есть вопрос: false)");
+    }
+
+    @Test
+    void shouldFailOnInvalidOverrideAndUnknownTemplate() {
+        ThreadLocalPromptOverride.setOverride(TEMPLATE, "<#if>");
+
+        assertThatThrownBy(() -> promptService.render(TEMPLATE, Map.of()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> promptService.render("unknownPrompt", Map.of()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("unknownPrompt");
+    }
+}
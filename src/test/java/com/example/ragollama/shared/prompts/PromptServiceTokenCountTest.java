@@ -0,0 +1,147 @@
+package com.example.ragollama.shared.prompts;
+
+import com.example.ragollama.shared.config.properties.AppProperties;
+import com.example.ragollama.shared.metrics.MetricService;
+import com.example.ragollama.shared.tokenization.TokenizationService;
+import freemarker.template.Configuration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Сравнивает оценку {@link PromptService#renderCounted} с полной токенизацией промптов
+ * сжатия контекста размером около 8k токенов и RAG-промпта. Затраты CPU на запрос только
+ * логируются: сравнение времени в модульном тесте зависит от нагрузки на машину.
+ */
+class PromptServiceTokenCountTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptServiceTokenCountTest.class);
+
+    private static final String CHUNK_TEXT = """
+            Сотрудникам положено двадцать восемь календарных дней ежегодного оплачиваемого отпуска. \
+            Отпуск может быть разделен на части, одна из которых должна составлять не менее четырнадцати дней. \
+            Заявление на отпуск подается руководителю не позднее чем за две недели до его начала. \
+            """;
+    private static final int ITERATIONS = 200;
+
+    private TokenizationService tokenizationService;
+    private PromptService promptService;
+    private List<String> chunks;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties(null,
+                new AppProperties.Tokenization("o200k_base", 10_000, 256),
+                null, null, null, null, null, null, null, null, null);
+        tokenizationService = new TokenizationService(appProperties, new MetricService(new SimpleMeterRegistry()));
+        tokenizationService.init();
+
+        Configuration freemarkerConfig = new Configuration(Configuration.VERSION_2_3_32);
+        freemarkerConfig.setClassForTemplateLoading(PromptServiceTokenCountTest.class, "/prompts");
+        freemarkerConfig.setDefaultEncoding("UTF-8");
+        promptService = new PromptService(freemarkerConfig, tokenizationService);
+        promptService.init();
+
+        chunks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            chunks.add("Раздел " + i + ". " + CHUNK_TEXT.repeat(8));
+        }
+    }
+
+    @Test
+    void shouldEstimateLargePromptClosely() {
+        int exact = tokenizationService.countTokens(promptService.render("contextCompressorPrompt", model("вопрос")));
+        assertThat(exact).isGreaterThan(5_000);
+
+        RenderedPrompt estimated = counted("вопрос");
+        assertThat((double) estimated.tokenCount()).isCloseTo(exact, within(exact * 0.01));
+
+        // Прогрев JIT и кэша счетчиков чанков, как при повторяющихся между запросами чанках
+        for (int i = 0; i < ITERATIONS; i++) {
+            fullCount("прогрев " + i);
+            counted("прогрев " + i);
+        }
+        long fullNanos = 0;
+        long countedNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Вопрос меняется от запроса к запросу, поэтому весь промпт никогда не попадает в кэш
+            long start = System.nanoTime();
+            fullCount("вопрос номер " + i);
+            fullNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            counted("вопрос номер " + i);
+            countedNanos += System.nanoTime() - start;
+        }
+        log.info("~{} токенов: полная токенизация {} мкс/запрос, renderCounted {} мкс/запрос",
+                exact, fullNanos / ITERATIONS / 1_000, countedNanos / ITERATIONS / 1_000);
+    }
+
+    @Test
+    void shouldCountOnlyValuesRenderedByTemplate() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("structuredContext", String.join("\n", chunks));
+        model.put("question", "Сколько дней отпуска положено сотруднику?");
+        model.put("history_summary", "Это начало нового диалога.");
+        model.put("priority_source_instruction", "");
+        // История не выводится шаблоном ragPrompt и не должна попадать в оценку
+        model.put("history", CHUNK_TEXT.repeat(200));
+
+        RenderedPrompt rendered = promptService.renderCounted("ragPrompt", model, Map.of());
+
+        int exact = tokenizationService.countTokens(rendered.text());
+        assertThat(rendered.text()).doesNotContain(CHUNK_TEXT.repeat(200));
+        assertThat((double) rendered.tokenCount()).isCloseTo(exact, within(exact * 0.01));
+    }
+
+    @Test
+    void shouldCountRepeatedValueForEachOccurrence() {
+        String value = CHUNK_TEXT.repeat(20);
+        ThreadLocalPromptOverride.setOverride("ragPrompt", "${a}\n---\n${a?upper_case}\n---\n${b}");
+        try {
+            RenderedPrompt rendered = promptService.renderCounted("ragPrompt",
+                    Map.of("a", value, "b", "короткое значение", "unused", value), Map.of("a", 1_000));
+
+            // Скелет - шаблон с пробелами вместо значений; a выводится дважды, unused не выводится
+            int skeleton = tokenizationService.countTokens(" \n---\n \n---\n ");
+            assertThat(rendered.tokenCount())
+                    .isEqualTo(skeleton + 2 * 1_000 + tokenizationService.countTokens("короткое значение"));
+        } finally {
+            ThreadLocalPromptOverride.clear();
+        }
+    }
+
+    @Test
+    void shouldTokenizeWholeTextWhenModelHasNonStringValues() {
+        RenderedPrompt rendered = promptService.renderCounted("contextCompressorPrompt",
+                Map.of("question", "вопрос", "documents", 42), Map.of("documents", 1));
+
+        assertThat(rendered.text()).contains("42");
+        assertThat(rendered.tokenCount()).isEqualTo(tokenizationService.countTokens(rendered.text()));
+    }
+
+    private int fullCount(String question) {
+        return tokenizationService.countTokens(promptService.render("contextCompressorPrompt", model(question)));
+    }
+
+    private RenderedPrompt counted(String question) {
+        int documentsTokens = 0;
+        for (String chunk : chunks) {
+            documentsTokens += tokenizationService.countTokens(chunk);
+        }
+        return promptService.renderCounted("contextCompressorPrompt", model(question), Map.of("documents", documentsTokens));
+    }
+
+    private Map<String, Object> model(String question) {
+        return Map.of("question", question, "documents", String.join("", chunks));
+    }
+}
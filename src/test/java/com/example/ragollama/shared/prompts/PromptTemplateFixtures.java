@@ -0,0 +1,242 @@
+package com.example.ragollama.shared.prompts;
+
+import freemarker.core.InvalidReferenceException;
+import freemarker.core.NonBooleanException;
+import freemarker.core.NonHashException;
+import freemarker.core.NonNumericalException;
+import freemarker.core.NonSequenceOrCollectionException;
+import freemarker.core.NonStringException;
+import freemarker.core.NonStringOrTemplateOutputException;
+import freemarker.core.UnexpectedTypeException;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Шаблоны из {@code classpath:/prompts} вместе с подобранными для них представительными моделями.
+ * <p>
+ * Модель подбирается по ошибкам прежнего рендеринга: каждая ссылка на отсутствующую переменную
+ * заполняется строкой, а ошибки типа заменяют значение на список, карту, логическое значение
+ * или число. Элементы {@code <#list x as item>} заполняются через псевдоним {@code item}.
+ * Используется тестом {@link PromptServiceTemplatesTest} и бенчмарком рендеринга промптов.
+ */
+public final class PromptTemplateFixtures {
+
+    private static final int MAX_ATTEMPTS = 80;
+    private static final Pattern PATH = Pattern.compile("[A-Za-z_]\\w*(\\.[A-Za-z_]\\w*)*");
+    private static final Pattern LIST_ALIAS = Pattern.compile("<#list\\s+([A-Za-z_][\\w.]*)\\s+as\\s+([A-Za-z_]\\w*)\\s*>");
+
+    /**
+     * Шаблон с моделью.
+     *
+     * @param fileName     Имя файла шаблона.
+     * @param templateName Имя шаблона в {@link PromptService}.
+     * @param source       Исходный текст шаблона.
+     * @param model        Представительная модель.
+     * @param renderable   {@code true}, если прежний рендеринг с этой моделью завершается без ошибок.
+     */
+    public record Fixture(String fileName, String templateName, String source, Map<String, Object> model,
+                          boolean renderable) {
+    }
+
+    private PromptTemplateFixtures() {
+    }
+
+    /**
+     * Конфигурация FreeMarker, повторяющая конфигурацию приложения: Spring создает ее
+     * с {@link Configuration#DEFAULT_INCOMPATIBLE_IMPROVEMENTS}, поэтому прежний рендеринг
+     * копировал модель в {@code SimpleHash}.
+     */
+    @SuppressWarnings("deprecation")
+    public static Configuration applicationConfiguration() {
+        Configuration configuration = new Configuration(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
+        configuration.setClassForTemplateLoading(PromptTemplateFixtures.class, "/prompts");
+        configuration.setDefaultEncoding("UTF-8");
+        configuration.setBooleanFormat("c");
+        return configuration;
+    }
+
+    /**
+     * Загружает все шаблоны и подбирает для каждого модель по прежнему рендерингу.
+     */
+    public static List<Fixture> load(Configuration configuration) throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:/prompts/**/*.ftl");
+        List<Fixture> fixtures = new ArrayList<>(resources.length);
+        for (Resource resource : resources) {
+            String fileName = resource.getFilename();
+            if (fileName == null) {
+                continue;
+            }
+            String source;
+            try (InputStream in = resource.getInputStream()) {
+                source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            fixtures.add(discover(configuration.getTemplate(fileName), fileName, source));
+        }
+        return fixtures;
+    }
+
+    /**
+     * Рендеринг так, как он выполнялся до адаптеров: модель оборачивается
+     * {@code object_wrapper} конфигурации при каждом вызове.
+     */
+    public static String legacyRender(Template template, Map<String, Object> model) throws TemplateException, IOException {
+        try (StringWriter writer = new StringWriter()) {
+            template.process(model, writer);
+            return writer.toString();
+        }
+    }
+
+    private static Fixture discover(Template template, String fileName, String source) throws IOException {
+        Map<String, String> aliases = new HashMap<>();
+        Matcher matcher = LIST_ALIAS.matcher(source);
+        while (matcher.find()) {
+            aliases.putIfAbsent(matcher.group(2), matcher.group(1));
+        }
+        Map<String, Object> model = new HashMap<>();
+        Set<String> attempted = new HashSet<>();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                legacyRender(template, model);
+                return new Fixture(fileName, PromptService.templateName(fileName), source, model, true);
+            } catch (TemplateException e) {
+                if (!adjust(model, aliases, e, attempted)) {
+                    break;
+                }
+            }
+        }
+        return new Fixture(fileName, PromptService.templateName(fileName), source, model, false);
+    }
+
+    private static boolean adjust(Map<String, Object> model, Map<String, String> aliases, TemplateException e,
+                                  Set<String> attempted) {
+        String expression = e.getBlamedExpressionString();
+        if (expression == null || !PATH.matcher(expression).matches()) {
+            return false;
+        }
+        String name = expression.substring(expression.lastIndexOf('.') + 1);
+        Supplier<Object> value;
+        String kind;
+        if (e instanceof InvalidReferenceException
+                || e instanceof NonStringException
+                || e instanceof NonStringOrTemplateOutputException) {
+            kind = "string";
+            value = () -> "значение " + name;
+        } else if (e instanceof NonSequenceOrCollectionException) {
+            kind = "list";
+            value = () -> new ArrayList<>(List.of(new HashMap<String, Object>(), new HashMap<String, Object>()));
+        } else if (e instanceof NonHashException) {
+            kind = "hash";
+            value = HashMap::new;
+        } else if (e instanceof NonBooleanException) {
+            kind = "boolean";
+            value = () -> Boolean.TRUE;
+        } else if (e instanceof NonNumericalException) {
+            kind = "number";
+            value = () -> 3;
+        } else if (e instanceof UnexpectedTypeException) {
+            // Например, ?size над строкой: ожидается последовательность или карта
+            kind = "list";
+            value = () -> new ArrayList<>(List.of(new HashMap<String, Object>(), new HashMap<String, Object>()));
+        } else {
+            return false;
+        }
+        if (!attempted.add(expression + ":" + kind)) {
+            return false;
+        }
+        assign(model, aliases, expression, value, 0);
+        return true;
+    }
+
+    private static void assign(Map<String, Object> root, Map<String, String> aliases, String path,
+                               Supplier<Object> value, int depth) {
+        String[] segments = path.split("\\.");
+        if (depth < 5 && aliases.containsKey(segments[0])) {
+            String listPath = aliases.get(segments[0]);
+            if (segments.length == 1) {
+                assign(root, aliases, listPath, () -> new ArrayList<>(List.of(value.get(), value.get())), depth + 1);
+                return;
+            }
+            String[] rest = Arrays.copyOfRange(segments, 1, segments.length);
+            for (Map<String, Object> element : elements(root, aliases, listPath, depth + 1)) {
+                put(element, rest, value);
+            }
+            return;
+        }
+        put(root, segments, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> elements(Map<String, Object> root, Map<String, String> aliases,
+                                                      String listPath, int depth) {
+        List<Map<String, Object>> elements = new ArrayList<>();
+        for (Object candidate : resolve(root, aliases, listPath, depth)) {
+            if (candidate instanceof List<?> list) {
+                list.stream().filter(Map.class::isInstance).forEach(element -> elements.add((Map<String, Object>) element));
+            }
+        }
+        if (elements.isEmpty() && depth < 5) {
+            assign(root, aliases, listPath,
+                    () -> new ArrayList<>(List.of(new HashMap<String, Object>(), new HashMap<String, Object>())), depth);
+            return elements(root, aliases, listPath, depth + 1);
+        }
+        return elements;
+    }
+
+    private static List<Object> resolve(Map<String, Object> root, Map<String, String> aliases, String path, int depth) {
+        String[] segments = path.split("\\.");
+        List<Object> current = new ArrayList<>();
+        int start = 0;
+        if (depth < 5 && aliases.containsKey(segments[0])) {
+            for (Object list : resolve(root, aliases, aliases.get(segments[0]), depth + 1)) {
+                if (list instanceof List<?> elements) {
+                    current.addAll(elements);
+                }
+            }
+            start = 1;
+        } else {
+            current.add(root);
+        }
+        for (int i = start; i < segments.length; i++) {
+            List<Object> next = new ArrayList<>();
+            for (Object base : current) {
+                if (base instanceof Map<?, ?> map && map.get(segments[i]) != null) {
+                    next.add(map.get(segments[i]));
+                }
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> target, String[] segments, Supplier<Object> value) {
+        Map<String, Object> current = target;
+        for (int i = 0; i < segments.length - 1; i++) {
+            Object next = current.get(segments[i]);
+            if (!(next instanceof Map<?, ?>)) {
+                next = new HashMap<String, Object>();
+                current.put(segments[i], next);
+            }
+            current = (Map<String, Object>) next;
+        }
+        current.put(segments[segments.length - 1], value.get());
+    }
+}